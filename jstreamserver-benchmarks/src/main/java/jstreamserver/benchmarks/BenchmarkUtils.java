@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.services.FolderServiceImpl;
+import jstreamserver.services.MediaInfoServiceImpl;
+import jstreamserver.utils.Config;
+import jstreamserver.utils.MimeProperties;
+import jstreamserver.web.ControllerUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Helpers which create test data and environment for benchmarks
+ *
+ * @author Sergey Prilukin
+ */
+public final class BenchmarkUtils {
+
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * Creates spring context with services needed by benchmarks.
+     * Media info cache folder is disabled and given folder is the only root folder.
+     *
+     * @param rootDirLabel label of the root folder
+     * @param rootDir root folder
+     * @return started context
+     */
+    public static AnnotationConfigApplicationContext createContext(String rootDirLabel, File rootDir) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+                Config.class, MimeProperties.class, ControllerUtils.class,
+                FolderServiceImpl.class, MediaInfoServiceImpl.class);
+
+        Config config = context.getBean(Config.class);
+        config.setRootDirs(Collections.singletonMap(rootDirLabel, rootDir.getAbsolutePath()));
+        config.setMediaInfoCacheFolder("");
+
+        return context;
+    }
+
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Can not create folder: " + dir);
+        }
+
+        return dir;
+    }
+
+    public static File createFile(File dir, String name, long size) throws IOException {
+        File file = new File(dir, name);
+        byte[] buffer = new byte[64 * 1024];
+        new Random(size).nextBytes(buffer);
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            for (long written = 0; written < size; written += buffer.length) {
+                fos.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        } finally {
+            fos.close();
+        }
+
+        return file;
+    }
+
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Creates request which returns given headers and {@code null} for everything else
+     */
+    public static HttpServletRequest createRequest(final Map<String, String> headers) {
+        return (HttpServletRequest) Proxy.newProxyInstance(BenchmarkUtils.class.getClassLoader(),
+                new Class[] {HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getHeader".equals(method.getName())) {
+                            return headers.get((String) args[0]);
+                        } else if ("getDateHeader".equals(method.getName())) {
+                            return -1L;
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Creates response which ignores headers and discards written content
+     */
+    public static HttpServletResponse createResponse() {
+        final ServletOutputStream outputStream = new DiscardingOutputStream();
+
+        return (HttpServletResponse) Proxy.newProxyInstance(BenchmarkUtils.class.getClassLoader(),
+                new Class[] {HttpServletResponse.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getOutputStream".equals(method.getName())) {
+                            return outputStream;
+                        } else if ("isCommitted".equals(method.getName())) {
+                            return false;
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Output stream which only counts written bytes
+     */
+    public static class DiscardingOutputStream extends ServletOutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
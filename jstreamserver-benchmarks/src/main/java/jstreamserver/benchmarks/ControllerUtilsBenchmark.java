@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.web.ControllerUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serving of static files: full content and byte range requests
+ *
+ * @author Sergey Prilukin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ControllerUtilsBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public long fileSize;
+
+    private File rootDir;
+    private File file;
+    private AnnotationConfigApplicationContext context;
+    private ControllerUtils controllerUtils;
+
+    private HttpServletRequest request;
+    private HttpServletRequest rangeRequest;
+
+    @Setup
+    public void setUp() throws IOException {
+        rootDir = BenchmarkUtils.createTempDir("jstreamserver-bench");
+        file = BenchmarkUtils.createFile(rootDir, "video.mp4", fileSize);
+
+        context = BenchmarkUtils.createContext("bench", rootDir);
+        controllerUtils = context.getBean(ControllerUtils.class);
+
+        request = BenchmarkUtils.createRequest(new HashMap<String, String>());
+        rangeRequest = BenchmarkUtils.createRequest(Collections.singletonMap("Range", "bytes=1000-500000"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        BenchmarkUtils.delete(rootDir);
+    }
+
+    @Benchmark
+    public HttpServletResponse writeFullFile() throws IOException {
+        HttpServletResponse response = BenchmarkUtils.createResponse();
+        controllerUtils.writeFile(file, null, 0, request, response);
+        return response;
+    }
+
+    @Benchmark
+    public HttpServletResponse writeRange() throws IOException {
+        HttpServletResponse response = BenchmarkUtils.createResponse();
+        controllerUtils.writeFile(file, "bytes=1000-500000", 0, rangeRequest, response);
+        return response;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.ffmpeg.AudioStreamInfo;
+import jstreamserver.ffmpeg.FrameMessage;
+import jstreamserver.ffmpeg.FrameMessageParser;
+import jstreamserver.ffmpeg.MediaInfo;
+import jstreamserver.ffmpeg.MediaInfoParser;
+import jstreamserver.ffmpeg.VideoStreamInfo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-line cost of parsing ffmpeg output.
+ * {@code legacy*} benchmarks repeat the way lines were parsed before
+ * {@link FrameMessageParser} and {@link MediaInfoParser}: pattern compiled for every line,
+ * {@link BigDecimal} values and shared {@link SimpleDateFormat}.
+ *
+ * @author Sergey Prilukin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FFMpegOutputParserBenchmark {
+
+    public static final String FRAME_LINE = "frame= 2713 fps= 91 q=28.0 size=    8334kB time=00:01:51.52 bitrate= 612.1kbits/s dup=1 drop=0";
+    public static final String NOT_FRAME_LINE = "[mpeg4 @ 003692E0] Invalid and inefficient vfw-avi packed B frames detected";
+
+    public static final String[] MEDIA_INFO_LINES = {
+            "  libavfilter   2. 47. 0 /  2. 47. 0",
+            "Input #0, matroska,webm, from 'Net (1995) AVC.mkv':",
+            "  Duration: 01:49:43.00, start: 0.000000, bitrate: 2769 kb/s",
+            "    Stream #0:0(eng): Video: h264 (Constrained Baseline), yuv420p, 720x560, SAR 199:142 DAR 1791:994, 25 fps, 25 tbr, 1k tbn, 50 tbc (default)",
+            "    Stream #0:1(rus): Audio: aac, 48000 Hz, 5.1, s16 (default)",
+            "    Metadata:",
+            "      title           : Dubbing",
+            "    Stream #0:2(rus): Subtitle: text"
+    };
+
+    private static final String LEGACY_FRAME_PATTERN = "frame=[\\s]*([\\d]+)[\\s]*fps=[\\s]*([\\d]+)[\\s]*q=([\\d\\.]+)[\\s]*size=[\\s]*([\\d]+)kB[\\s]*time=([\\d]+:[\\d]+:[\\d]+\\.[\\d]+)[\\s]*bitrate=[\\s]*([\\d\\.]+)kbits/s[\\s]*(dup=([\\d]+)[\\s]*drop=([\\d]+))?";
+    private static final String[] LEGACY_MEDIA_INFO_PATTERNS = {MediaInfo.INPUT_PATTERN, MediaInfo.DURATION_PATTERN,
+            VideoStreamInfo.PATTERN, AudioStreamInfo.PATTERN};
+
+    private final DateFormat legacyDateFormat = new SimpleDateFormat("HH:mm:ss.SS");
+    private final FrameMessageParser frameMessageParser = new FrameMessageParser();
+
+    @Setup
+    public void setUp() {
+        legacyDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    @Benchmark
+    public FrameMessage frameLine() {
+        return frameMessageParser.parse(FRAME_LINE);
+    }
+
+    @Benchmark
+    public FrameMessage notFrameLine() {
+        return frameMessageParser.parse(NOT_FRAME_LINE);
+    }
+
+    @Benchmark
+    public long parseTime() {
+        return FrameMessageParser.parseTime("00:01:51.52");
+    }
+
+    @Benchmark
+    public List<MediaInfo> mediaInfoLines() {
+        List<MediaInfo> mediaInfos = new ArrayList<MediaInfo>(1);
+        MediaInfoParser parser = new MediaInfoParser(mediaInfos);
+        for (String line: MEDIA_INFO_LINES) {
+            parser.parseLine(line);
+        }
+
+        return mediaInfos;
+    }
+
+    @Benchmark
+    public void legacyFrameLine(Blackhole blackhole) throws ParseException {
+        Matcher matcher = Pattern.compile(LEGACY_FRAME_PATTERN).matcher(FRAME_LINE);
+        if (matcher.find()) {
+            blackhole.consume(Long.parseLong(matcher.group(1)));
+            blackhole.consume(Integer.parseInt(matcher.group(2)));
+            blackhole.consume(new BigDecimal(matcher.group(3)));
+            blackhole.consume(Long.parseLong(matcher.group(4)));
+            blackhole.consume(legacyDateFormat.parse(matcher.group(5)).getTime());
+            blackhole.consume(new BigDecimal(matcher.group(6)));
+            blackhole.consume(Long.parseLong(matcher.group(8)));
+            blackhole.consume(Long.parseLong(matcher.group(9)));
+        }
+    }
+
+    @Benchmark
+    public void legacyNotFrameLine(Blackhole blackhole) {
+        blackhole.consume(Pattern.compile(LEGACY_FRAME_PATTERN).matcher(NOT_FRAME_LINE).find());
+    }
+
+    @Benchmark
+    public void legacyMediaInfoLines(Blackhole blackhole) {
+        for (String line: MEDIA_INFO_LINES) {
+            for (String pattern: LEGACY_MEDIA_INFO_PATTERNS) {
+                Matcher matcher = Pattern.compile(pattern).matcher(line);
+                if (matcher.find()) {
+                    blackhole.consume(matcher.group(1));
+                    break;
+                }
+            }
+        }
+    }
+}
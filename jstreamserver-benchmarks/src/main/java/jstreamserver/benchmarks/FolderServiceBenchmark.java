@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.dto.FileListEntry;
+import jstreamserver.services.FolderService;
+import jstreamserver.utils.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building of folder listings with and without folder content cache
+ *
+ * @author Sergey Prilukin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FolderServiceBenchmark {
+
+    private static final String[] EXTENSIONS = {"mp4", "mkv", "avi", "mp3", "txt", "jpg"};
+
+    @Param({"100", "10000"})
+    public int entries;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private File rootDir;
+    private File folder;
+    private AnnotationConfigApplicationContext context;
+    private FolderService folderService;
+
+    @Setup
+    public void setUp() throws IOException {
+        rootDir = BenchmarkUtils.createTempDir("jstreamserver-bench");
+        folder = new File(rootDir, "media");
+        folder.mkdirs();
+
+        for (int i = 0; i < entries; i++) {
+            if (i % 10 == 0) {
+                new File(folder, String.format("folder %05d", i)).mkdirs();
+            } else {
+                BenchmarkUtils.createFile(folder, String.format("file %05d.%s", i, EXTENSIONS[i % EXTENSIONS.length]), 0);
+            }
+        }
+
+        //Recently modified folders are never cached
+        folder.setLastModified(System.currentTimeMillis() - 60000);
+
+        context = BenchmarkUtils.createContext("bench", rootDir);
+        context.getBean(Config.class).setFolderCacheSize(cached ? 256 : 0);
+        folderService = context.getBean(FolderService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        BenchmarkUtils.delete(rootDir);
+    }
+
+    @Benchmark
+    public List<FileListEntry> getFolderContent() {
+        return folderService.getFolderContent(folder, "/bench/media");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.ftp.FtpUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures normalization of paths received by FTP server
+ *
+ * @author Sergey Prilukin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FtpUtilsBenchmark {
+
+    private String parentPath = "/HOME/Movies/Series/";
+
+    @Benchmark
+    public String relativePath() throws Exception {
+        return FtpUtils.normalizePath("Season 1/Episode 01.mkv", parentPath);
+    }
+
+    @Benchmark
+    public String absolutePath() throws Exception {
+        return FtpUtils.normalizePath("/HOME/Music/Album/01 - Track.mp3", parentPath);
+    }
+
+    @Benchmark
+    public String dottedPath() throws Exception {
+        return FtpUtils.normalizePath("../../Music/./Album/../Other Album/", parentPath);
+    }
+
+    @Benchmark
+    public String unicodePath() throws Exception {
+        return FtpUtils.normalizePath("Фильмы/Сериал (2012)/серия 1.avi", parentPath);
+    }
+}
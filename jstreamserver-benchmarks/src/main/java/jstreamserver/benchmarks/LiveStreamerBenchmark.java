@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.ffmpeg.FrameMessage;
+import jstreamserver.ffmpeg.ProgressListener;
+import jstreamserver.utils.ConfigReader;
+import jstreamserver.utils.LiveStreamer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serving of live stream playlist.
+ * Playlist is created in the {@code livestream} folder of working directory
+ * since this is where segmenter writes it.
+ *
+ * @author Sergey Prilukin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LiveStreamerBenchmark {
+
+    private static final String SUFFIX = "_benchmark";
+
+    @Param({"5", "500"})
+    public int segments;
+
+    private File rootDir;
+    private File playList;
+    private AnnotationConfigApplicationContext context;
+    private LiveStreamer liveStreamer;
+    private byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        rootDir = BenchmarkUtils.createTempDir("jstreamserver-bench");
+        context = BenchmarkUtils.createContext("bench", rootDir);
+
+        playList = new File(String.format(LiveStreamer.PLAYLIST_FULL_PATH, SUFFIX));
+        playList.getParentFile().mkdirs();
+
+        FileWriter writer = new FileWriter(playList);
+        try {
+            writer.write("#EXTM3U\n#EXT-X-TARGETDURATION:10\n#EXT-X-MEDIA-SEQUENCE:1\n");
+            for (int i = 1; i <= segments; i++) {
+                writer.write(String.format("#EXTINF:10,\n/livestream/stream%s-%d.ts\n", SUFFIX, i));
+            }
+        } finally {
+            writer.close();
+        }
+
+        liveStreamer = new LiveStreamer("/", SUFFIX, new NoOpProgressListener(), context.getBean(ConfigReader.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        playList.delete();
+        context.close();
+        BenchmarkUtils.delete(rootDir);
+    }
+
+    @Benchmark
+    public long getPlayList() throws IOException {
+        InputStream is = liveStreamer.getPlayList();
+        try {
+            long total = 0;
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                total += count;
+            }
+
+            return total;
+        } finally {
+            is.close();
+        }
+    }
+
+    private static class NoOpProgressListener implements ProgressListener {
+        @Override
+        public void onFrameMessage(FrameMessage frameMessage) {
+        }
+
+        @Override
+        public void onProgress(String progressString) {
+        }
+
+        @Override
+        public void onFinish(int exitCode) {
+        }
+
+        @Override
+        public void onPlayListCreated() {
+        }
+    }
+}
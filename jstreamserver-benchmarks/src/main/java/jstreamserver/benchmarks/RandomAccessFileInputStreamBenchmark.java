@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.benchmarks;
+
+import jstreamserver.utils.RandomAccessFileInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading of a file region through {@link RandomAccessFileInputStream}
+ *
+ * @author Sergey Prilukin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RandomAccessFileInputStreamBenchmark {
+
+    private static final long FILE_SIZE = 4 * 1024 * 1024;
+
+    @Param({"4096", "65536"})
+    public int bufferSize;
+
+    private File dir;
+    private File file;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkUtils.createTempDir("jstreamserver-bench");
+        file = BenchmarkUtils.createFile(dir, "data.bin", FILE_SIZE);
+        buffer = new byte[bufferSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkUtils.delete(dir);
+    }
+
+    @Benchmark
+    public long readWholeFile() throws IOException {
+        return read(0, FILE_SIZE);
+    }
+
+    @Benchmark
+    public long readRegion() throws IOException {
+        return read(FILE_SIZE / 3, FILE_SIZE / 4);
+    }
+
+    private long read(long startPos, long length) throws IOException {
+        RandomAccessFileInputStream is = new RandomAccessFileInputStream(file, startPos, length);
+        try {
+            long total = 0;
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                total += count;
+            }
+
+            return total;
+        } finally {
+            is.close();
+        }
+    }
+}
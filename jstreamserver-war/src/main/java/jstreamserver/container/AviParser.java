@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.MediaInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parser of AVI files. Reads {@code hdrl} list which contains
+ * main AVI header and headers of all streams.
+ *
+ * @author Sergey Prilukin
+ */
+class AviParser implements ContainerParser {
+    public static final String RIFF = "RIFF";
+    public static final String AVI = "AVI ";
+    public static final String LIST = "LIST";
+    public static final String HDRL = "hdrl";
+    public static final String AVIH = "avih";
+    public static final String STRL = "strl";
+    public static final String STRH = "strh";
+    public static final String STRF = "strf";
+    public static final String VIDEO_STREAM = "vids";
+    public static final String AUDIO_STREAM = "auds";
+
+    public static final int MAX_HDRL_SIZE = 1024 * 1024;
+
+    private static final Map<String, String> VIDEO_CODECS = new HashMap<String, String>();
+    static {
+        for (String fourCC: new String[] {"XVID", "DIVX", "DX50", "FMP4", "MP4V", "3IV2"}) {
+            VIDEO_CODECS.put(fourCC, "mpeg4");
+        }
+        for (String fourCC: new String[] {"H264", "X264", "AVC1"}) {
+            VIDEO_CODECS.put(fourCC, "h264");
+        }
+        for (String fourCC: new String[] {"HEVC", "H265"}) {
+            VIDEO_CODECS.put(fourCC, "hevc");
+        }
+        VIDEO_CODECS.put("DIV3", "msmpeg4");
+        VIDEO_CODECS.put("MP43", "msmpeg4");
+        VIDEO_CODECS.put("MJPG", "mjpeg");
+        VIDEO_CODECS.put("MPG2", "mpeg2video");
+        VIDEO_CODECS.put("WMV3", "wmv3");
+    }
+
+    private static final Map<Integer, String> AUDIO_CODECS = new HashMap<Integer, String>();
+    static {
+        AUDIO_CODECS.put(0x0001, "pcm_s16le");
+        AUDIO_CODECS.put(0x0050, "mp2");
+        AUDIO_CODECS.put(0x0055, "mp3");
+        AUDIO_CODECS.put(0x00FF, "aac");
+        AUDIO_CODECS.put(0x1610, "aac");
+        AUDIO_CODECS.put(0x0161, "wmav2");
+        AUDIO_CODECS.put(0x2000, "ac3");
+        AUDIO_CODECS.put(0x2001, "dts");
+    }
+
+    @Override
+    public boolean accepts(ByteBuffer header) {
+        if (header.remaining() < 12) {
+            return false;
+        }
+
+        String riff = ContainerUtils.readFourCC(header);
+        header.position(header.position() + 4);
+        return RIFF.equals(riff) && AVI.equals(ContainerUtils.readFourCC(header));
+    }
+
+    @Override
+    public MediaInfo parse(ChannelReader reader) throws IOException {
+        ByteBuffer hdrl = null;
+
+        long position = 12;
+        while (position + 12 <= reader.size()) {
+            ByteBuffer header = reader.readFully(position, 12).order(ByteOrder.LITTLE_ENDIAN);
+            String chunkId = ContainerUtils.readFourCC(header);
+            long size = header.getInt() & 0xFFFFFFFFL;
+            if (LIST.equals(chunkId) && HDRL.equals(ContainerUtils.readFourCC(header))) {
+                if (size > MAX_HDRL_SIZE) {
+                    return null;
+                }
+
+                hdrl = reader.read(position + 12, (int) size - 4).order(ByteOrder.LITTLE_ENDIAN);
+                break;
+            }
+
+            position += 8 + size + (size & 1);
+        }
+
+        if (hdrl == null) {
+            return null;
+        }
+
+        Map<String, ByteBuffer> chunks = readChunks(hdrl);
+        ByteBuffer avih = chunks.get(AVIH);
+        if (avih == null) {
+            return null;
+        }
+
+        //Duration from main header is used if there is no video stream
+        double duration = (double) (avih.getInt(16) & 0xFFFFFFFFL) * (avih.getInt(0) & 0xFFFFFFFFL) / 1000000;
+        double videoDuration = 0;
+
+        MediaInfo mediaInfo = new MediaInfo();
+
+        int streamId = 0;
+        hdrl.rewind();
+        while (hdrl.remaining() >= 12) {
+            String chunkId = ContainerUtils.readFourCC(hdrl);
+            ByteBuffer chunk = readChunk(hdrl);
+            if (!LIST.equals(chunkId) || !STRL.equals(ContainerUtils.readFourCC(chunk))) {
+                continue;
+            }
+
+            Map<String, ByteBuffer> streamChunks = readChunks(chunk.slice().order(ByteOrder.LITTLE_ENDIAN));
+            ByteBuffer strh = streamChunks.get(STRH);
+            ByteBuffer strf = streamChunks.get(STRF);
+            if (strh == null || strf == null) {
+                return null;
+            }
+
+            int id = streamId++;
+            String streamType = ContainerUtils.readFourCC(strh);
+
+            if (VIDEO_STREAM.equals(streamType)) {
+                String codec = VIDEO_CODECS.get(fourCC(strf.getInt(16)).toUpperCase());
+                int width = strf.getInt(4);
+                int height = Math.abs(strf.getInt(8));
+                if (codec == null || !ContainerUtils.isValidVideo(width, height)) {
+                    return null;
+                }
+
+                mediaInfo.getVideoStreams().add(
+                        ContainerUtils.createVideoStream(id, null, codec, width, height, false));
+
+                long scale = strh.getInt(20) & 0xFFFFFFFFL;
+                long rate = strh.getInt(24) & 0xFFFFFFFFL;
+                long length = strh.getInt(32) & 0xFFFFFFFFL;
+                if (rate > 0 && videoDuration == 0) {
+                    videoDuration = (double) length * scale / rate;
+                }
+            } else if (AUDIO_STREAM.equals(streamType)) {
+                String codec = AUDIO_CODECS.get(strf.getShort(0) & 0xFFFF);
+                int channels = strf.getShort(2) & 0xFFFF;
+                int sampleRate = strf.getInt(4);
+                if (codec == null || !ContainerUtils.isValidAudio(sampleRate, channels)) {
+                    return null;
+                }
+
+                mediaInfo.getAudioStreams().add(
+                        ContainerUtils.createAudioStream(id, null, codec, sampleRate, channels, false));
+            }
+        }
+
+        if (videoDuration > 0) {
+            duration = videoDuration;
+        }
+
+        if (!ContainerUtils.isValidDuration(duration)) {
+            return null;
+        }
+
+        mediaInfo.setDuration(ContainerUtils.formatDuration(duration));
+        mediaInfo.setBitrate(ContainerUtils.formatBitrate(reader.size(), duration));
+
+        return mediaInfo;
+    }
+
+    /*
+     * Reads all chunks of the list into map: chunk id -> chunk data.
+     */
+    private Map<String, ByteBuffer> readChunks(ByteBuffer list) {
+        Map<String, ByteBuffer> chunks = new HashMap<String, ByteBuffer>();
+        while (list.remaining() >= 8) {
+            String chunkId = ContainerUtils.readFourCC(list);
+            ByteBuffer chunk = readChunk(list);
+            if (!chunks.containsKey(chunkId)) {
+                chunks.put(chunkId, chunk);
+            }
+        }
+
+        return chunks;
+    }
+
+    /*
+     * Returns data of the chunk which size is at current position
+     * and moves position to the next chunk
+     */
+    private ByteBuffer readChunk(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Chunk is out of list bounds");
+        }
+
+        ByteBuffer chunk = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        chunk.limit(size);
+        buffer.position(Math.min(buffer.limit(), buffer.position() + size + (size & 1)));
+
+        return chunk;
+    }
+
+    private String fourCC(int value) {
+        char[] chars = new char[4];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ((value >> (i * 8)) & 0xFF);
+        }
+
+        return new String(chars);
+    }
+}
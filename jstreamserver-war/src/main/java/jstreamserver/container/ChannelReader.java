@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads pieces of the file by absolute position
+ * and limits total amount of bytes read from one file,
+ * so broken or unusual file can not make the probe read the whole file.
+ *
+ * @author Sergey Prilukin
+ */
+class ChannelReader {
+    private final FileChannel channel;
+    private final long size;
+    private final long maxBytesToRead;
+    private long bytesRead;
+
+    ChannelReader(FileChannel channel, long maxBytesToRead) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.maxBytesToRead = maxBytesToRead;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads up to {@code length} bytes starting from {@code position}.
+     * Returned buffer contains less bytes if end of file is reached.
+     *
+     * @param position position in file
+     * @param length max amount of bytes to read
+     * @return buffer ready to be read
+     * @throws IOException if read limit is exceeded or read fails
+     */
+    public ByteBuffer read(long position, int length) throws IOException {
+        if (position < 0 || position >= size || length <= 0) {
+            return ByteBuffer.allocate(0);
+        }
+
+        int bytesToRead = (int) Math.min(length, size - position);
+        if (bytesRead + bytesToRead > maxBytesToRead) {
+            throw new IOException(String.format("More than %d bytes of header requested", maxBytesToRead));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytesToRead);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        bytesRead += buffer.position();
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Same as {@link #read(long, int)} but fails if less than {@code length} bytes available
+     */
+    public ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = read(position, length);
+        if (buffer.remaining() < length) {
+            throw new EOFException(String.format("Unexpected end of file at %d", position + buffer.remaining()));
+        }
+
+        return buffer;
+    }
+}
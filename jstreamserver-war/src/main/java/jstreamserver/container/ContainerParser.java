@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.MediaInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Parser of container headers of one format
+ *
+ * @author Sergey Prilukin
+ */
+interface ContainerParser {
+
+    /**
+     * Checks if file starts with signature of this format
+     *
+     * @param header first bytes of the file
+     * @return {@code true} if this parser should parse the file
+     */
+    public boolean accepts(ByteBuffer header);
+
+    /**
+     * Reads media info from container headers
+     *
+     * @param reader reader of the file
+     * @return media info or {@code null} if headers contain something parser does not support
+     * @throws IOException if file could not be read or headers are broken
+     */
+    public MediaInfo parse(ChannelReader reader) throws IOException;
+}
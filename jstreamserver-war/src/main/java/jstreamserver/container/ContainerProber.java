@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.MediaInfo;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads media info from headers of MP4/MOV, Matroska, AVI and MPEG-TS containers
+ * without starting external process. Only small parts of the file are read.
+ * Files in other formats or with headers parser does not understand
+ * should be probed with ffmpeg.
+ *
+ * @author Sergey Prilukin
+ */
+public final class ContainerProber {
+    private static final Log log = LogFactory.getLog(ContainerProber.class);
+
+    public static final int SIGNATURE_SIZE = 16;
+    public static final int MAX_HEADER_BYTES = 4 * 1024 * 1024;
+
+    private final List<ContainerParser> parsers = Arrays.asList(
+            new Mp4Parser(), new MatroskaParser(), new AviParser(), new MpegTsParser());
+
+    /**
+     * Reads media info of the file
+     *
+     * @param file media file
+     * @return media info or {@code null} if format of the file is not supported
+     */
+    public MediaInfo probe(File file) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            ChannelReader reader = new ChannelReader(randomAccessFile.getChannel(), MAX_HEADER_BYTES);
+            ByteBuffer signature = reader.read(0, SIGNATURE_SIZE);
+
+            for (ContainerParser parser: parsers) {
+                if (parser.accepts(signature.duplicate())) {
+                    return parser.parse(reader);
+                }
+            }
+        } catch (IOException e) {
+            log.debug(String.format("Can not read headers of %s", file), e);
+        } catch (RuntimeException e) {
+            //Broken headers
+            log.debug(String.format("Can not parse headers of %s", file), e);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    /* ignore */
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.AudioStreamInfo;
+import jstreamserver.ffmpeg.MediaInfo;
+import jstreamserver.ffmpeg.VideoStreamInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers which create media info in the same format as ffmpeg prints it,
+ * so media info does not depend on the way it was read.
+ *
+ * @author Sergey Prilukin
+ */
+final class ContainerUtils {
+    public static final String DURATION_FORMAT = "%02d:%02d:%02d.%02d";
+    public static final String BITRATE_FORMAT = "%d kb/s";
+
+    private static final String[] CHANNEL_LAYOUTS = {null, "mono", "stereo", "3.0", "quad", "5.0", "5.1", "6.1", "7.1"};
+
+    private ContainerUtils() {
+    }
+
+    public static MediaInfo createMediaInfo(double durationSeconds, long fileSize) {
+        MediaInfo mediaInfo = new MediaInfo();
+        mediaInfo.setDuration(formatDuration(durationSeconds));
+        mediaInfo.setBitrate(formatBitrate(fileSize, durationSeconds));
+
+        return mediaInfo;
+    }
+
+    public static VideoStreamInfo createVideoStream(int id, String language, String encoder,
+                                                    int width, int height, boolean defaultStream) {
+        VideoStreamInfo videoStreamInfo = new VideoStreamInfo();
+        videoStreamInfo.setId(String.valueOf(id));
+        videoStreamInfo.setLanguage(language);
+        videoStreamInfo.setEncoder(encoder);
+        videoStreamInfo.setResolution(width + "x" + height);
+        videoStreamInfo.setDefaultStream(defaultStream);
+
+        return videoStreamInfo;
+    }
+
+    public static AudioStreamInfo createAudioStream(int id, String language, String encoder,
+                                                    int sampleRate, int channels, boolean defaultStream) {
+        AudioStreamInfo audioStreamInfo = new AudioStreamInfo();
+        audioStreamInfo.setId(String.valueOf(id));
+        audioStreamInfo.setLanguage(language);
+        audioStreamInfo.setEncoder(encoder);
+        audioStreamInfo.setFrequency(String.valueOf(sampleRate));
+        audioStreamInfo.setChannels(formatChannels(channels));
+        audioStreamInfo.setDefaultStream(defaultStream);
+
+        return audioStreamInfo;
+    }
+
+    public static String formatDuration(double seconds) {
+        long centiseconds = Math.round(seconds * 100);
+        return String.format(DURATION_FORMAT, centiseconds / 360000, (centiseconds / 6000) % 60,
+                (centiseconds / 100) % 60, centiseconds % 100);
+    }
+
+    public static String formatBitrate(long fileSize, double seconds) {
+        return String.format(BITRATE_FORMAT, (long) (fileSize * 8 / seconds / 1000));
+    }
+
+    public static String formatChannels(int channels) {
+        return channels < CHANNEL_LAYOUTS.length ? CHANNEL_LAYOUTS[channels] : channels + " channels";
+    }
+
+    public static boolean isValidDuration(double seconds) {
+        return seconds > 0 && !Double.isInfinite(seconds) && !Double.isNaN(seconds);
+    }
+
+    public static boolean isValidVideo(int width, int height) {
+        return width > 0 && height > 0;
+    }
+
+    public static boolean isValidAudio(int sampleRate, int channels) {
+        return sampleRate > 0 && channels > 0;
+    }
+
+    /**
+     * Reads four character code from current position of the buffer
+     */
+    public static String readFourCC(ByteBuffer buffer) {
+        char[] chars = new char[4];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buffer.get() & 0xFF);
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.MediaInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parser of Matroska/WebM files. Reads {@code Info} and {@code Tracks}
+ * elements which are placed before the first cluster.
+ *
+ * @author Sergey Prilukin
+ */
+class MatroskaParser implements ContainerParser {
+    public static final int EBML = 0x1A45DFA3;
+    public static final int SEGMENT = 0x18538067;
+    public static final int CLUSTER = 0x1F43B675;
+    public static final int INFO = 0x1549A966;
+    public static final int TIMECODE_SCALE = 0x2AD7B1;
+    public static final int DURATION = 0x4489;
+    public static final int TRACKS = 0x1654AE6B;
+    public static final int TRACK_ENTRY = 0xAE;
+    public static final int TRACK_TYPE = 0x83;
+    public static final int CODEC_ID = 0x86;
+    public static final int LANGUAGE = 0x22B59C;
+    public static final int FLAG_DEFAULT = 0x88;
+    public static final int VIDEO = 0xE0;
+    public static final int PIXEL_WIDTH = 0xB0;
+    public static final int PIXEL_HEIGHT = 0xBA;
+    public static final int AUDIO = 0xE1;
+    public static final int SAMPLING_FREQUENCY = 0xB5;
+    public static final int CHANNELS = 0x9F;
+
+    public static final int TRACK_TYPE_VIDEO = 1;
+    public static final int TRACK_TYPE_AUDIO = 2;
+
+    public static final long DEFAULT_TIMECODE_SCALE = 1000000;
+    public static final String DEFAULT_LANGUAGE = "eng";
+    public static final long UNKNOWN_SIZE = -1;
+
+    public static final int MAX_ELEMENT_HEADER_SIZE = 12;
+    public static final int MAX_INFO_SIZE = 64 * 1024;
+    public static final int MAX_TRACKS_SIZE = 1024 * 1024;
+
+    /*
+     * Codec id prefix -> ffmpeg codec name
+     */
+    private static final Map<String, String> CODECS = new LinkedHashMap<String, String>();
+    static {
+        CODECS.put("V_MPEG4/ISO/AVC", "h264");
+        CODECS.put("V_MPEGH/ISO/HEVC", "hevc");
+        CODECS.put("V_MPEG4/ISO/", "mpeg4");
+        CODECS.put("V_MPEG2", "mpeg2video");
+        CODECS.put("V_MPEG1", "mpeg1video");
+        CODECS.put("V_VP8", "vp8");
+        CODECS.put("V_VP9", "vp9");
+        CODECS.put("V_THEORA", "theora");
+        CODECS.put("A_AAC", "aac");
+        CODECS.put("A_AC3", "ac3");
+        CODECS.put("A_EAC3", "eac3");
+        CODECS.put("A_DTS", "dts");
+        CODECS.put("A_MPEG/L3", "mp3");
+        CODECS.put("A_MPEG/L2", "mp2");
+        CODECS.put("A_VORBIS", "vorbis");
+        CODECS.put("A_OPUS", "opus");
+        CODECS.put("A_FLAC", "flac");
+        CODECS.put("A_TRUEHD", "truehd");
+        CODECS.put("A_PCM/INT/LIT", "pcm_s16le");
+    }
+
+    @Override
+    public boolean accepts(ByteBuffer header) {
+        return header.remaining() >= 4 && header.getInt() == EBML;
+    }
+
+    @Override
+    public MediaInfo parse(ChannelReader reader) throws IOException {
+        ByteBuffer ebmlHeader = reader.read(0, MAX_ELEMENT_HEADER_SIZE);
+        readId(ebmlHeader);
+        long ebmlSize = readSize(ebmlHeader);
+        long position = ebmlHeader.position() + ebmlSize;
+
+        ByteBuffer segmentHeader = reader.read(position, MAX_ELEMENT_HEADER_SIZE);
+        if (readId(segmentHeader) != SEGMENT) {
+            return null;
+        }
+
+        long segmentSize = readSize(segmentHeader);
+        position += segmentHeader.position();
+        long segmentEnd = segmentSize == UNKNOWN_SIZE ? reader.size() : Math.min(reader.size(), position + segmentSize);
+
+        ByteBuffer info = null;
+        ByteBuffer tracks = null;
+
+        while (position < segmentEnd && (info == null || tracks == null)) {
+            ByteBuffer header = reader.read(position, MAX_ELEMENT_HEADER_SIZE);
+            int id = readId(header);
+            long size = readSize(header);
+            position += header.position();
+
+            //Clusters should follow meta information
+            if (id == CLUSTER || size == UNKNOWN_SIZE) {
+                break;
+            }
+
+            if (id == INFO) {
+                info = reader.readFully(position, (int) Math.min(size, MAX_INFO_SIZE));
+            } else if (id == TRACKS) {
+                if (size > MAX_TRACKS_SIZE) {
+                    return null;
+                }
+                tracks = reader.readFully(position, (int) size);
+            }
+
+            position += size;
+        }
+
+        if (info == null || tracks == null) {
+            return null;
+        }
+
+        double duration = parseDuration(info);
+        if (!ContainerUtils.isValidDuration(duration)) {
+            return null;
+        }
+
+        MediaInfo mediaInfo = ContainerUtils.createMediaInfo(duration, reader.size());
+
+        int streamId = 0;
+        while (tracks.hasRemaining()) {
+            int id = readId(tracks);
+            ByteBuffer element = readElement(tracks);
+            if (id == TRACK_ENTRY && !parseTrack(element, streamId++, mediaInfo)) {
+                return null;
+            }
+        }
+
+        return mediaInfo;
+    }
+
+    private double parseDuration(ByteBuffer info) {
+        long timecodeScale = DEFAULT_TIMECODE_SCALE;
+        double duration = 0;
+
+        while (info.hasRemaining()) {
+            int id = readId(info);
+            ByteBuffer element = readElement(info);
+            if (id == TIMECODE_SCALE) {
+                timecodeScale = readUnsigned(element);
+            } else if (id == DURATION) {
+                duration = readFloat(element);
+            }
+        }
+
+        return duration * timecodeScale / 1000000000d;
+    }
+
+    /*
+     * Returns false if track has unknown format
+     */
+    private boolean parseTrack(ByteBuffer trackEntry, int streamId, MediaInfo mediaInfo) {
+        long trackType = 0;
+        String codecId = null;
+        String language = DEFAULT_LANGUAGE;
+        boolean defaultTrack = true;
+        ByteBuffer video = null;
+        ByteBuffer audio = null;
+
+        while (trackEntry.hasRemaining()) {
+            int id = readId(trackEntry);
+            ByteBuffer element = readElement(trackEntry);
+            switch (id) {
+                case TRACK_TYPE: trackType = readUnsigned(element); break;
+                case CODEC_ID: codecId = readString(element); break;
+                case LANGUAGE: language = readString(element); break;
+                case FLAG_DEFAULT: defaultTrack = readUnsigned(element) != 0; break;
+                case VIDEO: video = element; break;
+                case AUDIO: audio = element; break;
+                default: break;
+            }
+        }
+
+        if (trackType != TRACK_TYPE_VIDEO && trackType != TRACK_TYPE_AUDIO) {
+            //subtitles, buttons, etc.
+            return true;
+        }
+
+        String codec = getCodec(codecId);
+        if (codec == null) {
+            return false;
+        }
+
+        if (trackType == TRACK_TYPE_VIDEO) {
+            int width = 0;
+            int height = 0;
+            while (video != null && video.hasRemaining()) {
+                int id = readId(video);
+                ByteBuffer element = readElement(video);
+                if (id == PIXEL_WIDTH) {
+                    width = (int) readUnsigned(element);
+                } else if (id == PIXEL_HEIGHT) {
+                    height = (int) readUnsigned(element);
+                }
+            }
+
+            if (!ContainerUtils.isValidVideo(width, height)) {
+                return false;
+            }
+
+            mediaInfo.getVideoStreams().add(
+                    ContainerUtils.createVideoStream(streamId, language, codec, width, height, defaultTrack));
+        } else {
+            //Default values from Matroska specification
+            double sampleRate = 8000;
+            int channels = 1;
+            while (audio != null && audio.hasRemaining()) {
+                int id = readId(audio);
+                ByteBuffer element = readElement(audio);
+                if (id == SAMPLING_FREQUENCY) {
+                    sampleRate = readFloat(element);
+                } else if (id == CHANNELS) {
+                    channels = (int) readUnsigned(element);
+                }
+            }
+
+            if (!ContainerUtils.isValidAudio((int) sampleRate, channels)) {
+                return false;
+            }
+
+            mediaInfo.getAudioStreams().add(
+                    ContainerUtils.createAudioStream(streamId, language, codec, (int) sampleRate, channels, defaultTrack));
+        }
+
+        return true;
+    }
+
+    private String getCodec(String codecId) {
+        if (codecId != null) {
+            for (Map.Entry<String, String> entry: CODECS.entrySet()) {
+                if (codecId.startsWith(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Element id is variable size integer which keeps its length marker
+     */
+    static int readId(ByteBuffer buffer) {
+        int first = buffer.get() & 0xFF;
+        int length = Integer.numberOfLeadingZeros(first) - 24 + 1;
+        if (length > 4) {
+            throw new IllegalArgumentException("Invalid EBML element id");
+        }
+
+        int id = first;
+        for (int i = 1; i < length; i++) {
+            id = (id << 8) | (buffer.get() & 0xFF);
+        }
+
+        return id;
+    }
+
+    /*
+     * Element size is variable size integer without length marker,
+     * all ones means unknown size
+     */
+    static long readSize(ByteBuffer buffer) {
+        int first = buffer.get() & 0xFF;
+        int length = Integer.numberOfLeadingZeros(first) - 24 + 1;
+        if (length > 8) {
+            throw new IllegalArgumentException("Invalid EBML element size");
+        }
+
+        long mask = (1L << (7 * length)) - 1;
+        long size = first & (0xFF >> length);
+        for (int i = 1; i < length; i++) {
+            size = (size << 8) | (buffer.get() & 0xFF);
+        }
+
+        return size == mask ? UNKNOWN_SIZE : size;
+    }
+
+    /*
+     * Returns content of the element and moves buffer position after it
+     */
+    static ByteBuffer readElement(ByteBuffer buffer) {
+        long size = readSize(buffer);
+        if (size == UNKNOWN_SIZE || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Element is out of parent bounds");
+        }
+
+        ByteBuffer element = buffer.slice();
+        element.limit((int) size);
+        buffer.position(buffer.position() + (int) size);
+
+        return element;
+    }
+
+    static long readUnsigned(ByteBuffer element) {
+        long value = 0;
+        while (element.hasRemaining()) {
+            value = (value << 8) | (element.get() & 0xFF);
+        }
+
+        return value;
+    }
+
+    static double readFloat(ByteBuffer element) {
+        switch (element.remaining()) {
+            case 4: return element.getFloat();
+            case 8: return element.getDouble();
+            default: return 0;
+        }
+    }
+
+    static String readString(ByteBuffer element) {
+        StringBuilder sb = new StringBuilder();
+        while (element.hasRemaining()) {
+            char c = (char) (element.get() & 0xFF);
+            if (c == 0) {
+                break;
+            }
+            sb.append(c);
+        }
+
+        return sb.toString();
+    }
+}
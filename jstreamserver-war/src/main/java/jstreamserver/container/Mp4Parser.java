@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.MediaInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Parser of MP4/MOV files. Reads only boxes of {@code moov} box
+ * which contain duration and description of tracks.
+ *
+ * @author Sergey Prilukin
+ */
+class Mp4Parser implements ContainerParser {
+    public static final String MOOV = "moov";
+    public static final String MVHD = "mvhd";
+    public static final String TRAK = "trak";
+    public static final String TKHD = "tkhd";
+    public static final String MDIA = "mdia";
+    public static final String MDHD = "mdhd";
+    public static final String HDLR = "hdlr";
+    public static final String MINF = "minf";
+    public static final String STBL = "stbl";
+    public static final String STSD = "stsd";
+
+    public static final String VIDEO_HANDLER = "vide";
+    public static final String SOUND_HANDLER = "soun";
+
+    public static final int TRACK_ENABLED_FLAG = 0x1;
+
+    private static final Set<String> TOP_LEVEL_BOXES = new HashSet<String>(
+            Arrays.asList("ftyp", "moov", "mdat", "free", "skip", "wide", "pnot"));
+
+    private static final Map<String, String> CODECS = new HashMap<String, String>();
+    static {
+        CODECS.put("avc1", "h264");
+        CODECS.put("avc3", "h264");
+        CODECS.put("hvc1", "hevc");
+        CODECS.put("hev1", "hevc");
+        CODECS.put("mp4v", "mpeg4");
+        CODECS.put("s263", "h263");
+        CODECS.put("jpeg", "mjpeg");
+        CODECS.put("mp4a", "aac");
+        CODECS.put(".mp3", "mp3");
+        CODECS.put("ac-3", "ac3");
+        CODECS.put("ec-3", "eac3");
+        CODECS.put("alac", "alac");
+        CODECS.put("samr", "amrnb");
+    }
+
+    @Override
+    public boolean accepts(ByteBuffer header) {
+        if (header.remaining() < 8) {
+            return false;
+        }
+
+        header.position(header.position() + 4);
+        return TOP_LEVEL_BOXES.contains(ContainerUtils.readFourCC(header));
+    }
+
+    @Override
+    public MediaInfo parse(ChannelReader reader) throws IOException {
+        Box moov = findBox(readBoxes(reader, 0, reader.size()), MOOV);
+        if (moov == null) {
+            return null;
+        }
+
+        List<Box> moovBoxes = readBoxes(reader, moov.start, moov.end);
+        Box mvhd = findBox(moovBoxes, MVHD);
+        if (mvhd == null) {
+            return null;
+        }
+
+        double duration = parseMovieDuration(reader.read(mvhd.start, 32));
+        if (!ContainerUtils.isValidDuration(duration)) {
+            return null;
+        }
+
+        MediaInfo mediaInfo = ContainerUtils.createMediaInfo(duration, reader.size());
+
+        int streamId = 0;
+        for (Box trak: moovBoxes) {
+            if (TRAK.equals(trak.type) && !parseTrack(reader, trak, streamId++, mediaInfo)) {
+                return null;
+            }
+        }
+
+        return mediaInfo;
+    }
+
+    /*
+     * Returns false if track has unknown format
+     */
+    private boolean parseTrack(ChannelReader reader, Box trak, int streamId, MediaInfo mediaInfo) throws IOException {
+        List<Box> trakBoxes = readBoxes(reader, trak.start, trak.end);
+        Box tkhd = findBox(trakBoxes, TKHD);
+        Box mdia = findBox(trakBoxes, MDIA);
+        if (tkhd == null || mdia == null) {
+            return false;
+        }
+
+        boolean enabled = (reader.readFully(tkhd.start, 4).getInt() & TRACK_ENABLED_FLAG) != 0;
+
+        List<Box> mdiaBoxes = readBoxes(reader, mdia.start, mdia.end);
+        Box mdhd = findBox(mdiaBoxes, MDHD);
+        Box hdlr = findBox(mdiaBoxes, HDLR);
+        if (mdhd == null || hdlr == null) {
+            return false;
+        }
+
+        ByteBuffer handler = reader.readFully(hdlr.start, 12);
+        handler.position(8);
+        String handlerType = ContainerUtils.readFourCC(handler);
+        if (!VIDEO_HANDLER.equals(handlerType) && !SOUND_HANDLER.equals(handlerType)) {
+            //subtitles, chapters, timecodes, etc.
+            return true;
+        }
+
+        Box stsd = findBox(readBoxes(reader, mdia, MINF, STBL), STSD);
+        if (stsd == null) {
+            return false;
+        }
+
+        ByteBuffer sampleDescription = reader.read(stsd.start, 44);
+        sampleDescription.position(12);
+        String codec = CODECS.get(ContainerUtils.readFourCC(sampleDescription));
+        if (codec == null) {
+            return false;
+        }
+
+        String language = parseLanguage(reader.read(mdhd.start, 36));
+
+        if (VIDEO_HANDLER.equals(handlerType)) {
+            int width = sampleDescription.getShort(40) & 0xFFFF;
+            int height = sampleDescription.getShort(42) & 0xFFFF;
+            if (!ContainerUtils.isValidVideo(width, height)) {
+                return false;
+            }
+
+            mediaInfo.getVideoStreams().add(
+                    ContainerUtils.createVideoStream(streamId, language, codec, width, height, enabled));
+        } else {
+            int channels = sampleDescription.getShort(32) & 0xFFFF;
+            int sampleRate = sampleDescription.getInt(40) >>> 16;
+            if (!ContainerUtils.isValidAudio(sampleRate, channels)) {
+                return false;
+            }
+
+            mediaInfo.getAudioStreams().add(
+                    ContainerUtils.createAudioStream(streamId, language, codec, sampleRate, channels, enabled));
+        }
+
+        return true;
+    }
+
+    private double parseMovieDuration(ByteBuffer mvhd) {
+        int version = mvhd.get(0);
+        long timeScale;
+        long duration;
+
+        if (version == 1) {
+            timeScale = mvhd.getInt(20) & 0xFFFFFFFFL;
+            duration = mvhd.getLong(24);
+        } else {
+            timeScale = mvhd.getInt(12) & 0xFFFFFFFFL;
+            duration = mvhd.getInt(16) & 0xFFFFFFFFL;
+        }
+
+        return timeScale > 0 ? (double) duration / timeScale : 0;
+    }
+
+    /*
+     * Language is packed ISO-639-2/T code: three 5-bit characters
+     */
+    private String parseLanguage(ByteBuffer mdhd) {
+        int version = mdhd.get(0);
+        int code = mdhd.getShort(version == 1 ? 32 : 20) & 0x7FFF;
+        if (code == 0) {
+            return null;
+        }
+
+        char[] chars = new char[3];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (((code >> (10 - i * 5)) & 0x1F) + 0x60);
+        }
+
+        return new String(chars);
+    }
+
+    private List<Box> readBoxes(ChannelReader reader, Box parent, String... path) throws IOException {
+        Box box = parent;
+        for (String type: path) {
+            box = findBox(readBoxes(reader, box.start, box.end), type);
+            if (box == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        return readBoxes(reader, box.start, box.end);
+    }
+
+    private List<Box> readBoxes(ChannelReader reader, long start, long end) throws IOException {
+        List<Box> boxes = new ArrayList<Box>();
+
+        long position = start;
+        while (position + 8 <= end) {
+            ByteBuffer header = reader.readFully(position, (int) Math.min(16, end - position));
+            long size = header.getInt() & 0xFFFFFFFFL;
+            String type = ContainerUtils.readFourCC(header);
+            int headerSize = 8;
+
+            if (size == 1 && header.remaining() >= 8) {
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+
+            //Truncated file or broken box
+            if (size < headerSize || position + size > end) {
+                break;
+            }
+
+            boxes.add(new Box(type, position + headerSize, position + size));
+            position += size;
+        }
+
+        return boxes;
+    }
+
+    private Box findBox(List<Box> boxes, String type) {
+        for (Box box: boxes) {
+            if (type.equals(box.type)) {
+                return box;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Type and position of box payload
+     */
+    static class Box {
+        final String type;
+        final long start;
+        final long end;
+
+        Box(String type, long start, long end) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
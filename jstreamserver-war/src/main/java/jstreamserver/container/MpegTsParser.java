@@ -0,0 +1,722 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.MediaInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser of MPEG-TS (and M2TS) files.
+ * Streams are taken from PAT/PMT tables, parameters of streams
+ * are read from the first frames of each elementary stream and duration
+ * is calculated from timestamps of the first and the last packets of the file.
+ *
+ * @author Sergey Prilukin
+ */
+class MpegTsParser implements ContainerParser {
+    public static final int TS_PACKET_SIZE = 188;
+    public static final int M2TS_PACKET_SIZE = 192;
+    public static final int SYNC_BYTE = 0x47;
+    public static final int PAT_PID = 0;
+
+    public static final int READ_CHUNK_SIZE = TS_PACKET_SIZE * M2TS_PACKET_SIZE * 4;
+    public static final int MAX_HEAD_SIZE = READ_CHUNK_SIZE * 8;
+    public static final int TAIL_SIZE = TS_PACKET_SIZE * M2TS_PACKET_SIZE * 2;
+    public static final int MAX_PES_DATA_SIZE = 256 * 1024;
+
+    public static final long PTS_CLOCK = 90000;
+    public static final long PTS_WRAP = 1L << 33;
+
+    public static final int LANGUAGE_DESCRIPTOR = 0x0A;
+    public static final int REGISTRATION_DESCRIPTOR = 0x05;
+    public static final int AC3_DESCRIPTOR = 0x6A;
+    public static final int TELETEXT_DESCRIPTOR = 0x56;
+    public static final int SUBTITLING_DESCRIPTOR = 0x59;
+    public static final String AC3_FORMAT_IDENTIFIER = "AC-3";
+
+    public static final int[] AAC_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+    public static final int[] MPEG_AUDIO_SAMPLE_RATES = {44100, 48000, 32000};
+    public static final int[] AC3_SAMPLE_RATES = {48000, 44100, 32000};
+    public static final int[] AC3_CHANNELS = {2, 1, 2, 3, 3, 4, 4, 5};
+
+    /*
+     * Profiles of H.264 which have chroma format and scaling matrices in SPS
+     */
+    private static final int[] H264_HIGH_PROFILES = {100, 110, 122, 244, 44, 83, 86, 118, 128, 138, 139, 134, 135};
+
+    enum StreamKind {VIDEO, AUDIO, OTHER}
+
+    @Override
+    public boolean accepts(ByteBuffer header) {
+        return header.remaining() > 4 && (header.get(0) == SYNC_BYTE || header.get(4) == SYNC_BYTE);
+    }
+
+    @Override
+    public MediaInfo parse(ChannelReader reader) throws IOException {
+        ByteBuffer start = reader.read(0, M2TS_PACKET_SIZE * 3);
+        int packetSize;
+        if (isSynchronized(start, 0, TS_PACKET_SIZE)) {
+            packetSize = TS_PACKET_SIZE;
+        } else if (isSynchronized(start, 4, M2TS_PACKET_SIZE)) {
+            packetSize = M2TS_PACKET_SIZE;
+        } else {
+            return null;
+        }
+
+        //Offset of TS packet inside of the packet of the file
+        int packetOffset = packetSize - TS_PACKET_SIZE;
+
+        int pmtPid = -1;
+        List<ElementaryStream> streams = null;
+
+        long position = 0;
+        while (position < MAX_HEAD_SIZE && (streams == null || !isAnalyzed(streams))) {
+            byte[] chunk = toArray(reader.read(position, READ_CHUNK_SIZE));
+            if (chunk.length < packetSize) {
+                break;
+            }
+
+            for (int i = packetOffset; i + TS_PACKET_SIZE <= chunk.length; i += packetSize) {
+                TsPacket packet = TsPacket.parse(chunk, i);
+                if (packet == null) {
+                    return null;
+                }
+
+                if (packet.pid == PAT_PID && packet.payloadUnitStart && pmtPid < 0) {
+                    pmtPid = parsePat(chunk, packet.payloadStart, packet.payloadEnd);
+                } else if (packet.pid == pmtPid && packet.payloadUnitStart && streams == null) {
+                    streams = parsePmt(chunk, packet.payloadStart, packet.payloadEnd);
+                    if (streams == null) {
+                        return null;
+                    }
+                } else if (streams != null) {
+                    ElementaryStream stream = findStream(streams, packet.pid);
+                    if (stream != null) {
+                        stream.addPayload(chunk, packet);
+                    }
+                }
+            }
+
+            position += chunk.length;
+        }
+
+        if (streams == null) {
+            return null;
+        }
+
+        for (ElementaryStream stream: streams) {
+            stream.finish();
+        }
+
+        if (!isAnalyzed(streams)) {
+            return null;
+        }
+
+        ElementaryStream timingStream = getTimingStream(streams);
+        if (timingStream == null || timingStream.firstPts < 0) {
+            return null;
+        }
+
+        long lastPts = readLastPts(reader, timingStream.pid, packetSize);
+        if (lastPts < 0) {
+            return null;
+        }
+
+        double duration = (double) ((lastPts - timingStream.firstPts + PTS_WRAP) % PTS_WRAP) / PTS_CLOCK;
+        if (!ContainerUtils.isValidDuration(duration)) {
+            return null;
+        }
+
+        MediaInfo mediaInfo = ContainerUtils.createMediaInfo(duration, reader.size());
+        for (int id = 0; id < streams.size(); id++) {
+            ElementaryStream stream = streams.get(id);
+            if (stream.kind == StreamKind.VIDEO) {
+                mediaInfo.getVideoStreams().add(ContainerUtils.createVideoStream(id, stream.language, stream.codec,
+                        stream.width, stream.height, false));
+            } else if (stream.kind == StreamKind.AUDIO) {
+                mediaInfo.getAudioStreams().add(ContainerUtils.createAudioStream(id, stream.language, stream.codec,
+                        stream.sampleRate, stream.channels, false));
+            }
+        }
+
+        return mediaInfo;
+    }
+
+    private boolean isSynchronized(ByteBuffer buffer, int offset, int packetSize) {
+        for (int i = offset; i < buffer.limit(); i += packetSize) {
+            if (buffer.get(i) != SYNC_BYTE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isAnalyzed(List<ElementaryStream> streams) {
+        for (ElementaryStream stream: streams) {
+            if (stream.kind != StreamKind.OTHER && !stream.analyzed) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private ElementaryStream findStream(List<ElementaryStream> streams, int pid) {
+        for (ElementaryStream stream: streams) {
+            if (stream.pid == pid) {
+                return stream;
+            }
+        }
+
+        return null;
+    }
+
+    private ElementaryStream getTimingStream(List<ElementaryStream> streams) {
+        ElementaryStream audioStream = null;
+        for (ElementaryStream stream: streams) {
+            if (stream.kind == StreamKind.VIDEO) {
+                return stream;
+            } else if (stream.kind == StreamKind.AUDIO && audioStream == null) {
+                audioStream = stream;
+            }
+        }
+
+        return audioStream;
+    }
+
+    private long readLastPts(ChannelReader reader, int pid, int packetSize) throws IOException {
+        long tailStart = Math.max(0, reader.size() - TAIL_SIZE);
+        tailStart -= tailStart % packetSize;
+
+        byte[] tail = toArray(reader.read(tailStart, TAIL_SIZE));
+        long lastPts = -1;
+        for (int i = packetSize - TS_PACKET_SIZE; i + TS_PACKET_SIZE <= tail.length; i += packetSize) {
+            TsPacket packet = TsPacket.parse(tail, i);
+            if (packet != null && packet.pid == pid && packet.payloadUnitStart) {
+                long pts = readPts(tail, packet.payloadStart, packet.payloadEnd);
+                if (pts >= 0) {
+                    lastPts = pts;
+                }
+            }
+        }
+
+        return lastPts;
+    }
+
+    /*
+     * Returns PID of PMT of the first program
+     */
+    private int parsePat(byte[] data, int start, int end) {
+        int section = start + 1 + (data[start] & 0xFF);
+        if (section + 8 > end || data[section] != 0x00) {
+            return -1;
+        }
+
+        int sectionEnd = Math.min(end, section + 3 + sectionLength(data, section) - 4);
+        for (int i = section + 8; i + 4 <= sectionEnd; i += 4) {
+            int programNumber = readUnsignedShort(data, i);
+            if (programNumber != 0) {
+                return readUnsignedShort(data, i + 2) & 0x1FFF;
+            }
+        }
+
+        return -1;
+    }
+
+    /*
+     * Returns null if PMT does not fit into one packet or contains unknown streams
+     */
+    private List<ElementaryStream> parsePmt(byte[] data, int start, int end) {
+        int section = start + 1 + (data[start] & 0xFF);
+        if (section + 12 > end || data[section] != 0x02) {
+            return null;
+        }
+
+        int sectionEnd = section + 3 + sectionLength(data, section) - 4;
+        if (sectionEnd > end) {
+            return null;
+        }
+
+        List<ElementaryStream> streams = new ArrayList<ElementaryStream>();
+        int i = section + 12 + (readUnsignedShort(data, section + 10) & 0x0FFF);
+        while (i + 5 <= sectionEnd) {
+            int streamType = data[i] & 0xFF;
+            int pid = readUnsignedShort(data, i + 1) & 0x1FFF;
+            int esInfoLength = readUnsignedShort(data, i + 3) & 0x0FFF;
+
+            ElementaryStream stream = createStream(streamType, pid, data, i + 5, Math.min(i + 5 + esInfoLength, sectionEnd));
+            if (stream == null) {
+                return null;
+            }
+
+            streams.add(stream);
+            i += 5 + esInfoLength;
+        }
+
+        return streams;
+    }
+
+    private ElementaryStream createStream(int streamType, int pid, byte[] data, int descriptorsStart, int descriptorsEnd) {
+        String language = null;
+        boolean ac3 = false;
+        boolean subtitles = false;
+
+        for (int i = descriptorsStart; i + 2 <= descriptorsEnd; i += 2 + (data[i + 1] & 0xFF)) {
+            int tag = data[i] & 0xFF;
+            int length = data[i + 1] & 0xFF;
+            if (tag == LANGUAGE_DESCRIPTOR && length >= 3) {
+                language = new String(new char[] {(char) data[i + 2], (char) data[i + 3], (char) data[i + 4]});
+            } else if (tag == AC3_DESCRIPTOR) {
+                ac3 = true;
+            } else if (tag == REGISTRATION_DESCRIPTOR && length >= 4) {
+                ac3 |= AC3_FORMAT_IDENTIFIER.equals(new String(new char[] {(char) data[i + 2], (char) data[i + 3], (char) data[i + 4], (char) data[i + 5]}));
+            } else if (tag == TELETEXT_DESCRIPTOR || tag == SUBTITLING_DESCRIPTOR) {
+                subtitles = true;
+            }
+        }
+
+        switch (streamType) {
+            case 0x01: return new ElementaryStream(pid, StreamKind.VIDEO, "mpeg1video", language);
+            case 0x02: return new ElementaryStream(pid, StreamKind.VIDEO, "mpeg2video", language);
+            case 0x1B: return new ElementaryStream(pid, StreamKind.VIDEO, "h264", language);
+            case 0x03:
+            case 0x04: return new ElementaryStream(pid, StreamKind.AUDIO, "mp3", language);
+            case 0x0F: return new ElementaryStream(pid, StreamKind.AUDIO, "aac", language);
+            case 0x81: return new ElementaryStream(pid, StreamKind.AUDIO, "ac3", language);
+            case 0x06:
+                if (ac3) {
+                    return new ElementaryStream(pid, StreamKind.AUDIO, "ac3", language);
+                } else if (subtitles) {
+                    return new ElementaryStream(pid, StreamKind.OTHER, null, language);
+                }
+                return null;
+            default: return null;
+        }
+    }
+
+    private static int sectionLength(byte[] data, int section) {
+        return readUnsignedShort(data, section + 1) & 0x0FFF;
+    }
+
+    private static int readUnsignedShort(byte[] data, int i) {
+        return ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+    }
+
+    /*
+     * Returns PTS from PES header or -1 if there is no PTS
+     */
+    static long readPts(byte[] data, int start, int end) {
+        if (start + 14 > end || data[start] != 0 || data[start + 1] != 0 || data[start + 2] != 1
+                || (data[start + 7] & 0x80) == 0) {
+            return -1;
+        }
+
+        int i = start + 9;
+        return ((long) ((data[i] >> 1) & 0x07) << 30)
+                | ((long) (data[i + 1] & 0xFF) << 22)
+                | ((long) ((data[i + 2] & 0xFF) >> 1) << 15)
+                | ((long) (data[i + 3] & 0xFF) << 7)
+                | ((data[i + 4] & 0xFF) >> 1);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Header of transport stream packet
+     */
+    static class TsPacket {
+        int pid;
+        boolean payloadUnitStart;
+        int payloadStart;
+        int payloadEnd;
+
+        /*
+         * Returns null if there is no sync byte at given position
+         */
+        static TsPacket parse(byte[] data, int start) {
+            if (data[start] != SYNC_BYTE) {
+                return null;
+            }
+
+            TsPacket packet = new TsPacket();
+            packet.payloadUnitStart = (data[start + 1] & 0x40) != 0;
+            packet.pid = readUnsignedShort(data, start + 1) & 0x1FFF;
+            packet.payloadEnd = start + TS_PACKET_SIZE;
+
+            int adaptationFieldControl = (data[start + 3] >> 4) & 0x03;
+            packet.payloadStart = start + 4;
+            if ((adaptationFieldControl & 0x02) != 0) {
+                packet.payloadStart += 1 + (data[start + 4] & 0xFF);
+            }
+            if ((adaptationFieldControl & 0x01) == 0) {
+                packet.payloadStart = packet.payloadEnd;
+            }
+
+            packet.payloadStart = Math.min(packet.payloadStart, packet.payloadEnd);
+            return packet;
+        }
+    }
+
+    /**
+     * Elementary stream from PMT together with parameters read from its data
+     */
+    static class ElementaryStream {
+        final int pid;
+        final StreamKind kind;
+        final String language;
+        String codec;
+        long firstPts = -1;
+        boolean analyzed;
+
+        int width;
+        int height;
+        int sampleRate;
+        int channels;
+
+        private ByteArrayOutputStream pesData;
+
+        ElementaryStream(int pid, StreamKind kind, String codec, String language) {
+            this.pid = pid;
+            this.kind = kind;
+            this.codec = codec;
+            this.language = language;
+        }
+
+        /*
+         * Collects data of PES packets and analyzes it when PES packet is complete
+         */
+        void addPayload(byte[] data, TsPacket packet) {
+            if (analyzed || kind == StreamKind.OTHER) {
+                return;
+            }
+
+            int start = packet.payloadStart;
+            if (packet.payloadUnitStart) {
+                if (pesData != null) {
+                    analyzed = analyze(pesData.toByteArray());
+                }
+
+                long pts = readPts(data, start, packet.payloadEnd);
+                if (firstPts < 0 && pts >= 0) {
+                    firstPts = pts;
+                }
+
+                if (start + 9 > packet.payloadEnd) {
+                    return;
+                }
+
+                pesData = new ByteArrayOutputStream();
+                start += 9 + (data[start + 8] & 0xFF);
+            }
+
+            if (pesData != null && start < packet.payloadEnd && pesData.size() < MAX_PES_DATA_SIZE) {
+                pesData.write(data, start, packet.payloadEnd - start);
+            }
+        }
+
+        /*
+         * Analyzes data of the last PES packet if it was not complete
+         */
+        void finish() {
+            if (!analyzed && kind != StreamKind.OTHER && pesData != null) {
+                analyzed = analyze(pesData.toByteArray());
+            }
+        }
+
+        private boolean analyze(byte[] data) {
+            if (kind == StreamKind.VIDEO) {
+                return "h264".equals(codec) ? analyzeH264(data) : analyzeMpegVideo(data);
+            } else if ("aac".equals(codec)) {
+                return analyzeAdts(data);
+            } else if ("ac3".equals(codec)) {
+                return analyzeAc3(data);
+            } else {
+                return analyzeMpegAudio(data);
+            }
+        }
+
+        private boolean analyzeMpegVideo(byte[] data) {
+            for (int i = 0; i + 7 <= data.length; i++) {
+                if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1 && (data[i + 3] & 0xFF) == 0xB3) {
+                    width = ((data[i + 4] & 0xFF) << 4) | ((data[i + 5] & 0xFF) >> 4);
+                    height = ((data[i + 5] & 0x0F) << 8) | (data[i + 6] & 0xFF);
+                    return ContainerUtils.isValidVideo(width, height);
+                }
+            }
+
+            return false;
+        }
+
+        private boolean analyzeH264(byte[] data) {
+            for (int i = 0; i + 4 < data.length; i++) {
+                if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1 && (data[i + 3] & 0x1F) == 7) {
+                    try {
+                        parseSps(new BitReader(removeEmulationPrevention(data, i + 4)));
+                        return ContainerUtils.isValidVideo(width, height);
+                    } catch (IndexOutOfBoundsException e) {
+                        return false;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        private void parseSps(BitReader reader) {
+            int profile = reader.readBits(8);
+            reader.skipBits(16); //constraint flags and level
+            reader.readUE(); //seq_parameter_set_id
+
+            int chromaFormat = 1;
+            boolean separateColourPlane = false;
+            for (int highProfile: H264_HIGH_PROFILES) {
+                if (profile == highProfile) {
+                    chromaFormat = reader.readUE();
+                    if (chromaFormat == 3) {
+                        separateColourPlane = reader.readBit() == 1;
+                    }
+                    reader.readUE(); //bit_depth_luma_minus8
+                    reader.readUE(); //bit_depth_chroma_minus8
+                    reader.skipBits(1); //qpprime_y_zero_transform_bypass_flag
+                    if (reader.readBit() == 1) {
+                        int lists = chromaFormat != 3 ? 8 : 12;
+                        for (int i = 0; i < lists; i++) {
+                            if (reader.readBit() == 1) {
+                                skipScalingList(reader, i < 6 ? 16 : 64);
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+
+            reader.readUE(); //log2_max_frame_num_minus4
+            int picOrderCntType = reader.readUE();
+            if (picOrderCntType == 0) {
+                reader.readUE(); //log2_max_pic_order_cnt_lsb_minus4
+            } else if (picOrderCntType == 1) {
+                reader.skipBits(1); //delta_pic_order_always_zero_flag
+                reader.readSE(); //offset_for_non_ref_pic
+                reader.readSE(); //offset_for_top_to_bottom_field
+                int cycle = reader.readUE();
+                for (int i = 0; i < cycle; i++) {
+                    reader.readSE();
+                }
+            }
+
+            reader.readUE(); //max_num_ref_frames
+            reader.skipBits(1); //gaps_in_frame_num_value_allowed_flag
+            int widthInMbs = reader.readUE() + 1;
+            int heightInMapUnits = reader.readUE() + 1;
+            int frameMbsOnly = reader.readBit();
+            if (frameMbsOnly == 0) {
+                reader.skipBits(1); //mb_adaptive_frame_field_flag
+            }
+            reader.skipBits(1); //direct_8x8_inference_flag
+
+            int cropLeft = 0;
+            int cropRight = 0;
+            int cropTop = 0;
+            int cropBottom = 0;
+            if (reader.readBit() == 1) {
+                cropLeft = reader.readUE();
+                cropRight = reader.readUE();
+                cropTop = reader.readUE();
+                cropBottom = reader.readUE();
+            }
+
+            int chromaArrayType = separateColourPlane ? 0 : chromaFormat;
+            int cropUnitX = chromaArrayType == 0 ? 1 : (chromaArrayType == 3 ? 1 : 2);
+            int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (2 - frameMbsOnly);
+
+            width = widthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+            height = (2 - frameMbsOnly) * heightInMapUnits * 16 - cropUnitY * (cropTop + cropBottom);
+        }
+
+        private void skipScalingList(BitReader reader, int size) {
+            int lastScale = 8;
+            int nextScale = 8;
+            for (int i = 0; i < size && nextScale != 0; i++) {
+                nextScale = (lastScale + reader.readSE() + 256) % 256;
+                if (nextScale != 0) {
+                    lastScale = nextScale;
+                }
+            }
+        }
+
+        private byte[] removeEmulationPrevention(byte[] data, int start) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            int zeros = 0;
+            for (int i = start; i < data.length; i++) {
+                int b = data[i] & 0xFF;
+                if (zeros >= 2 && b == 3) {
+                    zeros = 0;
+                    continue;
+                }
+
+                //Next start code
+                if (zeros >= 2 && b == 1) {
+                    break;
+                }
+
+                zeros = b == 0 ? zeros + 1 : 0;
+                result.write(b);
+            }
+
+            return result.toByteArray();
+        }
+
+        private boolean analyzeAdts(byte[] data) {
+            for (int i = 0; i + 4 <= data.length; i++) {
+                if ((data[i] & 0xFF) == 0xFF && (data[i + 1] & 0xF6) == 0xF0) {
+                    int sampleRateIndex = (data[i + 2] >> 2) & 0x0F;
+                    int channelConfiguration = ((data[i + 2] & 0x01) << 2) | ((data[i + 3] >> 6) & 0x03);
+                    if (sampleRateIndex >= AAC_SAMPLE_RATES.length || channelConfiguration == 0) {
+                        return false;
+                    }
+
+                    sampleRate = AAC_SAMPLE_RATES[sampleRateIndex];
+                    channels = channelConfiguration == 7 ? 8 : channelConfiguration;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean analyzeMpegAudio(byte[] data) {
+            for (int i = 0; i + 4 <= data.length; i++) {
+                if ((data[i] & 0xFF) == 0xFF && (data[i + 1] & 0xE0) == 0xE0) {
+                    int version = (data[i + 1] >> 3) & 0x03;
+                    int layer = (data[i + 1] >> 1) & 0x03;
+                    int sampleRateIndex = (data[i + 2] >> 2) & 0x03;
+                    if (version == 1 || layer == 0 || sampleRateIndex == 3) {
+                        continue;
+                    }
+
+                    //MPEG-1, MPEG-2 and MPEG-2.5 have sample rates divided by 1, 2 and 4
+                    int divider = version == 3 ? 1 : (version == 2 ? 2 : 4);
+                    sampleRate = MPEG_AUDIO_SAMPLE_RATES[sampleRateIndex] / divider;
+                    channels = ((data[i + 3] >> 6) & 0x03) == 3 ? 1 : 2;
+                    codec = layer == 1 ? "mp3" : (layer == 2 ? "mp2" : "mp1");
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean analyzeAc3(byte[] data) {
+            for (int i = 0; i + 8 <= data.length; i++) {
+                if (data[i] == 0x0B && data[i + 1] == 0x77) {
+                    int sampleRateCode = (data[i + 4] >> 6) & 0x03;
+                    int bsid = (data[i + 5] >> 3) & 0x1F;
+                    if (sampleRateCode == 3 || bsid > 10) {
+                        return false;
+                    }
+
+                    BitReader reader = new BitReader(data, i + 6);
+                    int acmod = reader.readBits(3);
+                    if ((acmod & 0x01) != 0 && acmod != 1) {
+                        reader.skipBits(2); //cmixlev
+                    }
+                    if ((acmod & 0x04) != 0) {
+                        reader.skipBits(2); //surmixlev
+                    }
+                    if (acmod == 2) {
+                        reader.skipBits(2); //dsurmod
+                    }
+
+                    sampleRate = AC3_SAMPLE_RATES[sampleRateCode];
+                    channels = AC3_CHANNELS[acmod] + reader.readBit();
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Reads bits and Exp-Golomb codes from byte array
+     */
+    static class BitReader {
+        private final byte[] data;
+        private int position;
+
+        BitReader(byte[] data) {
+            this(data, 0);
+        }
+
+        BitReader(byte[] data, int start) {
+            this.data = data;
+            this.position = start * 8;
+        }
+
+        int readBit() {
+            int bit = (data[position >> 3] >> (7 - (position & 0x07))) & 0x01;
+            position++;
+            return bit;
+        }
+
+        int readBits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | readBit();
+            }
+
+            return value;
+        }
+
+        void skipBits(int count) {
+            position += count;
+        }
+
+        int readUE() {
+            int leadingZeros = 0;
+            while (readBit() == 0) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("Invalid Exp-Golomb code");
+                }
+            }
+
+            return (int) ((1L << leadingZeros) - 1 + readBits(leadingZeros));
+        }
+
+        int readSE() {
+            int value = readUE();
+            return (value & 0x01) != 0 ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+}
@@ -39,6 +39,7 @@ public class FileListEntry {
     private Boolean audio = false;
     private String mimeType;
     private String extension;
+    private Long size;
     private MediaInfo mediaInfo;
 
     public String getId() {
@@ -113,6 +114,14 @@ public class FileListEntry {
         this.extension = extension;
     }
 
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
     public MediaInfo getMediaInfo() {
         return mediaInfo;
     }
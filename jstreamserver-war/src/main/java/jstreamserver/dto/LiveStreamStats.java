@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.dto;
+
+import java.util.Map;
+
+/**
+ * Counters of single live stream or of a rendition of adaptive live stream
+ *
+ * @author Sergey Prilukin
+ */
+public class LiveStreamStats {
+    private int id;
+    private String rendition;
+    private int viewers;
+    private boolean transcoding;
+    private boolean transcodingPaused;
+    private long transcodingPauses;
+    private double transcodeSpeed;
+    private int encodeFps;
+    private long timeToFirstSegment;
+    private long segmentsProduced;
+    private long segmentLatencyCount;
+    private double segmentLatencySum;
+    private Map<String, Long> segmentLatencyBuckets;
+    private long playListRequests;
+    private long segmentRequests;
+    private long bytesServed;
+    private long segmentBufferEvictions;
+    private Integer lastExitCode;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return name of the rendition or {@code null} if stream is not adaptive
+     */
+    public String getRendition() {
+        return rendition;
+    }
+
+    public void setRendition(String rendition) {
+        this.rendition = rendition;
+    }
+
+    public int getViewers() {
+        return viewers;
+    }
+
+    public void setViewers(int viewers) {
+        this.viewers = viewers;
+    }
+
+    public boolean getTranscoding() {
+        return transcoding;
+    }
+
+    public void setTranscoding(boolean transcoding) {
+        this.transcoding = transcoding;
+    }
+
+    /**
+     * @return {@code true} if transcoding is paused because it is far ahead of viewers
+     */
+    public boolean getTranscodingPaused() {
+        return transcodingPaused;
+    }
+
+    public void setTranscodingPaused(boolean transcodingPaused) {
+        this.transcodingPaused = transcodingPaused;
+    }
+
+    public long getTranscodingPauses() {
+        return transcodingPauses;
+    }
+
+    public void setTranscodingPauses(long transcodingPauses) {
+        this.transcodingPauses = transcodingPauses;
+    }
+
+    /**
+     * @return ratio of transcoded media time to elapsed time or {@code -1} if it is not measured yet
+     */
+    public double getTranscodeSpeed() {
+        return transcodeSpeed;
+    }
+
+    public void setTranscodeSpeed(double transcodeSpeed) {
+        this.transcodeSpeed = transcodeSpeed;
+    }
+
+    public int getEncodeFps() {
+        return encodeFps;
+    }
+
+    public void setEncodeFps(int encodeFps) {
+        this.encodeFps = encodeFps;
+    }
+
+    /**
+     * @return time in milliseconds until the first segment was available or {@code -1}
+     */
+    public long getTimeToFirstSegment() {
+        return timeToFirstSegment;
+    }
+
+    public void setTimeToFirstSegment(long timeToFirstSegment) {
+        this.timeToFirstSegment = timeToFirstSegment;
+    }
+
+    public long getSegmentsProduced() {
+        return segmentsProduced;
+    }
+
+    public void setSegmentsProduced(long segmentsProduced) {
+        this.segmentsProduced = segmentsProduced;
+    }
+
+    public long getSegmentLatencyCount() {
+        return segmentLatencyCount;
+    }
+
+    public void setSegmentLatencyCount(long segmentLatencyCount) {
+        this.segmentLatencyCount = segmentLatencyCount;
+    }
+
+    /**
+     * @return total time spent on production of segments in seconds
+     */
+    public double getSegmentLatencySum() {
+        return segmentLatencySum;
+    }
+
+    public void setSegmentLatencySum(double segmentLatencySum) {
+        this.segmentLatencySum = segmentLatencySum;
+    }
+
+    /**
+     * @return cumulative counts of segments by production time in seconds
+     */
+    public Map<String, Long> getSegmentLatencyBuckets() {
+        return segmentLatencyBuckets;
+    }
+
+    public void setSegmentLatencyBuckets(Map<String, Long> segmentLatencyBuckets) {
+        this.segmentLatencyBuckets = segmentLatencyBuckets;
+    }
+
+    public long getPlayListRequests() {
+        return playListRequests;
+    }
+
+    public void setPlayListRequests(long playListRequests) {
+        this.playListRequests = playListRequests;
+    }
+
+    public long getSegmentRequests() {
+        return segmentRequests;
+    }
+
+    public void setSegmentRequests(long segmentRequests) {
+        this.segmentRequests = segmentRequests;
+    }
+
+    public long getBytesServed() {
+        return bytesServed;
+    }
+
+    public void setBytesServed(long bytesServed) {
+        this.bytesServed = bytesServed;
+    }
+
+    public long getSegmentBufferEvictions() {
+        return segmentBufferEvictions;
+    }
+
+    public void setSegmentBufferEvictions(long segmentBufferEvictions) {
+        this.segmentBufferEvictions = segmentBufferEvictions;
+    }
+
+    /**
+     * @return exit code of the last finished transcoding or {@code null}
+     */
+    public Integer getLastExitCode() {
+        return lastExitCode;
+    }
+
+    public void setLastExitCode(Integer lastExitCode) {
+        this.lastExitCode = lastExitCode;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.dto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters of live streaming served by <code>/stats</code>
+ *
+ * @author Sergey Prilukin
+ */
+public class ServerStats {
+    private int activeLiveStreams;
+    private long streamEvictions;
+    private long segmentCacheEvictions;
+    private Map<String, Long> exitCodes = new LinkedHashMap<String, Long>();
+    private List<LiveStreamStats> streams = new ArrayList<LiveStreamStats>();
+
+    public int getActiveLiveStreams() {
+        return activeLiveStreams;
+    }
+
+    public void setActiveLiveStreams(int activeLiveStreams) {
+        this.activeLiveStreams = activeLiveStreams;
+    }
+
+    /**
+     * @return number of watched live streams destroyed to start new ones
+     */
+    public long getStreamEvictions() {
+        return streamEvictions;
+    }
+
+    public void setStreamEvictions(long streamEvictions) {
+        this.streamEvictions = streamEvictions;
+    }
+
+    public long getSegmentCacheEvictions() {
+        return segmentCacheEvictions;
+    }
+
+    public void setSegmentCacheEvictions(long segmentCacheEvictions) {
+        this.segmentCacheEvictions = segmentCacheEvictions;
+    }
+
+    /**
+     * @return number of finished transcodings by exit code
+     */
+    public Map<String, Long> getExitCodes() {
+        return exitCodes;
+    }
+
+    public void setExitCodes(Map<String, Long> exitCodes) {
+        this.exitCodes = exitCodes;
+    }
+
+    public List<LiveStreamStats> getStreams() {
+        return streams;
+    }
+
+    public void setStreams(List<LiveStreamStats> streams) {
+        this.streams = streams;
+    }
+}
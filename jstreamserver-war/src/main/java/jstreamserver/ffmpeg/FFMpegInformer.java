@@ -30,8 +30,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Utility class which allows to read information information from audio\video inputs
@@ -41,7 +39,8 @@ import java.util.regex.Pattern;
 public final class FFMpegInformer {
     public static final String INPUT_FILE_FORMAT = "-i";
 
-    private RuntimeExecutor ffmpegExecutor;
+    private volatile RuntimeExecutor ffmpegExecutor;
+    private volatile boolean destroyed;
 
     public void setFfmpegExecutor(RuntimeExecutor ffmpegExecutor) {
         this.ffmpegExecutor = ffmpegExecutor;
@@ -54,7 +53,18 @@ public final class FFMpegInformer {
 
         final List<MediaInfo> mediaInfos = new ArrayList<MediaInfo>(files.size());
 
+        if (destroyed) {
+            return mediaInfos;
+        }
+
         ffmpegExecutor.execute(ffmpegPath, getFFMpegParams(files));
+
+        //Process could be not started yet when destroy() was called
+        if (destroyed) {
+            ffmpegExecutor.destroy();
+            return mediaInfos;
+        }
+
         Thread isReader = new Thread(new InputReader(ffmpegExecutor.getInputStream(), mediaInfos));
         Thread esReader = new Thread(new InputReader(ffmpegExecutor.getErrorStream(), mediaInfos));
 
@@ -72,6 +82,17 @@ public final class FFMpegInformer {
         ffmpegExecutor.destroy();
         return mediaInfos;
     }
+
+    /**
+     * Forces stopping of ffmpeg process. Process which is not started yet is stopped as soon as it starts.
+     */
+    public void destroy() {
+        destroyed = true;
+        RuntimeExecutor executor = ffmpegExecutor;
+        if (executor != null) {
+            executor.destroy();
+        }
+    }
     
     private static String[] getFFMpegParams(List<String> files) {
 
@@ -94,12 +115,11 @@ public final class FFMpegInformer {
      */
     static class InputReader implements Runnable {
         private BufferedReader reader;
-        private List<MediaInfo> mediaInfos;
-        private MediaInfo currentMediaInfo;
+        private MediaInfoParser parser;
 
         public InputReader(InputStream inputStream, List<MediaInfo> mediaInfos) {
             this.reader = new BufferedReader(new InputStreamReader(inputStream));
-            this.mediaInfos = mediaInfos;
+            this.parser = new MediaInfoParser(mediaInfos);
         }
 
         @Override
@@ -107,44 +127,7 @@ public final class FFMpegInformer {
             try {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    Matcher matcher = Pattern.compile(MediaInfo.INPUT_PATTERN).matcher(line);
-                    if (matcher.find()) {
-                        currentMediaInfo = new MediaInfo();
-                        mediaInfos.add(currentMediaInfo);
-                        continue;
-                    }
-
-                    matcher = Pattern.compile(MediaInfo.DURATION_PATTERN).matcher(line);
-                    if (matcher.find()) {
-                        currentMediaInfo.setDuration(matcher.group(1));
-                        currentMediaInfo.setBitrate(matcher.group(4));
-                        continue;
-                    }
-
-                    matcher = Pattern.compile(VideoStreamInfo.PATTERN).matcher(line);
-                    if (matcher.find()) {
-                        VideoStreamInfo videoStreamInfo = new VideoStreamInfo();
-                        videoStreamInfo.setId(matcher.group(1));
-                        videoStreamInfo.setLanguage(matcher.group(3));
-                        videoStreamInfo.setEncoder(matcher.group(4));
-                        videoStreamInfo.setResolution(matcher.group(6));
-                        videoStreamInfo.setDefaultStream(matcher.group(8) != null);
-                        currentMediaInfo.getVideoStreams().add(videoStreamInfo);
-                        continue;
-                    }
-
-                    matcher = Pattern.compile(AudioStreamInfo.PATTERN).matcher(line);
-                    if (matcher.find()) {
-                        AudioStreamInfo audioStreamInfo = new AudioStreamInfo();
-                        audioStreamInfo.setId(matcher.group(1));
-                        audioStreamInfo.setLanguage(matcher.group(3));
-                        audioStreamInfo.setEncoder(matcher.group(4));
-                        audioStreamInfo.setFrequency(matcher.group(6));
-                        audioStreamInfo.setChannels(matcher.group(7));
-                        audioStreamInfo.setDefaultStream(matcher.group(8) != null);
-
-                        currentMediaInfo.getAudioStreams().add(audioStreamInfo);
-                    }
+                    parser.parseLine(line);
                 }
             } catch (Exception e) {
                 /* ignore */
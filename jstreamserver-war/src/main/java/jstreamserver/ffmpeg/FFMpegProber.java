@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.ffmpeg;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads media info of several files concurrently.
+ * Each file is probed by its own ffmpeg process, number of processes
+ * running at the same time is limited by the size of the pool.
+ * Process which does not finish in time is killed, so one slow or broken
+ * file does not block the whole list.
+ *
+ * @author Sergey Prilukin
+ */
+public final class FFMpegProber {
+    private static final Log log = LogFactory.getLog(FFMpegProber.class);
+
+    private final String ffmpegPath;
+    private final long timeout;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * @param ffmpegPath path to ffmpeg executable
+     * @param threads max number of ffmpeg processes running at the same time.
+     *                If less or equal to zero then number of available processors is used.
+     * @param timeout max time in milliseconds given to ffmpeg to read one file
+     */
+    public FFMpegProber(String ffmpegPath, int threads, long timeout) {
+        this.ffmpegPath = ffmpegPath;
+        this.timeout = timeout;
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(poolSize, new ProberThreadFactory("FFMpegProber-"));
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new ProberThreadFactory("FFMpegProberWatchdog-"));
+    }
+
+    /**
+     * Returns media info for given files
+     *
+     * @param files paths to media files
+     * @return list of media infos in the same order as passed files.
+     *  List contains {@code null} for files which can not be read or were not read in time.
+     */
+    public List<MediaInfo> probe(List<String> files) {
+        List<Future<MediaInfo>> futures = new ArrayList<Future<MediaInfo>>(files.size());
+        for (String file: files) {
+            futures.add(executor.submit(new ProbeTask(file)));
+        }
+
+        List<MediaInfo> mediaInfos = new ArrayList<MediaInfo>(files.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                mediaInfos.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                log.warn(String.format("Can not read media info of [%s]", files.get(i)), e.getCause());
+                mediaInfos.add(null);
+            } catch (InterruptedException e) {
+                for (Future<MediaInfo> future: futures) {
+                    future.cancel(true);
+                }
+
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        return mediaInfos;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    class ProbeTask implements Callable<MediaInfo> {
+        private final String file;
+
+        ProbeTask(String file) {
+            this.file = file;
+        }
+
+        @Override
+        public MediaInfo call() throws Exception {
+            final FFMpegInformer informer = new FFMpegInformer();
+            final AtomicBoolean timedOut = new AtomicBoolean(false);
+
+            ScheduledFuture<?> killer = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    informer.destroy();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+
+            try {
+                List<MediaInfo> mediaInfos = informer.getInfo(Collections.singletonList(file), ffmpegPath);
+                if (timedOut.get()) {
+                    log.warn(String.format("Reading media info of [%s] has been timed out", file));
+                    return null;
+                }
+
+                return mediaInfos.isEmpty() ? null : mediaInfos.get(0);
+            } finally {
+                killer.cancel(false);
+            }
+        }
+    }
+
+    static class ProberThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        ProberThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -22,22 +22,18 @@
 
 package jstreamserver.ffmpeg;
 
+import jstreamserver.hls.TsSegmenter;
+import jstreamserver.utils.ProcessIOEngine;
 import jstreamserver.utils.RuntimeExecutor;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.math.BigDecimal;
-import java.util.Arrays;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements HTTP Streaming technology
@@ -45,6 +41,10 @@ import java.util.regex.Pattern;
  * by using <a href="http://ffmpeg.org">ffmpeg</a> and native MAC OS segmenter or some platform specific implementations:
  *  <ul><li><a href="http://code.google.com/p/httpsegmenter">windows</a></li>
  *  <li><a href="https://github.com/carsonmcdonald/HTTP-Live-Video-Stream-Segmenter-and-Distributor">linux</a></li></ul>
+ * or by {@link TsSegmenter} which reads output of ffmpeg in the same JVM.
+ * <p/>
+ * Output of the processes is read by shared {@link ProcessIOEngine},
+ * so no threads are created per segmenter.
  *
  * @author Sergey Prilukin
  */
@@ -53,11 +53,8 @@ public final class FFMpegSegmenter {
     
     private RuntimeExecutor ffmpegExecutor = new RuntimeExecutor();
     private RuntimeExecutor segmenterExecutor = new RuntimeExecutor();
-    private Thread streamCopier;
-    private Thread segmenterInputStreamReader;
-    private Thread segmenterErrorStreamReader;
-    private Thread ffmpegErrorStreamReader;
-    private Thread finishWaiter;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile ProcessIOEngine.Pausable ffmpegOutput;
 
     public void setFfmpegExecutor(RuntimeExecutor ffmpegExecutor) {
         this.ffmpegExecutor = ffmpegExecutor;
@@ -72,78 +69,155 @@ public final class FFMpegSegmenter {
         String[] segmenterParamsArray = segmenterParams.split("[\\s]+");
         segmenterExecutor.execute(segmenterPath, segmenterParamsArray);
 
-        streamCopier = new Thread(new StreamCopier(ffmpegExecutor.getInputStream(), segmenterExecutor.getOutputStream()), "StreamCopier-" + suffix);
-        segmenterInputStreamReader = new Thread(new InputReader(segmenterExecutor.getInputStream(), progressListener), "SegmenterInputReader-" + suffix);
-        segmenterErrorStreamReader = new Thread(new InputReader(segmenterExecutor.getErrorStream(), progressListener), "SegmenterErrorReader-" + suffix);
-        ffmpegErrorStreamReader = new Thread(new InputReader(ffmpegExecutor.getErrorStream(), progressListener, getPlayListPath(segmenterParamsArray)), "FFMpegInputReader-" + suffix);
-        finishWaiter = new Thread(new FinishWaiter(progressListener, ffmpegExecutor, segmenterExecutor), "FinishWaiter-" + suffix);
+        FinishNotifier finishNotifier = new FinishNotifier(progressListener, segmenterExecutor, 4);
+        ProcessIOEngine engine = ProcessIOEngine.getInstance();
+        ffmpegOutput = engine.read(ffmpegExecutor.getInputStream(), ffmpegExecutor, new StreamCopier(segmenterExecutor.getOutputStream(), finishNotifier));
+        engine.read(segmenterExecutor.getInputStream(), segmenterExecutor, new InputReader(progressListener, finishNotifier));
+        engine.read(segmenterExecutor.getErrorStream(), segmenterExecutor, new InputReader(progressListener, finishNotifier));
+        engine.read(ffmpegExecutor.getErrorStream(), ffmpegExecutor, new InputReader(progressListener, finishNotifier, getPlayListPath(segmenterParamsArray)));
+    }
+
+    /**
+     * Starts ffmpeg and splits its output by given segmenter in this JVM.
+     * No external segmenter process is used in this case.
+     */
+    public void start(String ffmpegPath, String ffmpegParams, TsSegmenter tsSegmenter, ProgressListener progressListener, String suffix) throws IOException {
+        ffmpegExecutor.execute(ffmpegPath, ffmpegParams.split("[\\s]+"));
 
-        List<Thread> allThreadsList = Arrays.asList(streamCopier, segmenterInputStreamReader, segmenterErrorStreamReader, ffmpegErrorStreamReader, finishWaiter);
-        for (Thread thread: allThreadsList) {
-            thread.setPriority(Thread.NORM_PRIORITY - 2);
-            thread.start();
+        FinishNotifier finishNotifier = new FinishNotifier(progressListener, ffmpegExecutor, 2);
+        ProcessIOEngine engine = ProcessIOEngine.getInstance();
+        ffmpegOutput = engine.read(ffmpegExecutor.getInputStream(), ffmpegExecutor, new SegmenterRunner(tsSegmenter, finishNotifier));
+        engine.read(ffmpegExecutor.getErrorStream(), ffmpegExecutor, new InputReader(progressListener, finishNotifier));
+    }
+
+    /**
+     * Pauses or resumes transcoding. Output of ffmpeg is not read while transcoding is paused,
+     * so ffmpeg is blocked on writing as soon as pipe buffer is full.
+     */
+    public void setPaused(boolean paused) {
+        ProcessIOEngine.Pausable output = ffmpegOutput;
+        if (output != null) {
+            output.setPaused(paused);
         }
     }
 
+    public boolean isPaused() {
+        ProcessIOEngine.Pausable output = ffmpegOutput;
+        return output != null && output.isPaused();
+    }
+
     public void destroy() {
         ffmpegExecutor.destroy();
         segmenterExecutor.destroy();
     }
 
     public void waitFor() throws InterruptedException {
-        segmenterExecutor.waitFor();
-        streamCopier.join();
-        segmenterInputStreamReader.join();
-        segmenterErrorStreamReader.join();
-        ffmpegErrorStreamReader.join();
-        finishWaiter.join();
+        finished.await();
+    }
+
+    /**
+     * Runs {@link TsSegmenter} over output of ffmpeg
+     */
+    static class SegmenterRunner implements ProcessIOEngine.StreamHandler {
+        private TsSegmenter tsSegmenter;
+        private FinishNotifier finishNotifier;
+
+        SegmenterRunner(TsSegmenter tsSegmenter, FinishNotifier finishNotifier) {
+            this.tsSegmenter = tsSegmenter;
+            this.finishNotifier = finishNotifier;
+        }
+
+        @Override
+        public void onData(byte[] buffer, int offset, int length) throws IOException {
+            tsSegmenter.write(buffer, offset, length);
+        }
+
+        @Override
+        public void onEnd() {
+            try {
+                tsSegmenter.finish();
+            } catch (IOException e) {
+                log.debug("Segmenter stopped", e);
+            }
+
+            close();
+        }
+
+        @Override
+        public void onError(IOException e) {
+            log.debug("Segmenter stopped", e);
+            close();
+        }
+
+        private void close() {
+            try {
+                tsSegmenter.close();
+            } catch (IOException e) {
+                /* ignore */
+            }
+
+            finishNotifier.streamFinished();
+        }
     }
 
-    static class StreamCopier implements Runnable {
-        private InputStream inputStream;
+    static class StreamCopier implements ProcessIOEngine.StreamHandler {
         private OutputStream outputStream;
+        private FinishNotifier finishNotifier;
 
-        StreamCopier(InputStream inputStream, OutputStream outputStream) {
-            this.inputStream = inputStream;
+        StreamCopier(OutputStream outputStream, FinishNotifier finishNotifier) {
             this.outputStream = outputStream;
+            this.finishNotifier = finishNotifier;
+        }
+
+        @Override
+        public void onData(byte[] buffer, int offset, int length) throws IOException {
+            outputStream.write(buffer, offset, length);
         }
 
         @Override
-        public void run() {
+        public void onEnd() {
+            close();
+        }
+
+        @Override
+        public void onError(IOException e) {
+            close();
+        }
+
+        private void close() {
             try {
-                IOUtils.copyLarge(inputStream, outputStream);
+                outputStream.close();
             } catch (IOException e) {
-                /* ignore */
-            } finally {
-                try {
-                    inputStream.close();
-                    outputStream.close();
-                } catch (IOException e) {
-                    /* Ignore */
-                }
+                /* Ignore */
             }
+
+            finishNotifier.streamFinished();
         }
     }
 
     /**
-     * Utility class which reads text lines from passed {@link java.io.InputStream}
-     * And reports progress to passed {@link ProgressListener}
+     * Utility class which reads text lines from the stream of the process
+     * And reports progress to passed {@link ProgressListener}.
+     * Lines are terminated by '\n', '\r' or "\r\n"
+     * as it is done by {@link java.io.BufferedReader#readLine()}.
      */
-    static class InputReader implements Runnable {
-        private BufferedReader reader;
+    static class InputReader implements ProcessIOEngine.StreamHandler {
         private ProgressListener progressListener;
+        private FinishNotifier finishNotifier;
+        private FrameMessageParser frameMessageParser = new FrameMessageParser();
+        private ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private boolean skipLineFeed = false;
         private String playListPath;
         private boolean playListCreated = false;
 
-        public InputReader(InputStream inputStream, ProgressListener progressListener, String playListPath) {
-            this.reader = new BufferedReader(new InputStreamReader(inputStream));
+        public InputReader(ProgressListener progressListener, FinishNotifier finishNotifier, String playListPath) {
             this.progressListener = progressListener;
+            this.finishNotifier = finishNotifier;
             this.playListPath = playListPath;
         }
 
-        public InputReader(InputStream inputStream, ProgressListener progressListener) {
-            this.reader = new BufferedReader(new InputStreamReader(inputStream));
-            this.progressListener = progressListener;
+        public InputReader(ProgressListener progressListener, FinishNotifier finishNotifier) {
+            this(progressListener, finishNotifier, null);
         }
 
         private void checkIfPlayListCreated() {
@@ -157,64 +231,80 @@ public final class FFMpegSegmenter {
         }
 
         @Override
-        public void run() {
+        public void onData(byte[] buffer, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                byte b = buffer[i];
+                if (b == '\n' && skipLineFeed) {
+                    skipLineFeed = false;
+                } else if (b == '\n' || b == '\r') {
+                    skipLineFeed = b == '\r';
+                    onLine();
+                } else {
+                    skipLineFeed = false;
+                    line.write(b);
+                }
+            }
+        }
+
+        private void onLine() {
+            String text = line.toString();
+            line.reset();
+
             try {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    checkIfPlayListCreated();
-
-                    Matcher matcher = Pattern.compile(FrameMessage.FRAME_PATTERN).matcher(line);
-                    if (matcher.find()) {
-                        FrameMessage frameMessage = new FrameMessage();
-                        frameMessage.setFrameNumber(Long.parseLong(matcher.group(1)));
-                        frameMessage.setFps(Integer.parseInt(matcher.group(2)));
-                        frameMessage.setQ(new BigDecimal(matcher.group(3)));
-                        frameMessage.setSize(Long.parseLong(matcher.group(4)));
-                        frameMessage.setTime(FrameMessage.DATE_FORMAT.parse(matcher.group(5)).getTime());
-                        frameMessage.setBitrate(new BigDecimal(matcher.group(6)));
-                        frameMessage.setDup(matcher.group(8) != null ? Long.parseLong(matcher.group(8)) : null);
-                        frameMessage.setDrop(matcher.group(9) != null ? Long.parseLong(matcher.group(9)) : null);
-
-                        progressListener.onFrameMessage(frameMessage);
-                    } else {
-                        progressListener.onProgress(line);
-                    }
+                checkIfPlayListCreated();
+
+                FrameMessage frameMessage = frameMessageParser.parse(text);
+                if (frameMessage != null) {
+                    progressListener.onFrameMessage(frameMessage);
+                } else {
+                    progressListener.onProgress(text);
                 }
             } catch (Exception e) {
                 /* ignore */
-            } finally {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    /* ignore */
-                }
             }
         }
+
+        @Override
+        public void onEnd() {
+            if (line.size() > 0) {
+                onLine();
+            }
+
+            finishNotifier.streamFinished();
+        }
+
+        @Override
+        public void onError(IOException e) {
+            finishNotifier.streamFinished();
+        }
     }
 
     /**
-     * Utility class which wait untill process is finished and
+     * Utility class which waits untill all streams of the processes are finished and
      * then calls {@code onFinish} method of passed {@link ProgressListener}
      */
-    static class FinishWaiter implements Runnable {
+    class FinishNotifier {
         private ProgressListener progressListener;
-        private RuntimeExecutor ffmpegExecutor;
-        private RuntimeExecutor segmenterExecutor;
+        private RuntimeExecutor executor;
+        private AtomicInteger streams;
 
-        FinishWaiter(ProgressListener progressListener, RuntimeExecutor ffmpegExecutor, RuntimeExecutor segmenterExecutor) {
+        /**
+         * @param executor executor of the process which exit code is reported
+         * @param streams number of streams which should be finished
+         */
+        FinishNotifier(ProgressListener progressListener, RuntimeExecutor executor, int streams) {
             this.progressListener = progressListener;
-            this.ffmpegExecutor = ffmpegExecutor;
-            this.segmenterExecutor = segmenterExecutor;
+            this.executor = executor;
+            this.streams = new AtomicInteger(streams);
         }
 
-        @Override
-        public void run() {
-            try {
-                ffmpegExecutor.waitFor();
-                segmenterExecutor.waitFor();
-                this.progressListener.onFinish(segmenterExecutor.getExitCode());
-            } catch (InterruptedException e) {
-                this.progressListener.onFinish(segmenterExecutor.getExitCode());
+        public void streamFinished() {
+            if (streams.decrementAndGet() == 0) {
+                try {
+                    this.progressListener.onFinish(executor.getExitCode());
+                } finally {
+                    finished.countDown();
+                }
             }
         }
     }
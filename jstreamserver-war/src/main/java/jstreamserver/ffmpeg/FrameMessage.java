@@ -22,30 +22,21 @@
 
 package jstreamserver.ffmpeg;
 
-import java.math.BigDecimal;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
-
 /**
- * POJO which incapsulates encoded frame info
+ * POJO which incapsulates encoded frame info.
+ * Created by {@link FrameMessageParser}
  *
  * @author Sergey Prilukin
  */
 public final class FrameMessage {
-    public static final String FRAME_PATTERN = "frame=[\\s]*([\\d]+)[\\s]*fps=[\\s]*([\\d]+)[\\s]*q=([\\d\\.]+)[\\s]*size=[\\s]*([\\d]+)kB[\\s]*time=([\\d]+:[\\d]+:[\\d]+\\.[\\d]+)[\\s]*bitrate=[\\s]*([\\d\\.]+)kbits/s[\\s]*(dup=([\\d]+)[\\s]*drop=([\\d]+))?";
-    public static final DateFormat DATE_FORMAT = new SimpleDateFormat("HH:mm:ss.SS");
-    static {
-        DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
-    }
+    public static final String TIME_FORMAT = "%02d:%02d:%02d.%02d";
 
     private long frameNumber;
     private int fps;
-    private BigDecimal q;
+    private double q;
     private long size;
     private long time;
-    private BigDecimal bitrate;
+    private double bitrate;
     private Long dup;
     private Long drop;
 
@@ -65,11 +56,11 @@ public final class FrameMessage {
         this.fps = fps;
     }
 
-    public BigDecimal getQ() {
+    public double getQ() {
         return q;
     }
 
-    public void setQ(BigDecimal q) {
+    public void setQ(double q) {
         this.q = q;
     }
 
@@ -89,11 +80,11 @@ public final class FrameMessage {
         this.time = time;
     }
 
-    public BigDecimal getBitrate() {
+    public double getBitrate() {
         return bitrate;
     }
 
-    public void setBitrate(BigDecimal bitrate) {
+    public void setBitrate(double bitrate) {
         this.bitrate = bitrate;
     }
 
@@ -121,7 +112,8 @@ public final class FrameMessage {
         sb.append(", fps=").append(fps);
         sb.append(", q=").append(q);
         sb.append(", size=").append(size);
-        sb.append(", time=").append(DATE_FORMAT.format(new Date(time)));
+        sb.append(", time=").append(String.format(TIME_FORMAT,
+                time / 3600000, (time / 60000) % 60, (time / 1000) % 60, (time % 1000) / 10));
         sb.append(", bitrate=").append(bitrate);
         if (dup != null) {
             sb.append(", dup=").append(dup);
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.ffmpeg;
+
+/**
+ * Parser of ffmpeg progress lines like
+ * {@code frame= 2713 fps= 91 q=28.0 size=    8334kB time=00:01:51.52 bitrate= 612.1kbits/s dup=1 drop=0}.
+ * Line is scanned once without regular expressions and intermediate strings.
+ * Instance keeps state of the line being parsed so it is not thread-safe,
+ * every reader thread should use its own instance.
+ *
+ * @author Sergey Prilukin
+ */
+public final class FrameMessageParser {
+    public static final String FRAME = "frame=";
+    public static final String FPS = "fps=";
+    public static final String Q = "q=";
+    public static final String SIZE = "size=";
+    public static final String KB = "kB";
+    public static final String TIME = "time=";
+    public static final String BITRATE = "bitrate=";
+    public static final String KBITS = "kbits/s";
+    public static final String DUP = "dup=";
+    public static final String DROP = "drop=";
+
+    private String line;
+    private int position;
+
+    /**
+     * Parses progress line of ffmpeg
+     *
+     * @param line line of ffmpeg output
+     * @return frame message or {@code null} if line is not a progress line
+     */
+    public FrameMessage parse(String line) {
+        int start = line.indexOf(FRAME);
+        if (start < 0) {
+            return null;
+        }
+
+        this.line = line;
+        this.position = start + FRAME.length();
+        skipSpaces();
+
+        try {
+            FrameMessage frameMessage = new FrameMessage();
+
+            long frameNumber = readLong();
+            if (frameNumber < 0 || !readKey(FPS)) {
+                return null;
+            }
+            frameMessage.setFrameNumber(frameNumber);
+
+            double fps = readDecimal();
+            if (Double.isNaN(fps) || !readKey(Q)) {
+                return null;
+            }
+            frameMessage.setFps((int) fps);
+
+            double q = readDecimal();
+            if (Double.isNaN(q) || !readKey(SIZE)) {
+                return null;
+            }
+            frameMessage.setQ(q);
+
+            long size = readLong();
+            if (size < 0 || !readKey(KB) || !readKey(TIME)) {
+                return null;
+            }
+            frameMessage.setSize(size);
+
+            int timeEnd = skipTime();
+            long time = parseTime(line, position, timeEnd);
+            position = timeEnd;
+            if (time < 0 || !readKey(BITRATE)) {
+                return null;
+            }
+            frameMessage.setTime(time);
+
+            double bitrate = readDecimal();
+            if (Double.isNaN(bitrate) || !readKey(KBITS)) {
+                return null;
+            }
+            frameMessage.setBitrate(bitrate);
+
+            if (readKey(DUP)) {
+                long dup = readLong();
+                if (dup >= 0 && readKey(DROP)) {
+                    long drop = readLong();
+                    if (drop >= 0) {
+                        frameMessage.setDup(dup);
+                        frameMessage.setDrop(drop);
+                    }
+                }
+            }
+
+            return frameMessage;
+        } finally {
+            this.line = null;
+        }
+    }
+
+    /**
+     * Parses time in format {@code HH:mm:ss.SS} where fraction of second may have any amount of digits.
+     * Method does not have shared state so it is safe to call it from several threads.
+     *
+     * @param value string which contains time
+     * @param start index of the first character of time
+     * @param end index after the last character of time
+     * @return time in milliseconds or -1 if value is not a valid time
+     */
+    public static long parseTime(CharSequence value, int start, int end) {
+        long millis = 0;
+        int fields = 0;
+        long field = -1;
+
+        int i = start;
+        for (; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                field = (field < 0 ? 0 : field * 10) + (c - '0');
+            } else if (c == ':' && field >= 0 && fields < 2) {
+                millis = (millis + field) * 60;
+                fields++;
+                field = -1;
+            } else if (c == '.' && field >= 0 && fields == 2) {
+                break;
+            } else {
+                return -1;
+            }
+        }
+
+        if (field < 0 || fields != 2) {
+            return -1;
+        }
+
+        millis = (millis + field) * 1000;
+
+        //fraction of the second
+        int multiplier = 100;
+        for (i++; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            millis += (c - '0') * multiplier;
+            multiplier /= 10;
+        }
+
+        return millis;
+    }
+
+    /**
+     * Same as {@link #parseTime(CharSequence, int, int)} for the whole string
+     */
+    public static long parseTime(String value) {
+        return parseTime(value, 0, value.length());
+    }
+
+    /**
+     * Parses start time as it is accepted by ffmpeg: {@code HH:mm:ss.SS} or seconds
+     * with optional fraction like {@code 90} or {@code 90.5}
+     *
+     * @param value start time
+     * @return time in milliseconds or -1 if value is not a valid time
+     */
+    public static long parseStartTime(String value) {
+        long time = parseTime(value);
+        if (time >= 0 || value.isEmpty()) {
+            return time;
+        }
+
+        long millis = 0;
+        int i = 0;
+        for (; i < value.length() && value.charAt(i) != '.'; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9' || millis > Long.MAX_VALUE / 10000) {
+                return -1;
+            }
+
+            millis = millis * 10 + (c - '0') * 1000;
+        }
+
+        if (i == 0) {
+            return -1;
+        }
+
+        //fraction of the second
+        int multiplier = 100;
+        for (i++; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            millis += (c - '0') * multiplier;
+            multiplier /= 10;
+        }
+
+        return millis;
+    }
+
+    private boolean readKey(String key) {
+        skipSpaces();
+        if (line.startsWith(key, position)) {
+            position += key.length();
+            skipSpaces();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+    }
+
+    /*
+     * Returns -1 if there is no digits at current position
+     */
+    private long readLong() {
+        long value = -1;
+        while (position < line.length()) {
+            char c = line.charAt(position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+
+            value = (value < 0 ? 0 : value * 10) + (c - '0');
+            position++;
+        }
+
+        return value;
+    }
+
+    /*
+     * Returns NaN if there is no number at current position
+     */
+    private double readDecimal() {
+        boolean negative = position < line.length() && line.charAt(position) == '-';
+        if (negative) {
+            position++;
+        }
+
+        long value = readLong();
+        if (value < 0) {
+            return Double.NaN;
+        }
+
+        double result = value;
+        if (position < line.length() && line.charAt(position) == '.') {
+            position++;
+            double multiplier = 0.1;
+            while (position < line.length()) {
+                char c = line.charAt(position);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+
+                result += (c - '0') * multiplier;
+                multiplier /= 10;
+                position++;
+            }
+        }
+
+        return negative ? -result : result;
+    }
+
+    /*
+     * Returns index after time value which starts at current position
+     */
+    private int skipTime() {
+        int end = position;
+        while (end < line.length()) {
+            char c = line.charAt(end);
+            if ((c < '0' || c > '9') && c != ':' && c != '.') {
+                break;
+            }
+            end++;
+        }
+
+        return end;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.ffmpeg;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser of ffmpeg output which describes input files.
+ * Patterns are compiled once, matchers are reused for every line
+ * and lines which can not match are skipped by cheap substring checks.
+ * Instance is not thread-safe, every reader thread should use its own instance.
+ *
+ * @author Sergey Prilukin
+ */
+public final class MediaInfoParser {
+    private static final Pattern INPUT = Pattern.compile(MediaInfo.INPUT_PATTERN);
+    private static final Pattern DURATION = Pattern.compile(MediaInfo.DURATION_PATTERN);
+    private static final Pattern VIDEO_STREAM = Pattern.compile(VideoStreamInfo.PATTERN);
+    private static final Pattern AUDIO_STREAM = Pattern.compile(AudioStreamInfo.PATTERN);
+
+    private final Matcher inputMatcher = INPUT.matcher("");
+    private final Matcher durationMatcher = DURATION.matcher("");
+    private final Matcher videoStreamMatcher = VIDEO_STREAM.matcher("");
+    private final Matcher audioStreamMatcher = AUDIO_STREAM.matcher("");
+
+    private final List<MediaInfo> mediaInfos;
+    private MediaInfo currentMediaInfo;
+
+    /**
+     * @param mediaInfos list where media info of every found input is added
+     */
+    public MediaInfoParser(List<MediaInfo> mediaInfos) {
+        this.mediaInfos = mediaInfos;
+    }
+
+    public void parseLine(String line) {
+        if (line.contains("Input #")) {
+            if (inputMatcher.reset(line).find()) {
+                currentMediaInfo = new MediaInfo();
+                mediaInfos.add(currentMediaInfo);
+            }
+        } else if (currentMediaInfo == null) {
+            /* Output before the first input is not interesting */
+        } else if (line.contains("Duration:")) {
+            if (durationMatcher.reset(line).find()) {
+                currentMediaInfo.setDuration(durationMatcher.group(1));
+                currentMediaInfo.setBitrate(durationMatcher.group(4));
+            }
+        } else if (line.contains("Stream #")) {
+            if (line.contains("Video:") && videoStreamMatcher.reset(line).find()) {
+                VideoStreamInfo videoStreamInfo = new VideoStreamInfo();
+                videoStreamInfo.setId(videoStreamMatcher.group(1));
+                videoStreamInfo.setLanguage(videoStreamMatcher.group(3));
+                videoStreamInfo.setEncoder(videoStreamMatcher.group(4));
+                videoStreamInfo.setResolution(videoStreamMatcher.group(6));
+                videoStreamInfo.setDefaultStream(videoStreamMatcher.group(8) != null);
+                currentMediaInfo.getVideoStreams().add(videoStreamInfo);
+            } else if (line.contains("Audio:") && audioStreamMatcher.reset(line).find()) {
+                AudioStreamInfo audioStreamInfo = new AudioStreamInfo();
+                audioStreamInfo.setId(audioStreamMatcher.group(1));
+                audioStreamInfo.setLanguage(audioStreamMatcher.group(3));
+                audioStreamInfo.setEncoder(audioStreamMatcher.group(4));
+                audioStreamInfo.setFrequency(audioStreamMatcher.group(6));
+                audioStreamInfo.setChannels(audioStreamMatcher.group(7));
+                audioStreamInfo.setDefaultStream(audioStreamMatcher.group(8) != null);
+                currentMediaInfo.getAudioStreams().add(audioStreamInfo);
+            }
+        }
+    }
+}
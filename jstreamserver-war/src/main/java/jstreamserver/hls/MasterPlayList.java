@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable master playlist of HTTP Live Streaming
+ * which lists variant playlists of the same content.
+ *
+ * @author Sergey Prilukin
+ */
+public final class MasterPlayList {
+
+    public static final String STREAM_INFO_TAG = "#EXT-X-STREAM-INF:";
+    public static final String BANDWIDTH_ATTRIBUTE = "BANDWIDTH=";
+    public static final String RESOLUTION_ATTRIBUTE = "RESOLUTION=";
+
+    private final List<Variant> variants;
+    private final byte[] content;
+
+    private MasterPlayList(List<Variant> variants, byte[] content) {
+        this.variants = Collections.unmodifiableList(variants);
+        this.content = content;
+    }
+
+    /**
+     * Creates master playlist. Clients start playback from the first variant.
+     *
+     * @param variants variant playlists
+     * @return master playlist
+     */
+    public static MasterPlayList create(List<Variant> variants) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(PlayList.HEADER_TAG).append("\n");
+
+        for (Variant variant: variants) {
+            sb.append(STREAM_INFO_TAG).append(BANDWIDTH_ATTRIBUTE).append(variant.getBandwidth());
+            if (variant.getResolution() != null) {
+                sb.append(",").append(RESOLUTION_ATTRIBUTE).append(variant.getResolution());
+            }
+            sb.append("\n");
+            sb.append(variant.getUri()).append("\n");
+        }
+
+        try {
+            return new MasterPlayList(new ArrayList<Variant>(variants), sb.toString().getBytes(PlayList.ENCODING));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public List<Variant> getVariants() {
+        return variants;
+    }
+
+    public int getContentLength() {
+        return content.length;
+    }
+
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * Variant playlist
+     */
+    public static final class Variant {
+        private final String uri;
+        private final int bandwidth;
+        private final String resolution;
+
+        /**
+         * @param uri URI of the variant playlist
+         * @param bandwidth peak bit rate in bits per second
+         * @param resolution resolution of the video in format "WIDTHxHEIGHT" or {@code null}
+         */
+        public Variant(String uri, int bandwidth, String resolution) {
+            this.uri = uri;
+            this.bandwidth = bandwidth;
+            this.resolution = resolution;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public int getBandwidth() {
+            return bandwidth;
+        }
+
+        public String getResolution() {
+            return resolution;
+        }
+    }
+}
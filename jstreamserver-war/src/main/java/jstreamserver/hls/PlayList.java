@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of HTTP Live Streaming playlist.
+ * Content is encoded once when snapshot is created and then
+ * served as is to every client.
+ *
+ * @author Sergey Prilukin
+ */
+public final class PlayList {
+
+    public static final String ENCODING = "UTF-8";
+
+    public static final String HEADER_TAG = "#EXTM3U";
+    public static final String VERSION_TAG = "#EXT-X-VERSION:";
+    public static final String TARGET_DURATION_TAG = "#EXT-X-TARGETDURATION:";
+    public static final String MEDIA_SEQUENCE_TAG = "#EXT-X-MEDIA-SEQUENCE:";
+    public static final String SEGMENT_INFO_TAG = "#EXTINF:";
+    public static final String END_LIST_TAG = "#EXT-X-ENDLIST";
+    public static final String DISCONTINUITY_TAG = "#EXT-X-DISCONTINUITY";
+    public static final String PLAYLIST_TYPE_EVENT_TAG = "#EXT-X-PLAYLIST-TYPE:EVENT";
+    public static final String START_TAG = "#EXT-X-START:TIME-OFFSET=0";
+    public static final String SERVER_CONTROL_TAG = "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES";
+
+    private final int targetDuration;
+    private final long mediaSequence;
+    private final List<Segment> segments;
+    private final boolean endList;
+    private final byte[] content;
+
+    private PlayList(int targetDuration, long mediaSequence, List<Segment> segments, boolean endList, byte[] content) {
+        this.targetDuration = targetDuration;
+        this.mediaSequence = mediaSequence;
+        this.segments = Collections.unmodifiableList(segments);
+        this.endList = endList;
+        this.content = content;
+    }
+
+    /**
+     * Creates playlist snapshot from the given segments
+     *
+     * @param targetDuration maximum segment duration in seconds
+     * @param mediaSequence sequence number of the first segment
+     * @param segments segments of the playlist
+     * @param endList {@code true} if no more segments will be added
+     * @return playlist snapshot
+     */
+    public static PlayList create(int targetDuration, long mediaSequence, List<Segment> segments, boolean endList) {
+        return create(targetDuration, mediaSequence, segments, endList, false);
+    }
+
+    /**
+     * Creates playlist snapshot from the given segments
+     *
+     * @param targetDuration maximum segment duration in seconds
+     * @param mediaSequence sequence number of the first segment
+     * @param segments segments of the playlist
+     * @param endList {@code true} if no more segments will be added
+     * @param event {@code true} if segments are never removed from the playlist.
+     *              Playback of such playlist starts from the first segment instead of the live edge.
+     * @return playlist snapshot
+     */
+    public static PlayList create(int targetDuration, long mediaSequence, List<Segment> segments, boolean endList, boolean event) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(HEADER_TAG).append("\n");
+        sb.append(VERSION_TAG).append(3).append("\n");
+        if (event) {
+            sb.append(PLAYLIST_TYPE_EVENT_TAG).append("\n");
+            sb.append(START_TAG).append("\n");
+        }
+        sb.append(TARGET_DURATION_TAG).append(targetDuration).append("\n");
+        sb.append(MEDIA_SEQUENCE_TAG).append(mediaSequence).append("\n");
+
+        for (Segment segment: segments) {
+            if (segment.isDiscontinuity()) {
+                sb.append(DISCONTINUITY_TAG).append("\n");
+            }
+            sb.append(SEGMENT_INFO_TAG).append(String.format(Locale.US, "%.3f", segment.getDuration())).append(",\n");
+            sb.append(segment.getUri()).append("\n");
+        }
+
+        if (endList) {
+            sb.append(END_LIST_TAG).append("\n");
+        }
+
+        try {
+            return new PlayList(targetDuration, mediaSequence, new ArrayList<Segment>(segments), endList,
+                    sb.toString().getBytes(ENCODING));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses playlist written by segmenter.
+     * Segmenter can rewrite the file at the moment when it is read,
+     * so content which does not look like complete playlist is rejected.
+     *
+     * @param content content of the playlist file
+     * @return playlist snapshot or {@code null} if content is not a complete playlist
+     */
+    public static PlayList parse(byte[] content) {
+        String text;
+        try {
+            text = new String(content, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        String[] lines = text.split("\r?\n");
+        if (lines.length == 0 || !HEADER_TAG.equals(lines[0].trim())) {
+            return null;
+        }
+
+        String lastLine = lines[lines.length - 1].trim();
+        if (lastLine.startsWith(SEGMENT_INFO_TAG) || !(lastLine.startsWith("#") || lastLine.endsWith(".ts"))) {
+            return null;
+        }
+
+        int targetDuration = 0;
+        long mediaSequence = 0;
+        boolean endList = false;
+        List<Segment> segments = new ArrayList<Segment>();
+        Double segmentDuration = null;
+        boolean discontinuity = false;
+
+        try {
+            for (int i = 1; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.startsWith(TARGET_DURATION_TAG)) {
+                    targetDuration = Integer.parseInt(line.substring(TARGET_DURATION_TAG.length()));
+                } else if (line.startsWith(MEDIA_SEQUENCE_TAG)) {
+                    mediaSequence = Long.parseLong(line.substring(MEDIA_SEQUENCE_TAG.length()));
+                } else if (line.startsWith(SEGMENT_INFO_TAG)) {
+                    int end = line.indexOf(',');
+                    segmentDuration = Double.parseDouble(line.substring(SEGMENT_INFO_TAG.length(), end >= 0 ? end : line.length()));
+                } else if (line.startsWith(END_LIST_TAG)) {
+                    endList = true;
+                } else if (line.startsWith(DISCONTINUITY_TAG)) {
+                    discontinuity = true;
+                } else if (!line.isEmpty() && !line.startsWith("#")) {
+                    segments.add(new Segment(line, segmentDuration != null ? segmentDuration : 0, discontinuity));
+                    segmentDuration = null;
+                    discontinuity = false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return new PlayList(targetDuration, mediaSequence, segments, endList, content.clone());
+    }
+
+    public int getTargetDuration() {
+        return targetDuration;
+    }
+
+    public long getMediaSequence() {
+        return mediaSequence;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public boolean isEndList() {
+        return endList;
+    }
+
+    /**
+     * @return media sequence number of the last segment of the playlist
+     */
+    public long getLastMediaSequence() {
+        return mediaSequence + segments.size() - 1;
+    }
+
+    /**
+     * Returns snapshot which tells clients that playlist requests
+     * with {@code _HLS_msn} delivery directive are held by the server
+     * until requested segment is available.
+     *
+     * @return snapshot with {@link #SERVER_CONTROL_TAG} after the header
+     */
+    public PlayList withBlockingReload() {
+        int headerEnd = 0;
+        while (headerEnd < content.length && content[headerEnd] != '\n') {
+            headerEnd++;
+        }
+        headerEnd = Math.min(headerEnd + 1, content.length);
+
+        byte[] tag;
+        try {
+            tag = (SERVER_CONTROL_TAG + "\n").getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        byte[] newContent = new byte[content.length + tag.length];
+        System.arraycopy(content, 0, newContent, 0, headerEnd);
+        System.arraycopy(tag, 0, newContent, headerEnd, tag.length);
+        System.arraycopy(content, headerEnd, newContent, headerEnd + tag.length, content.length - headerEnd);
+
+        return new PlayList(targetDuration, mediaSequence, segments, endList, newContent);
+    }
+
+    public int getContentLength() {
+        return content.length;
+    }
+
+    /**
+     * @return stream which reads encoded content of this playlist without copying it
+     */
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    public boolean hasContent(byte[] content) {
+        return Arrays.equals(this.content, content);
+    }
+
+    /**
+     * Media segment of the playlist
+     */
+    public static final class Segment {
+        private final String uri;
+        private final double duration;
+        private final boolean discontinuity;
+
+        public Segment(String uri, double duration) {
+            this(uri, duration, false);
+        }
+
+        /**
+         * @param discontinuity {@code true} if time stamps or encoding of this segment
+         *                      do not continue previous segment
+         */
+        public Segment(String uri, double duration, boolean discontinuity) {
+            this.uri = uri;
+            this.duration = duration;
+            this.discontinuity = discontinuity;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        public boolean isDiscontinuity() {
+            return discontinuity;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Requests of the live playlist which wait until the segment is published
+ * (blocking playlist reload). Waiting requests hold threads of the container,
+ * so number of them can be limited by permits shared by all live streams.
+ * Request which gets no permit is not held at all.
+ *
+ * @author Sergey Prilukin
+ */
+public final class PlayListWaiters {
+
+    private final Object monitor = new Object();
+    private volatile PlayList playList;
+    private volatile boolean closed;
+    private volatile Semaphore permits;
+
+    /**
+     * @param permits permits of waiting requests or {@code null} if number of them is not limited
+     */
+    public void setPermits(Semaphore permits) {
+        this.permits = permits;
+    }
+
+    /**
+     * Publishes new version of the playlist and releases requests which wait for its segments
+     *
+     * @param playList current playlist or {@code null} if the stream is restarted
+     */
+    public void publish(PlayList playList) {
+        synchronized (monitor) {
+            this.playList = playList;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Releases all waiting requests. Requests are not held after that.
+     */
+    public void close() {
+        synchronized (monitor) {
+            closed = true;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until published playlist contains segment with given media sequence number or ends,
+     * waiters are closed or timeout expires
+     *
+     * @param mediaSequence media sequence number of the segment
+     * @param timeout timeout in milliseconds
+     * @return {@code false} if request was not held because all permits are taken
+     */
+    public boolean await(long mediaSequence, long timeout) {
+        Semaphore currentPermits = permits;
+        if (currentPermits != null && !currentPermits.tryAcquire()) {
+            return false;
+        }
+
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            synchronized (monitor) {
+                long remaining = timeout;
+                while (!closed && remaining > 0 && !hasSegment(playList, mediaSequence)) {
+                    monitor.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (currentPermits != null) {
+                currentPermits.release();
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean hasSegment(PlayList playList, long mediaSequence) {
+        return playList != null && (playList.getLastMediaSequence() >= mediaSequence || playList.isEndList());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ring of the last completed segments of the live stream kept in memory.
+ * When capacity is reached the oldest segment is dropped.
+ * Segments are looked up by their file name.
+ *
+ * @author Sergey Prilukin
+ */
+public final class SegmentBuffer {
+
+    private final int capacity;
+    private final Map<String, Segment> segments = new LinkedHashMap<String, Segment>();
+    private long evictions;
+
+    public SegmentBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void put(String name, byte[] data) {
+        segments.remove(name);
+        segments.put(name, new Segment(data, System.currentTimeMillis()));
+
+        while (segments.size() > capacity) {
+            segments.remove(segments.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    /**
+     * @param name name of the segment file
+     * @return segment or {@code null} if it is not in the buffer
+     */
+    public synchronized Segment get(String name) {
+        return segments.get(name);
+    }
+
+    /**
+     * @return number of segments dropped because capacity was reached
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return segments.size();
+    }
+
+    public synchronized void clear() {
+        segments.clear();
+    }
+
+    /**
+     * Content of the segment together with time when it was completed
+     */
+    public static final class Segment {
+        private final byte[] data;
+        private final long lastModified;
+
+        public Segment(byte[] data, long lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
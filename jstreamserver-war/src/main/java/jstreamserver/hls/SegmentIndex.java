@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of segments of one media which were produced by transcodings
+ * started from different positions. Index is stored as a playlist:
+ * <ul>
+ * <li>segments are sorted by position and numbered by position in milliseconds</li>
+ * <li>segment which does not continue transcoding of the previous one is marked as discontinuity</li>
+ * <li>end list tag means that the last segment ends the media</li>
+ * </ul>
+ *
+ * @author Sergey Prilukin
+ */
+public final class SegmentIndex {
+
+    /*
+     * Positions of segments are rounded to milliseconds and duration of the last segment
+     * of interrupted transcoding does not include its last frame
+     */
+    public static final long POSITION_TOLERANCE = 100;
+
+    private SegmentIndex() {
+    }
+
+    public static long getPosition(PlayList.Segment segment) {
+        return TsSegmenter.getSegmentNumber(segment.getUri());
+    }
+
+    public static long getEnd(PlayList.Segment segment) {
+        return getPosition(segment) + Math.round(segment.getDuration() * 1000);
+    }
+
+    /**
+     * Adds segments of the transcoding to the index.
+     * Segments which overlap segments already stored in the index are ignored.
+     *
+     * @param index index or {@code null} if nothing is stored yet
+     * @param playList playlist of the transcoding; segments should be numbered by position
+     * @param fileNamePrefix prefix of segment file names
+     * @param complete {@code true} if transcoding has reached the end of the media
+     * @return new index or the same index if nothing was added
+     */
+    public static PlayList merge(PlayList index, PlayList playList, String fileNamePrefix, boolean complete) {
+        List<PlayList.Segment> segments = new ArrayList<PlayList.Segment>(
+                index != null ? index.getSegments() : Collections.<PlayList.Segment>emptyList());
+        boolean endList = index != null && index.isEndList();
+        boolean changed = false;
+
+        String previousUri = null;
+        for (PlayList.Segment segment: playList.getSegments()) {
+            long position = getPosition(segment);
+            if (position < 0 || segment.getDuration() <= 0) {
+                previousUri = null;
+                continue;
+            }
+
+            String uri = TsSegmenter.getSegmentFileName(fileNamePrefix, position);
+            long end = position + Math.round(segment.getDuration() * 1000);
+
+            int i = 0;
+            while (i < segments.size() && getPosition(segments.get(i)) < position) {
+                i++;
+            }
+
+            if (i < segments.size() && segments.get(i).getUri().equals(uri)) {
+                previousUri = uri;
+                continue;
+            }
+
+            if ((i > 0 && getEnd(segments.get(i - 1)) > position + POSITION_TOLERANCE)
+                    || (i < segments.size() && getPosition(segments.get(i)) < end - POSITION_TOLERANCE)) {
+                previousUri = null;
+                continue;
+            }
+
+            boolean discontinuity = i == 0 || !segments.get(i - 1).getUri().equals(previousUri);
+            segments.add(i, new PlayList.Segment(uri, segment.getDuration(), discontinuity));
+
+            //Next segment was produced by another transcoding
+            if (i + 1 < segments.size() && !segments.get(i + 1).isDiscontinuity()) {
+                PlayList.Segment next = segments.get(i + 1);
+                segments.set(i + 1, new PlayList.Segment(next.getUri(), next.getDuration(), true));
+            }
+
+            previousUri = uri;
+            changed = true;
+        }
+
+        if (complete && !endList && previousUri != null && segments.get(segments.size() - 1).getUri().equals(previousUri)) {
+            endList = true;
+            changed = true;
+        }
+
+        if (!changed) {
+            return index;
+        }
+
+        int targetDuration = Math.max(index != null ? index.getTargetDuration() : 0, playList.getTargetDuration());
+        return PlayList.create(targetDuration, 0, segments, endList);
+    }
+
+    /**
+     * Returns segments which cover media without gaps
+     * starting from the segment which contains given position.
+     *
+     * @param index index
+     * @param position position in milliseconds
+     * @return segments or empty list if position is not covered
+     */
+    public static List<PlayList.Segment> getCoveredSegments(PlayList index, long position) {
+        List<PlayList.Segment> segments = index.getSegments();
+
+        int first = 0;
+        while (first < segments.size() && getEnd(segments.get(first)) <= position) {
+            first++;
+        }
+
+        if (first == segments.size() || getPosition(segments.get(first)) > position + POSITION_TOLERANCE) {
+            return Collections.emptyList();
+        }
+
+        int last = first;
+        while (last + 1 < segments.size()
+                && Math.abs(getPosition(segments.get(last + 1)) - getEnd(segments.get(last))) <= POSITION_TOLERANCE) {
+            last++;
+        }
+
+        return segments.subList(first, last + 1);
+    }
+
+    /**
+     * @return {@code true} if given segment of the index ends the media
+     */
+    public static boolean isEndOfMedia(PlayList index, PlayList.Segment segment) {
+        List<PlayList.Segment> segments = index.getSegments();
+        return index.isEndList() && !segments.isEmpty() && segments.get(segments.size() - 1).getUri().equals(segment.getUri());
+    }
+}
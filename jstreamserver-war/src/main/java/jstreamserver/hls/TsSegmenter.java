@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits MPEG transport stream into HTTP Live Streaming segments.
+ * Segments are cut only before packets which start random access point
+ * (key frame) of the video stream, as soon as current segment is long enough.
+ * Duration of segments is measured by presentation time stamps.
+ * <p/>
+ * Segment files are named {@code <outputPrefix>-<number>.ts}
+ * and listed in the playlist as {@code <urlPrefix>-<number>.ts}.
+ * Segments are numbered sequentially or by position of their start
+ * in the media in milliseconds, so segments produced by transcodings
+ * started from different positions of the same media do not clash.
+ * <p/>
+ * If {@link SegmentBuffer} is given then segments are kept in it
+ * instead of files and only the playlist is written to disk.
+ * <p/>
+ * First segments can be shorter (see {@link #setStartupSegments(int, int)}),
+ * so the first playlist is published and playback starts sooner.
+ *
+ * @author Sergey Prilukin
+ */
+public final class TsSegmenter {
+    private static final Log log = LogFactory.getLog(TsSegmenter.class);
+
+    public static final int PACKET_SIZE = 188;
+    public static final byte SYNC_BYTE = 0x47;
+    public static final String SEGMENT_EXTENSION = ".ts";
+    public static final String TEMP_EXTENSION = ".tmp";
+
+    private static final Pattern SEGMENT_NUMBER_PATTERN = Pattern.compile("^.*-(\\d+)\\.ts$");
+
+    private static final int PAT_PID = 0;
+    private static final long PTS_MASK = (1L << 33) - 1;
+    private static final int PTS_CLOCK = 90000;
+
+    private final String outputPrefix;
+    private final String playListPath;
+    private final String urlPrefix;
+    private final int segmentDurationInSec;
+    private final int windowSize;
+    private final long startPosition;
+    private final PlayListListener playListListener;
+    private final SegmentBuffer segmentBuffer;
+
+    private final byte[] packet = new byte[PACKET_SIZE];
+    private int packetLength;
+    private byte[] patPacket;
+    private byte[] pmtPacket;
+    private int pmtPid = -1;
+    private int timingPid = -1;
+    private boolean timingPidIsVideo;
+
+    private final LinkedList<PlayList.Segment> segments = new LinkedList<PlayList.Segment>();
+    private final LinkedList<File> segmentFiles = new LinkedList<File>();
+    private long mediaSequence = 1;
+    private int segmentNumber = 0;
+    private int startupSegmentDurationInSec;
+    private int startupSegmentCount;
+    private int targetDuration;
+    private OutputStream segmentOutput;
+    private ByteArrayOutputStream segmentData;
+    private File segmentFile;
+    private long firstPts = -1;
+    private long segmentStartPts = -1;
+    private long lastPts = -1;
+
+    public TsSegmenter(String outputPrefix, String playListPath, String urlPrefix, int segmentDurationInSec,
+                       int windowSize, PlayListListener playListListener) {
+        this(outputPrefix, playListPath, urlPrefix, segmentDurationInSec, windowSize, -1, playListListener);
+    }
+
+    /**
+     * @param startPosition position of the beginning of the stream in the media in milliseconds.
+     *                      If it is not negative then segments are numbered by their position.
+     *                      Such segments are written to temporary file first
+     *                      and renamed when position and duration are known.
+     */
+    public TsSegmenter(String outputPrefix, String playListPath, String urlPrefix, int segmentDurationInSec,
+                       int windowSize, long startPosition, PlayListListener playListListener) {
+        this(outputPrefix, playListPath, urlPrefix, segmentDurationInSec, windowSize, startPosition, playListListener, null);
+    }
+
+    /**
+     * @param segmentBuffer buffer where segments are kept instead of files or {@code null}.
+     *                      Window of the playlist is limited by capacity of the buffer,
+     *                      so every listed segment is available.
+     */
+    public TsSegmenter(String outputPrefix, String playListPath, String urlPrefix, int segmentDurationInSec,
+                       int windowSize, long startPosition, PlayListListener playListListener, SegmentBuffer segmentBuffer) {
+        this.outputPrefix = outputPrefix;
+        this.playListPath = playListPath;
+        this.urlPrefix = urlPrefix;
+        this.segmentDurationInSec = segmentDurationInSec;
+        this.windowSize = segmentBuffer == null ? windowSize
+                : windowSize > 0 ? Math.min(windowSize, segmentBuffer.getCapacity()) : segmentBuffer.getCapacity();
+        this.startPosition = startPosition;
+        this.playListListener = playListListener;
+        this.segmentBuffer = segmentBuffer;
+        this.targetDuration = segmentDurationInSec;
+    }
+
+    /**
+     * Makes first segments shorter. Given number of segments are cut with startup duration,
+     * duration of the next ones is doubled for each segment until it reaches segment duration.
+     *
+     * @param startupSegmentDurationInSec duration of the first segments, {@code 0} disables short segments
+     * @param startupSegmentCount number of segments with startup duration
+     */
+    public void setStartupSegments(int startupSegmentDurationInSec, int startupSegmentCount) {
+        this.startupSegmentDurationInSec = startupSegmentDurationInSec;
+        this.startupSegmentCount = startupSegmentCount;
+    }
+
+    /**
+     * Reads transport stream until the end of the stream and writes segments.
+     * Playlist is updated each time segment is completed and
+     * marked as finished when the end of the stream is reached.
+     *
+     * @param inputStream transport stream
+     * @throws IOException if stream can not be read or segment can not be written
+     */
+    public void segment(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[PACKET_SIZE * 64];
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) >= 0) {
+                write(buffer, 0, count);
+            }
+
+            finish();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Splits next part of transport stream. Part can end in the middle of the packet.
+     *
+     * @param buffer buffer with data of transport stream
+     * @param offset offset of the data in the buffer
+     * @param length length of the data
+     * @throws IOException if segment can not be written
+     */
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, PACKET_SIZE - packetLength);
+            System.arraycopy(buffer, offset, packet, packetLength, count);
+            packetLength += count;
+            offset += count;
+            length -= count;
+
+            if (packetLength < PACKET_SIZE) {
+                break;
+            }
+
+            if (packet[0] == SYNC_BYTE) {
+                processPacket();
+                packetLength = 0;
+            } else {
+                //Resynchronize if stream is broken
+                int syncOffset = 1;
+                while (syncOffset < PACKET_SIZE && packet[syncOffset] != SYNC_BYTE) {
+                    syncOffset++;
+                }
+
+                System.arraycopy(packet, syncOffset, packet, 0, PACKET_SIZE - syncOffset);
+                packetLength = PACKET_SIZE - syncOffset;
+            }
+        }
+    }
+
+    /**
+     * Completes the last segment and marks the playlist as finished.
+     * Should be called when the end of the stream is reached.
+     *
+     * @throws IOException if segment can not be written
+     */
+    public void finish() throws IOException {
+        finishSegment(lastPts, true);
+    }
+
+    /**
+     * Releases resources of the segmenter. Segment which was not completed is removed.
+     *
+     * @throws IOException if segment can not be closed
+     */
+    public void close() throws IOException {
+        if (segmentOutput != null) {
+            closeSegment();
+
+            //Segment which is not listed in the playlist is useless
+            if (segmentBuffer == null && startPosition >= 0 && !segmentFile.delete()) {
+                log.warn(String.format("Can not remove segment: %s", segmentFile));
+            }
+        }
+    }
+
+    private void processPacket() throws IOException {
+        int pid = ((packet[1] & 0x1F) << 8) | (packet[2] & 0xFF);
+        boolean payloadUnitStart = (packet[1] & 0x40) != 0;
+        int adaptationFieldControl = (packet[3] >> 4) & 0x03;
+        boolean hasAdaptationField = (adaptationFieldControl & 0x02) != 0;
+        boolean hasPayload = (adaptationFieldControl & 0x01) != 0;
+        int adaptationFieldLength = hasAdaptationField ? packet[4] & 0xFF : -1;
+        int payloadOffset = 5 + adaptationFieldLength;
+
+        if (pid == PAT_PID && payloadUnitStart && hasPayload) {
+            patPacket = packet.clone();
+            parsePat(payloadOffset);
+        } else if (pid == pmtPid && payloadUnitStart && hasPayload) {
+            pmtPacket = packet.clone();
+            parsePmt(payloadOffset);
+        } else if (pid == timingPid && payloadUnitStart && hasPayload) {
+            long pts = readPts(payloadOffset);
+            boolean randomAccess = !timingPidIsVideo
+                    || (adaptationFieldLength > 0 && (packet[5] & 0x40) != 0);
+
+            if (pts >= 0) {
+                if (segmentStartPts < 0) {
+                    segmentStartPts = pts;
+                    firstPts = pts;
+                } else if (randomAccess && getDuration(segmentStartPts, pts) >= getCurrentSegmentDuration()) {
+                    finishSegment(pts, false);
+                    segmentStartPts = pts;
+                }
+
+                lastPts = pts;
+            }
+        }
+
+        writePacket(packet);
+    }
+
+    private void parsePat(int offset) {
+        int section = offset + 1 + (packet[offset] & 0xFF);
+        if (section + 8 > PACKET_SIZE) {
+            return;
+        }
+
+        int sectionLength = ((packet[section + 1] & 0x0F) << 8) | (packet[section + 2] & 0xFF);
+        int end = Math.min(section + 3 + sectionLength - 4, PACKET_SIZE);
+        for (int i = section + 8; i + 4 <= end; i += 4) {
+            int programNumber = ((packet[i] & 0xFF) << 8) | (packet[i + 1] & 0xFF);
+            if (programNumber != 0) {
+                pmtPid = ((packet[i + 2] & 0x1F) << 8) | (packet[i + 3] & 0xFF);
+                return;
+            }
+        }
+    }
+
+    private void parsePmt(int offset) {
+        int section = offset + 1 + (packet[offset] & 0xFF);
+        if (section + 12 > PACKET_SIZE) {
+            return;
+        }
+
+        int sectionLength = ((packet[section + 1] & 0x0F) << 8) | (packet[section + 2] & 0xFF);
+        int programInfoLength = ((packet[section + 10] & 0x0F) << 8) | (packet[section + 11] & 0xFF);
+        int end = Math.min(section + 3 + sectionLength - 4, PACKET_SIZE);
+
+        int firstPid = -1;
+        for (int i = section + 12 + programInfoLength; i + 5 <= end; ) {
+            int streamType = packet[i] & 0xFF;
+            int pid = ((packet[i + 1] & 0x1F) << 8) | (packet[i + 2] & 0xFF);
+            int esInfoLength = ((packet[i + 3] & 0x0F) << 8) | (packet[i + 4] & 0xFF);
+
+            if (isVideoStreamType(streamType)) {
+                timingPid = pid;
+                timingPidIsVideo = true;
+                return;
+            } else if (firstPid < 0) {
+                firstPid = pid;
+            }
+
+            i += 5 + esInfoLength;
+        }
+
+        //Audio only stream - every audio frame is random access point
+        if (firstPid >= 0) {
+            timingPid = firstPid;
+            timingPidIsVideo = false;
+        }
+    }
+
+    private boolean isVideoStreamType(int streamType) {
+        return streamType == 0x01 || streamType == 0x02 || streamType == 0x10
+                || streamType == 0x1B || streamType == 0x24;
+    }
+
+    private long readPts(int offset) {
+        if (offset + 14 > PACKET_SIZE
+                || packet[offset] != 0 || packet[offset + 1] != 0 || packet[offset + 2] != 1
+                || (packet[offset + 7] & 0x80) == 0) {
+            return -1;
+        }
+
+        int p = offset + 9;
+        return (((long) (packet[p] & 0x0E)) << 29)
+                | ((packet[p + 1] & 0xFF) << 22)
+                | (((packet[p + 2] & 0xFE)) << 14)
+                | ((packet[p + 3] & 0xFF) << 7)
+                | ((packet[p + 4] & 0xFE) >> 1);
+    }
+
+    private int getCurrentSegmentDuration() {
+        if (startupSegmentDurationInSec <= 0 || startupSegmentDurationInSec >= segmentDurationInSec) {
+            return segmentDurationInSec;
+        }
+
+        int duration = startupSegmentDurationInSec;
+        for (int i = startupSegmentCount; i < segmentNumber && duration < segmentDurationInSec; i++) {
+            duration *= 2;
+        }
+
+        return Math.min(duration, segmentDurationInSec);
+    }
+
+    private double getDuration(long startPts, long endPts) {
+        return ((endPts - startPts) & PTS_MASK) / (double) PTS_CLOCK;
+    }
+
+    private void writePacket(byte[] data) throws IOException {
+        if (segmentOutput == null) {
+            segmentNumber++;
+            if (startPosition < 0) {
+                segmentFile = new File(getSegmentFileName(outputPrefix, segmentNumber));
+            } else if (segmentBuffer == null) {
+                //Another transcoding of the same title may write to the same folder
+                File prefixFile = new File(getSegmentFileName(outputPrefix, startPosition));
+                segmentFile = File.createTempFile(prefixFile.getName() + "-", TEMP_EXTENSION, prefixFile.getAbsoluteFile().getParentFile());
+            }
+
+            if (segmentBuffer != null) {
+                segmentData = new ByteArrayOutputStream(64 * 1024);
+                segmentOutput = segmentData;
+            } else {
+                segmentOutput = new BufferedOutputStream(new FileOutputStream(segmentFile), 64 * 1024);
+            }
+
+            //Each segment should be decodable on its own
+            if (patPacket != null && pmtPacket != null) {
+                segmentOutput.write(patPacket);
+                segmentOutput.write(pmtPacket);
+            }
+        }
+
+        segmentOutput.write(data);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segmentOutput != null) {
+            segmentOutput.close();
+            segmentOutput = null;
+        }
+    }
+
+    private void finishSegment(long endPts, boolean endList) throws IOException {
+        if (segmentOutput != null) {
+            closeSegment();
+
+            double duration = segmentStartPts >= 0 && endPts >= 0 ? getDuration(segmentStartPts, endPts) : 0;
+            targetDuration = Math.max(targetDuration, (int) Math.ceil(duration));
+
+            long number = segmentNumber;
+            if (startPosition >= 0) {
+                number = startPosition + (segmentStartPts >= 0 ? Math.round(getDuration(firstPts, segmentStartPts) * 1000) : 0);
+
+                //Segment of another transcoding which was cut at the same position is not overwritten
+                while (!claimSegment(new File(getSegmentFileName(outputPrefix, number)))) {
+                    number++;
+                }
+
+                segmentFile = segmentBuffer != null
+                        ? new File(getSegmentFileName(outputPrefix, number))
+                        : renameSegment(segmentFile, new File(getSegmentFileName(outputPrefix, number)));
+            }
+
+            segments.add(new PlayList.Segment(getSegmentFileName(urlPrefix, number), duration));
+            if (segmentBuffer != null) {
+                segmentBuffer.put(segmentFile.getName(), segmentData.toByteArray());
+                segmentData = null;
+            } else {
+                segmentFiles.add(segmentFile);
+            }
+
+            while (windowSize > 0 && segments.size() > windowSize) {
+                segments.removeFirst();
+                if (segmentBuffer == null) {
+                    File oldSegment = segmentFiles.removeFirst();
+                    if (!oldSegment.delete()) {
+                        log.warn(String.format("Can not remove segment: %s", oldSegment));
+                    }
+                }
+
+                mediaSequence++;
+            }
+        } else if (!endList) {
+            return;
+        }
+
+        publishPlayList(PlayList.create(targetDuration, mediaSequence, segments, endList, windowSize == 0));
+    }
+
+    /*
+     * Name of the segment file is taken atomically,
+     * so that transcodings which write to the same folder never get the same name
+     */
+    private boolean claimSegment(File file) throws IOException {
+        return segmentBuffer != null ? segmentBuffer.get(file.getName()) == null : file.createNewFile();
+    }
+
+    private File renameSegment(File tempFile, File segmentFile) throws IOException {
+        if (!tempFile.renameTo(segmentFile)) {
+            segmentFile.delete();
+            if (!tempFile.renameTo(segmentFile)) {
+                throw new IOException(String.format("Can not write segment: %s", segmentFile));
+            }
+        }
+
+        return segmentFile;
+    }
+
+    private void publishPlayList(PlayList playList) throws IOException {
+        //Write to temporary file first so that the file is never seen half written
+        File playListFile = new File(playListPath);
+        File tempFile = new File(playListPath + ".tmp");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            IOUtils.copy(playList.getInputStream(), os);
+        } finally {
+            os.close();
+        }
+
+        if (!tempFile.renameTo(playListFile)) {
+            playListFile.delete();
+            if (!tempFile.renameTo(playListFile)) {
+                log.warn(String.format("Can not write playlist: %s", playListFile));
+            }
+        }
+
+        if (playListListener != null) {
+            playListListener.onPlayListUpdated(playList);
+        }
+    }
+
+    public static String getSegmentFileName(String prefix, long number) {
+        return prefix + "-" + number + SEGMENT_EXTENSION;
+    }
+
+    /**
+     * @param name segment file name or URI
+     * @return number of the segment or {@code -1} if name does not look like segment name
+     */
+    public static long getSegmentNumber(String name) {
+        Matcher matcher = SEGMENT_NUMBER_PATTERN.matcher(name);
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+}
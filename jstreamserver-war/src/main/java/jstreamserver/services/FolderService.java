@@ -24,9 +24,12 @@ package jstreamserver.services;
 
 import jstreamserver.dto.BreadCrumb;
 import jstreamserver.dto.FileListEntry;
+import jstreamserver.ffmpeg.MediaInfo;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service to work with file system
@@ -49,4 +52,17 @@ public interface FolderService {
      * @return breadcrumbs for given folder
      */
     public List<BreadCrumb> getBreadCrumbs(String path);
+
+    /**
+     * Return media info for files with given names from given folder.
+     * Folder content is returned without media info, so clients
+     * request it separately only for files they actually display.
+     *
+     * @param folder folder in file system
+     * @param names names of files inside the folder
+     * @return map of file name to media info. Files which are not found
+     *  or could not be probed are not included.
+     * @throws IOException if media info could not be read
+     */
+    public Map<String, MediaInfo> getMediaInfo(File folder, List<String> names) throws IOException;
 }
@@ -27,7 +27,7 @@ import jstreamserver.dto.FileListEntry;
 import jstreamserver.utils.Config;
 import jstreamserver.utils.ConfigReader;
 import jstreamserver.utils.HttpUtils;
-import jstreamserver.ffmpeg.FFMpegInformer;
+import jstreamserver.utils.LruCache;
 import jstreamserver.ffmpeg.MediaInfo;
 import jstreamserver.utils.MimeProperties;
 import org.apache.commons.io.FilenameUtils;
@@ -54,12 +54,30 @@ public class FolderServiceImpl implements FolderService {
     public static final String DIRECTORY_SEPARATOR = "/";
     public static final String HOME_DIR_LABEL = "HOME";
 
+    /*
+     * Modification time of some file systems has granularity up to 2 seconds,
+     * so folders changed recently are not cached - further changes can be made
+     * without updating modification time.
+     */
+    public static final long MODIFICATION_TIME_GRANULARITY = 2000;
+
+    /*
+     * Files modified this recently when the folder was listed are considered growing
+     * (downloads in progress, recordings) and their sizes are checked on each request
+     */
+    public static final long GROWING_FILE_INTERVAL = 10 * 60 * 1000;
+
     @Autowired
     private MimeProperties mimeProperties;
 
     @Autowired
     private ConfigReader configReader;
 
+    @Autowired
+    private MediaInfoService mediaInfoService;
+
+    private LruCache<String, CachedFolderContent> folderContentCache;
+
     private static final Comparator<FileListEntry> FILE_LIST_COMPARATOR = new Comparator<FileListEntry>() {
         @Override
         public int compare(FileListEntry o1, FileListEntry o2) {
@@ -80,15 +98,108 @@ public class FolderServiceImpl implements FolderService {
 
     @Override
     public List<FileListEntry> getFolderContent(File file, String path) {
-        List<File> children = null;
         if (file == null) {
-            children = getFilesFromNamesList(configReader.getRootDirs().values());
+            List<File> children = getFilesFromNamesList(configReader.getRootDirs().values());
+            return getFiles(children, ROOT_FOLDER_NAME);
+        }
+
+        String parentPath = path == null ? ROOT_FOLDER_NAME : path;
+        String key = getCanonicalPath(file);
+        long lastModified = file.lastModified();
+
+        LruCache<String, CachedFolderContent> cache = getFolderContentCache();
+        CachedFolderContent cachedContent = cache.get(key);
+        if (cachedContent != null && cachedContent.isValid(parentPath, lastModified)) {
+            return refreshSizes(file, cachedContent.getContent(), cachedContent.getGrowingFiles());
+        }
+
+        List<File> files = getDirectoryContent(file);
+        List<FileListEntry> content = Collections.unmodifiableList(getFiles(files, parentPath));
+        long now = System.currentTimeMillis();
+        if (now - lastModified > MODIFICATION_TIME_GRANULARITY) {
+            cache.put(key, new CachedFolderContent(parentPath, lastModified, content, getGrowingFiles(files, now)));
         } else {
-            children = getDirectoryContent(file);
+            cache.remove(key);
+        }
+
+        return content;
+    }
+
+    private Set<String> getGrowingFiles(List<File> files, long now) {
+        Set<String> growingFiles = new HashSet<String>();
+        for (File file: files) {
+            if (now - file.lastModified() < GROWING_FILE_INTERVAL && file.isFile()) {
+                growingFiles.add(file.getName());
+            }
+        }
+
+        return growingFiles;
+    }
+
+    /*
+     * Appending to the file does not change modification time of its folder,
+     * so sizes of files which were growing when the folder was listed are checked on each request.
+     * Sizes of other files are served from the cache.
+     * Cached entries are not changed - entries with changed size are copied.
+     */
+    private List<FileListEntry> refreshSizes(File folder, List<FileListEntry> content, Set<String> growingFiles) {
+        if (growingFiles.isEmpty()) {
+            return content;
         }
 
+        List<FileListEntry> result = null;
+        for (int i = 0; i < content.size(); i++) {
+            FileListEntry entry = content.get(i);
+            if (entry.getDirectory() || !growingFiles.contains(entry.getName())) {
+                continue;
+            }
+
+            long size = new File(folder, entry.getName()).length();
+            if (entry.getSize() == null || entry.getSize() != size) {
+                if (result == null) {
+                    result = new ArrayList<FileListEntry>(content);
+                }
+
+                result.set(i, copyEntry(entry, size));
+            }
+        }
+
+        return result != null ? Collections.unmodifiableList(result) : content;
+    }
 
-        return getFiles(children, path == null ? ROOT_FOLDER_NAME : path);
+    private FileListEntry copyEntry(FileListEntry entry, long size) {
+        FileListEntry copy = new FileListEntry();
+        copy.setId(entry.getId());
+        copy.setName(entry.getName());
+        copy.setUrl(entry.getUrl());
+        copy.setPath(entry.getPath());
+        copy.setDirectory(entry.getDirectory());
+        copy.setVideo(entry.getVideo());
+        copy.setAudio(entry.getAudio());
+        copy.setMimeType(entry.getMimeType());
+        copy.setExtension(entry.getExtension());
+        copy.setMediaInfo(entry.getMediaInfo());
+        copy.setSize(size);
+
+        return copy;
+    }
+
+    private LruCache<String, CachedFolderContent> getFolderContentCache() {
+        synchronized (this) {
+            if (folderContentCache == null) {
+                folderContentCache = new LruCache<String, CachedFolderContent>(configReader.getFolderCacheSize());
+            }
+
+            return folderContentCache;
+        }
+    }
+
+    private String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
     }
 
     @Override
@@ -116,11 +227,45 @@ public class FolderServiceImpl implements FolderService {
         return Arrays.asList(files);
     }
 
+    @Override
+    public Map<String, MediaInfo> getMediaInfo(File folder, List<String> names) throws IOException {
+        List<File> mediaFiles = new ArrayList<File>();
+        for (String name: names) {
+            if (isPlainFileName(name)) {
+                File file = new File(folder, name);
+                if (file.isFile() && !file.isHidden()) {
+                    mediaFiles.add(file);
+                }
+            }
+        }
+
+        Map<String, MediaInfo> result = new LinkedHashMap<String, MediaInfo>();
+        if (mediaFiles.isEmpty()) {
+            return result;
+        }
+
+        List<MediaInfo> mediaInfos = mediaInfoService.getMediaInfo(mediaFiles);
+        for (int i = 0; i < mediaInfos.size(); i++) {
+            if (mediaInfos.get(i) != null) {
+                result.put(mediaFiles.get(i).getName(), mediaInfos.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Only names of files directly inside of the folder are accepted
+     */
+    private boolean isPlainFileName(String name) {
+        return name != null && !name.isEmpty()
+                && !name.contains("/") && !name.contains("\\")
+                && !".".equals(name) && !"..".equals(name);
+    }
+
     private List<FileListEntry> getFiles(List<File> files, String parentPath) {
 
         List<FileListEntry> fileList = new ArrayList<FileListEntry>();
-        List<FileListEntry> mediaFileList = new ArrayList<FileListEntry>();
-        List<String> mediaFileNames = new ArrayList<String>();
 
         try {
 
@@ -138,12 +283,7 @@ public class FolderServiceImpl implements FolderService {
 
 
             for (File file : files) {
-                addFile(fileList, mediaFileList, mediaFileNames, parentDir, file);
-            }
-
-            //Adding mediainfo to FileEnries
-            if (!mediaFileNames.isEmpty()) {
-                setMediaInfo(mediaFileList, mediaFileNames);
+                addFile(fileList, parentDir, file);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -159,15 +299,7 @@ public class FolderServiceImpl implements FolderService {
         return fileList;
     }
 
-    private void setMediaInfo(List<FileListEntry> mediaFileList, List<String> mediaFileNames) throws IOException {
-        List<MediaInfo> mediaInfos = (new FFMpegInformer()).getInfo(mediaFileNames, configReader.getFfmpegLocation());
-
-        for (int i = 0; i < mediaInfos.size(); i++) {
-            mediaFileList.get(i).setMediaInfo(mediaInfos.get(i));
-        }
-    }
-
-    private void addFile(List<FileListEntry> fileList, List<FileListEntry> mediaFileList, List<String> mediaFileNames, String parentDir, File file) throws UnsupportedEncodingException {
+    private void addFile(List<FileListEntry> fileList, String parentDir, File file) throws UnsupportedEncodingException {
         FileListEntry entry = new FileListEntry();
 
         if (file.isFile()) {
@@ -179,11 +311,7 @@ public class FolderServiceImpl implements FolderService {
             entry.setExtension(extension);
             entry.setVideo(mimeType.startsWith("video"));
             entry.setAudio(mimeType.startsWith("audio"));
-
-            if (entry.getVideo() || entry.getAudio()) {
-                mediaFileList.add(entry);
-                mediaFileNames.add(file.getPath());
-            }
+            entry.setSize(file.length());
         } else {
             entry.setDirectory(true);
         }
@@ -200,6 +328,36 @@ public class FolderServiceImpl implements FolderService {
         fileList.add(entry);
     }
 
+    /**
+     * Folder content together with modification time of the folder
+     * at the moment when content was read
+     */
+    static class CachedFolderContent {
+        private final String parentPath;
+        private final long lastModified;
+        private final List<FileListEntry> content;
+        private final Set<String> growingFiles;
+
+        CachedFolderContent(String parentPath, long lastModified, List<FileListEntry> content, Set<String> growingFiles) {
+            this.parentPath = parentPath;
+            this.lastModified = lastModified;
+            this.content = content;
+            this.growingFiles = growingFiles;
+        }
+
+        public boolean isValid(String parentPath, long lastModified) {
+            return this.lastModified == lastModified && this.parentPath.equals(parentPath);
+        }
+
+        public List<FileListEntry> getContent() {
+            return content;
+        }
+
+        public Set<String> getGrowingFiles() {
+            return growingFiles;
+        }
+    }
+
     private List<BreadCrumb> generateBreadCrumbs(String path) {
         StringBuilder sb = new StringBuilder();
         List<BreadCrumb> breadCrumbs = new ArrayList<BreadCrumb>();
@@ -22,6 +22,9 @@
 
 package jstreamserver.services;
 
+import jstreamserver.dto.ServerStats;
+import jstreamserver.hls.SegmentBuffer;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,6 +46,7 @@ public interface LiveStreamService {
      * @param sessionId id of session of liveStream creator. used to better manage liveStreams pool
      * @param contextPath contextPath of web application to produce correct playlist
      * @return id of created live stream so it can de destroyed in future by calling {@link #destroyLiveStream(Integer)}
+     * @throws LiveStreamsBusyException if all live streams are watched and none of them is idle
      * @throws IOException if exception occurs during stream initialization
      */
     public Integer createLiveStream(File file, String startTime, Integer audioStreamId, String contextPath, String sessionId) throws IOException;
@@ -56,6 +60,44 @@ public interface LiveStreamService {
      */
     public InputStream getPlayList(Integer liveStreamId) throws IOException;
 
+    /**
+     * Returns {@link InputStream} for .m3u8 playlist of livestream with given ID
+     * which contains segment with given media sequence number.
+     * Request can be held until such segment is available (see {@link jstreamserver.utils.LiveStreamer#getPlayList(Long)}).
+     * Master playlist of adaptive livestream is returned immediately.
+     *
+     * @param liveStreamId id of the stream
+     * @param mediaSequence value of the {@code _HLS_msn} delivery directive or {@code null}
+     * @return {@link InputStream} for .m3u8 playlist
+     * @throws IOException if exception occurs during getting playlist
+     * @throws IllegalArgumentException if requested segment is too far ahead of the live edge
+     */
+    public InputStream getPlayList(Integer liveStreamId, Long mediaSequence) throws IOException;
+
+    /**
+     * Returns {@link InputStream} for .m3u8 playlist of the rendition of adaptive livestream with given ID.
+     * Transcoding of the rendition is started or resumed when its playlist is requested.
+     *
+     * @param liveStreamId id of the stream
+     * @param rendition name of the rendition
+     * @return {@link InputStream} for .m3u8 playlist
+     * @throws IOException if exception occurs during getting playlist
+     */
+    public InputStream getPlayList(Integer liveStreamId, String rendition) throws IOException;
+
+    /**
+     * Returns {@link InputStream} for .m3u8 playlist of the rendition of adaptive livestream with given ID
+     * which contains segment with given media sequence number.
+     *
+     * @param liveStreamId id of the stream
+     * @param rendition name of the rendition
+     * @param mediaSequence value of the {@code _HLS_msn} delivery directive or {@code null}
+     * @return {@link InputStream} for .m3u8 playlist
+     * @throws IOException if exception occurs during getting playlist
+     * @throws IllegalArgumentException if requested segment is too far ahead of the live edge
+     */
+    public InputStream getPlayList(Integer liveStreamId, String rendition, Long mediaSequence) throws IOException;
+
     /**
      * Destroys livestream by given id
      *
@@ -71,4 +113,63 @@ public interface LiveStreamService {
      * @throws IOException if exception occurs during destroying
      */
     public File getTSFile(String path, Integer liveStreamId) throws IOException;
+
+    /**
+     * Returns TS file of the rendition of adaptive livestream with given ID
+     *
+     * @param liveStreamId id of the stream
+     * @param rendition name of the rendition
+     * @throws IOException if exception occurs during getting file
+     */
+    public File getTSFile(String path, Integer liveStreamId, String rendition) throws IOException;
+
+    /**
+     * Returns segment of the stream with given ID if it is kept in memory
+     *
+     * @param path name of the segment file
+     * @param liveStreamId id of the stream
+     * @return segment or {@code null} if segment is not kept in memory
+     */
+    public SegmentBuffer.Segment getSegment(String path, Integer liveStreamId);
+
+    /**
+     * Returns segment of the rendition of adaptive livestream with given ID if it is kept in memory
+     *
+     * @param path name of the segment file
+     * @param liveStreamId id of the stream
+     * @param rendition name of the rendition
+     * @return segment or {@code null} if segment is not kept in memory
+     */
+    public SegmentBuffer.Segment getSegment(String path, Integer liveStreamId, String rendition);
+
+    /**
+     * Counts bytes of the segment response of the stream with given ID
+     *
+     * @param liveStreamId id of the stream
+     * @param bytes number of bytes written to the response body
+     */
+    public void segmentServed(Integer liveStreamId, long bytes);
+
+    /**
+     * Counts bytes of the segment response of the rendition of adaptive livestream with given ID
+     *
+     * @param liveStreamId id of the stream
+     * @param rendition name of the rendition
+     * @param bytes number of bytes written to the response body
+     */
+    public void segmentServed(Integer liveStreamId, String rendition, long bytes);
+
+    /**
+     * Returns number of live streams which have viewers and were requested recently
+     *
+     * @return number of watched live streams
+     */
+    public int getActiveLiveStreamCount();
+
+    /**
+     * Returns counters of live streams and of their transcodings
+     *
+     * @return snapshot of the counters
+     */
+    public ServerStats getStats();
 }
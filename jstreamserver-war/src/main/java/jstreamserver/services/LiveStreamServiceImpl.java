@@ -22,24 +22,43 @@
 
 package jstreamserver.services;
 
+import jstreamserver.dto.LiveStreamStats;
+import jstreamserver.dto.ServerStats;
 import jstreamserver.ffmpeg.FrameMessage;
 import jstreamserver.ffmpeg.ProgressListener;
+import jstreamserver.hls.MasterPlayList;
+import jstreamserver.hls.PlayList;
+import jstreamserver.hls.PlayListListener;
+import jstreamserver.hls.SegmentBuffer;
 import jstreamserver.utils.ConfigReader;
 import jstreamserver.utils.LiveStreamer;
+import jstreamserver.utils.Rendition;
+import jstreamserver.utils.StreamMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Service which allows to start or stop livestreaming for specified file
+ * Service which allows to start or stop livestreaming for specified file.
+ * Viewers which watch the same file with the same parameters share one live stream,
+ * which is destroyed when the last of them leaves.
  *
  * @author Sergey Prilukin
  */
@@ -47,94 +66,665 @@ import java.util.Map;
 @Service
 public class LiveStreamServiceImpl implements LiveStreamService {
     private static final Log log = LogFactory.getLog(LiveStreamServiceImpl.class);
-    private final Map<Integer, LiveStreamer> liveStreams = new LinkedHashMap<Integer, LiveStreamer>();
-    private final Map<String, Integer> sessionsMap = new LinkedHashMap<String, Integer>();
+
+    /*
+     * Number of segment durations without requests after which stream is considered idle
+     */
+    public static final int IDLE_SEGMENTS = 2;
+    public static final double MIN_TRANSCODE_SPEED = 1.0;
+    public static final String RENDITION_PATH = "rendition";
+
+    /*
+     * Streams are looked up by requests of playlists and segments without locking.
+     * Registry is modified under registryLock only, which is never held
+     * while transcoding is started, so slow start of one stream
+     * does not block viewers of other streams.
+     */
+    private final Object registryLock = new Object();
+    private final Map<Integer, LiveStreamer> liveStreams = new ConcurrentHashMap<Integer, LiveStreamer>();
+    private final Map<Integer, AdaptiveStream> adaptiveStreams = new ConcurrentHashMap<Integer, AdaptiveStream>();
+    private final Map<String, Integer> sessionsMap = new ConcurrentHashMap<String, Integer>();
+    private final Map<Integer, TranscodeSession> transcodeSessions = new ConcurrentHashMap<Integer, TranscodeSession>();
+    private final Map<TranscodeSessionKey, Integer> transcodeSessionIds = new HashMap<TranscodeSessionKey, Integer>();
+    private final Map<Integer, List<TranscodeSessionKey>> cachedTitles = new HashMap<Integer, List<TranscodeSessionKey>>();
+    private final AtomicLong streamEvictions = new AtomicLong();
+    private final Map<Integer, AtomicLong> exitCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+    private Semaphore blockingReloadPermits;
 
     @Autowired
     private ConfigReader configReader;
 
+    @Autowired
+    private SegmentCacheService segmentCacheService;
+
     public LiveStreamServiceImpl() {
     }
 
     @Override
     public Integer createLiveStream(File file, String startTime, Integer audioStreamId, String contextPath, String sessionId) throws IOException {
-        synchronized (liveStreams) {
-
-            //Find appropriate liveStreamId.
-            //Use user's session if possible
-            Integer liveStreamId = sessionsMap.get(sessionId);
-            if (liveStreamId == null) {
-                liveStreamId = liveStreams.size();
-                if (liveStreamId >= configReader.getMaxLiveStreams()) {
-                    liveStreamId--;
+        TranscodeSessionKey key = new TranscodeSessionKey(file, startTime, audioStreamId, configReader.getFfmpegParams());
+        Integer liveStreamId;
+        TranscodeSession transcodeSession;
+        StreamStart streamStart = null;
+
+        synchronized (registryLock) {
+            //Attach to the live stream which already transcodes this file with the same parameters
+            Integer sharedLiveStreamId = transcodeSessionIds.get(key);
+            if (sharedLiveStreamId != null && liveStreams.get(sharedLiveStreamId).isActive()) {
+                if (!sharedLiveStreamId.equals(sessionsMap.get(sessionId))) {
+                    detachViewer(sessionId);
+                    attachViewer(sessionId, sharedLiveStreamId);
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Viewer attached to liveStream [%s]: %s", sharedLiveStreamId, key));
+                }
+
+                liveStreamId = sharedLiveStreamId;
+                transcodeSession = transcodeSessions.get(sharedLiveStreamId);
+            } else {
+                detachViewer(sessionId);
+
+                liveStreamId = scheduleLiveStream();
+                TranscodeSession evictedSession = transcodeSessions.get(liveStreamId);
+                if (evictedSession != null && !evictedSession.sessionIds.isEmpty()) {
+                    streamEvictions.incrementAndGet();
                 }
+                destroyTranscodeSession(liveStreamId);
+
+                //Register new liveStream with given liveStreamId
+                transcodeSession = new TranscodeSession(key);
+                transcodeSessions.put(liveStreamId, transcodeSession);
+                transcodeSessionIds.put(key, liveStreamId);
+                attachViewer(sessionId, liveStreamId);
+                streamStart = addLiveStream(liveStreamId, contextPath, file, startTime, audioStreamId);
+            }
+        }
+
+        //Viewers which share the stream get its id when its playlist is created
+        if (streamStart != null) {
+            try {
+                streamStart.start();
+            } finally {
+                transcodeSession.setStarted();
             }
+        } else {
+            transcodeSession.awaitStarted();
+        }
 
-            //Remove sessionId by given liveStreamId if present
-            removeSessionMapEntryByValue(liveStreamId);
+        return liveStreamId;
+    }
 
-            //Destroy liveStream by given liveStreamId if present
-            LiveStreamer liveStreamer = liveStreams.remove(liveStreamId);
-            if (liveStreamer != null) {
-                liveStreamer.destroyLiveStream();
+    /*
+     * Segments of every title are stored in the segment cache by their position,
+     * so seek into already transcoded range of the title is served from the cache
+     * and transcoding starts only where stored segments end.
+     */
+    private StreamStart addLiveStream(Integer liveStreamId, String contextPath, File file, String startTime, Integer audioStreamId) {
+        List<Rendition> renditions = configReader.getInternalSegmenter()
+                ? configReader.getRenditions() : Collections.<Rendition>emptyList();
+        if (!renditions.isEmpty()) {
+            AdaptiveStream adaptiveStream = new AdaptiveStream(liveStreamId, contextPath, file, startTime, audioStreamId, renditions);
+            StreamStart streamStart = addRendition(liveStreamId, adaptiveStream, renditions.get(0));
+            if (streamStart != null) {
+                return streamStart;
             }
+        }
 
-            //Start new liveStream with given liveStreamId
-            sessionsMap.put(sessionId, liveStreamId);
-            liveStreamer = addLiveStreamer(liveStreamId, contextPath);
-            liveStreamer.startLiveStream(file, startTime, audioStreamId);
+        TranscodeSessionKey titleKey = new TranscodeSessionKey(file, null, audioStreamId, configReader.getFfmpegParams());
+        File segmentFolder = configReader.getInternalSegmenter() ? segmentCacheService.acquire(titleKey) : null;
 
-            return liveStreamId;
+        if (segmentFolder == null) {
+            DeadStreamsCleaner deadStreamsCleaner = new DeadStreamsCleaner(null);
+            return new StreamStart(addLiveStreamer(liveStreamId, contextPath, deadStreamsCleaner),
+                    file, startTime, audioStreamId, null, null, deadStreamsCleaner);
         }
+
+        addCachedTitle(liveStreamId, titleKey);
+        DeadStreamsCleaner deadStreamsCleaner = new DeadStreamsCleaner(titleKey);
+        return new StreamStart(addLiveStreamer(liveStreamId, contextPath, deadStreamsCleaner),
+                file, startTime, audioStreamId, titleKey, segmentFolder, deadStreamsCleaner);
     }
 
-    private void removeSessionMapEntryByValue(Integer liveStreamId) {
-        final Iterator<Map.Entry<String, Integer>> iterator = sessionsMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Integer> entry = iterator.next();
-            if (entry.getValue().equals(liveStreamId)) {
-                iterator.remove();
+    /*
+     * Every rendition is transcoded by its own ffmpeg process into its own folder of the segment cache,
+     * so renditions are started, stopped and resumed independently of each other.
+     * Stream of the first rendition is the live stream itself.
+     * Returns null if segment cache is not available.
+     */
+    private StreamStart addRendition(Integer liveStreamId, AdaptiveStream adaptiveStream, Rendition rendition) {
+        TranscodeSessionKey titleKey = new TranscodeSessionKey(
+                adaptiveStream.file, null, adaptiveStream.audioStreamId, rendition.getFfmpegParams());
+        File segmentFolder = segmentCacheService.acquire(titleKey);
+        if (segmentFolder == null) {
+            return null;
+        }
+
+        addCachedTitle(liveStreamId, titleKey);
+        DeadStreamsCleaner deadStreamsCleaner = new DeadStreamsCleaner(titleKey);
+        LiveStreamer liveStreamer = new LiveStreamer(
+                String.format("%s/%s/%s/%s", adaptiveStream.contextPath, RENDITION_PATH, liveStreamId, rendition.getName()),
+                liveStreamId + "_" + rendition.getName(), deadStreamsCleaner, configReader, rendition.getFfmpegParams());
+        liveStreamer.setBlockingReloadPermits(getBlockingReloadPermits());
+        deadStreamsCleaner.setLiveStreamer(liveStreamer, liveStreamId);
+
+        if (adaptiveStream.renditionStreams.isEmpty()) {
+            liveStreams.put(liveStreamId, liveStreamer);
+            adaptiveStreams.put(liveStreamId, adaptiveStream);
+        }
+        adaptiveStream.renditionStreams.put(rendition.getName(), liveStreamer);
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Starting rendition [%s] of liveStream [%s]", rendition.getName(), liveStreamId));
+        }
+
+        return new StreamStart(liveStreamer, adaptiveStream.file, adaptiveStream.startTime, adaptiveStream.audioStreamId,
+                titleKey, segmentFolder, deadStreamsCleaner);
+    }
+
+    private void addCachedTitle(Integer liveStreamId, TranscodeSessionKey titleKey) {
+        List<TranscodeSessionKey> titleKeys = cachedTitles.get(liveStreamId);
+        if (titleKeys == null) {
+            titleKeys = new ArrayList<TranscodeSessionKey>();
+            cachedTitles.put(liveStreamId, titleKeys);
+        }
+
+        titleKeys.add(titleKey);
+    }
+
+    /*
+     * Viewer of adaptive stream can watch any of its renditions
+     */
+    private long getLastAccessTime(Integer liveStreamId, LiveStreamer liveStreamer) {
+        long lastAccessTime = liveStreamer.getLastAccessTime();
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        if (adaptiveStream != null) {
+            for (LiveStreamer renditionStream: adaptiveStream.renditionStreams.values()) {
+                lastAccessTime = Math.max(lastAccessTime, renditionStream.getLastAccessTime());
+            }
+        }
+
+        return lastAccessTime;
+    }
+
+    /*
+     * Returns id which is not used or which is used by the stream nobody watches any more.
+     * If there is no such id then the least recently used idle stream is evicted.
+     * Players request playlist at least once per segment duration,
+     * so stream which was not requested for a few segment durations is idle.
+     */
+    private Integer scheduleLiveStream() throws LiveStreamsBusyException {
+        long now = System.currentTimeMillis();
+        long idleTime = IDLE_SEGMENTS * configReader.getSegmentDurationInSec() * 1000L;
+
+        Integer liveStreamId = null;
+        boolean free = false;
+        long leastRecentAccessTime = Long.MAX_VALUE;
+        for (int id = 0; id < configReader.getMaxLiveStreams(); id++) {
+            LiveStreamer liveStreamer = liveStreams.get(id);
+            TranscodeSession transcodeSession = transcodeSessions.get(id);
+            if (liveStreamer == null || !liveStreamer.isActive()
+                    || transcodeSession == null || transcodeSession.sessionIds.isEmpty()) {
+                liveStreamId = id;
+                free = true;
                 break;
             }
+
+            long lastAccessTime = getLastAccessTime(id, liveStreamer);
+            if (lastAccessTime < leastRecentAccessTime) {
+                leastRecentAccessTime = lastAccessTime;
+                liveStreamId = id;
+            }
+        }
+
+        if (liveStreamId == null) {
+            throw new LiveStreamsBusyException("Live streaming is not available", configReader.getSegmentDurationInSec());
+        }
+
+        if (!free && now - leastRecentAccessTime < idleTime) {
+            int retryAfter = (int) Math.max(1, (idleTime - (now - leastRecentAccessTime) + 999) / 1000);
+            throw new LiveStreamsBusyException("All live streams are watched", retryAfter);
+        }
+
+        if (configReader.getTranscodeSpeedAdmission()) {
+            checkTranscodeSpeed(liveStreamId, now, idleTime);
+        }
+
+        return liveStreamId;
+    }
+
+    /*
+     * If some watched stream is transcoded slower than it is played
+     * then there is no CPU left for one more stream
+     */
+    private void checkTranscodeSpeed(Integer evictedLiveStreamId, long now, long idleTime) throws LiveStreamsBusyException {
+        for (Map.Entry<Integer, LiveStreamer> entry: liveStreams.entrySet()) {
+            LiveStreamer liveStreamer = entry.getValue();
+            if (!entry.getKey().equals(evictedLiveStreamId) && liveStreamer.isActive() && liveStreamer.isTranscoding()
+                    && now - getLastAccessTime(entry.getKey(), liveStreamer) < idleTime
+                    && liveStreamer.getTranscodeSpeed() >= 0 && liveStreamer.getTranscodeSpeed() < MIN_TRANSCODE_SPEED) {
+                throw new LiveStreamsBusyException(String.format("Live stream [%s] is transcoded slower than real time", entry.getKey()),
+                        configReader.getSegmentDurationInSec());
+            }
+        }
+    }
+
+    private void attachViewer(String sessionId, Integer liveStreamId) {
+        sessionsMap.put(sessionId, liveStreamId);
+        transcodeSessions.get(liveStreamId).sessionIds.add(sessionId);
+    }
+
+    /*
+     * Live stream is destroyed when its last viewer leaves.
+     * Destroyed stream is kept in the map - this allows
+     * to read static resources of this live stream until new live
+     * stream will evict this one.
+     */
+    private void detachViewer(String sessionId) {
+        Integer liveStreamId = sessionsMap.remove(sessionId);
+        TranscodeSession transcodeSession = liveStreamId != null ? transcodeSessions.get(liveStreamId) : null;
+        if (transcodeSession == null) {
+            return;
+        }
+
+        transcodeSession.sessionIds.remove(sessionId);
+        if (transcodeSession.sessionIds.isEmpty()) {
+            transcodeSessions.remove(liveStreamId);
+            removeTranscodeSessionId(transcodeSession.key, liveStreamId);
+            liveStreams.get(liveStreamId).destroyLiveStream();
+            destroyRenditions(liveStreamId);
+
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Last viewer left liveStream [%s]", liveStreamId));
+            }
         }
     }
 
-    private LiveStreamer addLiveStreamer(Integer id, String contextPath) {
-        DeadStreamsCleaner deadStreamsCleaner = new DeadStreamsCleaner();
+    /*
+     * Stream which was destroyed because of inactivity can be restarted
+     * with another id, so key is removed only if it still points to this stream
+     */
+    private void removeTranscodeSessionId(TranscodeSessionKey key, Integer liveStreamId) {
+        if (liveStreamId.equals(transcodeSessionIds.get(key))) {
+            transcodeSessionIds.remove(key);
+        }
+    }
+
+    private void destroyTranscodeSession(Integer liveStreamId) {
+        //Remove sessionIds of viewers of given liveStreamId if present
+        TranscodeSession transcodeSession = transcodeSessions.remove(liveStreamId);
+        if (transcodeSession != null) {
+            for (String sessionId: transcodeSession.sessionIds) {
+                sessionsMap.remove(sessionId);
+            }
+
+            removeTranscodeSessionId(transcodeSession.key, liveStreamId);
+        }
+
+        //Destroy liveStream by given liveStreamId if present
+        LiveStreamer liveStreamer = liveStreams.remove(liveStreamId);
+        if (liveStreamer != null) {
+            liveStreamer.destroyLiveStream();
+        }
+
+        destroyRenditions(liveStreamId);
+        adaptiveStreams.remove(liveStreamId);
+
+        List<TranscodeSessionKey> titleKeys = cachedTitles.remove(liveStreamId);
+        if (titleKeys != null) {
+            for (TranscodeSessionKey titleKey: titleKeys) {
+                segmentCacheService.release(titleKey);
+            }
+        }
+    }
+
+    private void destroyRenditions(Integer liveStreamId) {
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        if (adaptiveStream != null) {
+            for (LiveStreamer renditionStream: adaptiveStream.renditionStreams.values()) {
+                renditionStream.destroyLiveStream();
+            }
+        }
+    }
+
+    private LiveStreamer addLiveStreamer(Integer id, String contextPath, DeadStreamsCleaner deadStreamsCleaner) {
         LiveStreamer liveStreamer = new LiveStreamer(contextPath, id.toString(), deadStreamsCleaner, configReader);
+        liveStreamer.setBlockingReloadPermits(getBlockingReloadPermits());
         deadStreamsCleaner.setLiveStreamer(liveStreamer, id);
 
         liveStreams.put(id, liveStreamer);
         return liveStreamer;
     }
 
+    /*
+     * Waiting playlist requests hold threads of the container,
+     * so all live streams share the same limit
+     */
+    private synchronized Semaphore getBlockingReloadPermits() {
+        if (blockingReloadPermits == null) {
+            blockingReloadPermits = new Semaphore(Math.max(0, configReader.getMaxBlockingPlayListRequests()));
+        }
+
+        return blockingReloadPermits;
+    }
+
     @Override
     public void destroyLiveStream(Integer liveStreamId) throws IOException {
-        synchronized (liveStreams) {
-            LiveStreamer liveStreamer = liveStreams.remove(liveStreamId);
-            liveStreamer.destroyLiveStream();
+        synchronized (registryLock) {
+            destroyTranscodeSession(liveStreamId);
+        }
+    }
+
+    @Override
+    public int getActiveLiveStreamCount() {
+        synchronized (registryLock) {
+            long now = System.currentTimeMillis();
+            long idleTime = IDLE_SEGMENTS * configReader.getSegmentDurationInSec() * 1000L;
+
+            int count = 0;
+            for (Map.Entry<Integer, TranscodeSession> entry: transcodeSessions.entrySet()) {
+                LiveStreamer liveStreamer = liveStreams.get(entry.getKey());
+                if (!entry.getValue().sessionIds.isEmpty() && liveStreamer != null && liveStreamer.isActive()
+                        && now - getLastAccessTime(entry.getKey(), liveStreamer) < idleTime) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+    }
+
+    @Override
+    public ServerStats getStats() {
+        ServerStats stats = new ServerStats();
+        stats.setActiveLiveStreams(getActiveLiveStreamCount());
+        stats.setStreamEvictions(streamEvictions.get());
+        stats.setSegmentCacheEvictions(segmentCacheService.getEvictionCount());
+
+        for (Map.Entry<Integer, AtomicLong> entry: new TreeMap<Integer, AtomicLong>(exitCodes).entrySet()) {
+            stats.getExitCodes().put(String.valueOf(entry.getKey()), entry.getValue().get());
+        }
+
+        synchronized (registryLock) {
+            for (Map.Entry<Integer, LiveStreamer> entry: new TreeMap<Integer, LiveStreamer>(liveStreams).entrySet()) {
+                Integer id = entry.getKey();
+                TranscodeSession transcodeSession = transcodeSessions.get(id);
+                int viewers = transcodeSession != null ? transcodeSession.sessionIds.size() : 0;
+
+                AdaptiveStream adaptiveStream = adaptiveStreams.get(id);
+                if (adaptiveStream != null) {
+                    for (Map.Entry<String, LiveStreamer> rendition: adaptiveStream.renditionStreams.entrySet()) {
+                        stats.getStreams().add(getStreamStats(id, rendition.getKey(), viewers, rendition.getValue()));
+                    }
+                } else {
+                    stats.getStreams().add(getStreamStats(id, null, viewers, entry.getValue()));
+                }
+            }
+        }
+
+        return stats;
+    }
+
+    private LiveStreamStats getStreamStats(Integer id, String rendition, int viewers, LiveStreamer liveStreamer) {
+        StreamMetrics metrics = liveStreamer.getMetrics();
+
+        LiveStreamStats stats = new LiveStreamStats();
+        stats.setId(id);
+        stats.setRendition(rendition);
+        stats.setViewers(viewers);
+        stats.setTranscoding(liveStreamer.isTranscoding());
+        stats.setTranscodingPaused(liveStreamer.isTranscodingPaused());
+        stats.setTranscodingPauses(metrics.getTranscodingPauses());
+        stats.setTranscodeSpeed(liveStreamer.getTranscodeSpeed());
+        stats.setEncodeFps(metrics.getEncodeFps());
+        stats.setTimeToFirstSegment(liveStreamer.getTimeToFirstSegment());
+        stats.setSegmentsProduced(metrics.getSegmentsProduced());
+        stats.setSegmentLatencyCount(metrics.getSegmentLatency().getCount());
+        stats.setSegmentLatencySum(metrics.getSegmentLatency().getSum());
+        stats.setSegmentLatencyBuckets(metrics.getSegmentLatency().getBuckets());
+        stats.setPlayListRequests(metrics.getPlayListRequests());
+        stats.setSegmentRequests(metrics.getSegmentRequests());
+        stats.setBytesServed(metrics.getBytesServed());
+        stats.setSegmentBufferEvictions(liveStreamer.getSegmentBufferEvictions());
+        stats.setLastExitCode(metrics.getLastExitCode());
+        return stats;
+    }
+
+    private void countExitCode(int exitCode) {
+        AtomicLong count = exitCodes.get(exitCode);
+        if (count == null) {
+            synchronized (exitCodes) {
+                count = exitCodes.get(exitCode);
+                if (count == null) {
+                    count = new AtomicLong();
+                    exitCodes.put(exitCode, count);
+                }
+            }
         }
+
+        count.incrementAndGet();
     }
 
     @Override
     public File getTSFile(String path, Integer liveStreamId) throws IOException {
-        //synchronized (liveStreams) { //TOO slow with sync
-            return liveStreams.get(liveStreamId).getTSFile(path);
-        //}
+        LiveStreamer liveStreamer = liveStreams.get(liveStreamId);
+        return liveStreamer != null ? liveStreamer.getTSFile(path) : null;
+    }
+
+    @Override
+    public File getTSFile(String path, Integer liveStreamId, String rendition) throws IOException {
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        LiveStreamer liveStreamer = adaptiveStream != null ? adaptiveStream.renditionStreams.get(rendition) : null;
+        return liveStreamer != null ? liveStreamer.getTSFile(path) : null;
+    }
+
+    @Override
+    public SegmentBuffer.Segment getSegment(String path, Integer liveStreamId) {
+        LiveStreamer liveStreamer = liveStreams.get(liveStreamId);
+        return liveStreamer != null ? liveStreamer.getSegment(path) : null;
+    }
+
+    @Override
+    public SegmentBuffer.Segment getSegment(String path, Integer liveStreamId, String rendition) {
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        LiveStreamer liveStreamer = adaptiveStream != null ? adaptiveStream.renditionStreams.get(rendition) : null;
+        return liveStreamer != null ? liveStreamer.getSegment(path) : null;
+    }
+
+    @Override
+    public void segmentServed(Integer liveStreamId, long bytes) {
+        LiveStreamer liveStreamer = liveStreams.get(liveStreamId);
+        if (liveStreamer != null) {
+            liveStreamer.getMetrics().segmentServed(bytes);
+        }
+    }
+
+    @Override
+    public void segmentServed(Integer liveStreamId, String rendition, long bytes) {
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        LiveStreamer liveStreamer = adaptiveStream != null ? adaptiveStream.renditionStreams.get(rendition) : null;
+        if (liveStreamer != null) {
+            liveStreamer.getMetrics().segmentServed(bytes);
+        }
     }
 
     @Override
     public InputStream getPlayList(Integer liveStreamId) throws IOException {
-        //synchronized (liveStreams) {
-            return liveStreams.get(liveStreamId).getPlayList();
-        //}
+        return getPlayList(liveStreamId, (Long) null);
+    }
+
+    @Override
+    public InputStream getPlayList(Integer liveStreamId, Long mediaSequence) throws IOException {
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        if (adaptiveStream != null) {
+            return adaptiveStream.masterPlayList.getInputStream();
+        }
+
+        LiveStreamer liveStreamer = liveStreams.get(liveStreamId);
+        if (liveStreamer == null) {
+            throw new FileNotFoundException(String.format("LiveStream [%s]", liveStreamId));
+        }
+
+        return liveStreamer.getPlayList(mediaSequence);
+    }
+
+    @Override
+    public InputStream getPlayList(Integer liveStreamId, String rendition) throws IOException {
+        return getPlayList(liveStreamId, rendition, null);
+    }
+
+    /*
+     * Rendition which nobody requested yet is started by the first request of its playlist.
+     * Renditions are started under the lock of their adaptive stream,
+     * so viewers of other streams are not blocked.
+     */
+    @Override
+    public InputStream getPlayList(Integer liveStreamId, String rendition, Long mediaSequence) throws IOException {
+        AdaptiveStream adaptiveStream = adaptiveStreams.get(liveStreamId);
+        Rendition renditionInfo = adaptiveStream != null ? adaptiveStream.getRendition(rendition) : null;
+        if (renditionInfo == null) {
+            throw new FileNotFoundException(String.format("Rendition [%s] of liveStream [%s]", rendition, liveStreamId));
+        }
+
+        LiveStreamer liveStreamer;
+        synchronized (adaptiveStream) {
+            liveStreamer = adaptiveStream.renditionStreams.get(rendition);
+            if (liveStreamer == null) {
+                StreamStart streamStart = null;
+                synchronized (registryLock) {
+                    if (adaptiveStreams.get(liveStreamId) == adaptiveStream && liveStreams.get(liveStreamId).isActive()) {
+                        streamStart = addRendition(liveStreamId, adaptiveStream, renditionInfo);
+                    }
+                }
+
+                if (streamStart == null) {
+                    throw new FileNotFoundException(String.format("Rendition [%s] of liveStream [%s]", rendition, liveStreamId));
+                }
+
+                streamStart.start();
+                liveStreamer = streamStart.liveStreamer;
+            }
+        }
+
+        return liveStreamer.getPlayList(mediaSequence);
+    }
+
+    /**
+     * Live streamer which is registered but not started yet
+     */
+    class StreamStart {
+        private final LiveStreamer liveStreamer;
+        private final File file;
+        private final String startTime;
+        private final Integer audioStreamId;
+        private final TranscodeSessionKey titleKey;
+        private final File segmentFolder;
+        private final DeadStreamsCleaner deadStreamsCleaner;
+
+        StreamStart(LiveStreamer liveStreamer, File file, String startTime, Integer audioStreamId,
+                    TranscodeSessionKey titleKey, File segmentFolder, DeadStreamsCleaner deadStreamsCleaner) {
+            this.liveStreamer = liveStreamer;
+            this.file = file;
+            this.startTime = startTime;
+            this.audioStreamId = audioStreamId;
+            this.titleKey = titleKey;
+            this.segmentFolder = segmentFolder;
+            this.deadStreamsCleaner = deadStreamsCleaner;
+        }
+
+        public void start() throws IOException {
+            if (segmentFolder == null) {
+                liveStreamer.startLiveStream(file, startTime, audioStreamId);
+            } else {
+                liveStreamer.startLiveStream(file, startTime, audioStreamId, segmentFolder,
+                        segmentCacheService.getPlayList(titleKey), deadStreamsCleaner);
+            }
+        }
+    }
+
+    /**
+     * Live stream transcoded into several renditions
+     */
+    static class AdaptiveStream {
+        private final String contextPath;
+        private final File file;
+        private final String startTime;
+        private final Integer audioStreamId;
+        private final List<Rendition> renditions;
+        private final MasterPlayList masterPlayList;
+        private final Map<String, LiveStreamer> renditionStreams = new ConcurrentHashMap<String, LiveStreamer>();
+
+        AdaptiveStream(Integer liveStreamId, String contextPath, File file, String startTime, Integer audioStreamId,
+                       List<Rendition> renditions) {
+            this.contextPath = contextPath.endsWith("/") ? contextPath.substring(0, contextPath.length() - 1) : contextPath;
+            this.file = file;
+            this.startTime = startTime;
+            this.audioStreamId = audioStreamId;
+            this.renditions = renditions;
+
+            List<MasterPlayList.Variant> variants = new ArrayList<MasterPlayList.Variant>();
+            for (Rendition rendition: renditions) {
+                variants.add(new MasterPlayList.Variant(
+                        String.format("%s/playlist/%s/%s", this.contextPath, liveStreamId, rendition.getName()),
+                        rendition.getBandwidth(), rendition.getResolution()));
+            }
+
+            this.masterPlayList = MasterPlayList.create(variants);
+        }
+
+        public Rendition getRendition(String name) {
+            for (Rendition rendition: renditions) {
+                if (rendition.getName().equals(name)) {
+                    return rendition;
+                }
+            }
+
+            return null;
+        }
     }
    
-    class DeadStreamsCleaner implements ProgressListener {
+    /**
+     * Transcoding shared by viewers of the live stream.
+     * Keeps session ids of its viewers, so they are removed
+     * together with the stream without scanning all sessions.
+     */
+    static class TranscodeSession {
+        private final TranscodeSessionKey key;
+        private final Set<String> sessionIds = new HashSet<String>();
+        private boolean starting = true;
+
+        TranscodeSession(TranscodeSessionKey key) {
+            this.key = key;
+        }
+
+        public synchronized void setStarted() {
+            starting = false;
+            notifyAll();
+        }
+
+        public synchronized void awaitStarted() {
+            try {
+                while (starting) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Also stores segments of the live stream in the segment cache
+     * if title key is given
+     */
+    class DeadStreamsCleaner implements ProgressListener, PlayListListener {
         private LiveStreamer liveStreamer;
         private Integer id;
+        private final TranscodeSessionKey titleKey;
+        private volatile PlayList segmenterPlayList;
 
-        DeadStreamsCleaner() {
+        DeadStreamsCleaner(TranscodeSessionKey titleKey) {
+            this.titleKey = titleKey;
         }
 
         public void setLiveStreamer(LiveStreamer liveStreamer, Integer id) {
@@ -142,6 +732,16 @@ public class LiveStreamServiceImpl implements LiveStreamService {
             this.id = id;
         }
 
+        @Override
+        public void onPlayListUpdated(PlayList playList) {
+            segmenterPlayList = playList;
+            try {
+                segmentCacheService.update(titleKey, playList);
+            } catch (IOException e) {
+                log.warn(String.format("Can not index segments of liveStream [%s]", id), e);
+            }
+        }
+
         @Override
         public void onFrameMessage(FrameMessage frameMessage) {
             //log.debug(frameMessage);
@@ -154,6 +754,20 @@ public class LiveStreamServiceImpl implements LiveStreamService {
 
         @Override
         public void onFinish(int exitCode) {
+            countExitCode(exitCode);
+
+            //Destroyed stream also reaches the end of ffmpeg output,
+            //so only streams finished by themselves reach the end of the media
+            PlayList playList = segmenterPlayList;
+            if (titleKey != null && exitCode == 0 && liveStreamer.isActive()
+                    && playList != null && playList.isEndList()) {
+                try {
+                    segmentCacheService.complete(titleKey, playList);
+                } catch (IOException e) {
+                    log.warn(String.format("Can not cache liveStream [%s]", id), e);
+                }
+            }
+
             //Do not remove dead live stream from map - this allows
             //to read static resources of this live stream until new live
             //stream will evict this one.
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.ffmpeg.MediaInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Service which provides information about media files
+ *
+ * @author Sergey Prilukin
+ */
+public interface MediaInfoService {
+
+    /**
+     * Returns media info for given files.
+     * Information is read only once for each version of the file (path, size and modification time)
+     * and then is taken from the cache.
+     *
+     * @param files media files
+     * @return list of media infos in the same order as passed files.
+     *  List contains {@code null} for files which info can not be read.
+     * @throws IOException if exception occurs during reading media info
+     */
+    public List<MediaInfo> getMediaInfo(List<File> files) throws IOException;
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.container.ContainerProber;
+import jstreamserver.ffmpeg.FFMpegProber;
+import jstreamserver.ffmpeg.MediaInfo;
+import jstreamserver.utils.ConfigReader;
+import jstreamserver.utils.HashUtils;
+import jstreamserver.utils.LruCache;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Service which reads media info and caches it. Media info is read from container
+ * headers (see {@link ContainerProber}), files which could not be parsed
+ * are probed with ffmpeg (see {@link FFMpegProber}).
+ * Cache consists of two tiers: in-memory LRU cache and folder with
+ * one JSON file per media file, which survives server restarts.
+ * Files which could not be probed are remembered in memory only.
+ *
+ * @author Sergey Prilukin
+ */
+@Service
+public class MediaInfoServiceImpl implements MediaInfoService, DisposableBean {
+    private static final Log log = LogFactory.getLog(MediaInfoServiceImpl.class);
+
+    public static final String CACHE_FILE_EXTENSION = ".json";
+
+    /**
+     * Temporary cache files older than this (in milliseconds) were left by interrupted writes
+     */
+    public static final long TEMP_FILE_MAX_AGE = 60 * 1000;
+
+    @Autowired
+    private ConfigReader configReader;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ContainerProber containerProber = new ContainerProber();
+    private LruCache<String, CachedMediaInfo> memoryCache;
+    private FFMpegProber prober;
+
+    public MediaInfoServiceImpl() {
+        objectMapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    @Override
+    public List<MediaInfo> getMediaInfo(List<File> files) throws IOException {
+        MediaInfo[] mediaInfos = new MediaInfo[files.size()];
+        List<Integer> notCachedIndexes = new ArrayList<Integer>();
+        List<String> notCachedFileNames = new ArrayList<String>();
+
+        for (int i = 0; i < files.size(); i++) {
+            CachedMediaInfo cachedMediaInfo = getCachedMediaInfo(files.get(i));
+            if (cachedMediaInfo != null) {
+                //File which could not be probed is not probed again until it is changed
+                mediaInfos[i] = cachedMediaInfo.getMediaInfo();
+                continue;
+            }
+
+            MediaInfo mediaInfo = null;
+            if (configReader.getNativeMediaProbe()) {
+                mediaInfo = containerProber.probe(files.get(i));
+                if (mediaInfo != null) {
+                    putMediaInfo(files.get(i), mediaInfo);
+                }
+            }
+
+            if (mediaInfo != null) {
+                mediaInfos[i] = mediaInfo;
+            } else {
+                notCachedIndexes.add(i);
+                notCachedFileNames.add(files.get(i).getPath());
+            }
+        }
+
+        if (!notCachedFileNames.isEmpty()) {
+            List<MediaInfo> readMediaInfos = getProber().probe(notCachedFileNames);
+
+            for (int i = 0; i < readMediaInfos.size(); i++) {
+                MediaInfo mediaInfo = readMediaInfos.get(i);
+                int index = notCachedIndexes.get(i);
+                if (mediaInfo != null) {
+                    mediaInfos[index] = mediaInfo;
+                    putMediaInfo(files.get(index), mediaInfo);
+                } else {
+                    CachedMediaInfo failedProbe = new CachedMediaInfo(files.get(index), null);
+                    getMemoryCache().put(failedProbe.getPath(), failedProbe);
+                }
+            }
+        }
+
+        return Arrays.asList(mediaInfos);
+    }
+
+    private CachedMediaInfo getCachedMediaInfo(File file) {
+        String key = file.getAbsolutePath();
+        LruCache<String, CachedMediaInfo> cache = getMemoryCache();
+
+        CachedMediaInfo cachedMediaInfo = cache.get(key);
+        if (cachedMediaInfo == null) {
+            cachedMediaInfo = readCachedMediaInfo(key);
+            if (cachedMediaInfo != null) {
+                cache.put(key, cachedMediaInfo);
+            }
+        }
+
+        return cachedMediaInfo != null && cachedMediaInfo.isValid(file) ? cachedMediaInfo : null;
+    }
+
+    private void putMediaInfo(File file, MediaInfo mediaInfo) {
+        CachedMediaInfo cachedMediaInfo = new CachedMediaInfo(file, mediaInfo);
+        getMemoryCache().put(cachedMediaInfo.getPath(), cachedMediaInfo);
+        writeCachedMediaInfo(cachedMediaInfo);
+    }
+
+    private FFMpegProber getProber() {
+        synchronized (this) {
+            if (prober == null) {
+                prober = new FFMpegProber(configReader.getFfmpegLocation(),
+                        configReader.getMediaProbeThreads(), configReader.getMediaProbeTimeout());
+            }
+
+            return prober;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        synchronized (this) {
+            if (prober != null) {
+                prober.shutdown();
+                prober = null;
+            }
+        }
+    }
+
+    private LruCache<String, CachedMediaInfo> getMemoryCache() {
+        synchronized (this) {
+            if (memoryCache == null) {
+                memoryCache = new LruCache<String, CachedMediaInfo>(configReader.getMediaInfoCacheSize());
+
+                Thread pruner = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        pruneCacheFolder();
+                    }
+                }, "MediaInfoCachePruner");
+                pruner.setDaemon(true);
+                pruner.setPriority(Thread.MIN_PRIORITY);
+                pruner.start();
+            }
+
+            return memoryCache;
+        }
+    }
+
+    /*
+     * Cache files of removed or changed media files are never read again,
+     * so they are removed once after the start of the server
+     */
+    private void pruneCacheFolder() {
+        String cacheFolder = configReader.getMediaInfoCacheFolder();
+        if (cacheFolder == null || cacheFolder.isEmpty()) {
+            return;
+        }
+
+        File[] cacheFiles = new File(cacheFolder).listFiles();
+        if (cacheFiles == null) {
+            return;
+        }
+
+        int removed = 0;
+        for (File cacheFile: cacheFiles) {
+            if (isStale(cacheFile) && cacheFile.delete()) {
+                removed++;
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Stale media info cache files removed: %s of %s", removed, cacheFiles.length));
+        }
+    }
+
+    private boolean isStale(File cacheFile) {
+        if (!cacheFile.getName().endsWith(CACHE_FILE_EXTENSION)) {
+            return cacheFile.getName().contains(CACHE_FILE_EXTENSION + ".tmp")
+                    && System.currentTimeMillis() - cacheFile.lastModified() > TEMP_FILE_MAX_AGE;
+        }
+
+        try {
+            CachedMediaInfo cachedMediaInfo = objectMapper.readValue(cacheFile, CachedMediaInfo.class);
+            File file = cachedMediaInfo.getPath() != null ? new File(cachedMediaInfo.getPath()) : null;
+            return file == null || !file.exists() || !cachedMediaInfo.isValid(file);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private CachedMediaInfo readCachedMediaInfo(String path) {
+        File cacheFile = getCacheFile(path);
+        if (cacheFile == null || !cacheFile.exists()) {
+            return null;
+        }
+
+        try {
+            CachedMediaInfo cachedMediaInfo = objectMapper.readValue(cacheFile, CachedMediaInfo.class);
+
+            //Protection from hash collisions
+            return path.equals(cachedMediaInfo.getPath()) ? cachedMediaInfo : null;
+        } catch (IOException e) {
+            log.warn(String.format("Can not read media info cache file: %s", cacheFile), e);
+            return null;
+        }
+    }
+
+    private void writeCachedMediaInfo(CachedMediaInfo cachedMediaInfo) {
+        File cacheFile = getCacheFile(cachedMediaInfo.getPath());
+        if (cacheFile == null) {
+            return;
+        }
+
+        File cacheDir = cacheFile.getParentFile();
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            log.warn(String.format("Can not create media info cache folder: %s", cacheDir));
+            return;
+        }
+
+        //Write to temporary file first so readers never see partially written file
+        File tempFile = new File(cacheDir, cacheFile.getName() + ".tmp" + Thread.currentThread().getId());
+        try {
+            objectMapper.writeValue(tempFile, cachedMediaInfo);
+            if (!tempFile.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile)) {
+                    log.warn(String.format("Can not write media info cache file: %s", cacheFile));
+                    tempFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            log.warn(String.format("Can not write media info cache file: %s", cacheFile), e);
+            tempFile.delete();
+        }
+    }
+
+    private File getCacheFile(String path) {
+        String cacheFolder = configReader.getMediaInfoCacheFolder();
+        if (cacheFolder == null || cacheFolder.isEmpty()) {
+            return null;
+        }
+
+        return new File(cacheFolder, HashUtils.md5(path) + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Media info together with version of the file it was read from
+     */
+    public static class CachedMediaInfo {
+        private String path;
+        private long length;
+        private long lastModified;
+        private MediaInfo mediaInfo;
+
+        public CachedMediaInfo() {
+        }
+
+        public CachedMediaInfo(File file, MediaInfo mediaInfo) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.mediaInfo = mediaInfo;
+        }
+
+        public boolean isValid(File file) {
+            return length == file.length() && lastModified == file.lastModified();
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public void setLength(long length) {
+            this.length = length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public MediaInfo getMediaInfo() {
+            return mediaInfo;
+        }
+
+        public void setMediaInfo(MediaInfo mediaInfo) {
+            this.mediaInfo = mediaInfo;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.dto.PreTranscodeQueue;
+
+import java.io.File;
+
+/**
+ * Transcodes files into segment cache in background,
+ * so live streams of these files start from already transcoded segments.
+ * Pre-transcoding is paused while live streams are watched.
+ *
+ * @author Sergey Prilukin
+ */
+public interface PreTranscodeService {
+
+    /**
+     * Adds file or video files of the folder and its subfolders to the queue.
+     * Files which browsers play without transcoding are skipped.
+     *
+     * @param file file or folder
+     * @param path path of the file as it is shown to user
+     * @return number of files added to the queue
+     */
+    public int enqueue(File file, String path);
+
+    /**
+     * Removes all files from the queue and stops current transcoding.
+     * Segments which are already transcoded are kept.
+     */
+    public void clear();
+
+    /**
+     * @return state of the queue including recently finished files
+     */
+    public PreTranscodeQueue getQueue();
+}
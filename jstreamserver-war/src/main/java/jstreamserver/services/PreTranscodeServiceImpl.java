@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.dto.PreTranscodeJob;
+import jstreamserver.dto.PreTranscodeQueue;
+import jstreamserver.ffmpeg.FFMpegSegmenter;
+import jstreamserver.ffmpeg.FrameMessage;
+import jstreamserver.ffmpeg.ProgressListener;
+import jstreamserver.hls.PlayList;
+import jstreamserver.hls.PlayListListener;
+import jstreamserver.hls.SegmentIndex;
+import jstreamserver.hls.TsSegmenter;
+import jstreamserver.utils.ConfigReader;
+import jstreamserver.utils.LiveStreamer;
+import jstreamserver.utils.MimeProperties;
+import jstreamserver.utils.RuntimeExecutor;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Transcodes queued files one by one in a single background thread.
+ * ffmpeg is started with lowered priority and destroyed as soon as
+ * some live stream is watched. Segments are indexed by position,
+ * so transcoding continues from the position where it was stopped.
+ *
+ * @author Sergey Prilukin
+ */
+@Service
+public class PreTranscodeServiceImpl implements PreTranscodeService {
+    private static final Log log = LogFactory.getLog(PreTranscodeServiceImpl.class);
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_DONE = "done";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    public static final String PLAYLIST_FILE_NAME = "pretranscode.m3u8";
+
+    /*
+     * Interval of checks whether live streams are watched
+     */
+    public static final long ACTIVITY_CHECK_INTERVAL = 1000;
+
+    public static final int MAX_FINISHED_JOBS = 100;
+
+    @Autowired
+    private ConfigReader configReader;
+
+    @Autowired
+    private MimeProperties mimeProperties;
+
+    @Autowired
+    private LiveStreamService liveStreamService;
+
+    @Autowired
+    private SegmentCacheService segmentCacheService;
+
+    //Guarded by itself. Finished jobs are kept to show their state
+    private final LinkedList<Job> jobs = new LinkedList<Job>();
+    private Thread worker;
+    private boolean paused;
+
+    @Override
+    public int enqueue(File file, String path) {
+        List<Job> newJobs = new ArrayList<Job>();
+        collectFiles(file, path, newJobs);
+
+        synchronized (jobs) {
+            int count = 0;
+            for (Job job: newJobs) {
+                if (!isQueued(job.file)) {
+                    jobs.add(job);
+                    count++;
+                }
+            }
+
+            if (worker == null) {
+                worker = new Thread(new Worker(), "PreTranscoder");
+                worker.setDaemon(true);
+                worker.setPriority(Thread.MIN_PRIORITY);
+                worker.start();
+            }
+
+            jobs.notifyAll();
+            return count;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (jobs) {
+            Iterator<Job> iterator = jobs.iterator();
+            while (iterator.hasNext()) {
+                Job job = iterator.next();
+                if (STATUS_QUEUED.equals(job.status)) {
+                    iterator.remove();
+                } else if (STATUS_RUNNING.equals(job.status)) {
+                    job.cancelled = true;
+                }
+            }
+
+            jobs.notifyAll();
+        }
+    }
+
+    @Override
+    public PreTranscodeQueue getQueue() {
+        PreTranscodeQueue queue = new PreTranscodeQueue();
+        synchronized (jobs) {
+            queue.setPaused(paused);
+            for (Job job: jobs) {
+                queue.getJobs().add(new PreTranscodeJob(job.path, job.status, job.position));
+            }
+        }
+
+        return queue;
+    }
+
+    private boolean isQueued(File file) {
+        for (Job job: jobs) {
+            if (job.file.equals(file) && (STATUS_QUEUED.equals(job.status) || STATUS_RUNNING.equals(job.status))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void collectFiles(File file, String path, List<Job> result) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                    return !pathname.isHidden();
+                }
+            });
+
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child: children) {
+                    collectFiles(child, path.replaceAll("\\/$", "") + "/" + child.getName(), result);
+                }
+            }
+        } else if (file.isFile() && needsTranscoding(file)) {
+            result.add(new Job(file, path));
+        }
+    }
+
+    private boolean needsTranscoding(File file) {
+        String extension = FilenameUtils.getExtension(file.getName()).toLowerCase();
+        String mimeType = mimeProperties.getProperty(extension, "application/octet-stream");
+        List<String> supportedVideoTypes = configReader.getVideoTypesForHTML5("");
+
+        return mimeType.startsWith("video") && !supportedVideoTypes.contains(extension);
+    }
+
+    /*
+     * Waits for queued job while live streams are not watched
+     */
+    private Job takeJob() throws InterruptedException {
+        synchronized (jobs) {
+            while (true) {
+                Job job = null;
+                for (Job queuedJob: jobs) {
+                    if (STATUS_QUEUED.equals(queuedJob.status)) {
+                        job = queuedJob;
+                        break;
+                    }
+                }
+
+                paused = job != null && liveStreamService.getActiveLiveStreamCount() > 0;
+                if (job != null && !paused) {
+                    job.status = STATUS_RUNNING;
+                    return job;
+                }
+
+                jobs.wait(job != null ? ACTIVITY_CHECK_INTERVAL : 0);
+            }
+        }
+    }
+
+    private void finishJob(Job job, String status) {
+        synchronized (jobs) {
+            job.status = status;
+            if (STATUS_QUEUED.equals(status)) {
+                return;
+            }
+
+            //Forget the oldest finished jobs
+            int finished = 0;
+            Iterator<Job> iterator = jobs.descendingIterator();
+            while (iterator.hasNext()) {
+                Job finishedJob = iterator.next();
+                if (!STATUS_QUEUED.equals(finishedJob.status) && !STATUS_RUNNING.equals(finishedJob.status)
+                        && ++finished > MAX_FINISHED_JOBS) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void transcode(Job job) throws InterruptedException {
+        TranscodeSessionKey titleKey = new TranscodeSessionKey(job.file, null, null, configReader.getFfmpegParams());
+        File segmentFolder = configReader.getInternalSegmenter() ? segmentCacheService.acquire(titleKey) : null;
+        if (segmentFolder == null) {
+            log.warn(String.format("Segment cache is disabled, can not pre-transcode: %s", job.file));
+            finishJob(job, STATUS_FAILED);
+            return;
+        }
+
+        try {
+            finishJob(job, transcodeSegments(job, titleKey, segmentFolder));
+        } catch (IOException e) {
+            log.warn(String.format("Can not pre-transcode: %s", job.file), e);
+            finishJob(job, STATUS_FAILED);
+        } finally {
+            segmentCacheService.release(titleKey);
+        }
+    }
+
+    /*
+     * Transcodes the file starting from the end of segments
+     * which cover the beginning of the file
+     */
+    private String transcodeSegments(Job job, TranscodeSessionKey titleKey, File segmentFolder) throws IOException, InterruptedException {
+        PlayList index = segmentCacheService.getPlayList(titleKey);
+        List<PlayList.Segment> coveredSegments = index != null
+                ? SegmentIndex.getCoveredSegments(index, 0) : Collections.<PlayList.Segment>emptyList();
+
+        long startPosition = 0;
+        if (!coveredSegments.isEmpty()) {
+            PlayList.Segment lastSegment = coveredSegments.get(coveredSegments.size() - 1);
+            if (SegmentIndex.isEndOfMedia(index, lastSegment)) {
+                return STATUS_DONE;
+            }
+
+            startPosition = SegmentIndex.getEnd(lastSegment);
+        }
+
+        job.position = startPosition;
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Pre-transcoding from %s ms: %s", startPosition, job.file));
+        }
+
+        PreTranscodeListener listener = new PreTranscodeListener(job, titleKey, startPosition);
+        TsSegmenter tsSegmenter = new TsSegmenter(
+                new File(segmentFolder, LiveStreamer.SEGMENT_FILE_PREFIX).getPath(),
+                new File(segmentFolder, PLAYLIST_FILE_NAME).getPath(),
+                LiveStreamer.SEGMENT_FILE_PREFIX,
+                configReader.getSegmentDurationInSec(), 0, startPosition, listener);
+
+        RuntimeExecutor ffmpegExecutor = new RuntimeExecutor();
+        ffmpegExecutor.setNiceness(configReader.getPreTranscodeNiceness());
+
+        FFMpegSegmenter ffMpegSegmenter = new FFMpegSegmenter();
+        ffMpegSegmenter.setFfmpegExecutor(ffmpegExecutor);
+        ffMpegSegmenter.start(configReader.getFfmpegLocation(),
+                LiveStreamer.getFfmpegParams(configReader, job.file, null, startPosition > 0 ? LiveStreamer.formatPosition(startPosition) : null),
+                tsSegmenter, listener, "pretranscode");
+
+        boolean stopped = false;
+        synchronized (jobs) {
+            while (!listener.finished) {
+                if (job.cancelled || liveStreamService.getActiveLiveStreamCount() > 0) {
+                    paused = !job.cancelled;
+                    stopped = true;
+                    ffMpegSegmenter.destroy();
+                    break;
+                }
+
+                jobs.wait(ACTIVITY_CHECK_INTERVAL);
+            }
+        }
+
+        ffMpegSegmenter.waitFor();
+
+        if (stopped) {
+            return job.cancelled ? STATUS_CANCELLED : STATUS_QUEUED;
+        }
+
+        PlayList playList = listener.playList;
+        if (listener.exitCode != 0 || playList == null || !playList.isEndList()) {
+            log.warn(String.format("Pre-transcoding failed with exit code %s: %s", listener.exitCode, job.file));
+            return STATUS_FAILED;
+        }
+
+        segmentCacheService.complete(titleKey, playList);
+        return STATUS_DONE;
+    }
+
+    /**
+     * Queued file
+     */
+    static class Job {
+        private final File file;
+        private final String path;
+        private volatile String status = STATUS_QUEUED;
+        private volatile long position;
+        private volatile boolean cancelled;
+
+        Job(File file, String path) {
+            this.file = file;
+            this.path = path;
+        }
+    }
+
+    class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    transcode(takeJob());
+                }
+            } catch (InterruptedException e) {
+                /* do nothing */
+            }
+        }
+    }
+
+    /**
+     * Indexes segments as they are produced and tracks progress of the job
+     */
+    class PreTranscodeListener implements ProgressListener, PlayListListener {
+        private final Job job;
+        private final TranscodeSessionKey titleKey;
+        private final long startPosition;
+        private volatile PlayList playList;
+        private volatile boolean finished;
+        private volatile int exitCode;
+
+        PreTranscodeListener(Job job, TranscodeSessionKey titleKey, long startPosition) {
+            this.job = job;
+            this.titleKey = titleKey;
+            this.startPosition = startPosition;
+        }
+
+        @Override
+        public void onPlayListUpdated(PlayList playList) {
+            this.playList = playList;
+            try {
+                segmentCacheService.update(titleKey, playList);
+            } catch (IOException e) {
+                log.warn(String.format("Can not index pre-transcoded segments: %s", job.file), e);
+            }
+        }
+
+        @Override
+        public void onFrameMessage(FrameMessage frameMessage) {
+            job.position = startPosition + frameMessage.getTime();
+        }
+
+        @Override
+        public void onProgress(String progressString) {
+            /* do nothing */
+        }
+
+        @Override
+        public void onPlayListCreated() {
+            /* do nothing */
+        }
+
+        @Override
+        public void onFinish(int exitCode) {
+            this.exitCode = exitCode;
+            synchronized (jobs) {
+                finished = true;
+                jobs.notifyAll();
+            }
+        }
+    }
+}
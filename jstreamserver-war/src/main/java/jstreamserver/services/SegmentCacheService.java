@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.hls.PlayList;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Persistent cache of transcoded segments.
+ * Segments of each title (file, audio stream and transcoding profile) are stored in
+ * a separate folder and indexed by their position in the media,
+ * so segments transcoded from different start positions are reused.
+ * When total size of the cache exceeds configured limit
+ * least recently used titles are removed.
+ *
+ * @author Sergey Prilukin
+ */
+public interface SegmentCacheService {
+
+    /**
+     * Returns folder for segments of given title and marks the title as used,
+     * so it is not removed until {@link #release(TranscodeSessionKey)} is called.
+     * Start time of the key is ignored.
+     *
+     * @param key transcode key
+     * @return folder for segments or {@code null} if cache is disabled
+     */
+    public File acquire(TranscodeSessionKey key);
+
+    /**
+     * Marks title as not used by the caller any more
+     *
+     * @param key transcode key passed to {@link #acquire(TranscodeSessionKey)}
+     */
+    public void release(TranscodeSessionKey key);
+
+    /**
+     * Returns index of segments stored for the title.
+     * Segment URIs of the index are names of segment files in the title folder.
+     *
+     * @param key transcode key
+     * @return index or {@code null} if nothing is stored for the title
+     * @see jstreamserver.hls.SegmentIndex
+     */
+    public PlayList getPlayList(TranscodeSessionKey key);
+
+    /**
+     * Adds segments of running transcoding to the index of the title
+     *
+     * @param key transcode key
+     * @param playList current playlist of the transcoding;
+     *                 segments should be numbered by position in the media
+     * @throws IOException if index can not be written
+     */
+    public void update(TranscodeSessionKey key, PlayList playList) throws IOException;
+
+    /**
+     * Adds segments of transcoding which has reached the end of the media
+     * and removes least recently used titles if cache is too big.
+     *
+     * @param key transcode key
+     * @param playList final playlist of the transcoding
+     * @throws IOException if index can not be written
+     */
+    public void complete(TranscodeSessionKey key, PlayList playList) throws IOException;
+
+    /**
+     * @return number of titles removed from the cache because it was too big
+     */
+    public long getEvictionCount();
+}
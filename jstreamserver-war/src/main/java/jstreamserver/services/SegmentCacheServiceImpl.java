@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.hls.PlayList;
+import jstreamserver.hls.SegmentIndex;
+import jstreamserver.utils.ConfigReader;
+import jstreamserver.utils.HashUtils;
+import jstreamserver.utils.LiveStreamer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores segments in folders named by hash of the title identity.
+ * Each folder contains index playlist of stored segments.
+ * Index of the title being transcoded is kept in memory
+ * and written to its folder periodically and when the title is completed or released.
+ *
+ * @author Sergey Prilukin
+ */
+@Service
+public class SegmentCacheServiceImpl implements SegmentCacheService {
+    private static final Log log = LogFactory.getLog(SegmentCacheServiceImpl.class);
+
+    public static final String INDEX_FILE_NAME = "index.m3u8";
+
+    /*
+     * Index of the title being transcoded is written not more often than this
+     */
+    public static final long INDEX_WRITE_INTERVAL = 10000;
+
+    /**
+     * Suffix of the folder of evicted title which is being removed
+     */
+    public static final String EVICTED_SUFFIX = ".evicted";
+
+    @Autowired
+    private ConfigReader configReader;
+
+    //Sizes of title folders. Iteration order is least recently used first
+    private final Map<String, Long> titleSizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final Map<String, Integer> titleUsages = new HashMap<String, Integer>();
+    private final Map<String, TitleIndex> titleIndexes = new HashMap<String, TitleIndex>();
+    private long totalSize;
+    private long evictionCount;
+    private boolean loaded;
+
+    @Override
+    public File acquire(TranscodeSessionKey key) {
+        File cacheFolder = getCacheFolder();
+        if (cacheFolder == null) {
+            return null;
+        }
+
+        String title = getTitle(key);
+        File folder = new File(cacheFolder, title);
+
+        synchronized (this) {
+            load(cacheFolder);
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                log.warn(String.format("Can not create segment cache folder: %s", folder));
+                return null;
+            }
+
+            Integer usages = titleUsages.get(title);
+            titleUsages.put(title, usages != null ? usages + 1 : 1);
+            if (titleSizes.get(title) == null) {
+                titleSizes.put(title, 0L);
+            }
+
+            if (!titleIndexes.containsKey(title)) {
+                titleIndexes.put(title, new TitleIndex(readIndex(folder)));
+            }
+        }
+
+        folder.setLastModified(System.currentTimeMillis());
+        return folder;
+    }
+
+    @Override
+    public void release(TranscodeSessionKey key) {
+        File cacheFolder = getCacheFolder();
+        if (cacheFolder == null) {
+            return;
+        }
+
+        String title = getTitle(key);
+        List<File> evicted = Collections.emptyList();
+        synchronized (this) {
+            Integer usages = titleUsages.get(title);
+            if (usages == null) {
+                return;
+            }
+
+            if (usages > 1) {
+                titleUsages.put(title, usages - 1);
+            } else {
+                titleUsages.remove(title);
+
+                TitleIndex titleIndex = titleIndexes.remove(title);
+                if (titleIndex != null && titleIndex.dirty) {
+                    try {
+                        writeIndex(new File(cacheFolder, title), titleIndex.index);
+                    } catch (IOException e) {
+                        log.warn(String.format("Can not write segment cache index of title: %s", title), e);
+                    }
+                }
+
+                //Title could be changed while it was used
+                updateSize(cacheFolder, title);
+                evicted = evict(cacheFolder);
+            }
+        }
+
+        remove(evicted);
+    }
+
+    @Override
+    public PlayList getPlayList(TranscodeSessionKey key) {
+        File cacheFolder = getCacheFolder();
+        if (cacheFolder == null) {
+            return null;
+        }
+
+        String title = getTitle(key);
+        synchronized (this) {
+            TitleIndex titleIndex = titleIndexes.get(title);
+            return titleIndex != null ? titleIndex.index : readIndex(new File(cacheFolder, title));
+        }
+    }
+
+    @Override
+    public void update(TranscodeSessionKey key, PlayList playList) throws IOException {
+        File cacheFolder = getCacheFolder();
+        if (cacheFolder == null) {
+            return;
+        }
+
+        String title = getTitle(key);
+        List<File> evicted;
+        synchronized (this) {
+            addSegments(cacheFolder, title, playList, false);
+
+            //Title being transcoded grows, so idle titles are evicted at once
+            evicted = evict(cacheFolder);
+        }
+
+        remove(evicted);
+    }
+
+    @Override
+    public void complete(TranscodeSessionKey key, PlayList playList) throws IOException {
+        File cacheFolder = getCacheFolder();
+        if (cacheFolder == null) {
+            return;
+        }
+
+        String title = getTitle(key);
+        List<File> evicted;
+        synchronized (this) {
+            addSegments(cacheFolder, title, playList, true);
+            load(cacheFolder);
+            updateSize(cacheFolder, title);
+            evicted = evict(cacheFolder);
+        }
+
+        remove(evicted);
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Transcoded title cached: %s", key));
+        }
+    }
+
+    @Override
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private PlayList readIndex(File folder) {
+        File indexFile = new File(folder, INDEX_FILE_NAME);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try {
+            return PlayList.parse(FileUtils.readFileToByteArray(indexFile));
+        } catch (IOException e) {
+            log.warn(String.format("Can not read segment cache index: %s", indexFile), e);
+            return null;
+        }
+    }
+
+    /*
+     * Index of the title which is not acquired is written at once
+     */
+    private void addSegments(File cacheFolder, String title, PlayList playList, boolean complete) throws IOException {
+        //Title could be evicted by another transcoding of it
+        File folder = new File(cacheFolder, title);
+        if (!folder.isDirectory()) {
+            return;
+        }
+
+        TitleIndex titleIndex = titleIndexes.get(title);
+        PlayList index = titleIndex != null ? titleIndex.index : readIndex(folder);
+        PlayList newIndex = SegmentIndex.merge(index, playList, LiveStreamer.SEGMENT_FILE_PREFIX, complete);
+        if (newIndex == index) {
+            return;
+        }
+
+        addSize(folder, title, index, newIndex);
+        if (titleIndex == null) {
+            writeIndex(folder, newIndex);
+            return;
+        }
+
+        titleIndex.index = newIndex;
+        titleIndex.dirty = true;
+
+        long now = System.currentTimeMillis();
+        if (complete || now - titleIndex.writeTime >= INDEX_WRITE_INTERVAL) {
+            writeIndex(folder, newIndex);
+            titleIndex.writeTime = now;
+            titleIndex.dirty = false;
+        }
+    }
+
+    /*
+     * Adds sizes of segments which are new in the index.
+     * Size of the title is recalculated from its folder when the title is completed or released.
+     */
+    private void addSize(File folder, String title, PlayList index, PlayList newIndex) {
+        Set<String> uris = new HashSet<String>();
+        if (index != null) {
+            for (PlayList.Segment segment: index.getSegments()) {
+                uris.add(segment.getUri());
+            }
+        }
+
+        long size = 0;
+        for (PlayList.Segment segment: newIndex.getSegments()) {
+            if (!uris.contains(segment.getUri())) {
+                size += new File(folder, segment.getUri()).length();
+            }
+        }
+
+        Long oldSize = titleSizes.get(title);
+        titleSizes.put(title, (oldSize != null ? oldSize : 0) + size);
+        totalSize += size;
+    }
+
+    private void writeIndex(File folder, PlayList index) throws IOException {
+        //Write to temporary file first so that incomplete index is never seen
+        File indexFile = new File(folder, INDEX_FILE_NAME);
+        File tempFile = new File(folder, INDEX_FILE_NAME + ".tmp");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            IOUtils.copy(index.getInputStream(), os);
+        } finally {
+            os.close();
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException(String.format("Can not write segment cache index: %s", indexFile));
+            }
+        }
+    }
+
+    private File getCacheFolder() {
+        String cacheFolder = configReader.getSegmentCacheFolder();
+        if (cacheFolder == null || cacheFolder.isEmpty() || configReader.getSegmentCacheSize() <= 0) {
+            return null;
+        }
+
+        return new File(cacheFolder);
+    }
+
+    /*
+     * Reads titles stored by previous runs of the server
+     */
+    private void load(File cacheFolder) {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+        File[] folders = cacheFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isDirectory();
+            }
+        });
+
+        if (folders == null) {
+            return;
+        }
+
+        //Folders evicted by previous run of the server could be left not removed
+        List<File> titleFolders = new ArrayList<File>();
+        for (File folder: folders) {
+            if (folder.getName().endsWith(EVICTED_SUFFIX)) {
+                FileUtils.deleteQuietly(folder);
+            } else {
+                titleFolders.add(folder);
+            }
+        }
+        folders = titleFolders.toArray(new File[titleFolders.size()]);
+
+        Arrays.sort(folders, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long diff = o1.lastModified() - o2.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File folder: folders) {
+            long size = FileUtils.sizeOfDirectory(folder);
+            titleSizes.put(folder.getName(), size);
+            totalSize += size;
+        }
+    }
+
+    private void updateSize(File cacheFolder, String title) {
+        File folder = new File(cacheFolder, title);
+        long size = folder.isDirectory() ? FileUtils.sizeOfDirectory(folder) : 0;
+        Long oldSize = titleSizes.put(title, size);
+        totalSize += size - (oldSize != null ? oldSize : 0);
+    }
+
+    /*
+     * Folders of evicted titles are only renamed here,
+     * they are removed by the caller after the lock is released
+     */
+    private List<File> evict(File cacheFolder) {
+        long maxSize = configReader.getSegmentCacheSize() * 1024L * 1024L;
+        if (totalSize <= maxSize) {
+            return Collections.emptyList();
+        }
+
+        List<File> evicted = new ArrayList<File>();
+        Iterator<Map.Entry<String, Long>> iterator = titleSizes.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (titleUsages.containsKey(entry.getKey())) {
+                continue;
+            }
+
+            File folder = new File(cacheFolder, entry.getKey());
+            File evictedFolder = new File(cacheFolder, entry.getKey() + "." + System.nanoTime() + EVICTED_SUFFIX);
+            if (folder.exists() && !folder.renameTo(evictedFolder)) {
+                log.warn(String.format("Can not remove cached title: %s", entry.getKey()));
+                continue;
+            }
+
+            evicted.add(evictedFolder);
+            totalSize -= entry.getValue();
+            iterator.remove();
+            evictionCount++;
+        }
+
+        return evicted;
+    }
+
+    private void remove(List<File> evicted) {
+        for (File folder: evicted) {
+            try {
+                FileUtils.deleteDirectory(folder);
+            } catch (IOException e) {
+                log.warn(String.format("Can not remove cached title folder: %s", folder), e);
+            }
+        }
+    }
+
+    /**
+     * Index of the acquired title
+     */
+    static class TitleIndex {
+        private PlayList index;
+        private long writeTime;
+        private boolean dirty;
+
+        TitleIndex(PlayList index) {
+            this.index = index;
+            this.writeTime = System.currentTimeMillis();
+        }
+    }
+
+    private static String getTitle(TranscodeSessionKey key) {
+        return HashUtils.md5(String.format("%s|%s|%s|%s", key.getPath(), key.getLastModified(), key.getAudioStreamId(), key.getProfile()));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import java.io.File;
+
+/**
+ * Identifies transcoding result: live streams created with equal keys
+ * produce the same segments and thus can be shared between viewers
+ *
+ * @author Sergey Prilukin
+ */
+public final class TranscodeSessionKey {
+    private final String path;
+    private final long lastModified;
+    private final String startTime;
+    private final Integer audioStreamId;
+    private final String profile;
+
+    public TranscodeSessionKey(File file, String startTime, Integer audioStreamId, String profile) {
+        this.path = file.getAbsolutePath();
+        this.lastModified = file.lastModified();
+        this.startTime = startTime;
+        this.audioStreamId = audioStreamId;
+        this.profile = profile;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getStartTime() {
+        return startTime;
+    }
+
+    public Integer getAudioStreamId() {
+        return audioStreamId;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof TranscodeSessionKey)) {
+            return false;
+        }
+
+        TranscodeSessionKey that = (TranscodeSessionKey) o;
+        return lastModified == that.lastModified
+                && path.equals(that.path)
+                && equal(startTime, that.startTime)
+                && equal(audioStreamId, that.audioStreamId)
+                && equal(profile, that.profile);
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = path.hashCode();
+        result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+        result = 31 * result + (startTime != null ? startTime.hashCode() : 0);
+        result = 31 * result + (audioStreamId != null ? audioStreamId.hashCode() : 0);
+        result = 31 * result + (profile != null ? profile.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [start: %s, audio: %s]", path, startTime, audioStreamId);
+    }
+}
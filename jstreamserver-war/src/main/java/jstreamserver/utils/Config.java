@@ -44,6 +44,7 @@ public final class Config implements ConfigReader, InitializingBean {
     public static String ROOT_DIR_PREFIX = "rootdir.";
     public static String HTML5_SUPPORTED_VIDEO_TYPES_PREFIX = "html5SupportedVideoTypes.";
     public static String SUPPORTS_LIVE_STREAM_PREFIX = "supportsLiveStream.";
+    public static String RENDITION_PREFIX = "rendition.";
     public static String DEFAULT_KEY = "default";
 
     private final Log log = LogFactory.getLog(this.getClass());
@@ -63,6 +64,27 @@ public final class Config implements ConfigReader, InitializingBean {
     public Map<String, List<String>> videoTypesForHTML5 = new LinkedHashMap<String, List<String>>();
     public Map<String, Boolean> supportsLiveStream = new HashMap<String, Boolean>();
     private int maxLiveStreams;
+    private int segmentCacheMaxAge;
+    private int folderCacheSize;
+    private int mediaInfoCacheSize;
+    private String mediaInfoCacheFolder;
+    private int mediaProbeThreads;
+    private int mediaProbeTimeout;
+    private boolean nativeMediaProbe;
+    private boolean internalSegmenter;
+    private boolean transcodeSpeedAdmission;
+    private String segmentCacheFolder;
+    private int segmentCacheSize;
+    private int preTranscodeNiceness;
+    private String renditions;
+    private int liveSegmentBufferSize;
+    private boolean blockingPlayListReload;
+    private int maxBlockingPlayListRequests;
+    private int startupSegmentDurationInSec;
+    private int startupSegmentCount;
+    private int playListCreateTimeout;
+    private int transcodeAheadSegments;
+    private Map<String, String> renditionDefinitions = new HashMap<String, String>();
 
     public Config() {
     }
@@ -97,6 +119,11 @@ public final class Config implements ConfigReader, InitializingBean {
         return value != null ? Integer.parseInt(value) : defValue;
     }
 
+    private Boolean getBooleanValueFromProperties(Properties props, String key, Boolean defValue) {
+        String value = props.getProperty(key);
+        return value != null ? Boolean.valueOf(value) : defValue;
+    }
+
     private void setFromProperties(Properties props) {
         setPort(getIntValueFromProperties(props, "port", port));
         setHost(props.getProperty("host", host));
@@ -110,6 +137,26 @@ public final class Config implements ConfigReader, InitializingBean {
         setDefaultTextCharset(props.getProperty("defaultTextCharset", defaultTextCharset));
         setFtpPort(getIntValueFromProperties(props, "ftpPort", ftpPort));
         setMaxLiveStreams(getIntValueFromProperties(props, "maxLiveStreams", maxLiveStreams));
+        setSegmentCacheMaxAge(getIntValueFromProperties(props, "segmentCacheMaxAge", segmentCacheMaxAge));
+        setFolderCacheSize(getIntValueFromProperties(props, "folderCacheSize", folderCacheSize));
+        setMediaInfoCacheSize(getIntValueFromProperties(props, "mediaInfoCacheSize", mediaInfoCacheSize));
+        setMediaInfoCacheFolder(props.getProperty("mediaInfoCacheFolder", mediaInfoCacheFolder));
+        setMediaProbeThreads(getIntValueFromProperties(props, "mediaProbeThreads", mediaProbeThreads));
+        setMediaProbeTimeout(getIntValueFromProperties(props, "mediaProbeTimeout", mediaProbeTimeout));
+        setNativeMediaProbe(getBooleanValueFromProperties(props, "nativeMediaProbe", nativeMediaProbe));
+        setInternalSegmenter(getBooleanValueFromProperties(props, "internalSegmenter", internalSegmenter));
+        setTranscodeSpeedAdmission(getBooleanValueFromProperties(props, "transcodeSpeedAdmission", transcodeSpeedAdmission));
+        setSegmentCacheFolder(props.getProperty("segmentCacheFolder", segmentCacheFolder));
+        setSegmentCacheSize(getIntValueFromProperties(props, "segmentCacheSize", segmentCacheSize));
+        setPreTranscodeNiceness(getIntValueFromProperties(props, "preTranscodeNiceness", preTranscodeNiceness));
+        setRenditions(props.getProperty("renditions", renditions));
+        setLiveSegmentBufferSize(getIntValueFromProperties(props, "liveSegmentBufferSize", liveSegmentBufferSize));
+        setBlockingPlayListReload(getBooleanValueFromProperties(props, "blockingPlayListReload", blockingPlayListReload));
+        setMaxBlockingPlayListRequests(getIntValueFromProperties(props, "maxBlockingPlayListRequests", maxBlockingPlayListRequests));
+        setStartupSegmentDurationInSec(getIntValueFromProperties(props, "startupSegmentDurationInSec", startupSegmentDurationInSec));
+        setStartupSegmentCount(getIntValueFromProperties(props, "startupSegmentCount", startupSegmentCount));
+        setPlayListCreateTimeout(getIntValueFromProperties(props, "playListCreateTimeout", playListCreateTimeout));
+        setTranscodeAheadSegments(getIntValueFromProperties(props, "transcodeAheadSegments", transcodeAheadSegments));
 
         for (Map.Entry entry: props.entrySet()) {
             String key = (String)entry.getKey();
@@ -117,6 +164,8 @@ public final class Config implements ConfigReader, InitializingBean {
 
             if (key.startsWith(ROOT_DIR_PREFIX)) {
                 rootDirs.put(key.substring(ROOT_DIR_PREFIX.length()), value);
+            } else if (key.startsWith(RENDITION_PREFIX)) {
+                renditionDefinitions.put(key.substring(RENDITION_PREFIX.length()), value.trim());
             } else if (key.startsWith(HTML5_SUPPORTED_VIDEO_TYPES_PREFIX)) {
                     videoTypesForHTML5.put(key.substring(HTML5_SUPPORTED_VIDEO_TYPES_PREFIX.length()),
                             Arrays.asList(value.split("[,\\s]+")));
@@ -149,6 +198,32 @@ public final class Config implements ConfigReader, InitializingBean {
         return MessageFormat.format(FFMpegConstants.FFMPEG_PARAMS_FORMAT, ffmpegParams);
     }
 
+    /*
+     * Rendition is defined as "<bandwidth> <resolution> <ffmpeg params>",
+     * its ffmpeg params are appended to common ones and thus override them
+     */
+    public List<Rendition> getRenditions() {
+        List<Rendition> result = new ArrayList<Rendition>();
+        if (renditions == null || renditions.trim().isEmpty()) {
+            return result;
+        }
+
+        for (String name: renditions.trim().split("[,\\s]+")) {
+            String definition = renditionDefinitions.get(name);
+            if (definition == null) {
+                log.warn(String.format("Rendition [%s] is not defined", name));
+                continue;
+            }
+
+            String[] values = definition.split("\\s+", 3);
+            String params = values.length > 2 ? ffmpegParams + " " + values[2] : ffmpegParams;
+            result.add(new Rendition(name, Integer.parseInt(values[0]), values.length > 1 ? values[1] : null,
+                    MessageFormat.format(FFMpegConstants.FFMPEG_PARAMS_FORMAT, params)));
+        }
+
+        return result;
+    }
+
     public String getSegmenterLocation() {
         return segmenterLocation;
     }
@@ -214,6 +289,82 @@ public final class Config implements ConfigReader, InitializingBean {
         return maxLiveStreams;
     }
 
+    public int getSegmentCacheMaxAge() {
+        return segmentCacheMaxAge;
+    }
+
+    public int getFolderCacheSize() {
+        return folderCacheSize;
+    }
+
+    public int getMediaInfoCacheSize() {
+        return mediaInfoCacheSize;
+    }
+
+    public String getMediaInfoCacheFolder() {
+        return mediaInfoCacheFolder;
+    }
+
+    public int getMediaProbeThreads() {
+        return mediaProbeThreads;
+    }
+
+    public int getMediaProbeTimeout() {
+        return mediaProbeTimeout;
+    }
+
+    public boolean getNativeMediaProbe() {
+        return nativeMediaProbe;
+    }
+
+    public boolean getInternalSegmenter() {
+        return internalSegmenter;
+    }
+
+    public boolean getTranscodeSpeedAdmission() {
+        return transcodeSpeedAdmission;
+    }
+
+    public String getSegmentCacheFolder() {
+        return segmentCacheFolder;
+    }
+
+    public int getSegmentCacheSize() {
+        return segmentCacheSize;
+    }
+
+    public int getPreTranscodeNiceness() {
+        return preTranscodeNiceness;
+    }
+
+    public int getLiveSegmentBufferSize() {
+        return liveSegmentBufferSize;
+    }
+
+    public boolean getBlockingPlayListReload() {
+        return blockingPlayListReload;
+    }
+
+    public int getMaxBlockingPlayListRequests() {
+        return maxBlockingPlayListRequests;
+    }
+
+    public int getStartupSegmentDurationInSec() {
+        return startupSegmentDurationInSec;
+    }
+
+    public int getStartupSegmentCount() {
+        return startupSegmentCount;
+    }
+
+    public int getPlayListCreateTimeout() {
+        return playListCreateTimeout;
+    }
+
+    public int getTranscodeAheadSegments() {
+        return transcodeAheadSegments;
+    }
+
 
     public void setPort(Integer port) {
         if (port != null) {
@@ -310,6 +461,128 @@ public final class Config implements ConfigReader, InitializingBean {
         }
     }
 
+    public void setSegmentCacheMaxAge(Integer segmentCacheMaxAge) {
+        if (segmentCacheMaxAge != null) {
+            this.segmentCacheMaxAge = segmentCacheMaxAge;
+        }
+    }
+
+    public void setFolderCacheSize(Integer folderCacheSize) {
+        if (folderCacheSize != null) {
+            this.folderCacheSize = folderCacheSize;
+        }
+    }
+
+    public void setMediaInfoCacheSize(Integer mediaInfoCacheSize) {
+        if (mediaInfoCacheSize != null) {
+            this.mediaInfoCacheSize = mediaInfoCacheSize;
+        }
+    }
+
+    public void setMediaInfoCacheFolder(String mediaInfoCacheFolder) {
+        if (mediaInfoCacheFolder != null) {
+            this.mediaInfoCacheFolder = mediaInfoCacheFolder
+                    .replaceFirst("\\$\\{work\\.dir\\}", getUserDir());
+        }
+    }
+
+    public void setMediaProbeThreads(Integer mediaProbeThreads) {
+        if (mediaProbeThreads != null) {
+            this.mediaProbeThreads = mediaProbeThreads;
+        }
+    }
+
+    public void setMediaProbeTimeout(Integer mediaProbeTimeout) {
+        if (mediaProbeTimeout != null) {
+            this.mediaProbeTimeout = mediaProbeTimeout;
+        }
+    }
+
+    public void setNativeMediaProbe(Boolean nativeMediaProbe) {
+        if (nativeMediaProbe != null) {
+            this.nativeMediaProbe = nativeMediaProbe;
+        }
+    }
+
+    public void setInternalSegmenter(Boolean internalSegmenter) {
+        if (internalSegmenter != null) {
+            this.internalSegmenter = internalSegmenter;
+        }
+    }
+
+    public void setTranscodeSpeedAdmission(Boolean transcodeSpeedAdmission) {
+        if (transcodeSpeedAdmission != null) {
+            this.transcodeSpeedAdmission = transcodeSpeedAdmission;
+        }
+    }
+
+    public void setSegmentCacheFolder(String segmentCacheFolder) {
+        if (segmentCacheFolder != null) {
+            this.segmentCacheFolder = segmentCacheFolder
+                    .replaceFirst("\\$\\{work\\.dir\\}", getUserDir());
+        }
+    }
+
+    public void setSegmentCacheSize(Integer segmentCacheSize) {
+        if (segmentCacheSize != null) {
+            this.segmentCacheSize = segmentCacheSize;
+        }
+    }
+
+    public void setPreTranscodeNiceness(Integer preTranscodeNiceness) {
+        if (preTranscodeNiceness != null) {
+            this.preTranscodeNiceness = preTranscodeNiceness;
+        }
+    }
+
+    public void setRenditions(String renditions) {
+        if (renditions != null) {
+            this.renditions = renditions;
+        }
+    }
+
+    public void setLiveSegmentBufferSize(Integer liveSegmentBufferSize) {
+        if (liveSegmentBufferSize != null) {
+            this.liveSegmentBufferSize = liveSegmentBufferSize;
+        }
+    }
+
+    public void setBlockingPlayListReload(Boolean blockingPlayListReload) {
+        if (blockingPlayListReload != null) {
+            this.blockingPlayListReload = blockingPlayListReload;
+        }
+    }
+
+    public void setMaxBlockingPlayListRequests(Integer maxBlockingPlayListRequests) {
+        if (maxBlockingPlayListRequests != null) {
+            this.maxBlockingPlayListRequests = maxBlockingPlayListRequests;
+        }
+    }
+
+    public void setStartupSegmentDurationInSec(Integer startupSegmentDurationInSec) {
+        if (startupSegmentDurationInSec != null) {
+            this.startupSegmentDurationInSec = startupSegmentDurationInSec;
+        }
+    }
+
+    public void setStartupSegmentCount(Integer startupSegmentCount) {
+        if (startupSegmentCount != null) {
+            this.startupSegmentCount = startupSegmentCount;
+        }
+    }
+
+    public void setPlayListCreateTimeout(Integer playListCreateTimeout) {
+        if (playListCreateTimeout != null) {
+            this.playListCreateTimeout = playListCreateTimeout;
+        }
+    }
+
+    public void setTranscodeAheadSegments(Integer transcodeAheadSegments) {
+        if (transcodeAheadSegments != null) {
+            this.transcodeAheadSegments = transcodeAheadSegments;
+        }
+    }
+
     private String getUserDir() {
         return System.getProperty("user.dir").replaceAll("\\\\", "/");
     }
@@ -321,6 +594,12 @@ public final class Config implements ConfigReader, InitializingBean {
         sb.append("listening on: ").append(host).append(":").append(port).append("\r\n");
         sb.append("default text charset: ").append(defaultTextCharset).append("\r\n");
         sb.append("Built-in FTP server listen on: ").append(ftpPort).append("\r\n");
+        sb.append("folder cache size: ").append(folderCacheSize).append("\r\n");
+        sb.append("media info cache size: ").append(mediaInfoCacheSize).append("\r\n");
+        sb.append("media info cache folder: ").append(mediaInfoCacheFolder).append("\r\n");
+        sb.append("media probe threads: ").append(mediaProbeThreads > 0 ? String.valueOf(mediaProbeThreads) : "number of processors").append("\r\n");
+        sb.append("media probe timeout: ").append(mediaProbeTimeout).append("\r\n");
+        sb.append("native media probe: ").append(nativeMediaProbe).append("\r\n");
         if (ffmpegLocation != null) {
             sb.append("ffmpegLocation: ").append(ffmpegLocation).append("\r\n");
             sb.append("ffmpegParams: ").append(ffmpegParams).append("\r\n");
@@ -328,13 +607,27 @@ public final class Config implements ConfigReader, InitializingBean {
             sb.append("ffmpegLocation not set - HTTP Live Streaming is not available\r\n");
         }
 
-        if (segmenterLocation != null) {
-            sb.append("segmenterLocation: ").append(segmenterLocation).append("\r\n");
+        if (internalSegmenter || segmenterLocation != null) {
+            sb.append("segmenterLocation: ").append(internalSegmenter ? "internal" : segmenterLocation).append("\r\n");
             //sb.append("segmenterParams: ").append(segmenterParams).append("\r\n");
             sb.append("segmentDurationInSec: ").append(segmentDurationInSec).append("\r\n");
             sb.append("segmentWindowSize: ").append(segmentWindowSize).append("\r\n");
             sb.append("segmenterSearchKillFile: ").append(segmenterSearchKillFile).append("\r\n");
             sb.append("segmenterMaxtimeout: ").append(segmenterMaxtimeout).append("\r\n");
+            sb.append("maxLiveStreams: ").append(maxLiveStreams).append("\r\n");
+            sb.append("transcodeSpeedAdmission: ").append(transcodeSpeedAdmission).append("\r\n");
+            sb.append("segmentCacheFolder: ").append(segmentCacheFolder).append("\r\n");
+            sb.append("segmentCacheSize: ").append(segmentCacheSize).append(" MB\r\n");
+            sb.append("segmentCacheMaxAge: ").append(segmentCacheMaxAge).append("\r\n");
+            sb.append("preTranscodeNiceness: ").append(preTranscodeNiceness).append("\r\n");
+            sb.append("renditions: ").append(renditions).append("\r\n");
+            sb.append("liveSegmentBufferSize: ").append(liveSegmentBufferSize).append("\r\n");
+            sb.append("blockingPlayListReload: ").append(blockingPlayListReload).append("\r\n");
+            sb.append("maxBlockingPlayListRequests: ").append(maxBlockingPlayListRequests).append("\r\n");
+            sb.append("startupSegmentDurationInSec: ").append(startupSegmentDurationInSec).append("\r\n");
+            sb.append("startupSegmentCount: ").append(startupSegmentCount).append("\r\n");
+            sb.append("playListCreateTimeout: ").append(playListCreateTimeout).append("\r\n");
+            sb.append("transcodeAheadSegments: ").append(transcodeAheadSegments).append("\r\n");
         } else {
             sb.append("segmenterLocation not set - HTTP Live Streaming is not available\r\n");
         }
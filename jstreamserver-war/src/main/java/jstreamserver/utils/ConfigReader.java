@@ -42,6 +42,12 @@ public interface ConfigReader {
 
     public String getFfmpegParams();
 
+    /**
+     * @return renditions of adaptive live stream, first one is the default rendition.
+     * Empty list means that live stream has the single rendition described by {@link #getFfmpegParams()}
+     */
+    public List<Rendition> getRenditions();
+
     public String getSegmenterLocation();
 
     public int getSegmentDurationInSec();
@@ -63,4 +69,42 @@ public interface ConfigReader {
     public Boolean getSupportsLiveStream(String userAgent);
 
     public int getMaxLiveStreams();
+
+    public int getSegmentCacheMaxAge();
+
+    public int getFolderCacheSize();
+
+    public int getMediaInfoCacheSize();
+
+    public String getMediaInfoCacheFolder();
+
+    public int getMediaProbeThreads();
+
+    public int getMediaProbeTimeout();
+
+    public boolean getNativeMediaProbe();
+
+    public boolean getInternalSegmenter();
+
+    public boolean getTranscodeSpeedAdmission();
+
+    public String getSegmentCacheFolder();
+
+    public int getSegmentCacheSize();
+
+    public int getPreTranscodeNiceness();
+
+    public int getLiveSegmentBufferSize();
+
+    public boolean getBlockingPlayListReload();
+
+    public int getMaxBlockingPlayListRequests();
+
+    public int getStartupSegmentDurationInSec();
+
+    public int getStartupSegmentCount();
+
+    public int getPlayListCreateTimeout();
+
+    public int getTranscodeAheadSegments();
 }
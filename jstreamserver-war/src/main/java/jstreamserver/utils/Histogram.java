@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe histogram with fixed buckets.
+ * Buckets are cumulative as in Prometheus: each of them counts
+ * values which are less or equal to its upper bound.
+ *
+ * @author Sergey Prilukin
+ */
+public final class Histogram {
+    public static final String INFINITY_BOUND = "+Inf";
+
+    private final double[] bounds;
+    private final long[] counts;
+    private long count;
+    private double sum;
+
+    /**
+     * @param bounds upper bounds of the buckets in ascending order.
+     *               Bucket for values greater than the last bound is added implicitly.
+     */
+    public Histogram(double... bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new long[bounds.length + 1];
+    }
+
+    public synchronized void record(double value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+
+        counts[bucket]++;
+        count++;
+        sum += value;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return cumulative counts by upper bounds of the buckets,
+     * the last one is {@link #INFINITY_BOUND}
+     */
+    public synchronized Map<String, Long> getBuckets() {
+        Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+        long cumulativeCount = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulativeCount += counts[i];
+            buckets.put(String.valueOf(bounds[i]), cumulativeCount);
+        }
+        buckets.put(INFINITY_BOUND, cumulativeCount + counts[bounds.length]);
+
+        return buckets;
+    }
+}
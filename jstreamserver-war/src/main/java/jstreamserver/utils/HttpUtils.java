@@ -23,9 +23,10 @@
 package jstreamserver.utils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Utility methods for rendering requests
@@ -42,13 +43,185 @@ public final class HttpUtils {
 
     public static final String CONTENT_RANGE_HEADER = "Content-Range";
 
+    public static final String CONTENT_LENGTH_HEADER = "Content-Length";
+
     public static final String CONTENT_DISPOSITION_HEADER = "Content-Disposition";
 
+    public static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
+    public static final String ETAG_HEADER = "ETag";
+
+    public static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    public static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
+    public static final String IF_RANGE_HEADER = "If-Range";
+
     public static final String GZIP_ENCODING = "gzip";
 
     public static final String DEFAULT_TEXT_CONTENT_TYPE = "text/html; charset=" + DEFAULT_ENCODING;
 
     public static final String CONTENT_RANGE_FORMAT = "bytes %s-%s/%s";
 
+    public static final String UNSATISFIABLE_CONTENT_RANGE_FORMAT = "bytes */%s";
+
+    public static final String MULTIPART_BYTERANGES_BOUNDARY = "JSTREAMSERVER_BYTERANGES_BOUNDARY";
+
+    public static final String MULTIPART_BYTERANGES_CONTENT_TYPE = "multipart/byteranges; boundary=" + MULTIPART_BYTERANGES_BOUNDARY;
+
+    public static final String BYTES_UNIT = "bytes";
+
+    public static final int HTTP_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
     public static final String CONTENT_DISPOSITION_FORMAT = "attachment; filename=%s";
+
+    public static final String ETAG_FORMAT = "\"%x-%x-%x\"";
+
+    public static final String NO_CACHE = "no-cache";
+
+    public static final String PUBLIC_MAX_AGE_FORMAT = "public, max-age=%s";
+
+    /*
+     * Range header with more ranges than this is ignored and the whole resource is sent
+     */
+    public static final int MAX_RANGES = 16;
+
+    private static final Comparator<long[]> RANGE_START_COMPARATOR = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] o1, long[] o2) {
+            return o1[0] < o2[0] ? -1 : (o1[0] > o2[0] ? 1 : 0);
+        }
+    };
+
+    /**
+     * Returns strong entity tag for the given file.
+     * Tag is built from file path, size and modification time
+     * so it changes whenever file is replaced or modified.
+     *
+     * @param file file for which tag should be generated
+     * @return quoted entity tag
+     */
+    public static String getETag(File file) {
+        return String.format(ETAG_FORMAT, file.getAbsolutePath().hashCode(), file.length(), file.lastModified());
+    }
+
+    /**
+     * Checks whether given entity tag matches one of the tags in If-None-Match or If-Match header
+     *
+     * @param header value of the header
+     * @param eTag entity tag of the resource
+     * @return {@code true} if tag matches
+     */
+    public static boolean eTagMatches(String header, String eTag) {
+        if (header.trim().equals("*")) {
+            return true;
+        }
+
+        for (String tag: header.split(",")) {
+            String trimmedTag = tag.trim();
+            if (trimmedTag.startsWith("W/")) {
+                trimmedTag = trimmedTag.substring(2);
+            }
+
+            if (trimmedTag.equals(eTag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses value of the Range header.
+     * Supports closed ({@code bytes=0-499}), open-ended ({@code bytes=500-})
+     * and suffix ({@code bytes=-500}) byte ranges as well as lists of them.
+     * Overlapping and adjacent ranges are merged, so no byte is sent twice.
+     *
+     * @param range value of the Range header
+     * @param length length of the resource in bytes
+     * @return list of {start, end} pairs (both inclusive) sorted by start,
+     *  empty list if none of the ranges is satisfiable
+     *  or {@code null} if header is absent, malformed or has more than {@link #MAX_RANGES} ranges
+     *  and thus should be ignored
+     */
+    public static List<long[]> parseRanges(String range, long length) {
+        if (range == null || !range.startsWith(BYTES_UNIT + "=")) {
+            return null;
+        }
+
+        String[] rangeSpecs = range.substring(BYTES_UNIT.length() + 1).split(",");
+        if (rangeSpecs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (String rangeSpec: rangeSpecs) {
+            String spec = rangeSpec.trim();
+            int dashIndex = spec.indexOf('-');
+            if (dashIndex < 0) {
+                return null;
+            }
+
+            long start;
+            long end;
+            try {
+                if (dashIndex == 0) {
+                    //Suffix range: last N bytes
+                    long suffixLength = Long.parseLong(spec.substring(1));
+                    if (suffixLength <= 0) {
+                        continue;
+                    }
+
+                    start = Math.max(0, length - suffixLength);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dashIndex));
+                    if (dashIndex == spec.length() - 1) {
+                        //Open-ended range
+                        end = length - 1;
+                    } else {
+                        end = Long.parseLong(spec.substring(dashIndex + 1));
+                        if (end < start) {
+                            return null;
+                        }
+
+                        end = Math.min(end, length - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (start < length) {
+                ranges.add(new long[] {start, end});
+            }
+        }
+
+        return coalesceRanges(ranges);
+    }
+
+    private static List<long[]> coalesceRanges(List<long[]> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        Collections.sort(ranges, RANGE_START_COMPARATOR);
+
+        List<long[]> result = new ArrayList<long[]>();
+        long[] current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            long[] next = ranges.get(i);
+            if (next[0] <= current[1] + 1) {
+                current = new long[] {current[0], Math.max(current[1], next[1])};
+            } else {
+                result.add(current);
+                current = next;
+            }
+        }
+
+        result.add(current);
+        return result;
+    }
 }
@@ -25,11 +25,25 @@ package jstreamserver.utils;
 import jstreamserver.ffmpeg.FFMpegConstants;
 import jstreamserver.ffmpeg.FFMpegSegmenter;
 import jstreamserver.ffmpeg.FrameMessage;
+import jstreamserver.ffmpeg.FrameMessageParser;
 import jstreamserver.ffmpeg.ProgressListener;
+import jstreamserver.hls.PlayList;
+import jstreamserver.hls.PlayListListener;
+import jstreamserver.hls.PlayListWaiters;
+import jstreamserver.hls.SegmentIndex;
+import jstreamserver.hls.SegmentBuffer;
+import jstreamserver.hls.TsSegmenter;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to operate with LiveStream
@@ -43,25 +57,94 @@ public final class LiveStreamer {
     public static final String LIVE_STREAM_FOLDER = "livestream";
     public static final String LIVE_STREAM_FILE_PREFIX = "stream%s";
     public static final String PLAYLIST_EXTENSION = "m3u8";
+    public static final String SEGMENT_EXTENSION = ".ts";
     public static final String LIVE_STREAM_FILE_PATH = LIVE_STREAM_FOLDER + "/" + LIVE_STREAM_FILE_PREFIX;
     public static final String PLAYLIST_FULL_PATH = LIVE_STREAM_FILE_PATH + "." + PLAYLIST_EXTENSION;
+    public static final String SEGMENT_FILE_PREFIX = "segment";
+
+    /*
+     * Playlist file is re-read when its size or modification time changes.
+     * Modification time has coarse granularity on some file systems,
+     * so file is also re-read periodically while the stream is running.
+     */
+    public static final long PLAYLIST_REFRESH_INTERVAL = 1000;
+
+    /*
+     * Transcode speed is measured as media time produced per wall clock time
+     * over intervals of at least this length and smoothed between intervals
+     */
+    public static final long TRANSCODE_SPEED_SAMPLE_INTERVAL = 2000;
+
+    /*
+     * Blocking playlist request is answered at the latest after this number of target durations.
+     * Requests of segments further than this number of segments ahead of the live edge are rejected.
+     */
+    public static final int BLOCKING_RELOAD_TIMEOUT_TARGET_DURATIONS = 3;
+    public static final int BLOCKING_RELOAD_MAX_SEGMENTS_AHEAD = 2;
 
     private ConfigReader configReader;
 
-    private FFMpegSegmenter ffMpegSegmenter;
+    private volatile FFMpegSegmenter ffMpegSegmenter;
     private final Object ffmpegSegmenterMonitor = new Object();
     private final Object playListCreatedMonitor = new Object();
+    private final Object playListRefreshMonitor = new Object();
+    private final PlayListWaiters playListWaiters = new PlayListWaiters();
+    private volatile PlayList playList;
+    private volatile PlayList servedPlayList;
+    private volatile boolean segmenterFinished;
+    private volatile boolean playListFromFile;
+    private volatile boolean destroyed;
+    private volatile boolean transcodingStopped;
+    private volatile File segmentFolder;
+    private volatile SegmentBuffer segmentBuffer;
+    private volatile long lastAccessTime = System.currentTimeMillis();
+    private volatile double transcodeSpeed = -1;
+    private volatile long streamStartTime;
+    private volatile long timeToFirstSegment = -1;
+    private long speedSampleTime;
+    private volatile boolean speedSampleReset;
+    private volatile long furthestRequestedSegment = -1;
+    private final Object governorMonitor = new Object();
+    private final StreamMetrics metrics = new StreamMetrics();
+    private long speedSampleMediaTime;
+    private long playListFileLastModified;
+    private long playListFileLength;
+    private long playListLastRefreshTime;
     private ProgressListener progressListener;
-    private SegmenterKiller segmenterKiller;
+    private LiveStreamProgressListener currentRun;
+    private volatile SegmenterKiller segmenterKiller;
+    private volatile long lastSegmentRequestTime;
+
+    private File file;
+    private Integer audioStreamId;
+    private String segmentUrlPrefix;
+    private PlayListListener segmentIndexListener;
 
     private String liveStreamFolderSuffix;
     private String contextPath;
+    private String ffmpegParams;
 
     public LiveStreamer(String contextPath, String liveStreamFolderSuffix, ProgressListener progressListener, ConfigReader configReader) {
+        this(contextPath, liveStreamFolderSuffix, progressListener, configReader, configReader.getFfmpegParams());
+    }
+
+    /**
+     * @param ffmpegParams ffmpeg parameters in the format of {@link ConfigReader#getFfmpegParams()}
+     */
+    public LiveStreamer(String contextPath, String liveStreamFolderSuffix, ProgressListener progressListener,
+                        ConfigReader configReader, String ffmpegParams) {
         this.liveStreamFolderSuffix = liveStreamFolderSuffix;
         this.contextPath = contextPath.endsWith("/") ? contextPath : contextPath + "/";
-        this.progressListener = new LiveStreamProgressListener(progressListener);
+        this.progressListener = progressListener;
         this.configReader = configReader;
+        this.ffmpegParams = ffmpegParams;
+    }
+
+    /**
+     * @param permits permits of playlist requests which wait for segments, shared by live streams
+     */
+    public void setBlockingReloadPermits(Semaphore permits) {
+        playListWaiters.setPermits(permits);
     }
 
     private String appendLiveStreamFolderSuffix(String notFormattedString) {
@@ -69,46 +152,335 @@ public final class LiveStreamer {
     }
 
     public File getTSFile(String path) {
-        updateSegmenterKiller();
-        return new File(LIVE_STREAM_FOLDER + "/" + path);
+        markSegmentRequested(path);
+
+        //Segments stored outside of live stream folder are named by their position only
+        File folder = segmentFolder;
+        long position = folder != null ? TsSegmenter.getSegmentNumber(path) : -1;
+        File file = position >= 0
+                ? new File(folder, TsSegmenter.getSegmentFileName(SEGMENT_FILE_PREFIX, position))
+                : new File(LIVE_STREAM_FOLDER + "/" + path);
+
+        metrics.segmentRequested();
+        return file;
+    }
+
+    /**
+     * Returns segment kept in memory.
+     * Segments are kept in memory only if there is no segment folder
+     * and {@link ConfigReader#getLiveSegmentBufferSize()} is positive.
+     *
+     * @param path name of the segment file
+     * @return segment or {@code null} if it is not kept in memory
+     */
+    public SegmentBuffer.Segment getSegment(String path) {
+        SegmentBuffer buffer = segmentBuffer;
+        if (buffer == null) {
+            return null;
+        }
+
+        markSegmentRequested(path);
+        SegmentBuffer.Segment segment = buffer.get(path);
+        if (segment != null) {
+            metrics.segmentRequested();
+        }
+
+        return segment;
+    }
+
+    private void markSegmentRequested(String path) {
+        lastAccessTime = System.currentTimeMillis();
+        lastSegmentRequestTime = lastAccessTime;
+
+        PlayList current = playList;
+        if (current == null) {
+            return;
+        }
+
+        //Clients usually request segments close to the end of the playlist
+        List<PlayList.Segment> segments = current.getSegments();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).getUri().endsWith("/" + path)) {
+                long mediaSequence = current.getMediaSequence() + i;
+                if (mediaSequence > furthestRequestedSegment) {
+                    furthestRequestedSegment = mediaSequence;
+                }
+                break;
+            }
+        }
+
+        governTranscoding(current);
+    }
+
+    /*
+     * Transcoding is paused while it is more than transcodeAheadSegments segments
+     * ahead of the furthest segment requested by clients, so CPU goes to streams
+     * which are watched closer to their live edge
+     */
+    private void governTranscoding(PlayList current) {
+        int aheadLimit = configReader.getTranscodeAheadSegments();
+        FFMpegSegmenter segmenter = ffMpegSegmenter;
+        if (aheadLimit <= 0 || segmenter == null) {
+            return;
+        }
+
+        synchronized (governorMonitor) {
+            long requested = furthestRequestedSegment >= 0 ? furthestRequestedSegment : current.getMediaSequence();
+            long ahead = current.getLastMediaSequence() - requested;
+
+            if (!segmenter.isPaused() && ahead > aheadLimit && !current.isEndList()) {
+                segmenter.setPaused(true);
+                metrics.transcodingPaused();
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Transcoding [%s] is paused: %s segments ahead", liveStreamFolderSuffix, ahead));
+                }
+            } else if (segmenter.isPaused() && ahead < aheadLimit) {
+                //Paused time is not included into transcode speed
+                speedSampleReset = true;
+                metrics.transcodingResumed();
+                segmenter.setPaused(false);
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Transcoding [%s] is resumed: %s segments ahead", liveStreamFolderSuffix, ahead));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if transcoding is paused because it is far ahead of clients
+     */
+    public boolean isTranscodingPaused() {
+        FFMpegSegmenter segmenter = ffMpegSegmenter;
+        return segmenter != null && segmenter.isPaused();
+    }
+
+    /**
+     * @return time of the last request of the playlist or segment of this live stream
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * @return {@code true} if transcoding of this live stream is in progress
+     */
+    public boolean isTranscoding() {
+        return ffMpegSegmenter != null;
+    }
+
+    /**
+     * @return ratio of transcoded media time to elapsed time
+     * or {@code -1} if it is not measured yet
+     */
+    public double getTranscodeSpeed() {
+        return transcodeSpeed;
+    }
+
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of segments dropped from the memory buffer of the current stream
+     */
+    public long getSegmentBufferEvictions() {
+        SegmentBuffer buffer = segmentBuffer;
+        return buffer != null ? buffer.getEvictions() : 0;
+    }
+
+    /**
+     * @return time in milliseconds from the start of the stream
+     * until the first segment was available or {@code -1} if there is no segment yet
+     */
+    public long getTimeToFirstSegment() {
+        return timeToFirstSegment;
     }
     
+    /*
+     * Returns last complete snapshot of the playlist.
+     * Snapshot is refreshed by the threads which read segmenter's output,
+     * so requests never read the file which can be written at the same moment.
+     */
+    public InputStream getPlayList() throws IOException {
+        return getPlayList(null);
+    }
+
+    /**
+     * Returns playlist which contains segment with given media sequence number.
+     * If blocking playlist reload is enabled then request is held until segmenter
+     * publishes such segment, the stream ends or timeout expires.
+     *
+     * @param mediaSequence value of the {@code _HLS_msn} delivery directive or {@code null}
+     * @return {@link InputStream} for .m3u8 playlist
+     * @throws IOException if playlist is not available
+     * @throws IllegalArgumentException if requested segment is too far ahead of the live edge
+     */
+    public InputStream getPlayList(Long mediaSequence) throws IOException {
+        lastAccessTime = System.currentTimeMillis();
+        if (transcodingStopped) {
+            resumeTranscoding();
+        }
+
+        PlayList current = playList;
+        if (current == null) {
+            refreshPlayList(true);
+            current = playList;
+        }
+
+        //Start request stopped waiting for the playlist by timeout
+        if (current == null && isTranscoding()) {
+            awaitPlayListCreated();
+            current = playList;
+        }
+
+        if (current == null) {
+            throw new FileNotFoundException(appendLiveStreamFolderSuffix(PLAYLIST_FULL_PATH));
+        }
+
+        if (mediaSequence != null && configReader.getBlockingPlayListReload()) {
+            awaitSegment(mediaSequence, current);
+        }
+
+        PlayList served = servedPlayList;
+        metrics.playListRequested(served.getContentLength());
+        return served.getInputStream();
+    }
+
+    /*
+     * Requests wait for the playlist update on the request thread,
+     * request which is not held because too many requests wait is answered at once
+     */
+    private void awaitSegment(long mediaSequence, PlayList current) {
+        if (mediaSequence > current.getLastMediaSequence() + BLOCKING_RELOAD_MAX_SEGMENTS_AHEAD) {
+            throw new IllegalArgumentException(String.format("Segment %s is too far ahead of the liveStream [%s]",
+                    mediaSequence, liveStreamFolderSuffix));
+        }
+
+        long timeout = BLOCKING_RELOAD_TIMEOUT_TARGET_DURATIONS * current.getTargetDuration() * 1000L;
+        if (!playListWaiters.await(mediaSequence, timeout) && log.isDebugEnabled()) {
+            log.debug(String.format("Playlist request of liveStream [%s] is not held: too many waiting requests", liveStreamFolderSuffix));
+        }
+    }
+
     /*
      * Playlist file is written at the same time by another thread (by segmenter namely)
      * and thus this thread can read non-completed version of the file.
-     * In this method we ensure that last line of playlist matches one of the possible formats
+     * Such version is just skipped - previous snapshot is served until
+     * complete version of the file is read.
      */
-    public InputStream getPlayList() throws IOException {
+    private void refreshPlayList(boolean force) {
+        if (!force && !playListFromFile) {
+            return;
+        }
+
+        synchronized (playListRefreshMonitor) {
+            File file = new File(appendLiveStreamFolderSuffix(PLAYLIST_FULL_PATH));
+            long lastModified = file.lastModified();
+            long length = file.length();
+            long now = System.currentTimeMillis();
 
-        boolean fileIsOk = false;
-        StringBuilder sb = null;
+            if (!force && lastModified == playListFileLastModified && length == playListFileLength
+                    && now - playListLastRefreshTime < PLAYLIST_REFRESH_INTERVAL) {
+                return;
+            }
 
-        while (!fileIsOk) {
-            String fileName = appendLiveStreamFolderSuffix(PLAYLIST_FULL_PATH);
-            BufferedReader reader = new BufferedReader(new FileReader(fileName));
-            sb = new StringBuilder();
+            playListLastRefreshTime = now;
+            if (lastModified == 0) {
+                return;
+            }
 
-            String line = "";
+            byte[] content;
+            try {
+                content = FileUtils.readFileToByteArray(file);
+            } catch (IOException e) {
+                return;
+            }
 
-            while (true) {
-                String temp = reader.readLine();
+            PlayList current = playList;
+            if (current != null && current.hasContent(content)) {
+                playListFileLastModified = lastModified;
+                playListFileLength = length;
+                return;
+            }
 
-                if (temp != null) {
-                    line = temp;
-                    sb.append(line).append("\n");
-                } else {
-                    fileIsOk = line.matches("^(.*\\.ts|#.*)$");
-                    reader.close();
-                    break;
-                }
+            PlayList newPlayList = PlayList.parse(content);
+            if (newPlayList != null) {
+                playListFileLastModified = lastModified;
+                playListFileLength = length;
+                publishPlayList(newPlayList);
+            }
+        }
+    }
+
+    private void publishPlayList(PlayList newPlayList) {
+        boolean created = playList == null;
+        if (timeToFirstSegment < 0 && !newPlayList.getSegments().isEmpty()) {
+            timeToFirstSegment = System.currentTimeMillis() - streamStartTime;
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("LiveStream [%s] first segment is available in %s ms", liveStreamFolderSuffix, timeToFirstSegment));
             }
         }
 
-        return new ByteArrayInputStream(sb.toString().getBytes());
+        servedPlayList = configReader.getBlockingPlayListReload() && !newPlayList.isEndList()
+                ? newPlayList.withBlockingReload() : newPlayList;
+        playList = newPlayList;
+        playListWaiters.publish(newPlayList);
+
+        governTranscoding(newPlayList);
+
+        if (created) {
+            synchronized (playListCreatedMonitor) {
+                playListCreatedMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if live stream has been destroyed
+     * (explicitly or because nobody requested it for a while)
+     * and thus can not be watched any more
+     */
+    public boolean isActive() {
+        return !destroyed;
     }
 
     public void destroyLiveStream() {
+        //Start which waits for the playlist is released before the segmenter monitor is taken
+        destroyed = true;
+        synchronized (playListCreatedMonitor) {
+            playListCreatedMonitor.notifyAll();
+        }
+
         synchronized (ffmpegSegmenterMonitor) {
+            transcodingStopped = false;
+            if (ffMpegSegmenter != null) {
+                ffMpegSegmenter.destroy();
+                ffMpegSegmenter = null;
+            }
+
+            if (segmentBuffer != null) {
+                segmentBuffer.clear();
+            }
+        }
+
+        playListWaiters.close();
+
+        synchronized (playListCreatedMonitor) {
+            playListCreatedMonitor.notifyAll();
+        }
+    }
+
+    /*
+     * Segments stored in the segment folder stay available,
+     * so idle stream only stops transcoding and can be resumed later
+     */
+    private void stopTranscoding() {
+        synchronized (ffmpegSegmenterMonitor) {
+            transcodingStopped = true;
+            if (currentRun != null) {
+                currentRun.stopped = true;
+            }
+
             if (ffMpegSegmenter != null) {
                 ffMpegSegmenter.destroy();
                 ffMpegSegmenter = null;
@@ -116,6 +488,35 @@ public final class LiveStreamer {
         }
     }
 
+    /*
+     * Transcoding continues from the end of the last published segment,
+     * segments are served with the same URL prefix as before
+     */
+    private void resumeTranscoding() throws IOException {
+        boolean started;
+        synchronized (ffmpegSegmenterMonitor) {
+            PlayList current = playList;
+            if (!transcodingStopped || destroyed || current == null || current.isEndList()) {
+                return;
+            }
+
+            List<PlayList.Segment> segments = current.getSegments();
+            long position = segments.isEmpty()
+                    ? 0 : SegmentIndex.getEnd(segments.get(segments.size() - 1));
+
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Resuming transcoding [%s] from %s ms", liveStreamFolderSuffix, position));
+            }
+
+            started = launchTranscoding(position > 0 ? formatPosition(position) : null, position,
+                    segments, current.getTargetDuration());
+        }
+
+        if (started) {
+            awaitTranscodingStarted();
+        }
+    }
+
     private void cleanLiveStreamResources() {
         File streamDir = new File(appendLiveStreamFolderSuffix(LIVE_STREAM_FOLDER));
         if (!streamDir.exists()) {
@@ -147,103 +548,420 @@ public final class LiveStreamer {
     }
 
     public void startLiveStream(File file, String startTime, Integer audioStreamId) throws IOException {
+        startLiveStream(file, startTime, audioStreamId, null, null, null);
+    }
 
-        destroyLiveStream();
-        cleanLiveStreamResources();
+    /**
+     * Starts transcoding of the file.
+     * Live stream which was destroyed before it was started is not started at all.
+     * <p/>
+     * If segment folder is given then segments are named by their position in the media
+     * and kept in the folder after the stream is destroyed. Stored segments which cover
+     * start position are served at once and transcoding starts where they end.
+     * Requires internal segmenter.
+     *
+     * @param segmentFolder folder where segments should be stored instead of live stream folder
+     * @param segmentIndex index of segments stored in the segment folder or {@code null}
+     * @param segmentIndexListener listener which is notified about segments produced by transcoding
+     */
+    public void startLiveStream(File file, String startTime, Integer audioStreamId, File segmentFolder,
+                                PlayList segmentIndex, PlayListListener segmentIndexListener) throws IOException {
 
-        //Need to use HTTP Live Streaming
-        String ffmpegMapStreamParams = audioStreamId != null ? String.format(FFMpegConstants.FFMPEG_AUDIO_STREAM_SELECTION_FORMAT, audioStreamId) : "";
-        String ffmpegStartTimeParam = startTime != null ? String.format(FFMpegConstants.FFMPEG_START_TIME_FORMAT, startTime ) : "";
+        //Segments can not be indexed by position if start time is unknown, ffmpeg gets it as is
+        if (segmentFolder != null && startTime != null && FrameMessageParser.parseStartTime(startTime) < 0) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("LiveStream [%s] is not cached: unknown start time %s", liveStreamFolderSuffix, startTime));
+            }
+
+            startLiveStream(file, startTime, audioStreamId, null, null, null);
+            return;
+        }
 
         synchronized (ffmpegSegmenterMonitor) {
-            ffMpegSegmenter = new FFMpegSegmenter();
-
-            ffMpegSegmenter.start(
-                    configReader.getFfmpegLocation(),
-                    configReader.getSegmenterLocation(),
-                    String.format(configReader.getFfmpegParams(), file.getAbsolutePath(), ffmpegMapStreamParams, ffmpegStartTimeParam),
-                    String.format(configReader.getSegmenterParams(),
-                            appendLiveStreamFolderSuffix(LIVE_STREAM_FILE_PATH),
-                            appendLiveStreamFolderSuffix(PLAYLIST_FULL_PATH),
-                            contextPath),
-                    progressListener, liveStreamFolderSuffix);
+            if (destroyed) {
+                return;
+            }
 
-            try {
-                synchronized (playListCreatedMonitor) {
-                    playListCreatedMonitor.wait();
+            stopTranscoding();
+            transcodingStopped = false;
+        }
+
+        cleanLiveStreamResources();
+        resetLiveStream(segmentFolder);
+        this.file = file;
+        this.audioStreamId = audioStreamId;
+        this.segmentIndexListener = segmentIndexListener;
+
+        synchronized (playListRefreshMonitor) {
+            playList = null;
+            playListWaiters.publish(null);
+            segmenterFinished = false;
+            playListFromFile = segmentFolder == null && !configReader.getInternalSegmenter();
+            playListFileLastModified = 0;
+            playListFileLength = 0;
+        }
+
+        //Segment file names are reused by every stream started with the same id.
+        //Unique URL prefix allows clients and proxies to cache segments.
+        segmentUrlPrefix = contextPath + System.currentTimeMillis() + "/";
+
+        long startPosition = -1;
+        String ffmpegStartTime = startTime;
+        List<PlayList.Segment> storedSegments = Collections.emptyList();
+        int storedTargetDuration = 0;
+
+        if (segmentFolder != null) {
+            startPosition = startTime != null ? FrameMessageParser.parseStartTime(startTime) : 0;
+            List<PlayList.Segment> coveredSegments = segmentIndex != null
+                    ? SegmentIndex.getCoveredSegments(segmentIndex, startPosition) : Collections.<PlayList.Segment>emptyList();
+
+            if (!coveredSegments.isEmpty()) {
+                PlayList.Segment lastSegment = coveredSegments.get(coveredSegments.size() - 1);
+                boolean endOfMedia = SegmentIndex.isEndOfMedia(segmentIndex, lastSegment);
+                storedSegments = getStoredSegments(coveredSegments, segmentUrlPrefix + appendLiveStreamFolderSuffix(LIVE_STREAM_FILE_PATH));
+                storedTargetDuration = segmentIndex.getTargetDuration();
+
+                synchronized (playListRefreshMonitor) {
+                    segmenterFinished = endOfMedia;
+                    publishPlayList(PlayList.create(storedTargetDuration, 1, storedSegments, endOfMedia, true));
+                }
+
+                if (endOfMedia) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("LiveStream [%s] started from stored segments: %s", liveStreamFolderSuffix, segmentFolder));
+                    }
+
+                    return;
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+
+                startPosition = SegmentIndex.getEnd(lastSegment);
             }
+
+            ffmpegStartTime = startPosition > 0 ? formatPosition(startPosition) : null;
         }
 
-        updateSegmenterKiller();
+        startTranscoding(ffmpegStartTime, startPosition, storedSegments, storedTargetDuration);
     }
 
-    private void updateSegmenterKiller() {
-        if (segmenterKiller == null) {
-            segmenterKiller = new SegmenterKiller();
-            segmenterKiller.start();
-        } else {
-            segmenterKiller.clearTimeout();
+    private void startTranscoding(String ffmpegStartTime, long startPosition,
+                                  List<PlayList.Segment> storedSegments, int storedTargetDuration) throws IOException {
+
+        if (launchTranscoding(ffmpegStartTime, startPosition, storedSegments, storedTargetDuration)) {
+            awaitTranscodingStarted();
         }
     }
 
-    class SegmenterKiller extends Thread {
-        private boolean timeoutFlag = false;
+    /*
+     * Segmenter is registered under the monitor, so it can be stopped or destroyed
+     * at once. Returns false if live stream was destroyed before.
+     */
+    private boolean launchTranscoding(String ffmpegStartTime, long startPosition,
+                                      List<PlayList.Segment> storedSegments, int storedTargetDuration) throws IOException {
 
-        public void clearTimeout() {
-            synchronized (ffmpegSegmenterMonitor) {
-                timeoutFlag = false;
-                ffmpegSegmenterMonitor.notify();
+        synchronized (ffmpegSegmenterMonitor) {
+            if (destroyed) {
+                return false;
+            }
+
+            FFMpegSegmenter segmenter = new FFMpegSegmenter();
+            LiveStreamProgressListener run = new LiveStreamProgressListener(progressListener, segmenter);
+            String params = getFfmpegParams(ffmpegParams, file, audioStreamId, ffmpegStartTime);
+
+            synchronized (playListCreatedMonitor) {
+                segmenterFinished = false;
+            }
+
+            transcodingStopped = false;
+            speedSampleTime = 0;
+            lastSegmentRequestTime = System.currentTimeMillis();
+            currentRun = run;
+            ffMpegSegmenter = segmenter;
+            metrics.transcodingStarted();
+
+            if (playListFromFile) {
+                segmenter.start(
+                        configReader.getFfmpegLocation(),
+                        configReader.getSegmenterLocation(),
+                        params,
+                        String.format(configReader.getSegmenterParams(),
+                                appendLiveStreamFolderSuffix(LIVE_STREAM_FILE_PATH),
+                                appendLiveStreamFolderSuffix(PLAYLIST_FULL_PATH),
+                                segmentUrlPrefix),
+                        run, liveStreamFolderSuffix);
+            } else {
+                //Live window segments are read within seconds after they are written, so disk is not used for them
+                int bufferSize = configReader.getLiveSegmentBufferSize();
+                segmentBuffer = segmentFolder == null && bufferSize > 0 ? new SegmentBuffer(bufferSize) : null;
+
+                TsSegmenter tsSegmenter = new TsSegmenter(
+                        segmentFolder != null
+                                ? new File(segmentFolder, SEGMENT_FILE_PREFIX).getPath()
+                                : appendLiveStreamFolderSuffix(LIVE_STREAM_FILE_PATH),
+                        appendLiveStreamFolderSuffix(PLAYLIST_FULL_PATH),
+                        segmentUrlPrefix + appendLiveStreamFolderSuffix(LIVE_STREAM_FILE_PATH),
+                        configReader.getSegmentDurationInSec(),
+                        segmentFolder != null ? 0 : configReader.getSegmentWindowSize(),
+                        startPosition,
+                        new LiveStreamPlayListListener(storedSegments, storedTargetDuration, segmentIndexListener, run),
+                        segmentBuffer);
+                tsSegmenter.setStartupSegments(configReader.getStartupSegmentDurationInSec(), configReader.getStartupSegmentCount());
+
+                segmenter.start(configReader.getFfmpegLocation(), params, tsSegmenter,
+                        run, liveStreamFolderSuffix);
             }
         }
 
-        @Override
-        public void run() {
-            try {
-                synchronized (ffmpegSegmenterMonitor) {
-                    while (true) {
-                        timeoutFlag = true;
-                        ffmpegSegmenterMonitor.wait(configReader.getSegmenterMaxtimeout());
-                        if (timeoutFlag && ffMpegSegmenter != null) {
-                            log.debug(String.format("Destroying idle segmenter [%s]", liveStreamFolderSuffix));
-                            timeoutFlag = false;
-                            destroyLiveStream();
-                            ffmpegSegmenterMonitor.wait();
-                        }
+        return true;
+    }
+
+    /*
+     * Waits without the segmenter monitor, so destroy and stop are not blocked by the start
+     */
+    private void awaitTranscodingStarted() {
+        if (!awaitPlayListCreated()) {
+            log.warn(String.format("Playlist of liveStream [%s] is not created in %s ms",
+                    liveStreamFolderSuffix, configReader.getPlayListCreateTimeout()));
+        }
+
+        startSegmenterKiller();
+    }
+
+    /*
+     * Playlist creation is signalled by publishPlayList, segmenter finish or destroy.
+     * Returns false if playlist was not created during playListCreateTimeout.
+     */
+    private boolean awaitPlayListCreated() {
+        int timeout = configReader.getPlayListCreateTimeout();
+        long deadline = System.currentTimeMillis() + timeout;
+
+        try {
+            synchronized (playListCreatedMonitor) {
+                while (playList == null && !segmenterFinished && !destroyed) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (timeout > 0 && remaining <= 0) {
+                        return false;
                     }
+
+                    playListCreatedMonitor.wait(timeout > 0 ? remaining : 0);
                 }
-            } catch (InterruptedException e) {
-                /* do nothing */
             }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
         }
+
+        return true;
+    }
+
+    /**
+     * Returns parameters of ffmpeg which transcodes the file for HTTP Live Streaming
+     *
+     * @param configReader configuration
+     * @param file file to transcode
+     * @param audioStreamId number of audio stream or {@code null} for default audio stream
+     * @param startTime start time in format "HH:mm:ss" or in seconds, or {@code null}
+     * @return ffmpeg parameters
+     */
+    public static String getFfmpegParams(ConfigReader configReader, File file, Integer audioStreamId, String startTime) {
+        return getFfmpegParams(configReader.getFfmpegParams(), file, audioStreamId, startTime);
     }
 
+    /**
+     * Returns parameters of ffmpeg which transcodes the file with given parameters template
+     *
+     * @param ffmpegParams ffmpeg parameters in the format of {@link ConfigReader#getFfmpegParams()}
+     * @param file file to transcode
+     * @param audioStreamId number of audio stream or {@code null} for default audio stream
+     * @param startTime start time in format "HH:mm:ss" or in seconds, or {@code null}
+     * @return ffmpeg parameters
+     */
+    public static String getFfmpegParams(String ffmpegParams, File file, Integer audioStreamId, String startTime) {
+        String ffmpegMapStreamParams = audioStreamId != null ? String.format(FFMpegConstants.FFMPEG_AUDIO_STREAM_SELECTION_FORMAT, audioStreamId) : "";
+        String ffmpegStartTimeParam = startTime != null ? String.format(FFMpegConstants.FFMPEG_START_TIME_FORMAT, startTime) : "";
+
+        return String.format(ffmpegParams, file.getAbsolutePath(), ffmpegMapStreamParams, ffmpegStartTimeParam);
+    }
+
+    /**
+     * @param position position in milliseconds
+     * @return position in seconds as it is accepted by ffmpeg
+     */
+    public static String formatPosition(long position) {
+        return String.format(Locale.US, "%.3f", position / 1000.0);
+    }
+
+    /*
+     * Stored segments are requested by position with URL prefix of this stream
+     */
+    private List<PlayList.Segment> getStoredSegments(List<PlayList.Segment> coveredSegments, String segmentUrlPrefix) {
+        List<PlayList.Segment> segments = new ArrayList<PlayList.Segment>();
+        for (PlayList.Segment segment: coveredSegments) {
+            segments.add(new PlayList.Segment(
+                    TsSegmenter.getSegmentFileName(segmentUrlPrefix, SegmentIndex.getPosition(segment)),
+                    segment.getDuration(), !segments.isEmpty() && segment.isDiscontinuity()));
+        }
+
+        return segments;
+    }
+
+    private void resetLiveStream(File segmentFolder) {
+        this.segmentFolder = segmentFolder;
+        lastAccessTime = System.currentTimeMillis();
+        transcodeSpeed = -1;
+        speedSampleTime = 0;
+        streamStartTime = lastAccessTime;
+        timeToFirstSegment = -1;
+        furthestRequestedSegment = -1;
+    }
+
+    /*
+     * Killer replaced by the next transcoding run does nothing
+     */
+    private void startSegmenterKiller() {
+        SegmenterKiller killer = new SegmenterKiller();
+        segmenterKiller = killer;
+        ProcessIOEngine.getInstance().getScheduler().schedule(
+                killer, configReader.getSegmenterMaxtimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops transcoding if segments were not requested for a while.
+     * Runs by shared scheduler and reschedules itself until segments are requested.
+     */
+    class SegmenterKiller implements Runnable {
+        @Override
+        public void run() {
+            if (segmenterKiller != this || ffMpegSegmenter == null) {
+                return;
+            }
+
+            long timeout = configReader.getSegmenterMaxtimeout();
+            long idleTime = System.currentTimeMillis() - lastSegmentRequestTime;
+            if (idleTime < timeout) {
+                ProcessIOEngine.getInstance().getScheduler().schedule(this, timeout - idleTime, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            if (segmentFolder != null) {
+                log.debug(String.format("Stopping idle segmenter [%s]", liveStreamFolderSuffix));
+                stopTranscoding();
+            } else {
+                log.debug(String.format("Destroying idle segmenter [%s]", liveStreamFolderSuffix));
+                destroyLiveStream();
+            }
+        }
+    }
+
+    /**
+     * Publishes playlist of the segmenter after segments which were stored before
+     */
+    class LiveStreamPlayListListener implements PlayListListener {
+        private final List<PlayList.Segment> storedSegments;
+        private final int storedTargetDuration;
+        private final PlayListListener segmentIndexListener;
+        private final LiveStreamProgressListener run;
+        private long lastMediaSequence;
+
+        LiveStreamPlayListListener(List<PlayList.Segment> storedSegments, int storedTargetDuration,
+                                   PlayListListener segmentIndexListener, LiveStreamProgressListener run) {
+            this.storedSegments = storedSegments;
+            this.storedTargetDuration = storedTargetDuration;
+            this.segmentIndexListener = segmentIndexListener;
+            this.run = run;
+        }
+
+        @Override
+        public void onPlayListUpdated(PlayList playList) {
+            //Segments are indexed before clients can request them
+            if (segmentIndexListener != null) {
+                segmentIndexListener.onPlayListUpdated(playList);
+            }
+
+            //Segmenter of each run numbers its segments from 1
+            long produced = playList.getLastMediaSequence() - lastMediaSequence;
+            if (produced > 0) {
+                lastMediaSequence = playList.getLastMediaSequence();
+                metrics.segmentsProduced((int) produced);
+            }
+
+            //Stopped segmenter finishes its playlist which must not end the stream
+            if (run.stopped) {
+                return;
+            }
+
+            if (storedSegments.isEmpty()) {
+                publishPlayList(playList);
+                return;
+            }
+
+            List<PlayList.Segment> segments = new ArrayList<PlayList.Segment>(storedSegments);
+            for (PlayList.Segment segment: playList.getSegments()) {
+                segments.add(segments.size() == storedSegments.size()
+                        ? new PlayList.Segment(segment.getUri(), segment.getDuration(), true)
+                        : segment);
+            }
+
+            publishPlayList(PlayList.create(Math.max(storedTargetDuration, playList.getTargetDuration()),
+                    1, segments, playList.isEndList(), true));
+        }
+    }
+
+    /**
+     * Listener of single transcoding run
+     */
     class LiveStreamProgressListener implements ProgressListener {
 
-        private ProgressListener listener;
+        private final ProgressListener listener;
+        private final FFMpegSegmenter segmenter;
+        private volatile boolean stopped;
 
-        LiveStreamProgressListener(ProgressListener listener) {
+        LiveStreamProgressListener(ProgressListener listener, FFMpegSegmenter segmenter) {
             this.listener = listener;
+            this.segmenter = segmenter;
         }
 
         @Override
         public void onFrameMessage(FrameMessage frameMessage) {
+            refreshPlayList(false);
+            updateTranscodeSpeed(frameMessage);
+            metrics.setEncodeFps(frameMessage.getFps());
             listener.onFrameMessage(frameMessage);
         }
 
+        /*
+         * Output time stays zero while ffmpeg seeks to the start position,
+         * so measurement starts from the first produced frame
+         */
+        private void updateTranscodeSpeed(FrameMessage frameMessage) {
+            long now = System.currentTimeMillis();
+            if (frameMessage.getTime() <= 0) {
+                return;
+            }
+
+            if (speedSampleReset) {
+                speedSampleReset = false;
+                speedSampleTime = 0;
+            }
+
+            if (speedSampleTime == 0) {
+                speedSampleTime = now;
+                speedSampleMediaTime = frameMessage.getTime();
+            } else if (now - speedSampleTime >= TRANSCODE_SPEED_SAMPLE_INTERVAL) {
+                double speed = (frameMessage.getTime() - speedSampleMediaTime) / (double) (now - speedSampleTime);
+                transcodeSpeed = transcodeSpeed < 0 ? speed : transcodeSpeed * 0.7 + speed * 0.3;
+                speedSampleTime = now;
+                speedSampleMediaTime = frameMessage.getTime();
+            }
+        }
+
         @Override
         public void onProgress(String progressString) {
+            refreshPlayList(false);
             listener.onProgress(progressString);
         }
 
         @Override
         public void onPlayListCreated() {
-            synchronized (playListCreatedMonitor) {
-                playListCreatedMonitor.notify();
-            }
-
+            refreshPlayList(true);
             listener.onPlayListCreated();
         }
 
@@ -253,6 +971,23 @@ public final class LiveStreamer {
                 log.debug(String.format("Segmenter [%s] finished. Exit code: %s", liveStreamFolderSuffix, exitCode));
             }
 
+            metrics.setLastExitCode(exitCode);
+
+            //Segmenter writes final version of the playlist before exit
+            if (playListFromFile) {
+                refreshPlayList(true);
+            }
+
+            //Run which was stopped or replaced does not affect current one
+            if (stopped || (ffMpegSegmenter != null && ffMpegSegmenter != segmenter)) {
+                return;
+            }
+
+            synchronized (playListCreatedMonitor) {
+                segmenterFinished = true;
+                playListCreatedMonitor.notifyAll();
+            }
+
             ffMpegSegmenter = null;
             listener.onFinish(exitCode);
         }
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine which reads output of all child processes by a few shared threads.
+ * Streams are polled and only available bytes are read, so no thread
+ * is blocked by the stream of a single process. Read data is queued per stream
+ * and handled by shared handler threads, so slow handler of one stream
+ * (blocked pipe or disk) does not delay other streams. Reading of the stream
+ * is suspended while too much of its data is queued. Timeouts related to processes
+ * are run by single shared scheduler. Thus number of threads does not depend
+ * on number of running processes but only on number of handlers busy at the same time.
+ *
+ * @author Sergey Prilukin
+ */
+public final class ProcessIOEngine {
+    private static final Log log = LogFactory.getLog(ProcessIOEngine.class);
+
+    public static final int POLLER_THREADS = 2;
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /*
+     * Time to sleep when none of the streams had data to read
+     */
+    public static final long POLL_INTERVAL = 10;
+
+    /*
+     * Stream is not read while this number of its bytes waits for the handler
+     */
+    public static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+    /*
+     * Running process is checked for finish not more often than this
+     */
+    public static final long LIVENESS_CHECK_INTERVAL = 100;
+
+    private static final ProcessIOEngine INSTANCE = new ProcessIOEngine(POLLER_THREADS);
+
+    private final Poller[] pollers;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService handlerExecutor;
+
+    ProcessIOEngine(int threads) {
+        pollers = new Poller[threads];
+        for (int i = 0; i < threads; i++) {
+            pollers[i] = new Poller();
+            Thread thread = new Thread(pollers[i], "ProcessIO-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ProcessIOScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        handlerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ProcessIOHandler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static ProcessIOEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return scheduler which should be used for timeouts of processes.
+     * Tasks run by it should never block.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Reads given stream of the process until the end of the stream is reached
+     * and the process is finished, then {@link StreamHandler#onEnd()} is called.
+     * If the stream can not be read or read data can not be handled
+     * then the stream is closed and {@link StreamHandler#onError(IOException)} is called
+     * when the process is finished.
+     *
+     * @param inputStream stdout or stderr of the process
+     * @param process process which writes the stream
+     * @param handler handler of read data
+     * @return reading of the stream which can be paused
+     */
+    public Pausable read(InputStream inputStream, RuntimeExecutor process, StreamHandler handler) {
+        Poller poller = pollers[0];
+        for (Poller candidate: pollers) {
+            if (candidate.size() < poller.size()) {
+                poller = candidate;
+            }
+        }
+
+        Channel channel = new Channel(inputStream, process, handler, handlerExecutor);
+        poller.add(channel);
+        return channel;
+    }
+
+    /**
+     * Reading of the stream which can be suspended.
+     * Process which writes the stream blocks as soon as pipe buffer is full,
+     * so it does not consume CPU while reading is paused.
+     * Stream of finished process is read even if reading is paused.
+     */
+    public interface Pausable {
+        void setPaused(boolean paused);
+
+        boolean isPaused();
+    }
+
+    /**
+     * Handler of data read from the stream. It is called by handler threads of the engine,
+     * one call at a time for the stream. Handler which blocks holds one of these threads
+     * and suspends reading of its stream, other streams are not affected.
+     */
+    public interface StreamHandler {
+        void onData(byte[] buffer, int offset, int length) throws IOException;
+
+        void onEnd();
+
+        void onError(IOException e);
+    }
+
+    /**
+     * Stream of the process together with the queue of its data.
+     * Stream is read by the poller thread only, queue is drained
+     * by one handler thread at a time.
+     */
+    static class Channel implements Pausable, Runnable {
+        private final InputStream inputStream;
+        private final RuntimeExecutor process;
+        private final StreamHandler handler;
+        private final Executor handlerExecutor;
+        private final LinkedList<byte[]> queue = new LinkedList<byte[]>();
+        private int queuedBytes;
+        private boolean dispatching;
+        private boolean finishQueued;
+        private boolean endOfStream;
+        private IOException error;
+        private volatile IOException handlerError;
+        private volatile boolean paused;
+        private boolean processRunning = true;
+        private long livenessCheckTime;
+
+        Channel(InputStream inputStream, RuntimeExecutor process, StreamHandler handler, Executor handlerExecutor) {
+            this.inputStream = inputStream;
+            this.process = process;
+            this.handler = handler;
+            this.handlerExecutor = handlerExecutor;
+        }
+
+        /*
+         * Stream of finished process is read as is - it can not block any more.
+         * Returns true if some data was read.
+         */
+        public boolean poll(byte[] buffer) {
+            if (handlerError != null && !endOfStream) {
+                fail(handlerError);
+                return false;
+            }
+
+            if (endOfStream || (paused && isProcessRunning()) || isQueueFull()) {
+                return false;
+            }
+
+            try {
+                int available = inputStream.available();
+                if (available <= 0 && isProcessRunning()) {
+                    return false;
+                }
+
+                int count = inputStream.read(buffer, 0, available > 0 ? Math.min(available, buffer.length) : buffer.length);
+                if (count < 0) {
+                    endOfStream = true;
+                    return false;
+                }
+
+                if (count > 0) {
+                    dispatch(Arrays.copyOf(buffer, count));
+                }
+
+                return count > 0;
+            } catch (IOException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        /*
+         * Process can not write to closed stream, so it finishes soon
+         */
+        public void fail(IOException e) {
+            endOfStream = true;
+            error = e;
+            try {
+                inputStream.close();
+            } catch (IOException closeException) {
+                /* ignore */
+            }
+        }
+
+        @Override
+        public void setPaused(boolean paused) {
+            this.paused = paused;
+        }
+
+        @Override
+        public boolean isPaused() {
+            return paused;
+        }
+
+        public boolean isFinished() {
+            return endOfStream && !isProcessRunning();
+        }
+
+        /*
+         * Handler is notified about the end after all queued data is handled
+         */
+        public void finish() {
+            synchronized (queue) {
+                finishQueued = true;
+                if (dispatching) {
+                    return;
+                }
+
+                dispatching = true;
+            }
+
+            handlerExecutor.execute(this);
+        }
+
+        /*
+         * Exit value of the process is not requested on each poll
+         */
+        private boolean isProcessRunning() {
+            long now = System.currentTimeMillis();
+            if (processRunning && now - livenessCheckTime >= LIVENESS_CHECK_INTERVAL) {
+                livenessCheckTime = now;
+                processRunning = process.isRunning();
+            }
+
+            return processRunning;
+        }
+
+        private boolean isQueueFull() {
+            synchronized (queue) {
+                return queuedBytes >= MAX_QUEUED_BYTES;
+            }
+        }
+
+        private void dispatch(byte[] data) {
+            synchronized (queue) {
+                queue.add(data);
+                queuedBytes += data.length;
+                if (dispatching) {
+                    return;
+                }
+
+                dispatching = true;
+            }
+
+            handlerExecutor.execute(this);
+        }
+
+        /*
+         * Drains the queue. Data read after handler failed is dropped.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                byte[] data;
+                synchronized (queue) {
+                    data = queue.poll();
+                    if (data != null) {
+                        queuedBytes -= data.length;
+                    } else if (!finishQueued) {
+                        dispatching = false;
+                        return;
+                    }
+                }
+
+                if (data == null) {
+                    notifyHandler();
+                    return;
+                }
+
+                if (handlerError == null) {
+                    handle(data);
+                }
+            }
+        }
+
+        private void handle(byte[] data) {
+            try {
+                handler.onData(data, 0, data.length);
+            } catch (IOException e) {
+                handlerError = e;
+            } catch (RuntimeException e) {
+                log.warn("Can not handle process stream", e);
+                handlerError = new IOException(e);
+            }
+        }
+
+        private void notifyHandler() {
+            IOException e = error != null ? error : handlerError;
+            try {
+                if (e != null) {
+                    handler.onError(e);
+                } else {
+                    handler.onEnd();
+                }
+            } catch (RuntimeException finishException) {
+                log.warn("Can not finish process stream", finishException);
+            }
+        }
+    }
+
+    static class Poller implements Runnable {
+        private final List<Channel> channels = new ArrayList<Channel>();
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        public void add(Channel channel) {
+            synchronized (channels) {
+                channels.add(channel);
+                size.incrementAndGet();
+                channels.notify();
+            }
+        }
+
+        public int size() {
+            return size.get();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<Channel> snapshot;
+                    synchronized (channels) {
+                        while (channels.isEmpty()) {
+                            channels.wait();
+                        }
+
+                        snapshot = new ArrayList<Channel>(channels);
+                    }
+
+                    boolean idle = true;
+                    for (Channel channel: snapshot) {
+                        if (poll(channel)) {
+                            idle = false;
+                        } else if (channel.isFinished()) {
+                            synchronized (channels) {
+                                channels.remove(channel);
+                                size.decrementAndGet();
+                            }
+
+                            channel.finish();
+                        }
+                    }
+
+                    if (idle) {
+                        Thread.sleep(POLL_INTERVAL);
+                    }
+                }
+            } catch (InterruptedException e) {
+                /* do nothing */
+            }
+        }
+
+        private boolean poll(Channel channel) {
+            try {
+                return channel.poll(buffer);
+            } catch (RuntimeException e) {
+                log.warn("Can not read process stream", e);
+                channel.fail(new IOException(e));
+                return false;
+            }
+        }
+    }
+}
@@ -34,15 +34,15 @@ import java.io.RandomAccessFile;
  */
 public final class RandomAccessFileInputStream extends InputStream {
     private RandomAccessFile raf;
-    private int maxBytesToRead;
-    private int currentPos = 0;
+    private long maxBytesToRead;
+    private long currentPos = 0;
 
     public RandomAccessFileInputStream(RandomAccessFile raf) {
         this.raf = raf;
-        this.maxBytesToRead = Integer.MAX_VALUE;
+        this.maxBytesToRead = Long.MAX_VALUE;
     }
 
-    public RandomAccessFileInputStream(RandomAccessFile raf, long startPos, int maxBytesToRead) {
+    public RandomAccessFileInputStream(RandomAccessFile raf, long startPos, long maxBytesToRead) {
         this.raf = raf;
         this.maxBytesToRead = maxBytesToRead;
         try {
@@ -54,7 +54,7 @@ public final class RandomAccessFileInputStream extends InputStream {
         }
     }
 
-    public RandomAccessFileInputStream(File file, long startPos, int maxBytesToRead) {
+    public RandomAccessFileInputStream(File file, long startPos, long maxBytesToRead) {
         this.maxBytesToRead = maxBytesToRead;
         try {
             this.raf = new RandomAccessFile(file, "r");
@@ -68,14 +68,22 @@ public final class RandomAccessFileInputStream extends InputStream {
 
     @Override
     public int available() throws IOException {
+        return (int)Math.min(bytesLeftToRead(), Integer.MAX_VALUE);
+    }
+
+    private long bytesLeftToRead() {
         return maxBytesToRead - currentPos;
     }
 
     @Override
     public int read() throws IOException {
-        if (available() > 0) {
-            currentPos++;
-            return raf.read();
+        if (bytesLeftToRead() > 0) {
+            int result = raf.read();
+            if (result >= 0) {
+                currentPos++;
+            }
+
+            return result;
         } else {
             return -1;
         }
@@ -88,11 +96,15 @@ public final class RandomAccessFileInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int maxBytesLeftToRead = available();
+        long maxBytesLeftToRead = bytesLeftToRead();
         if (maxBytesLeftToRead > 0) {
-            int readLength = Math.min(maxBytesLeftToRead, len);
-            currentPos += readLength;
-            return raf.read(b, off, readLength);
+            int readLength = (int)Math.min(maxBytesLeftToRead, len);
+            int result = raf.read(b, off, readLength);
+            if (result > 0) {
+                currentPos += result;
+            }
+
+            return result;
         } else {
             return -1;
         }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+/**
+ * Variant of the live stream transcoded with its own quality settings
+ *
+ * @author Sergey Prilukin
+ */
+public final class Rendition {
+    private final String name;
+    private final int bandwidth;
+    private final String resolution;
+    private final String ffmpegParams;
+
+    /**
+     * @param name name of the rendition which is used in URLs
+     * @param bandwidth peak bit rate of the rendition in bits per second
+     * @param resolution resolution of the video in format "WIDTHxHEIGHT"
+     * @param ffmpegParams ffmpeg parameters in the format of {@link ConfigReader#getFfmpegParams()}
+     */
+    public Rendition(String name, int bandwidth, String resolution, String ffmpegParams) {
+        this.name = name;
+        this.bandwidth = bandwidth;
+        this.resolution = resolution;
+        this.ffmpegParams = ffmpegParams;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    public String getResolution() {
+        return resolution;
+    }
+
+    public String getFfmpegParams() {
+        return ffmpegParams;
+    }
+}
@@ -40,8 +40,21 @@ public class RuntimeExecutor {
     private OutputStream outputStream;
     private InputStream errorStream;
     private Process process;
+    private volatile boolean finished;
     private Thread shutdownHook;
+    private int niceness;
 
+    /**
+     * Sets scheduling priority adjustment of processes started by this executor.
+     * Processes are started by {@code nice} command in this case,
+     * so it is ignored on Windows where there is no such command.
+     *
+     * @param niceness niceness from 1 (slightly lower priority) to 19 (lowest priority)
+     *                 or 0 to start processes with normal priority
+     */
+    public void setNiceness(int niceness) {
+        this.niceness = niceness;
+    }
 
     /**
      * Executes the given binary with the given arguments.
@@ -71,7 +84,8 @@ public class RuntimeExecutor {
             runtime.addShutdownHook(shutdownHook);
         }
 
-        process = runtime.exec(getCmdArguments(pathToExecutable, args), envp, homeDir);
+        finished = false;
+        process = runtime.exec(getCmdArguments(pathToExecutable, args, niceness), envp, homeDir);
         inputStream = process.getInputStream();
         outputStream = process.getOutputStream();
         errorStream = process.getErrorStream();
@@ -109,6 +123,28 @@ public class RuntimeExecutor {
     public void waitFor() throws InterruptedException {
         if (process != null) {
             process.waitFor();
+            finished = true;
+        }
+    }
+
+    /**
+     * Returns {@code true} if process was started and is not finished yet.
+     * Streams of finished process can be read without blocking.
+     * Finish is remembered, so exit value is not requested any more after that.
+     *
+     * @return {@code true} if process is running
+     */
+    public boolean isRunning() {
+        if (process == null || finished) {
+            return false;
+        }
+
+        try {
+            process.exitValue();
+            finished = true;
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
         }
     }
 
@@ -166,16 +202,23 @@ public class RuntimeExecutor {
         return errorStream;
     }
 
-    private static String[] getCmdArguments(String pathToExecutable, String[] args) {
+    private static String[] getCmdArguments(String pathToExecutable, String[] args, int niceness) {
         String[] notNullArgs = args != null ? args : new String[0];
+        String[] prefix = niceness > 0 && !isWindows()
+                ? new String[] {"nice", "-n", String.valueOf(niceness), pathToExecutable}
+                : new String[] {pathToExecutable};
 
-        String[] cmd = new String[notNullArgs.length + 1];
-        cmd[0] = pathToExecutable;
-        System.arraycopy(args, 0, cmd, 1, notNullArgs.length);
+        String[] cmd = new String[notNullArgs.length + prefix.length];
+        System.arraycopy(prefix, 0, cmd, 0, prefix.length);
+        System.arraycopy(notNullArgs, 0, cmd, prefix.length, notNullArgs.length);
 
         return cmd;
     }
 
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+    }
+
     private static void closeCloseable(Closeable closeable) {
         if (closeable != null) {
             try {
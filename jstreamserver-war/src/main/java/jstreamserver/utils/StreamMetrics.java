@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of single live stream.
+ * Updated by request threads and by threads which read output of ffmpeg.
+ *
+ * @author Sergey Prilukin
+ */
+public final class StreamMetrics {
+
+    /*
+     * Bounds of segment production latency buckets in seconds
+     */
+    public static final double[] SEGMENT_LATENCY_BUCKETS = {0.5, 1, 2, 5, 10, 20, 30, 60};
+
+    private final AtomicLong playListRequests = new AtomicLong();
+    private final AtomicLong segmentRequests = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong segmentsProduced = new AtomicLong();
+    private final AtomicLong transcodingPauses = new AtomicLong();
+    private final Histogram segmentLatency = new Histogram(SEGMENT_LATENCY_BUCKETS);
+    private volatile long lastSegmentTime;
+    private volatile int encodeFps;
+    private volatile Integer lastExitCode;
+
+    public void playListRequested(long bytes) {
+        playListRequests.incrementAndGet();
+        bytesServed.addAndGet(bytes);
+    }
+
+    public void segmentRequested() {
+        segmentRequests.incrementAndGet();
+    }
+
+    /**
+     * @param bytes number of bytes written to the body of the segment response
+     */
+    public void segmentServed(long bytes) {
+        bytesServed.addAndGet(bytes);
+    }
+
+    /**
+     * Latency of the first segment is measured from this moment
+     */
+    public void transcodingStarted() {
+        lastSegmentTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Time while transcoding was paused is not included into latency of the next segment
+     */
+    public void transcodingResumed() {
+        lastSegmentTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @param count number of segments completed since the last call
+     */
+    public void segmentsProduced(int count) {
+        long now = System.currentTimeMillis();
+        double latency = (now - lastSegmentTime) / 1000.0 / count;
+        for (int i = 0; i < count; i++) {
+            segmentLatency.record(latency);
+        }
+
+        segmentsProduced.addAndGet(count);
+        lastSegmentTime = now;
+    }
+
+    public void transcodingPaused() {
+        transcodingPauses.incrementAndGet();
+    }
+
+    public void setEncodeFps(int encodeFps) {
+        this.encodeFps = encodeFps;
+    }
+
+    public void setLastExitCode(Integer lastExitCode) {
+        this.lastExitCode = lastExitCode;
+    }
+
+    public long getPlayListRequests() {
+        return playListRequests.get();
+    }
+
+    public long getSegmentRequests() {
+        return segmentRequests.get();
+    }
+
+    /**
+     * @return size of served playlists and bodies of segment responses in bytes
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getSegmentsProduced() {
+        return segmentsProduced.get();
+    }
+
+    public long getTranscodingPauses() {
+        return transcodingPauses.get();
+    }
+
+    /**
+     * @return wall clock time spent on production of each segment in seconds
+     */
+    public Histogram getSegmentLatency() {
+        return segmentLatency;
+    }
+
+    public int getEncodeFps() {
+        return encodeFps;
+    }
+
+    /**
+     * @return exit code of the last finished transcoding or {@code null}
+     */
+    public Integer getLastExitCode() {
+        return lastExitCode;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.web;
+
+import jstreamserver.dto.PreTranscodeQueue;
+import jstreamserver.services.PreTranscodeService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.net.HttpURLConnection;
+
+/**
+ * Controller to manage background tasks of the server
+ *
+ * @author Sergey Prilukin
+ */
+
+@Controller
+public class AdminController {
+
+    @Autowired
+    private PreTranscodeService preTranscodeService;
+
+    @Autowired
+    private ControllerUtils controllerUtils;
+
+    @RequestMapping(value = "/admin/pretranscode", method = RequestMethod.GET)
+    public @ResponseBody PreTranscodeQueue getPreTranscodeQueue() {
+        return preTranscodeService.getQueue();
+    }
+
+    /**
+     * Adds file or folder with given path to pre-transcoding queue
+     */
+    @RequestMapping(value = "/admin/pretranscode", method = RequestMethod.POST)
+    public @ResponseBody PreTranscodeQueue preTranscode(
+            @RequestParam(value = "path") String path,
+            HttpServletResponse response) throws Exception {
+
+        File file = controllerUtils.getFile(path);
+        if (file == null || !file.exists()) {
+            response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+            return null;
+        }
+
+        preTranscodeService.enqueue(file, path);
+        return preTranscodeService.getQueue();
+    }
+
+    @RequestMapping(value = "/admin/pretranscode/clear", method = RequestMethod.POST)
+    public @ResponseBody PreTranscodeQueue clearPreTranscodeQueue() {
+        preTranscodeService.clear();
+        return preTranscodeService.getQueue();
+    }
+}
@@ -31,9 +31,11 @@ import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.util.List;
 
 /**
  * Utility metods for controllers
@@ -43,33 +45,56 @@ import java.net.HttpURLConnection;
 @Component
 public class ControllerUtils {
 
+    public static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    public static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    public static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private MimeProperties mimeProperties;
 
     @Autowired
     private ConfigReader configReader;
 
-    public InputStream getFileAsStream(File file, String range, HttpServletResponse response) throws IOException {
-        String extension = FilenameUtils.getExtension(file.getName());
-        String mimeType = mimeProperties.getProperty(extension.toLowerCase(), "application/octet-stream");
-
-        setCommonResourceHeaders(mimeType, response);
-        response.setHeader("Accept-Ranges", "bytes");
-
-        if (range != null) {
-            long[] rangeArray = parseRange(range, file.length());
-            String contentRange = String.format(HttpUtils.CONTENT_RANGE_FORMAT,
-                    rangeArray[0], rangeArray[1], file.length());
+    /**
+     * Writes given file (or requested ranges of it) to the response.
+     * Single range is sent without copying it through the java heap
+     * if container supports sendfile (Tomcat style request attributes) or by {@link JettyFileSender}
+     * on Jetty 6, otherwise it is copied with {@link IOUtils#copyLarge(java.io.InputStream, java.io.OutputStream)}
+     *
+     * Conditional requests (If-None-Match, If-Modified-Since and If-Range)
+     * are answered based on file ETag and modification time.
+     *
+     * @param file file to send
+     * @param range value of the Range header, may be {@code null}
+     * @param maxAge number of seconds during which response can be cached without revalidation.
+     *               if less or equal to zero then clients have to revalidate each time.
+     * @param request http request
+     * @param response http response
+     * @return number of bytes written to the response body
+     * @throws IOException if exception occurs during sending file
+     */
+    public long writeFile(File file, String range, int maxAge, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String mimeType = getMimeType(file);
+        long fileLength = file.length();
+        String eTag = HttpUtils.getETag(file);
+        long lastModified = file.lastModified();
 
-            response.setHeader(HttpUtils.CONTENT_RANGE_HEADER, contentRange);
+        setContentTypeHeaders(mimeType, response);
+        response.setHeader(HttpUtils.CACHE_CONTROL_HEADER,
+                maxAge > 0 ? String.format(HttpUtils.PUBLIC_MAX_AGE_FORMAT, maxAge) : HttpUtils.NO_CACHE);
+        response.setHeader(HttpUtils.ETAG_HEADER, eTag);
+        response.setDateHeader(HttpUtils.LAST_MODIFIED_HEADER, lastModified);
+        response.setHeader("Accept-Ranges", HttpUtils.BYTES_UNIT);
 
-            //Range should be an integer
-            int rangeLength = (int)(rangeArray[1] - rangeArray[0] + 1);
-
-            response.setStatus(HttpURLConnection.HTTP_PARTIAL);
+        if (isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpURLConnection.HTTP_NOT_MODIFIED);
+            return 0;
+        }
 
-            return new BufferedInputStream(new RandomAccessFileInputStream(file, rangeArray[0], rangeLength));
-        } else {
+        //Range should be ignored if resource has been changed since If-Range validator was received
+        List<long[]> ranges = isIfRangeMatched(request, eTag, lastModified) ? HttpUtils.parseRanges(range, fileLength) : null;
+        if (ranges == null) {
             //For all non video file types set disposition: attachment header
             if (!mimeType.startsWith("video")) {
                 response.setHeader(
@@ -77,11 +102,213 @@ public class ControllerUtils {
                         String.format(HttpUtils.CONTENT_DISPOSITION_FORMAT, file.getName()));
             }
 
-            return new BufferedInputStream(new FileInputStream(file));
+            return writeRange(file, 0, fileLength, request, response);
+        } else if (ranges.isEmpty()) {
+            response.setHeader(HttpUtils.CONTENT_RANGE_HEADER,
+                    String.format(HttpUtils.UNSATISFIABLE_CONTENT_RANGE_FORMAT, fileLength));
+            response.setStatus(HttpUtils.HTTP_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return 0;
+        } else if (ranges.size() == 1) {
+            long[] rangeArray = ranges.get(0);
+            response.setHeader(HttpUtils.CONTENT_RANGE_HEADER,
+                    String.format(HttpUtils.CONTENT_RANGE_FORMAT, rangeArray[0], rangeArray[1], fileLength));
+            response.setStatus(HttpURLConnection.HTTP_PARTIAL);
+
+            return writeRange(file, rangeArray[0], rangeArray[1] - rangeArray[0] + 1, request, response);
+        } else {
+            response.setStatus(HttpURLConnection.HTTP_PARTIAL);
+            return writeMultipartRanges(file, ranges, mimeType, response);
+        }
+    }
+
+    /**
+     * Writes given data (or requested ranges of it) to the response
+     * the same way as {@link #writeFile(java.io.File, String, int, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}
+     *
+     * @param data content to send
+     * @param name name of the resource, it defines content type
+     * @param lastModified modification time of the content
+     * @param range value of the Range header, may be {@code null}
+     * @param maxAge number of seconds during which response can be cached without revalidation.
+     * @param request http request
+     * @param response http response
+     * @return number of bytes written to the response body
+     * @throws IOException if exception occurs during sending data
+     */
+    public long writeData(byte[] data, String name, long lastModified, String range, int maxAge,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String mimeType = getMimeType(name);
+        String eTag = String.format(HttpUtils.ETAG_FORMAT, name.hashCode(), data.length, lastModified);
+
+        setContentTypeHeaders(mimeType, response);
+        response.setHeader(HttpUtils.CACHE_CONTROL_HEADER,
+                maxAge > 0 ? String.format(HttpUtils.PUBLIC_MAX_AGE_FORMAT, maxAge) : HttpUtils.NO_CACHE);
+        response.setHeader(HttpUtils.ETAG_HEADER, eTag);
+        response.setDateHeader(HttpUtils.LAST_MODIFIED_HEADER, lastModified);
+        response.setHeader("Accept-Ranges", HttpUtils.BYTES_UNIT);
+
+        if (isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpURLConnection.HTTP_NOT_MODIFIED);
+            return 0;
+        }
+
+        List<long[]> ranges = isIfRangeMatched(request, eTag, lastModified) ? HttpUtils.parseRanges(range, data.length) : null;
+        if (ranges == null) {
+            return writeData(data, 0, data.length, response);
+        } else if (ranges.isEmpty()) {
+            response.setHeader(HttpUtils.CONTENT_RANGE_HEADER,
+                    String.format(HttpUtils.UNSATISFIABLE_CONTENT_RANGE_FORMAT, data.length));
+            response.setStatus(HttpUtils.HTTP_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return 0;
+        } else {
+            //Multiple ranges of the small in-memory resource are answered with the first one only
+            long[] rangeArray = ranges.get(0);
+            response.setHeader(HttpUtils.CONTENT_RANGE_HEADER,
+                    String.format(HttpUtils.CONTENT_RANGE_FORMAT, rangeArray[0], rangeArray[1], data.length));
+            response.setStatus(HttpURLConnection.HTTP_PARTIAL);
+
+            return writeData(data, (int) rangeArray[0], (int) (rangeArray[1] - rangeArray[0] + 1), response);
+        }
+    }
+
+    private long writeData(byte[] data, int offset, int length, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpUtils.CONTENT_LENGTH_HEADER, String.valueOf(length));
+
+        OutputStream os = response.getOutputStream();
+        try {
+            os.write(data, offset, length);
+        } finally {
+            os.flush();
+            os.close();
+        }
+
+        return length;
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpUtils.IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            return HttpUtils.eTagMatches(ifNoneMatch, eTag);
+        }
+
+        long ifModifiedSince = getDateHeader(request, HttpUtils.IF_MODIFIED_SINCE_HEADER);
+
+        //HTTP dates have seconds precision
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean isIfRangeMatched(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpUtils.IF_RANGE_HEADER);
+        if (ifRange == null) {
+            return true;
+        }
+
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        } else if (ifRange.startsWith("W/")) {
+            //weak validators are not allowed in If-Range
+            return false;
+        }
+
+        long ifRangeDate = getDateHeader(request, HttpUtils.IF_RANGE_HEADER);
+        return ifRangeDate >= 0 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    private long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            //Malformed date - ignore the header
+            return -1;
+        }
+    }
+
+    private String getMimeType(File file) {
+        return getMimeType(file.getName());
+    }
+
+    private String getMimeType(String name) {
+        String extension = FilenameUtils.getExtension(name);
+        return mimeProperties.getProperty(extension.toLowerCase(), "application/octet-stream");
+    }
+
+    private long writeRange(File file, long start, long length, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpUtils.CONTENT_LENGTH_HEADER, String.valueOf(length));
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            //Container will send the file itself after request processing is finished
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, start + length);
+            return length;
+        }
+
+        OutputStream os = response.getOutputStream();
+        try {
+            if (!JettyFileSender.send(file, start, length, os)) {
+                copyRange(file, start, length, os);
+            }
+        } finally {
+            os.flush();
+            os.close();
+        }
+
+        return length;
+    }
+
+    private long writeMultipartRanges(File file, List<long[]> ranges, String mimeType, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpUtils.CONTENT_TYPE_HEADER, HttpUtils.MULTIPART_BYTERANGES_CONTENT_TYPE);
+
+        long written = 0;
+        OutputStream os = response.getOutputStream();
+        try {
+            for (long[] rangeArray: ranges) {
+                StringBuilder partHeader = new StringBuilder();
+                partHeader.append("\r\n--").append(HttpUtils.MULTIPART_BYTERANGES_BOUNDARY).append("\r\n");
+                partHeader.append(HttpUtils.CONTENT_TYPE_HEADER).append(": ").append(mimeType).append("\r\n");
+                partHeader.append(HttpUtils.CONTENT_RANGE_HEADER).append(": ")
+                        .append(String.format(HttpUtils.CONTENT_RANGE_FORMAT, rangeArray[0], rangeArray[1], file.length()))
+                        .append("\r\n\r\n");
+                byte[] partHeaderBytes = partHeader.toString().getBytes(HttpUtils.DEFAULT_ENCODING);
+                os.write(partHeaderBytes);
+
+                long length = rangeArray[1] - rangeArray[0] + 1;
+                copyRange(file, rangeArray[0], length, os);
+                written += partHeaderBytes.length + length;
+            }
+
+            byte[] closeDelimiter = ("\r\n--" + HttpUtils.MULTIPART_BYTERANGES_BOUNDARY + "--\r\n").getBytes(HttpUtils.DEFAULT_ENCODING);
+            os.write(closeDelimiter);
+            written += closeDelimiter.length;
+        } finally {
+            os.flush();
+            os.close();
+        }
+
+        return written;
+    }
+
+    /*
+     * Copies range of the file to the given stream.
+     * Only requested bytes are read: file is positioned at the range start directly.
+     */
+    private void copyRange(File file, long start, long length, OutputStream os) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            IOUtils.copyLarge(new RandomAccessFileInputStream(raf, start, length), os);
+        } finally {
+            raf.close();
         }
     }
 
     public void setCommonResourceHeaders(String mimeType, HttpServletResponse response) {
+        setContentTypeHeaders(mimeType, response);
+        response.setDateHeader("Expires", 0);
+        response.setHeader("Pragma", "no-cache");
+        response.setHeader(HttpUtils.CACHE_CONTROL_HEADER, "no-store,private,no-cache");
+    }
+
+    private void setContentTypeHeaders(String mimeType, HttpServletResponse response) {
 
         //Set response headers
         String contentType = mimeType != null ? mimeType : "application/octet-stream";
@@ -90,28 +317,9 @@ public class ControllerUtils {
         }
 
         response.setHeader(HttpUtils.CONTENT_TYPE_HEADER, contentType);
-        response.setDateHeader("Expires", 0);
-        response.setHeader("Pragma", "no-cache");
-        response.setHeader("Cache-Control", "no-store,private,no-cache");
         response.setHeader("Connection", "keep-alive");
     }
 
-    private long[] parseRange(String range, long fileLength) {
-        if (range == null) {
-            return null;
-        }
-
-        String[] string = range.split("=")[1].split("-");
-        long start = Math.min(Long.parseLong(string[0]), fileLength);
-        long end = string.length == 1 ? fileLength - 1 : Math.min(Long.parseLong(string[1]), fileLength);
-
-        long[] rangeArray = new long[2];
-        rangeArray[0] = Math.min(start, end);
-        rangeArray[1] = Math.max(start, end);
-
-        return rangeArray;
-    }
-
     public File getFile(String path) {
         if (path == null || path.isEmpty() || path.equals("/")) {
             return null;
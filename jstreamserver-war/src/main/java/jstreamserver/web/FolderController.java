@@ -2,6 +2,7 @@ package jstreamserver.web;
 
 import jstreamserver.dto.BreadCrumb;
 import jstreamserver.dto.FileListEntry;
+import jstreamserver.ffmpeg.MediaInfo;
 import jstreamserver.services.FolderService;
 import jstreamserver.utils.*;
 import org.apache.commons.logging.Log;
@@ -12,12 +13,16 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Controller to show folders
@@ -59,6 +64,24 @@ public class FolderController {
         return "directory";
     }
 
+    @RequestMapping("/mediainfo")
+    public @ResponseBody Map<String, MediaInfo> getMediaInfo(
+            @RequestParam(value = "path") String path,
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        File folder = controllerUtils.getFile(path);
+        if (folder == null || !folder.isDirectory()) {
+            response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+            return null;
+        }
+
+        //Names are taken as is - file names may contain commas
+        String[] names = request.getParameterValues("names");
+        List<String> namesList = names != null ? Arrays.asList(names) : Collections.<String>emptyList();
+
+        return folderService.getMediaInfo(folder, namesList);
+    }
+
     @RequestMapping("/download")
     public void downloadResource(
             @RequestParam(value = "path", required = false) String path,
@@ -67,9 +90,7 @@ public class FolderController {
 
         File file = controllerUtils.getFile(path);
         if (file != null && file.exists() && file.isFile()) {
-            InputStream is = controllerUtils.getFileAsStream(file, range, response);
-
-            controllerUtils.writeStream(is, response);
+            controllerUtils.writeFile(file, range, 0, request, response);
         } else {
             response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
         }
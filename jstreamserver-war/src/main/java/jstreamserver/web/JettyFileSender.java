@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.web;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sends ranges of files by the connection of Jetty 6 without copying them through the java heap.
+ * Range is memory mapped and passed to {@code HttpConnection.Output.sendContent()} as direct buffer,
+ * so the connector writes it from the page cache to the socket channel as Jetty's DefaultServlet does.
+ * Jetty classes are hidden from the webapp, so they are accessed by reflection
+ * through the class loader of the response stream.
+ *
+ * @author Sergey Prilukin
+ */
+final class JettyFileSender {
+    private static final Log log = LogFactory.getLog(JettyFileSender.class);
+
+    public static final String JETTY_OUTPUT_CLASS = "org.mortbay.jetty.HttpConnection$Output";
+    public static final String DIRECT_BUFFER_CLASS = "org.mortbay.io.nio.DirectNIOBuffer";
+
+    /*
+     * Mapping of smaller ranges costs more than copying them
+     */
+    public static final long MIN_MAPPED_LENGTH = 64 * 1024;
+
+    private static volatile Method sendContent;
+    private static volatile Constructor<?> bufferConstructor;
+    private static volatile boolean unsupported;
+
+    private JettyFileSender() {
+    }
+
+    /**
+     * Sends range of the file as the whole content of the response
+     *
+     * @param file file to send
+     * @param start first byte of the range
+     * @param length length of the range
+     * @param os output stream of the response, nothing should be written to it yet
+     * @return {@code false} if range was not sent because stream is not the stream of Jetty 6
+     *  or range is too small or too big to be mapped
+     * @throws IOException if range can not be sent
+     */
+    static boolean send(File file, long start, long length, OutputStream os) throws IOException {
+        if (length < MIN_MAPPED_LENGTH || length > Integer.MAX_VALUE || !isSupported(os)) {
+            return false;
+        }
+
+        Object buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            //Mapping stays valid after the channel is closed
+            MappedByteBuffer mappedBuffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+            buffer = bufferConstructor.newInstance(mappedBuffer, true);
+        } catch (InstantiationException e) {
+            throw new IOException("Can not create buffer of the file", e);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Can not create buffer of the file", e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Can not create buffer of the file", e.getCause());
+        } finally {
+            raf.close();
+        }
+
+        try {
+            sendContent.invoke(os, buffer);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Can not send file", e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Can not send file", e.getCause());
+        }
+
+        return true;
+    }
+
+    /*
+     * Jetty classes are looked up once by the first stream of Jetty
+     */
+    private static boolean isSupported(OutputStream os) {
+        if (unsupported || !os.getClass().getName().startsWith("org.mortbay.jetty.")) {
+            return false;
+        }
+
+        Method method = sendContent;
+        if (method == null) {
+            synchronized (JettyFileSender.class) {
+                if (sendContent == null && !unsupported) {
+                    lookup(os.getClass().getClassLoader());
+                }
+
+                method = sendContent;
+            }
+        }
+
+        return method != null && method.getDeclaringClass().isInstance(os);
+    }
+
+    private static void lookup(ClassLoader classLoader) {
+        try {
+            Class<?> outputClass = Class.forName(JETTY_OUTPUT_CLASS, false, classLoader);
+            Class<?> bufferClass = Class.forName(DIRECT_BUFFER_CLASS, false, classLoader);
+
+            bufferConstructor = bufferClass.getConstructor(ByteBuffer.class, boolean.class);
+            sendContent = outputClass.getMethod("sendContent", Object.class);
+        } catch (Exception e) {
+            log.debug("Memory mapped file sending is not supported by the container", e);
+            unsupported = true;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.web;
+
+import jstreamserver.dto.LiveStreamStats;
+import jstreamserver.dto.ServerStats;
+import jstreamserver.services.LiveStreamService;
+import jstreamserver.utils.HttpUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Controller which serves counters of live streams as JSON
+ * or in Prometheus text format if {@code format=prometheus} parameter is given
+ *
+ * @author Sergey Prilukin
+ */
+@Controller
+public class StatsController {
+
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+    public static final String METRIC_PREFIX = "jstreamserver_";
+
+    @Autowired
+    private LiveStreamService liveStreamService;
+
+    @Autowired
+    private ControllerUtils controllerUtils;
+
+    @RequestMapping("/stats")
+    public @ResponseBody ServerStats getStats() {
+        return liveStreamService.getStats();
+    }
+
+    @RequestMapping(value = "/stats", params = "format=prometheus")
+    public void getPrometheusStats(HttpServletResponse response) throws Exception {
+        String text = formatPrometheus(liveStreamService.getStats());
+
+        controllerUtils.setCommonResourceHeaders(null, response);
+        response.setHeader(HttpUtils.CONTENT_TYPE_HEADER, PROMETHEUS_CONTENT_TYPE);
+        controllerUtils.writeStream(new ByteArrayInputStream(text.getBytes(HttpUtils.DEFAULT_ENCODING)), response);
+    }
+
+    static String formatPrometheus(ServerStats stats) {
+        PrometheusWriter writer = new PrometheusWriter();
+        writer.sample("active_live_streams", "gauge", "", stats.getActiveLiveStreams());
+        writer.sample("stream_evictions_total", "counter", "", stats.getStreamEvictions());
+        writer.sample("segment_cache_evictions_total", "counter", "", stats.getSegmentCacheEvictions());
+        for (Map.Entry<String, Long> entry: stats.getExitCodes().entrySet()) {
+            writer.sample("transcoding_exits_total", "counter", "code=\"" + escapeLabelValue(entry.getKey()) + "\"", entry.getValue());
+        }
+
+        for (LiveStreamStats stream: stats.getStreams()) {
+            String labels = String.format("stream=\"%s\",rendition=\"%s\"",
+                    stream.getId(), escapeLabelValue(stream.getRendition() != null ? stream.getRendition() : ""));
+
+            writer.sample("stream_viewers", "gauge", labels, stream.getViewers());
+            writer.sample("stream_transcoding", "gauge", labels, stream.getTranscoding() ? 1 : 0);
+            writer.sample("stream_transcoding_paused", "gauge", labels, stream.getTranscodingPaused() ? 1 : 0);
+            writer.sample("stream_transcoding_pauses_total", "counter", labels, stream.getTranscodingPauses());
+            writer.sample("stream_encode_fps", "gauge", labels, stream.getEncodeFps());
+            if (stream.getTranscodeSpeed() >= 0) {
+                writer.sample("stream_realtime_ratio", "gauge", labels, stream.getTranscodeSpeed());
+            }
+            if (stream.getTimeToFirstSegment() >= 0) {
+                writer.sample("stream_time_to_first_segment_seconds", "gauge", labels, stream.getTimeToFirstSegment() / 1000.0);
+            }
+            writer.sample("stream_segments_produced_total", "counter", labels, stream.getSegmentsProduced());
+
+            for (Map.Entry<String, Long> bucket: stream.getSegmentLatencyBuckets().entrySet()) {
+                writer.sample("stream_segment_latency_seconds", "histogram", "_bucket",
+                        labels + ",le=\"" + bucket.getKey() + "\"", bucket.getValue());
+            }
+            writer.sample("stream_segment_latency_seconds", "histogram", "_sum", labels, stream.getSegmentLatencySum());
+            writer.sample("stream_segment_latency_seconds", "histogram", "_count", labels, stream.getSegmentLatencyCount());
+
+            writer.sample("stream_playlist_requests_total", "counter", labels, stream.getPlayListRequests());
+            writer.sample("stream_segment_requests_total", "counter", labels, stream.getSegmentRequests());
+            writer.sample("stream_served_bytes_total", "counter", labels, stream.getBytesServed());
+            writer.sample("stream_segment_buffer_evictions_total", "counter", labels, stream.getSegmentBufferEvictions());
+            if (stream.getLastExitCode() != null) {
+                writer.sample("stream_last_exit_code", "gauge", labels, stream.getLastExitCode());
+            }
+        }
+
+        return writer.toString();
+    }
+
+    /*
+     * Rendition names come from the configuration and can contain any characters
+     */
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Groups samples by metric families as it is required by the format
+     */
+    static class PrometheusWriter {
+        private final Map<String, StringBuilder> families = new LinkedHashMap<String, StringBuilder>();
+
+        public void sample(String family, String type, String labels, Number value) {
+            sample(family, type, "", labels, value);
+        }
+
+        public void sample(String family, String type, String suffix, String labels, Number value) {
+            String name = METRIC_PREFIX + family;
+            StringBuilder sb = families.get(name);
+            if (sb == null) {
+                sb = new StringBuilder();
+                sb.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+                families.put(name, sb);
+            }
+
+            sb.append(name).append(suffix);
+            if (!labels.isEmpty()) {
+                sb.append("{").append(labels).append("}");
+            }
+            sb.append(" ").append(value).append("\n");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (StringBuilder family: families.values()) {
+                sb.append(family);
+            }
+
+            return sb.toString();
+        }
+    }
+}
@@ -24,9 +24,12 @@ package jstreamserver.web;
 
 import jstreamserver.dto.VideoSource;
 import jstreamserver.dto.VideoTag;
+import jstreamserver.hls.SegmentBuffer;
 import jstreamserver.services.LiveStreamService;
+import jstreamserver.services.LiveStreamsBusyException;
 import jstreamserver.utils.CharsetDetector;
 import jstreamserver.utils.ConfigReader;
+import jstreamserver.utils.LiveStreamer;
 import jstreamserver.utils.MimeProperties;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -40,6 +43,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -78,7 +82,7 @@ public class VideoController {
             @RequestParam(value = "stream", required = false) Integer stream,
             @RequestParam(value = "time", required = false) String time,
             @RequestHeader(value = "User-Agent", required = false, defaultValue = "default") String userAgent,
-            HttpServletRequest request) throws Exception {
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
 
 
         Integer liveStreamId = null;
@@ -90,8 +94,15 @@ public class VideoController {
             List<String> supportedVideoTypes = configReader.getVideoTypesForHTML5(userAgent);
 
             if (!supportedVideoTypes.contains(extension)) {
-                liveStreamId = liveStreamService.createLiveStream(
-                        videoFile, time, stream, request.getContextPath(), request.getSession(true).getId());
+                try {
+                    liveStreamId = liveStreamService.createLiveStream(
+                            videoFile, time, stream, request.getContextPath(), request.getSession(true).getId());
+                } catch (LiveStreamsBusyException e) {
+                    log.debug(e.getMessage());
+                    response.setHeader("Retry-After", String.valueOf(e.getRetryAfter()));
+                    response.setStatus(HttpURLConnection.HTTP_UNAVAILABLE);
+                    return null;
+                }
             }
         } else {
             /*
@@ -103,31 +114,106 @@ public class VideoController {
         return getVideoListTag(videoFile, path, time, liveStreamId);
     }
 
+    /*
+     * _HLS_part directive is ignored: segments are not split into partial segments,
+     * so request is held until the whole segment is available
+     */
     @RequestMapping("/playlist/{id}")
     public void downloadResource(
             @PathVariable(value = "id") Integer id,
+            @RequestParam(value = "_HLS_msn", required = false) Long mediaSequence,
             HttpServletResponse response) throws Exception {
 
-        InputStream is = liveStreamService.getPlayList(id);
+        InputStream is;
+        try {
+            is = liveStreamService.getPlayList(id, mediaSequence);
+        } catch (FileNotFoundException e) {
+            log.debug(e.getMessage());
+            response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+            return;
+        } catch (IllegalArgumentException e) {
+            log.debug(e.getMessage());
+            response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+            return;
+        }
+
+        controllerUtils.setCommonResourceHeaders(mimeProperties.getProperty("m3u8"), response);
+        controllerUtils.writeStream(is, response);
+    }
+
+    @RequestMapping("/playlist/{id}/{rendition:[\\w]+}")
+    public void downloadRenditionPlayList(
+            @PathVariable(value = "id") Integer id,
+            @PathVariable(value = "rendition") String rendition,
+            @RequestParam(value = "_HLS_msn", required = false) Long mediaSequence,
+            HttpServletResponse response) throws Exception {
+
+        InputStream is;
+        try {
+            is = liveStreamService.getPlayList(id, rendition, mediaSequence);
+        } catch (FileNotFoundException e) {
+            log.debug(e.getMessage());
+            response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+            return;
+        } catch (IllegalArgumentException e) {
+            log.debug(e.getMessage());
+            response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+            return;
+        }
+
         controllerUtils.setCommonResourceHeaders(mimeProperties.getProperty("m3u8"), response);
         controllerUtils.writeStream(is, response);
     }
 
-    @RequestMapping("/livestream/{videoFile:[\\w]+}{liveStreamId:[\\d]+}{suffix:[\\.\\w\\d\\-]+}")
+    @RequestMapping({"/livestream/{videoFile:[\\w]+}{liveStreamId:[\\d]+}{suffix:[\\.\\w\\d\\-]+}",
+            "/{generation:[\\d]+}/livestream/{videoFile:[\\w]+}{liveStreamId:[\\d]+}{suffix:[\\.\\w\\d\\-]+}"})
     public void downloadResource(
             @PathVariable("videoFile") String videoFile,
             @PathVariable("liveStreamId") Integer liveStreamId,
             @PathVariable("suffix") String suffix,
             @RequestHeader(value = "Range", required = false) String range,
-            HttpServletResponse response) throws Exception {
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
 
-        File file = liveStreamService.getTSFile(String.format("%s%s%s", videoFile, liveStreamId, suffix), liveStreamId);
-        if (file != null && file.exists() && file.isFile()) {
-            InputStream is = controllerUtils.getFileAsStream(file, range, response);
+        String fileName = String.format("%s%s%s", videoFile, liveStreamId, suffix);
+        SegmentBuffer.Segment segment = liveStreamService.getSegment(fileName, liveStreamId);
+        long bytes = segment != null
+                ? writeLiveStreamSegment(segment, fileName, range, request, response)
+                : writeLiveStreamFile(liveStreamService.getTSFile(fileName, liveStreamId), range, request, response);
+
+        liveStreamService.segmentServed(liveStreamId, bytes);
+    }
+
+    @RequestMapping("/rendition/{liveStreamId:[\\d]+}/{rendition:[\\w]+}/{generation:[\\d]+}/livestream/{fileName:[\\.\\w\\d\\-]+}")
+    public void downloadRenditionResource(
+            @PathVariable("liveStreamId") Integer liveStreamId,
+            @PathVariable("rendition") String rendition,
+            @PathVariable("fileName") String fileName,
+            @RequestHeader(value = "Range", required = false) String range,
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
 
-            controllerUtils.writeStream(is, response);
+        SegmentBuffer.Segment segment = liveStreamService.getSegment(fileName, liveStreamId, rendition);
+        long bytes = segment != null
+                ? writeLiveStreamSegment(segment, fileName, range, request, response)
+                : writeLiveStreamFile(liveStreamService.getTSFile(fileName, liveStreamId, rendition), range, request, response);
+
+        liveStreamService.segmentServed(liveStreamId, rendition, bytes);
+    }
+
+    private long writeLiveStreamSegment(SegmentBuffer.Segment segment, String fileName, String range,
+                                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return controllerUtils.writeData(segment.getData(), fileName, segment.getLastModified(), range,
+                configReader.getSegmentCacheMaxAge(), request, response);
+    }
+
+    private long writeLiveStreamFile(File file, String range, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (file != null && file.exists() && file.isFile()) {
+            //Segments are never changed once listed in the playlist
+            //and their URLs are unique for each stream start (see LiveStreamer)
+            int maxAge = file.getName().endsWith(LiveStreamer.SEGMENT_EXTENSION) ? configReader.getSegmentCacheMaxAge() : 0;
+            return controllerUtils.writeFile(file, range, maxAge, request, response);
         } else {
             response.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+            return 0;
         }
     }
 
@@ -19,6 +19,7 @@
     <script type="text/javascript">
         $(document).ready(function() {
             JStreamServer.contextPath = "${pageContext.request.contextPath}";
+            JStreamServer.path = <%= (new ObjectMapper()).writeValueAsString(request.getParameter("path"))%>;
 
             var folders = <%= (new ObjectMapper()).writeValueAsString(request.getAttribute("folder"))%>;
             new JStreamServer.DirectoryView(folders);
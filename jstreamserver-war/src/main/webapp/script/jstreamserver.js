@@ -23,6 +23,7 @@
 //Define jstreamserver context
 JStreamServer = {};
 JStreamServer.contextPath = "";
+JStreamServer.path = null;
 
 //Define model for directory list
 JStreamServer.Directory = Backbone.Model.extend({});
@@ -52,16 +53,72 @@ JStreamServer.DirectoryView = Backbone.View.extend({
         this.videoTemplate = _.template($("#videotagTmpl").html());
 
         this.model = new JStreamServer.DirectoryList(json);
+        this.mediaInfoRequested = {};
         this.render();
         this.attachListeners();
+
+        //media info is loaded only for files which are visible on the screen
+        this.loadVisibleMediaInfo();
+        $(window).bind("scroll resize", _.throttle($.proxy(this.loadVisibleMediaInfo, this), 200));
     },
 
     attachListeners: function() {
+        //listeners are delegated so they work for list items rendered after media info is loaded
         $.each(this.clickListeners, $.proxy(function(selector, handler) {
-            this.el.find(selector).bind("click", $.proxy(handler, this));
+            this.el.delegate(selector, "click", $.proxy(handler, this));
+        }, this));
+    },
+
+    loadVisibleMediaInfo: function() {
+        //root folder contains only folders
+        if (JStreamServer.path === null) {
+            return;
+        }
+
+        var top = $(window).scrollTop();
+        var bottom = top + $(window).height();
+        var names = [];
+
+        this.model.each($.proxy(function(file) {
+            if ((file.get("video") || file.get("audio")) && !file.get("mediaInfo") && !this.mediaInfoRequested[file.id]) {
+                var li = $("#" + file.id);
+                var offset = li.offset();
+                if (offset && offset.top < bottom && offset.top + li.outerHeight() > top) {
+                    this.mediaInfoRequested[file.id] = true;
+                    names.push(file.get("name"));
+                }
+            }
+        }, this));
+
+        if (names.length > 0) {
+            $.getJSON(JStreamServer.contextPath + "/mediainfo", $.param({path: JStreamServer.path, names: names}, true),
+                $.proxy(this.getMediaInfoSuccess, this));
+        }
+    },
+
+    getMediaInfoSuccess: function(data) {
+        this.model.each($.proxy(function(file) {
+            var mediaInfo = data[file.get("name")];
+            if (mediaInfo && !file.get("mediaInfo")) {
+                file.set({mediaInfo: mediaInfo}, {silent: true});
+                this.renderFile(file);
+            }
         }, this));
     },
 
+    renderFile: function(file) {
+        var li = $("#" + file.id);
+
+        //do not interrupt video which is playing
+        if (li.find("video").length > 0) {
+            return;
+        }
+
+        var newLi = $($.trim(this.template({files: [file.toJSON()], contextPath: JStreamServer.contextPath})));
+        newLi.find(".ajax-loader, .mediaInfo").hide();
+        li.replaceWith(newLi);
+    },
+
     render: function() {
         $(this.el).html(this.template({files: this.model.toJSON(), contextPath: JStreamServer.contextPath}));
         $(".ajax-loader, .mediaInfo").hide(); //hide all ajax loaders and media infos
@@ -88,15 +145,26 @@ JStreamServer.DirectoryView = Backbone.View.extend({
 
         var file = this.model.get(li.get(0).id);
         var startTime = data.startTime + ",000";
-        var duration = file.get("mediaInfo").duration.replace(/\.[\d]+/g, ",000");
+        var mediaInfo = file.get("mediaInfo");
 
         //Render html5 video tag
         this.renderLiveStream("#" + file.id, data);
         li.find(".subtitles").showSubtitles({offset: startTime});
 
-        //show custom slider if this is livestream
-        if (data.sources[0].type === "application/x-mpegURL") {
-            this.setupSlider(li, startTime, duration);
+        //show custom slider if this is livestream and duration is already known
+        if (data.sources[0].type === "application/x-mpegURL" && mediaInfo) {
+            this.setupSlider(li, startTime, mediaInfo.duration.replace(/\.[\d]+/g, ",000"));
+        }
+    },
+
+    getPlayListError: function (li, jqXHR) {
+        //Hide ajax loader
+        li.find(".play-links-holder").show();
+        li.find(".ajax-loader").hide();
+
+        if (jqXHR.status === 503) {
+            var retryAfter = jqXHR.getResponseHeader("Retry-After");
+            alert("All live streams are busy. Please try again" + (retryAfter ? " in " + retryAfter + " seconds." : " later."));
         }
     },
 
@@ -137,7 +205,8 @@ JStreamServer.DirectoryView = Backbone.View.extend({
             this.removeLiveStream();
 
             //request .m3u8 playlist for specified video
-            $.getJSON(li.find("a.play").get(0).href + "&time=" + time, null, $.proxy(this.getPlayListSuccess, this, li));
+            $.getJSON(li.find("a.play").get(0).href + "&time=" + time, null, $.proxy(this.getPlayListSuccess, this, li))
+                .error($.proxy(this.getPlayListError, this, li));
         }, this);
 
         slider.slider({min: 0, max: max, value: offset, change: changeHandler});
@@ -165,7 +234,8 @@ JStreamServer.DirectoryView = Backbone.View.extend({
                     this.removeLiveStream();
 
                     //request .m3u8 playlist for specified video
-                    $.getJSON($(event.target).get(0).href, null, $.proxy(this.getPlayListSuccess, this, li));
+                    $.getJSON($(event.target).get(0).href, null, $.proxy(this.getPlayListSuccess, this, li))
+                        .error($.proxy(this.getPlayListError, this, li));
 
                     //Prevent default click behaviour and return false so click on href will not trigger default behaviour
                     event.preventDefault();
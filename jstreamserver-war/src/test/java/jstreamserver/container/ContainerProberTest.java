@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.container;
+
+import jstreamserver.ffmpeg.AudioStreamInfo;
+import jstreamserver.ffmpeg.MediaInfo;
+import jstreamserver.ffmpeg.VideoStreamInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ContainerProber}.
+ * Files are generated and contain only headers required by parsers.
+ *
+ * @author Sergey Prilukin
+ */
+public class ContainerProberTest {
+
+    private File file;
+    private ContainerProber prober = new ContainerProber();
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("container", ".tmp");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testMp4() throws Exception {
+        ByteBuffer mvhd = ByteBuffer.allocate(100);
+        mvhd.putInt(12, 1000).putInt(16, 5025000);
+
+        ByteBuffer videoTkhd = ByteBuffer.allocate(84).putInt(0, 0x7);
+        ByteBuffer videoMdhd = ByteBuffer.allocate(24).putShort(20, packLanguage("eng"));
+        ByteBuffer videoHdlr = ByteBuffer.allocate(24);
+        videoHdlr.position(8);
+        videoHdlr.put("vide".getBytes("US-ASCII"));
+        ByteBuffer avc1 = ByteBuffer.allocate(78);
+        avc1.putShort(24, (short) 1280).putShort(26, (short) 720);
+
+        ByteBuffer audioTkhd = ByteBuffer.allocate(84).putInt(0, 0x6);
+        ByteBuffer audioMdhd = ByteBuffer.allocate(24).putShort(20, packLanguage("rus"));
+        ByteBuffer audioHdlr = ByteBuffer.allocate(24);
+        audioHdlr.position(8);
+        audioHdlr.put("soun".getBytes("US-ASCII"));
+        ByteBuffer mp4a = ByteBuffer.allocate(28);
+        mp4a.putShort(16, (short) 2).putInt(24, 48000 << 16);
+
+        byte[] moov = box("moov",
+                box("mvhd", mvhd.array()),
+                track(videoTkhd, videoMdhd, videoHdlr, box("avc1", avc1.array())),
+                track(audioTkhd, audioMdhd, audioHdlr, box("mp4a", mp4a.array())));
+
+        writeFile(box("ftyp", "isom".getBytes("US-ASCII"), new byte[4]), box("mdat", new byte[1000]), moov);
+
+        MediaInfo mediaInfo = prober.probe(file);
+        assertEquals("01:23:45.00", mediaInfo.getDuration());
+        assertVideo(mediaInfo.getVideoStreams().get(0), "0", "eng", "h264", "1280x720", true);
+        assertAudio(mediaInfo.getAudioStreams().get(0), "1", "rus", "aac", "48000", "stereo", false);
+    }
+
+    @Test
+    public void testMatroska() throws Exception {
+        byte[] info = element(0x1549A966,
+                element(0x2AD7B1, 0x0F, 0x42, 0x40),
+                element(0x4489, ByteBuffer.allocate(8).putDouble(5025000d).array()));
+
+        byte[] videoTrack = element(0xAE,
+                element(0xD7, 1),
+                element(0x83, 1),
+                element(0x86, "V_MPEG4/ISO/AVC".getBytes("US-ASCII")),
+                element(0xE0, element(0xB0, 0x07, 0x80), element(0xBA, 0x04, 0x38)));
+
+        byte[] audioTrack = element(0xAE,
+                element(0xD7, 2),
+                element(0x83, 2),
+                element(0x86, "A_AC3".getBytes("US-ASCII")),
+                element(0x22B59C, "rus".getBytes("US-ASCII")),
+                element(0x88, 0),
+                element(0xE1, element(0xB5, ByteBuffer.allocate(4).putFloat(48000f).array()), element(0x9F, 6)));
+
+        byte[] subtitlesTrack = element(0xAE,
+                element(0xD7, 3),
+                element(0x83, 0x11),
+                element(0x86, "S_TEXT/UTF8".getBytes("US-ASCII")));
+
+        byte[] audioTrack2 = element(0xAE,
+                element(0xD7, 4),
+                element(0x83, 2),
+                element(0x86, "A_AAC".getBytes("US-ASCII")),
+                element(0xE1, element(0xB5, ByteBuffer.allocate(8).putDouble(44100d).array()), element(0x9F, 2)));
+
+        byte[] tracks = element(0x1654AE6B, videoTrack, audioTrack, subtitlesTrack, audioTrack2);
+
+        writeFile(element(0x1A45DFA3, element(0x4282, "matroska".getBytes("US-ASCII"))),
+                element(0x18538067, info, tracks, element(0x1F43B675, new byte[100])));
+
+        MediaInfo mediaInfo = prober.probe(file);
+        assertEquals("01:23:45.00", mediaInfo.getDuration());
+        assertEquals(1, mediaInfo.getVideoStreams().size());
+        assertVideo(mediaInfo.getVideoStreams().get(0), "0", "eng", "h264", "1920x1080", true);
+        assertEquals(2, mediaInfo.getAudioStreams().size());
+        assertAudio(mediaInfo.getAudioStreams().get(0), "1", "rus", "ac3", "48000", "5.1", false);
+        assertAudio(mediaInfo.getAudioStreams().get(1), "3", "eng", "aac", "44100", "stereo", true);
+    }
+
+    @Test
+    public void testMatroskaWithUnknownCodec() throws Exception {
+        byte[] info = element(0x1549A966, element(0x4489, ByteBuffer.allocate(4).putFloat(1000f).array()));
+        byte[] tracks = element(0x1654AE6B, element(0xAE,
+                element(0x83, 1),
+                element(0x86, "V_REAL/RV40".getBytes("US-ASCII")),
+                element(0xE0, element(0xB0, 0x02, 0x80), element(0xBA, 0x01, 0xE0))));
+
+        writeFile(element(0x1A45DFA3, new byte[0]), element(0x18538067, info, tracks));
+
+        //Such files should be probed with ffmpeg
+        assertNull(prober.probe(file));
+    }
+
+    @Test
+    public void testAvi() throws Exception {
+        ByteBuffer avih = littleEndian(56).putInt(0, 40000).putInt(16, 1000);
+
+        ByteBuffer videoStrh = littleEndian(56);
+        videoStrh.put("vidsXVID".getBytes("US-ASCII"));
+        videoStrh.putInt(20, 1).putInt(24, 25).putInt(32, 125625);
+        ByteBuffer videoStrf = littleEndian(40).putInt(0, 40).putInt(4, 720).putInt(8, 400);
+        videoStrf.position(16);
+        videoStrf.put("XVID".getBytes("US-ASCII"));
+
+        ByteBuffer audioStrh = littleEndian(56);
+        audioStrh.put("auds".getBytes("US-ASCII"));
+        ByteBuffer audioStrf = littleEndian(18);
+        audioStrf.putShort(0, (short) 0x55).putShort(2, (short) 1).putInt(4, 44100);
+
+        byte[] hdrl = list("hdrl",
+                chunk("avih", avih.array()),
+                list("strl", chunk("strh", videoStrh.array()), chunk("strf", videoStrf.array())),
+                list("strl", chunk("strh", audioStrh.array()), chunk("strf", audioStrf.array())));
+
+        ByteArrayOutputStream riff = new ByteArrayOutputStream();
+        riff.write("AVI ".getBytes("US-ASCII"));
+        riff.write(hdrl);
+        riff.write(list("movi", new byte[100]));
+        writeFile(chunk("RIFF", riff.toByteArray()));
+
+        MediaInfo mediaInfo = prober.probe(file);
+        assertEquals("01:23:45.00", mediaInfo.getDuration());
+        assertVideo(mediaInfo.getVideoStreams().get(0), "0", null, "mpeg4", "720x400", false);
+        assertAudio(mediaInfo.getAudioStreams().get(0), "1", null, "mp3", "44100", "mono", false);
+    }
+
+    @Test
+    public void testMpegTs() throws Exception {
+        byte[] pat = {0x00, 0x00, (byte) 0xB0, 0x0D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) 0xF0, 0x00, 0, 0, 0, 0};
+        byte[] pmt = {0x00, 0x02, (byte) 0xB0, 0x1D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) 0xE1, 0x00, (byte) 0xF0, 0x00,
+                0x02, (byte) 0xE1, 0x00, (byte) 0xF0, 0x00,
+                0x0F, (byte) 0xE1, 0x01, (byte) 0xF0, 0x06, 0x0A, 0x04, 'r', 'u', 's', 0x00,
+                0, 0, 0, 0};
+
+        //MPEG-2 sequence header 720x576
+        byte[] video = {0x00, 0x00, 0x01, (byte) 0xB3, 0x2D, 0x02, 0x40, 0x33};
+        //ADTS header: 48000Hz, 2 channels
+        byte[] audio = {(byte) 0xFF, (byte) 0xF1, 0x4C, (byte) 0x80, 0x00, 0x1F, (byte) 0xFC};
+
+        ByteArrayOutputStream ts = new ByteArrayOutputStream();
+        ts.write(tsPacket(0, pat));
+        ts.write(tsPacket(0x1000, pmt));
+        ts.write(tsPacket(0x100, pes(0xE0, 90000, video)));
+        ts.write(tsPacket(0x101, pes(0xC0, 90000, audio)));
+        ts.write(tsPacket(0x100, pes(0xE0, 90000 + 5025L * 90000, video)));
+        ts.write(tsPacket(0x101, pes(0xC0, 90000 + 5025L * 90000, audio)));
+        writeFile(ts.toByteArray());
+
+        MediaInfo mediaInfo = prober.probe(file);
+        assertEquals("01:23:45.00", mediaInfo.getDuration());
+        assertVideo(mediaInfo.getVideoStreams().get(0), "0", null, "mpeg2video", "720x576", false);
+        assertAudio(mediaInfo.getAudioStreams().get(0), "1", "rus", "aac", "48000", "stereo", false);
+    }
+
+    @Test
+    public void testMpegTsWithH264() throws Exception {
+        byte[] pat = {0x00, 0x00, (byte) 0xB0, 0x0D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) 0xF0, 0x00, 0, 0, 0, 0};
+        byte[] pmt = {0x00, 0x02, (byte) 0xB0, 0x12, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) 0xE1, 0x00, (byte) 0xF0, 0x00,
+                0x1B, (byte) 0xE1, 0x00, (byte) 0xF0, 0x00,
+                0, 0, 0, 0};
+
+        //Access unit delimiter and SPS of 1280x720 High profile stream
+        byte[] video = {0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0,
+                0x00, 0x00, 0x00, 0x01, 0x67, 0x64, 0x00, 0x1F, (byte) 0xAC, (byte) 0xD9, 0x40, 0x50, 0x05, (byte) 0xBB,
+                0x01, 0x10, 0x00, 0x00, 0x03, 0x00, 0x10, 0x00, 0x00, 0x03, 0x03, (byte) 0xC0, (byte) 0xF1, (byte) 0x83,
+                0x19, 0x60};
+
+        ByteArrayOutputStream ts = new ByteArrayOutputStream();
+        ts.write(tsPacket(0, pat));
+        ts.write(tsPacket(0x1000, pmt));
+        ts.write(tsPacket(0x100, pes(0xE0, 0, video)));
+        ts.write(tsPacket(0x100, pes(0xE0, 90 * 1500, video)));
+        writeFile(ts.toByteArray());
+
+        MediaInfo mediaInfo = prober.probe(file);
+        assertEquals("00:00:01.50", mediaInfo.getDuration());
+        assertVideo(mediaInfo.getVideoStreams().get(0), "0", null, "h264", "1280x720", false);
+        assertTrue(mediaInfo.getAudioStreams().isEmpty());
+    }
+
+    @Test
+    public void testUnknownFormat() throws Exception {
+        writeFile("Some text file which is not media".getBytes("US-ASCII"));
+        assertNull(prober.probe(file));
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        writeFile(new byte[] {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, (byte) 0x84});
+        assertNull(prober.probe(file));
+    }
+
+    private void assertVideo(VideoStreamInfo stream, String id, String language, String encoder,
+                             String resolution, boolean defaultStream) {
+        assertEquals(id, stream.getId());
+        assertEquals(language, stream.getLanguage());
+        assertEquals(encoder, stream.getEncoder());
+        assertEquals(resolution, stream.getResolution());
+        assertEquals(defaultStream, stream.getDefaultStream());
+    }
+
+    private void assertAudio(AudioStreamInfo stream, String id, String language, String encoder,
+                             String frequency, String channels, boolean defaultStream) {
+        assertEquals(id, stream.getId());
+        assertEquals(language, stream.getLanguage());
+        assertEquals(encoder, stream.getEncoder());
+        assertEquals(frequency, stream.getFrequency());
+        assertEquals(channels, stream.getChannels());
+        assertEquals(defaultStream, stream.getDefaultStream());
+    }
+
+    private void writeFile(byte[]... parts) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            for (byte[] part: parts) {
+                fos.write(part);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (byte[] part: parts) {
+            baos.write(part);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private static byte[] box(String type, byte[]... children) throws IOException {
+        byte[] payload = concat(children);
+        return ByteBuffer.allocate(8 + payload.length).putInt(8 + payload.length)
+                .put(type.getBytes("US-ASCII")).put(payload).array();
+    }
+
+    private static byte[] track(ByteBuffer tkhd, ByteBuffer mdhd, ByteBuffer hdlr, byte[] sampleEntry) throws IOException {
+        byte[] stsd = box("stsd", new byte[] {0, 0, 0, 0, 0, 0, 0, 1}, sampleEntry);
+        return box("trak",
+                box("tkhd", tkhd.array()),
+                box("mdia",
+                        box("mdhd", mdhd.array()),
+                        box("hdlr", hdlr.array()),
+                        box("minf", box("stbl", stsd))));
+    }
+
+    private static short packLanguage(String language) {
+        int code = 0;
+        for (char c: language.toCharArray()) {
+            code = (code << 5) | (c - 0x60);
+        }
+
+        return (short) code;
+    }
+
+    private static byte[] element(int id, int... data) throws IOException {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+
+        return element(id, new byte[][] {bytes});
+    }
+
+    private static byte[] element(int id, byte[]... children) throws IOException {
+        byte[] payload = concat(children);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        //Id with its length marker
+        boolean started = false;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int b = (id >> shift) & 0xFF;
+            if (b != 0 || started || shift == 0) {
+                baos.write(b);
+                started = true;
+            }
+        }
+
+        //Size as 4 byte variable size integer
+        baos.write(ByteBuffer.allocate(4).putInt(0x10000000 | payload.length).array());
+        baos.write(payload);
+
+        return baos.toByteArray();
+    }
+
+    private static ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] chunk(String id, byte[] data) throws IOException {
+        ByteBuffer header = littleEndian(8);
+        header.put(id.getBytes("US-ASCII")).putInt(data.length);
+
+        return concat(header.array(), data, new byte[data.length & 1]);
+    }
+
+    private static byte[] list(String type, byte[]... children) throws IOException {
+        return chunk("LIST", concat(type.getBytes("US-ASCII"), concat(children)));
+    }
+
+    private static byte[] pes(int streamId, long pts, byte[] data) throws IOException {
+        byte[] header = {0x00, 0x00, 0x01, (byte) streamId, 0x00, 0x00, (byte) 0x80, (byte) 0x80, 0x05,
+                (byte) (0x21 | ((pts >> 29) & 0x0E)),
+                (byte) (pts >> 22),
+                (byte) (((pts >> 14) & 0xFE) | 0x01),
+                (byte) (pts >> 7),
+                (byte) (((pts << 1) & 0xFE) | 0x01)};
+
+        return concat(header, data);
+    }
+
+    /*
+     * Creates TS packet with payload unit start indicator and padding in adaptation field
+     */
+    private static byte[] tsPacket(int pid, byte[] payload) {
+        byte[] packet = new byte[188];
+        packet[0] = 0x47;
+        packet[1] = (byte) (0x40 | (pid >> 8));
+        packet[2] = (byte) pid;
+
+        int stuffing = 188 - 4 - payload.length;
+        if (stuffing > 0) {
+            packet[3] = 0x30;
+            packet[4] = (byte) (stuffing - 1);
+            for (int i = 6; i < 4 + stuffing; i++) {
+                packet[i] = (byte) 0xFF;
+            }
+        } else {
+            packet[3] = 0x10;
+        }
+
+        System.arraycopy(payload, 0, packet, 4 + Math.max(stuffing, 0), payload.length);
+        return packet;
+    }
+}
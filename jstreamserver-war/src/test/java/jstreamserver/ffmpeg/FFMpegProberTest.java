@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.ffmpeg;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FFMpegProber}.
+ * Fake ffmpeg shell script is used so test is run on *nix only.
+ *
+ * @author Sergey Prilukin
+ */
+public class FFMpegProberTest {
+
+    private static final String FAKE_FFMPEG =
+            "#!/bin/sh\n" +
+            "case \"$2\" in\n" +
+            "  *slow*) exec sleep 10 ;;\n" +
+            "  *broken*) echo \"$2: Invalid data found when processing input\" 1>&2 ;;\n" +
+            "  *) echo \"Input #0, avi, from '$2':\" 1>&2\n" +
+            "     echo \"  Duration: 00:41:30.86, start: 0.000000, bitrate: 1178 kb/s\" 1>&2 ;;\n" +
+            "esac\n";
+
+    private File ffmpeg;
+    private FFMpegProber prober;
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(File.separatorChar == '/');
+
+        ffmpeg = File.createTempFile("ffmpeg", ".sh");
+        FileWriter writer = new FileWriter(ffmpeg);
+        writer.write(FAKE_FFMPEG);
+        writer.close();
+        ffmpeg.setExecutable(true);
+
+        prober = new FFMpegProber(ffmpeg.getAbsolutePath(), 2, 1000);
+    }
+
+    @After
+    public void after() throws Exception {
+        if (prober != null) {
+            prober.shutdown();
+        }
+
+        if (ffmpeg != null) {
+            ffmpeg.delete();
+        }
+    }
+
+    @Test
+    public void testResultsAreInInputOrder() throws Exception {
+        List<MediaInfo> result = prober.probe(Arrays.asList("first.avi", "broken.avi", "slow.avi", "last.avi"));
+
+        assertEquals(4, result.size());
+        assertNotNull(result.get(0));
+        assertEquals("00:41:30.86", result.get(0).getDuration());
+        assertNull(result.get(1));
+        assertNull(result.get(2));
+        assertNotNull(result.get(3));
+    }
+
+    @Test
+    public void testDestroyBeforeStart() throws Exception {
+        //Watchdog can fire before the process is started
+        FFMpegInformer informer = new FFMpegInformer();
+        informer.destroy();
+
+        long start = System.currentTimeMillis();
+        List<MediaInfo> result = informer.getInfo(Collections.singletonList("slow.avi"), ffmpeg.getAbsolutePath());
+
+        assertTrue(result.isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.ffmpeg;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link FrameMessageParser}
+ *
+ * @author Sergey Prilukin
+ */
+public class FrameMessageParserTest {
+
+    private FrameMessageParser parser = new FrameMessageParser();
+
+    @Test
+    public void testParse() throws Exception {
+        FrameMessage frameMessage = parser.parse("frame= 2713 fps= 91 q=28.0 size=    8334kB time=00:01:51.52 bitrate= 612.1kbits/s dup=1 drop=0");
+
+        assertEquals(2713, frameMessage.getFrameNumber());
+        assertEquals(91, frameMessage.getFps());
+        assertEquals(28.0, frameMessage.getQ(), 0.001);
+        assertEquals(8334, frameMessage.getSize());
+        assertEquals(111520, frameMessage.getTime());
+        assertEquals(612.1, frameMessage.getBitrate(), 0.001);
+        assertEquals(Long.valueOf(1), frameMessage.getDup());
+        assertEquals(Long.valueOf(0), frameMessage.getDrop());
+    }
+
+    @Test
+    public void testParseWithoutDupAndDrop() throws Exception {
+        FrameMessage frameMessage = parser.parse("frame=  100 fps=0.0 q=-1.0 size=     512kB time=01:02:03.4 bitrate=1000.5kbits/s    ");
+
+        assertEquals(100, frameMessage.getFrameNumber());
+        assertEquals(0, frameMessage.getFps());
+        assertEquals(-1.0, frameMessage.getQ(), 0.001);
+        assertEquals(3723400, frameMessage.getTime());
+        assertNull(frameMessage.getDup());
+        assertNull(frameMessage.getDrop());
+    }
+
+    @Test
+    public void testNotAFrameMessage() throws Exception {
+        assertNull(parser.parse("Input #0, avi, from '90210.s04e10.avi':"));
+        assertNull(parser.parse("frame=  100 fps=25 q=28.0 size=N/A time=00:00:04.00 bitrate=N/A"));
+    }
+
+    @Test
+    public void testParseTime() throws Exception {
+        assertEquals(40320, FrameMessageParser.parseTime("00:00:40.32"));
+        assertEquals(3723004, FrameMessageParser.parseTime("01:02:03.004"));
+        assertEquals(60000, FrameMessageParser.parseTime("00:01:00"));
+        assertEquals(-1, FrameMessageParser.parseTime("00:01"));
+        assertEquals(-1, FrameMessageParser.parseTime("aa:bb:cc.dd"));
+    }
+
+    @Test
+    public void testParseStartTime() throws Exception {
+        assertEquals(3723004, FrameMessageParser.parseStartTime("01:02:03.004"));
+        assertEquals(90000, FrameMessageParser.parseStartTime("90"));
+        assertEquals(90500, FrameMessageParser.parseStartTime("90.5"));
+        assertEquals(-1, FrameMessageParser.parseStartTime("00:01"));
+        assertEquals(-1, FrameMessageParser.parseStartTime("-5"));
+        assertEquals(-1, FrameMessageParser.parseStartTime(".5"));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link MasterPlayList}
+ *
+ * @author Sergey Prilukin
+ */
+public class MasterPlayListTest {
+
+    @Test
+    public void testCreate() throws Exception {
+        MasterPlayList masterPlayList = MasterPlayList.create(Arrays.asList(
+                new MasterPlayList.Variant("/playlist/0/480p", 600000, "480x320"),
+                new MasterPlayList.Variant("/playlist/0/audio", 64000, null)));
+
+        String expected =
+                "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=600000,RESOLUTION=480x320\n" +
+                "/playlist/0/480p\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=64000\n" +
+                "/playlist/0/audio\n";
+
+        assertEquals(expected, IOUtils.toString(masterPlayList.getInputStream(), PlayList.ENCODING));
+        assertEquals(expected.length(), masterPlayList.getContentLength());
+        assertEquals(2, masterPlayList.getVariants().size());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PlayList}
+ *
+ * @author Sergey Prilukin
+ */
+public class PlayListTest {
+
+    private static final String PLAYLIST =
+            "#EXTM3U\n" +
+            "#EXT-X-TARGETDURATION:10\n" +
+            "#EXT-X-MEDIA-SEQUENCE:3\n" +
+            "#EXTINF:10,\n" +
+            "/123/livestream/stream0-3.ts\n" +
+            "#EXTINF:9.5,\n" +
+            "/123/livestream/stream0-4.ts\n";
+
+    @Test
+    public void testParse() throws Exception {
+        byte[] content = PLAYLIST.getBytes(PlayList.ENCODING);
+        PlayList playList = PlayList.parse(content);
+
+        assertEquals(10, playList.getTargetDuration());
+        assertEquals(3, playList.getMediaSequence());
+        assertFalse(playList.isEndList());
+        assertEquals(2, playList.getSegments().size());
+        assertEquals("/123/livestream/stream0-4.ts", playList.getSegments().get(1).getUri());
+        assertEquals(9.5, playList.getSegments().get(1).getDuration(), 0.001);
+        assertTrue(playList.hasContent(content));
+        assertArrayEquals(content, IOUtils.toByteArray(playList.getInputStream()));
+    }
+
+    @Test
+    public void testParseEndList() throws Exception {
+        PlayList playList = PlayList.parse((PLAYLIST + "#EXT-X-ENDLIST\n").getBytes(PlayList.ENCODING));
+        assertTrue(playList.isEndList());
+    }
+
+    @Test
+    public void testIncompletePlayList() throws Exception {
+        assertNull(PlayList.parse(new byte[0]));
+        assertNull(PlayList.parse("#EXTM".getBytes(PlayList.ENCODING)));
+        assertNull(PlayList.parse(PLAYLIST.substring(0, PLAYLIST.length() - 5).getBytes(PlayList.ENCODING)));
+        assertNull(PlayList.parse((PLAYLIST + "#EXTINF:10,\n").getBytes(PlayList.ENCODING)));
+    }
+
+    @Test
+    public void testBlockingReload() throws Exception {
+        PlayList playList = PlayList.parse(PLAYLIST.getBytes(PlayList.ENCODING));
+        assertEquals(4, playList.getLastMediaSequence());
+
+        PlayList blockingPlayList = playList.withBlockingReload();
+        String content = IOUtils.toString(blockingPlayList.getInputStream(), PlayList.ENCODING);
+        assertEquals(PLAYLIST.replaceFirst("\n", "\n" + PlayList.SERVER_CONTROL_TAG + "\n"), content);
+        assertEquals(4, blockingPlayList.getLastMediaSequence());
+        assertEquals(playList.getSegments().size(), PlayList.parse(content.getBytes(PlayList.ENCODING)).getSegments().size());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PlayListWaiters}
+ *
+ * @author Sergey Prilukin
+ */
+public class PlayListWaitersTest {
+
+    private static PlayList createPlayList(long mediaSequence, boolean endList) {
+        return PlayList.create(10, mediaSequence, Arrays.asList(new PlayList.Segment("stream-" + mediaSequence + ".ts", 10)), endList);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        PlayListWaiters waiters = new PlayListWaiters();
+        waiters.publish(createPlayList(3, false));
+
+        long start = System.currentTimeMillis();
+        assertTrue(waiters.await(4, 200));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void testPublishedSegment() throws Exception {
+        PlayListWaiters waiters = new PlayListWaiters();
+        waiters.publish(createPlayList(3, false));
+
+        long start = System.currentTimeMillis();
+        assertTrue(waiters.await(3, 10000));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        final PlayListWaiters waiters = new PlayListWaiters();
+        waiters.publish(createPlayList(3, false));
+
+        final CountDownLatch released = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waiters.await(4, 10000);
+                released.countDown();
+            }
+        });
+        waiter.start();
+
+        assertFalse(released.await(100, TimeUnit.MILLISECONDS));
+        waiters.publish(createPlayList(4, false));
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        PlayListWaiters waiters = new PlayListWaiters();
+        waiters.close();
+
+        long start = System.currentTimeMillis();
+        assertTrue(waiters.await(4, 10000));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testPermits() throws Exception {
+        final PlayListWaiters waiters = new PlayListWaiters();
+        Semaphore permits = new Semaphore(1);
+        waiters.setPermits(permits);
+        waiters.publish(createPlayList(3, false));
+
+        final CountDownLatch released = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waiters.await(4, 10000);
+                released.countDown();
+            }
+        });
+        waiter.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (permits.availablePermits() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, permits.availablePermits());
+
+        long start = System.currentTimeMillis();
+        assertFalse(waiters.await(4, 10000));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+
+        waiters.publish(createPlayList(4, true));
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(1, permits.availablePermits());
+    }
+}
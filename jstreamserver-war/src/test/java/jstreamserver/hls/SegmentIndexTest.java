@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SegmentIndex}
+ *
+ * @author Sergey Prilukin
+ */
+public class SegmentIndexTest {
+
+    @Test
+    public void testMerge() throws Exception {
+        //Transcoding started from the beginning and interrupted
+        PlayList index = SegmentIndex.merge(null, createPlayList(0, 3, false), "segment", false);
+        assertEquals(3, index.getSegments().size());
+        assertEquals("segment-20000.ts", index.getSegments().get(2).getUri());
+
+        //Transcoding started after the gap, reached the end of the media
+        index = SegmentIndex.merge(index, createPlayList(60000, 2, true), "segment", true);
+        assertTrue(index.isEndList());
+
+        //Transcoding which fills the gap
+        index = SegmentIndex.merge(index, createPlayList(30000, 3, false), "segment", false);
+
+        List<PlayList.Segment> segments = index.getSegments();
+        assertEquals(8, segments.size());
+        assertTrue(segments.get(0).isDiscontinuity());
+        assertFalse(segments.get(2).isDiscontinuity());
+        assertTrue(segments.get(3).isDiscontinuity());
+        assertEquals(50000, SegmentIndex.getPosition(segments.get(5)));
+        assertTrue(segments.get(6).isDiscontinuity());
+        assertEquals(60000, SegmentIndex.getPosition(segments.get(6)));
+
+        //Segments which are already stored or overlap stored ones are not added
+        assertSame(index, SegmentIndex.merge(index, createPlayList(30000, 3, false), "segment", false));
+        assertSame(index, SegmentIndex.merge(index, createPlayList(25000, 1, false), "segment", false));
+    }
+
+    @Test
+    public void testCoveredSegments() throws Exception {
+        PlayList index = SegmentIndex.merge(null, createPlayList(0, 3, false), "segment", false);
+        index = SegmentIndex.merge(index, createPlayList(40000, 2, true), "segment", true);
+
+        List<PlayList.Segment> segments = SegmentIndex.getCoveredSegments(index, 15000);
+        assertEquals(2, segments.size());
+        assertEquals(10000, SegmentIndex.getPosition(segments.get(0)));
+        assertEquals(30000, SegmentIndex.getEnd(segments.get(1)));
+        assertFalse(SegmentIndex.isEndOfMedia(index, segments.get(1)));
+
+        assertTrue(SegmentIndex.getCoveredSegments(index, 35000).isEmpty());
+
+        segments = SegmentIndex.getCoveredSegments(index, 40000);
+        assertEquals(2, segments.size());
+        assertTrue(SegmentIndex.isEndOfMedia(index, segments.get(1)));
+
+        assertTrue(SegmentIndex.getCoveredSegments(index, 60000).isEmpty());
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        PlayList index = SegmentIndex.merge(null, createPlayList(0, 1, false), "segment", false);
+        index = SegmentIndex.merge(index, createPlayList(10000, 1, false), "segment", false);
+
+        byte[] content = new byte[index.getContentLength()];
+        index.getInputStream().read(content);
+        PlayList parsed = PlayList.parse(content);
+
+        assertTrue(parsed.getSegments().get(1).isDiscontinuity());
+        assertNull(SegmentIndex.merge(null, createPlayList(0, 0, false), "segment", false));
+    }
+
+    private PlayList createPlayList(long startPosition, int count, boolean endList) {
+        List<PlayList.Segment> segments = new ArrayList<PlayList.Segment>();
+        for (int i = 0; i < count; i++) {
+            segments.add(new PlayList.Segment(TsSegmenter.getSegmentFileName("/123/livestream/stream0", startPosition + i * 10000), 10));
+        }
+
+        return PlayList.create(10, 1, segments, endList);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.hls;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TsSegmenter}
+ *
+ * @author Sergey Prilukin
+ */
+public class TsSegmenterTest {
+
+    private static final int VIDEO_PID = 0x100;
+    private static final int FRAME_DURATION = 3600;
+
+    private File dir;
+    private List<PlayList> playLists = new ArrayList<PlayList>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("tssegmenter", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSegment() throws Exception {
+        TsSegmenter segmenter = new TsSegmenter(new File(dir, "stream0").getPath(), new File(dir, "stream0.m3u8").getPath(),
+                "/123/livestream/stream0", 2, 2, new PlayListListener() {
+                    @Override
+                    public void onPlayListUpdated(PlayList playList) {
+                        playLists.add(playList);
+                    }
+                });
+
+        //6 seconds of 25 fps video with key frame every second
+        segmenter.segment(new ByteArrayInputStream(createStream(150, 25)));
+
+        assertEquals(3, playLists.size());
+        assertFalse(playLists.get(0).isEndList());
+        assertEquals(1, playLists.get(0).getSegments().size());
+        assertEquals(2.0, playLists.get(0).getSegments().get(0).getDuration(), 0.001);
+
+        PlayList playList = playLists.get(2);
+        assertTrue(playList.isEndList());
+        assertEquals(2, playList.getMediaSequence());
+        assertEquals(2, playList.getSegments().size());
+        assertEquals("/123/livestream/stream0-2.ts", playList.getSegments().get(0).getUri());
+        assertEquals(1.96, playList.getSegments().get(1).getDuration(), 0.001);
+
+        //Segment which has left the window is removed
+        assertFalse(new File(dir, "stream0-1.ts").exists());
+
+        //Segments are cut before key frames and start with PAT and PMT
+        byte[] segment = FileUtils.readFileToByteArray(new File(dir, "stream0-2.ts"));
+        assertEquals(52 * TsSegmenter.PACKET_SIZE, segment.length);
+        assertEquals(0, getPid(segment, 0));
+        assertEquals(0x1000, getPid(segment, 1));
+        assertEquals(VIDEO_PID, getPid(segment, 2));
+        assertEquals(0x40, segment[2 * TsSegmenter.PACKET_SIZE + 5] & 0x40);
+
+        assertTrue(playList.hasContent(FileUtils.readFileToByteArray(new File(dir, "stream0.m3u8"))));
+    }
+
+    @Test
+    public void testResynchronization() throws Exception {
+        TsSegmenter segmenter = new TsSegmenter(new File(dir, "stream1").getPath(), new File(dir, "stream1.m3u8").getPath(),
+                "/stream1", 2, 0, null);
+
+        byte[] stream = createStream(50, 25);
+        ByteArrayOutputStream broken = new ByteArrayOutputStream();
+        broken.write(new byte[] {1, 2, 3});
+        broken.write(stream);
+        segmenter.segment(new ByteArrayInputStream(broken.toByteArray()));
+
+        //PAT and PMT are not known yet when the first segment is started
+        assertEquals(stream.length, new File(dir, "stream1-1.ts").length());
+        assertTrue(PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream1.m3u8"))).isEndList());
+    }
+
+    @Test
+    public void testPositionNumbering() throws Exception {
+        TsSegmenter segmenter = new TsSegmenter(new File(dir, "segment").getPath(), new File(dir, "stream2.m3u8").getPath(),
+                "/stream2", 2, 0, 60000, null);
+
+        segmenter.segment(new ByteArrayInputStream(createStream(150, 25)));
+
+        PlayList playList = PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream2.m3u8")));
+        assertEquals(3, playList.getSegments().size());
+        assertEquals("/stream2-62000.ts", playList.getSegments().get(1).getUri());
+        assertEquals(64000, TsSegmenter.getSegmentNumber(playList.getSegments().get(2).getUri()));
+
+        assertTrue(new File(dir, "segment-60000.ts").exists());
+        assertTrue(new File(dir, "segment-64000.ts").exists());
+        for (String name: dir.list()) {
+            assertFalse(name.endsWith(TsSegmenter.TEMP_EXTENSION));
+        }
+    }
+
+    @Test
+    public void testConcurrentPositionNumbering() throws Exception {
+        TsSegmenter first = new TsSegmenter(new File(dir, "segment").getPath(), new File(dir, "stream4.m3u8").getPath(),
+                "/stream4", 2, 0, 60000, null);
+        TsSegmenter second = new TsSegmenter(new File(dir, "segment").getPath(), new File(dir, "stream5.m3u8").getPath(),
+                "/stream5", 2, 0, 60000, null);
+
+        //Both transcodings write the same segments to the same folder at the same time
+        byte[] stream = createStream(150, 25);
+        for (int offset = 0; offset < stream.length; offset += 1000) {
+            first.write(stream, offset, Math.min(1000, stream.length - offset));
+            second.write(stream, offset, Math.min(1000, stream.length - offset));
+        }
+        first.finish();
+        second.finish();
+
+        PlayList firstPlayList = PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream4.m3u8")));
+        PlayList secondPlayList = PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream5.m3u8")));
+        assertEquals(3, firstPlayList.getSegments().size());
+        assertEquals(3, secondPlayList.getSegments().size());
+
+        for (int i = 0; i < 3; i++) {
+            long firstNumber = TsSegmenter.getSegmentNumber(firstPlayList.getSegments().get(i).getUri());
+            long secondNumber = TsSegmenter.getSegmentNumber(secondPlayList.getSegments().get(i).getUri());
+            assertFalse(firstNumber == secondNumber);
+            assertTrue(new File(dir, TsSegmenter.getSegmentFileName("segment", firstNumber)).length() > 0);
+            assertTrue(new File(dir, TsSegmenter.getSegmentFileName("segment", secondNumber)).length() > 0);
+        }
+    }
+
+    @Test
+    public void testWriteParts() throws Exception {
+        TsSegmenter segmenter = new TsSegmenter(new File(dir, "stream3").getPath(), new File(dir, "stream3.m3u8").getPath(),
+                "/stream3", 2, 0, null);
+
+        //Parts end in the middle of packets
+        byte[] stream = createStream(150, 25);
+        for (int offset = 0; offset < stream.length; offset += 100) {
+            segmenter.write(stream, offset, Math.min(100, stream.length - offset));
+        }
+        segmenter.finish();
+        segmenter.close();
+
+        PlayList playList = PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream3.m3u8")));
+        assertEquals(3, playList.getSegments().size());
+        assertTrue(playList.isEndList());
+        assertEquals(2.0, playList.getSegments().get(0).getDuration(), 0.001);
+    }
+
+    @Test
+    public void testSegmentBuffer() throws Exception {
+        SegmentBuffer segmentBuffer = new SegmentBuffer(2);
+        TsSegmenter segmenter = new TsSegmenter(new File(dir, "stream4").getPath(), new File(dir, "stream4.m3u8").getPath(),
+                "/stream4", 2, 0, -1, null, segmentBuffer);
+
+        segmenter.segment(new ByteArrayInputStream(createStream(150, 25)));
+
+        //Window is limited by the buffer, so every listed segment can be served
+        PlayList playList = PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream4.m3u8")));
+        assertEquals(2, playList.getSegments().size());
+        assertEquals("/stream4-2.ts", playList.getSegments().get(0).getUri());
+
+        assertNull(segmentBuffer.get("stream4-1.ts"));
+        assertEquals(52 * TsSegmenter.PACKET_SIZE, segmentBuffer.get("stream4-2.ts").getData().length);
+        assertNotNull(segmentBuffer.get("stream4-3.ts"));
+
+        assertFalse(new File(dir, "stream4-2.ts").exists());
+    }
+
+    @Test
+    public void testStartupSegments() throws Exception {
+        TsSegmenter segmenter = new TsSegmenter(new File(dir, "stream5").getPath(), new File(dir, "stream5.m3u8").getPath(),
+                "/stream5", 4, 0, null);
+        segmenter.setStartupSegments(1, 2);
+
+        segmenter.segment(new ByteArrayInputStream(createStream(150, 25)));
+
+        //Two startup segments, then duration is doubled until the end of the stream
+        PlayList playList = PlayList.parse(FileUtils.readFileToByteArray(new File(dir, "stream5.m3u8")));
+        assertEquals(4, playList.getSegments().size());
+        assertEquals(1.0, playList.getSegments().get(0).getDuration(), 0.001);
+        assertEquals(1.0, playList.getSegments().get(1).getDuration(), 0.001);
+        assertEquals(2.0, playList.getSegments().get(2).getDuration(), 0.001);
+        assertEquals(4, playList.getTargetDuration());
+    }
+
+    private int getPid(byte[] data, int packetIndex) {
+        int offset = packetIndex * TsSegmenter.PACKET_SIZE;
+        return ((data[offset + 1] & 0x1F) << 8) | (data[offset + 2] & 0xFF);
+    }
+
+    private byte[] createStream(int frames, int keyFrameInterval) throws IOException {
+        byte[] pat = {0x00, 0x00, (byte) 0xB0, 0x0D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) 0xF0, 0x00, 0, 0, 0, 0};
+        byte[] pmt = {0x00, 0x02, (byte) 0xB0, 0x12, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) 0xE1, 0x00, (byte) 0xF0, 0x00,
+                0x1B, (byte) 0xE1, 0x00, (byte) 0xF0, 0x00,
+                0, 0, 0, 0};
+
+        ByteArrayOutputStream ts = new ByteArrayOutputStream();
+        ts.write(tsPacket(0, pat, false));
+        ts.write(tsPacket(0x1000, pmt, false));
+
+        for (int i = 0; i < frames; i++) {
+            ts.write(tsPacket(VIDEO_PID, pes(0xE0, 90000 + (long) i * FRAME_DURATION), i % keyFrameInterval == 0));
+        }
+
+        return ts.toByteArray();
+    }
+
+    private byte[] pes(int streamId, long pts) {
+        return new byte[] {0x00, 0x00, 0x01, (byte) streamId, 0x00, 0x00, (byte) 0x80, (byte) 0x80, 0x05,
+                (byte) (0x21 | ((pts >> 29) & 0x0E)),
+                (byte) (pts >> 22),
+                (byte) (((pts >> 14) & 0xFE) | 0x01),
+                (byte) (pts >> 7),
+                (byte) (((pts << 1) & 0xFE) | 0x01)};
+    }
+
+    private byte[] tsPacket(int pid, byte[] payload, boolean randomAccess) {
+        byte[] packet = new byte[TsSegmenter.PACKET_SIZE];
+        packet[0] = TsSegmenter.SYNC_BYTE;
+        packet[1] = (byte) (0x40 | (pid >> 8));
+        packet[2] = (byte) pid;
+
+        int stuffing = TsSegmenter.PACKET_SIZE - 4 - payload.length;
+        packet[3] = 0x30;
+        packet[4] = (byte) (stuffing - 1);
+        packet[5] = (byte) (randomAccess ? 0x40 : 0x00);
+        for (int i = 6; i < 4 + stuffing; i++) {
+            packet[i] = (byte) 0xFF;
+        }
+
+        System.arraycopy(payload, 0, packet, 4 + stuffing, payload.length);
+        return packet;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.services;
+
+import jstreamserver.hls.PlayList;
+import jstreamserver.utils.Config;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.unitils.UnitilsJUnit4;
+import org.unitils.inject.annotation.InjectInto;
+import org.unitils.inject.annotation.TestedObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SegmentCacheServiceImpl}
+ *
+ * @author Sergey Prilukin
+ */
+public class SegmentCacheServiceImplTest extends UnitilsJUnit4 {
+
+    private static final int SEGMENT_SIZE = 600 * 1024;
+
+    @TestedObject
+    private SegmentCacheServiceImpl segmentCacheService;
+
+    @InjectInto(property = "configReader")
+    private Config config = new Config();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("segmentcache", "");
+        dir.delete();
+        dir.mkdirs();
+
+        config.setSegmentCacheFolder(new File(dir, "cache").getPath());
+        config.setSegmentCacheSize(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testComplete() throws Exception {
+        TranscodeSessionKey key = createKey("movie.avi", null);
+
+        File folder = segmentCacheService.acquire(key);
+        assertNotNull(folder);
+        assertNull(segmentCacheService.getPlayList(key));
+
+        writeSegments(folder, 2);
+        segmentCacheService.update(key, createPlayList(1, false));
+        assertFalse(segmentCacheService.getPlayList(key).isEndList());
+
+        segmentCacheService.complete(key, createPlayList(2, true));
+        segmentCacheService.release(key);
+
+        //Start time does not matter
+        PlayList playList = segmentCacheService.getPlayList(createKey("movie.avi", "00:10:00"));
+        assertNotNull(playList);
+        assertTrue(playList.isEndList());
+        assertEquals(2, playList.getSegments().size());
+        assertEquals("segment-10000.ts", playList.getSegments().get(1).getUri());
+        assertEquals(9.5, playList.getSegments().get(1).getDuration(), 0.001);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        TranscodeSessionKey first = createKey("first.avi", null);
+        TranscodeSessionKey second = createKey("second.avi", null);
+        TranscodeSessionKey third = createKey("third.avi", null);
+
+        for (TranscodeSessionKey key: new TranscodeSessionKey[] {first, second}) {
+            writeSegments(segmentCacheService.acquire(key), 1);
+            segmentCacheService.complete(key, createPlayList(1, true));
+            segmentCacheService.release(key);
+        }
+
+        //First title is used again so second one becomes least recently used
+        segmentCacheService.acquire(first);
+        segmentCacheService.release(first);
+
+        //Second title is evicted to make room for the third one
+        File thirdFolder = segmentCacheService.acquire(third);
+        writeSegments(thirdFolder, 2);
+        segmentCacheService.complete(third, createPlayList(2, true));
+
+        assertNotNull(segmentCacheService.getPlayList(first));
+        assertNull(segmentCacheService.getPlayList(second));
+        assertNotNull(segmentCacheService.getPlayList(third));
+
+        segmentCacheService.release(third);
+    }
+
+    @Test
+    public void testEvictWhileTranscoding() throws Exception {
+        TranscodeSessionKey first = createKey("first.avi", null);
+        TranscodeSessionKey second = createKey("second.avi", null);
+
+        writeSegments(segmentCacheService.acquire(first), 2);
+        segmentCacheService.complete(first, createPlayList(2, true));
+        segmentCacheService.release(first);
+
+        //Segments of the running transcoding are counted as soon as they are indexed
+        writeSegments(segmentCacheService.acquire(second), 2);
+        segmentCacheService.update(second, createPlayList(2, false));
+
+        assertNull(segmentCacheService.getPlayList(first));
+        assertEquals(1, segmentCacheService.getEvictionCount());
+        assertEquals(1, new File(dir, "cache").list().length);
+        assertEquals(2, segmentCacheService.getPlayList(second).getSegments().size());
+
+        //Index is written when the title is released
+        segmentCacheService.release(second);
+        assertEquals(2, segmentCacheService.getPlayList(second).getSegments().size());
+    }
+
+    @Test
+    public void testRemoveEvictedOnLoad() throws Exception {
+        //Folder of the title evicted by previous run of the server
+        File evicted = new File(new File(dir, "cache"), "title.1" + SegmentCacheServiceImpl.EVICTED_SUFFIX);
+        writeSegments(evicted, 2);
+
+        TranscodeSessionKey key = createKey("movie.avi", null);
+        writeSegments(segmentCacheService.acquire(key), 2);
+        segmentCacheService.complete(key, createPlayList(2, true));
+
+        assertFalse(evicted.exists());
+        assertEquals(0, segmentCacheService.getEvictionCount());
+        assertNotNull(segmentCacheService.getPlayList(key));
+
+        segmentCacheService.release(key);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        config.setSegmentCacheFolder("");
+        assertNull(segmentCacheService.acquire(createKey("movie.avi", null)));
+    }
+
+    private TranscodeSessionKey createKey(String name, String startTime) throws Exception {
+        File file = new File(dir, name);
+        file.createNewFile();
+        return new TranscodeSessionKey(file, startTime, null, "-f mpegts");
+    }
+
+    private void writeSegments(File folder, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            FileUtils.writeByteArrayToFile(new File(folder, "segment-" + i * 10000 + ".ts"), new byte[SEGMENT_SIZE]);
+        }
+    }
+
+    private PlayList createPlayList(int count, boolean endList) {
+        List<PlayList.Segment> segments = new ArrayList<PlayList.Segment>();
+        for (int i = 0; i < count; i++) {
+            segments.add(new PlayList.Segment("/123/livestream/stream0-" + i * 10000 + ".ts", i == 1 ? 9.5 : 10));
+        }
+
+        return PlayList.create(10, 1, segments, endList);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link Histogram}
+ *
+ * @author Sergey Prilukin
+ */
+public class HistogramTest {
+
+    @Test
+    public void testCumulativeBuckets() throws Exception {
+        Histogram histogram = new Histogram(1, 5);
+        histogram.record(0.5);
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(10);
+
+        assertEquals(4, histogram.getCount());
+        assertEquals(14.5, histogram.getSum(), 0.001);
+
+        Map<String, Long> buckets = histogram.getBuckets();
+        assertEquals(3, buckets.size());
+        assertEquals(Long.valueOf(2), buckets.get("1.0"));
+        assertEquals(Long.valueOf(3), buckets.get("5.0"));
+        assertEquals(Long.valueOf(4), buckets.get(Histogram.INFINITY_BOUND));
+    }
+}
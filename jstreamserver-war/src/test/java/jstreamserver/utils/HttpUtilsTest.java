@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link HttpUtils}
+ *
+ * @author Sergey Prilukin
+ */
+public class HttpUtilsTest {
+
+    private static final long FILE_LENGTH = 5L * 1024 * 1024 * 1024;
+
+    @Test
+    public void testClosedRangeAbove2GB() throws Exception {
+        List<long[]> ranges = HttpUtils.parseRanges("bytes=3000000000-3000000999", FILE_LENGTH);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[] {3000000000L, 3000000999L}, ranges.get(0));
+    }
+
+    @Test
+    public void testOpenEndedRange() throws Exception {
+        List<long[]> ranges = HttpUtils.parseRanges("bytes=4294967296-", FILE_LENGTH);
+        assertArrayEquals(new long[] {4294967296L, FILE_LENGTH - 1}, ranges.get(0));
+    }
+
+    @Test
+    public void testSuffixRange() throws Exception {
+        List<long[]> ranges = HttpUtils.parseRanges("bytes=-500", FILE_LENGTH);
+        assertArrayEquals(new long[] {FILE_LENGTH - 500, FILE_LENGTH - 1}, ranges.get(0));
+
+        ranges = HttpUtils.parseRanges("bytes=-500", 100);
+        assertArrayEquals(new long[] {0, 99}, ranges.get(0));
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        List<long[]> ranges = HttpUtils.parseRanges("bytes=0-99, 200-299,-10", 1000);
+        assertEquals(3, ranges.size());
+        assertArrayEquals(new long[] {0, 99}, ranges.get(0));
+        assertArrayEquals(new long[] {200, 299}, ranges.get(1));
+        assertArrayEquals(new long[] {990, 999}, ranges.get(2));
+    }
+
+    @Test
+    public void testOverlappingRangesAreMerged() throws Exception {
+        List<long[]> ranges = HttpUtils.parseRanges("bytes=500-599,0-,0-,-10", 1000);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[] {0, 999}, ranges.get(0));
+
+        ranges = HttpUtils.parseRanges("bytes=200-299,0-99,100-149,250-400", 1000);
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[] {0, 149}, ranges.get(0));
+        assertArrayEquals(new long[] {200, 400}, ranges.get(1));
+    }
+
+    @Test
+    public void testTooManyRangesAreIgnored() throws Exception {
+        StringBuilder range = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= HttpUtils.MAX_RANGES; i++) {
+            range.append(",").append(i * 2).append("-").append(i * 2);
+        }
+
+        assertNull(HttpUtils.parseRanges(range.toString(), 1000));
+    }
+
+    @Test
+    public void testEndIsTruncatedToFileLength() throws Exception {
+        List<long[]> ranges = HttpUtils.parseRanges("bytes=900-2000", 1000);
+        assertArrayEquals(new long[] {900, 999}, ranges.get(0));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        assertTrue(HttpUtils.parseRanges("bytes=1000-", 1000).isEmpty());
+        assertTrue(HttpUtils.parseRanges("bytes=-0", 1000).isEmpty());
+    }
+
+    @Test
+    public void testETagMatches() throws Exception {
+        assertTrue(HttpUtils.eTagMatches("\"a-b-c\"", "\"a-b-c\""));
+        assertTrue(HttpUtils.eTagMatches("\"x\", W/\"a-b-c\"", "\"a-b-c\""));
+        assertTrue(HttpUtils.eTagMatches("*", "\"a-b-c\""));
+        assertFalse(HttpUtils.eTagMatches("\"a-b-d\"", "\"a-b-c\""));
+    }
+
+    @Test
+    public void testMalformedRangeIsIgnored() throws Exception {
+        assertNull(HttpUtils.parseRanges(null, 1000));
+        assertNull(HttpUtils.parseRanges("items=0-10", 1000));
+        assertNull(HttpUtils.parseRanges("bytes=10-5", 1000));
+        assertNull(HttpUtils.parseRanges("bytes=abc-", 1000));
+    }
+}
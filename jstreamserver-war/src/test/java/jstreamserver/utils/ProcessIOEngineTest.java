@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for {@link ProcessIOEngine}
+ *
+ * @author Sergey Prilukin
+ */
+public class ProcessIOEngineTest {
+
+    private ProcessIOEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(!System.getProperty("os.name").startsWith("Windows"));
+        engine = new ProcessIOEngine(1);
+    }
+
+    @Test
+    public void testOrderedDelivery() throws Exception {
+        RuntimeExecutor process = new RuntimeExecutor();
+        process.execute("seq", new String[] {"1", "100000"});
+
+        RecordingHandler handler = new RecordingHandler(false);
+        engine.read(process.getInputStream(), process, handler);
+
+        handler.awaitFinish();
+        assertEquals(getSequence(100000), handler.getData());
+        assertEquals(1, handler.ends.get());
+        assertEquals(0, handler.errors.get());
+    }
+
+    @Test
+    public void testHandlerError() throws Exception {
+        RuntimeExecutor process = new RuntimeExecutor();
+        process.execute("seq", new String[] {"1", "1000000"});
+
+        RecordingHandler handler = new RecordingHandler(true);
+        engine.read(process.getInputStream(), process, handler);
+
+        //Closed stream finishes the process
+        handler.awaitFinish();
+        assertEquals(0, handler.ends.get());
+        assertEquals(1, handler.errors.get());
+        assertEquals(1, handler.dataCalls.get());
+    }
+
+    @Test
+    public void testPausedStreamOfFinishedProcess() throws Exception {
+        RuntimeExecutor process = new RuntimeExecutor();
+        process.execute("sh", new String[] {"-c", "sleep 1; seq 1 1000"});
+
+        RecordingHandler handler = new RecordingHandler(false);
+        ProcessIOEngine.Pausable pausable = engine.read(process.getInputStream(), process, handler);
+        pausable.setPaused(true);
+
+        process.waitFor();
+        handler.awaitFinish();
+        assertTrue(pausable.isPaused());
+        assertEquals(getSequence(1000), handler.getData());
+        assertEquals(1, handler.ends.get());
+        assertEquals(0, handler.errors.get());
+    }
+
+    private static String getSequence(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            sb.append(i).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    private static class RecordingHandler implements ProcessIOEngine.StreamHandler {
+        private final boolean failing;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final AtomicInteger dataCalls = new AtomicInteger();
+        private final AtomicInteger ends = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        RecordingHandler(boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void onData(byte[] buffer, int offset, int length) throws IOException {
+            dataCalls.incrementAndGet();
+            if (failing) {
+                throw new IOException("Handler failed");
+            }
+
+            synchronized (data) {
+                data.write(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            ends.incrementAndGet();
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(IOException e) {
+            errors.incrementAndGet();
+            finished.countDown();
+        }
+
+        public void awaitFinish() throws InterruptedException {
+            assertTrue(finished.await(30, TimeUnit.SECONDS));
+
+            //Handler should not be notified again
+            Thread.sleep(3 * ProcessIOEngine.LIVENESS_CHECK_INTERVAL);
+        }
+
+        public String getData() throws IOException {
+            synchronized (data) {
+                return data.toString("US-ASCII");
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2012 by Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package jstreamserver.web;
+
+import jstreamserver.dto.LiveStreamStats;
+import jstreamserver.dto.ServerStats;
+import jstreamserver.utils.Histogram;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for Prometheus text format of {@link StatsController}
+ *
+ * @author Sergey Prilukin
+ */
+public class StatsControllerTest {
+
+    private static final Pattern TYPE_PATTERN = Pattern.compile("^# TYPE (\\S+) (counter|gauge|histogram)$", Pattern.MULTILINE);
+
+    @Test
+    public void testFormatPrometheus() throws Exception {
+        String text = StatsController.formatPrometheus(createStats());
+
+        assertTrue(text.startsWith("# TYPE jstreamserver_active_live_streams gauge\njstreamserver_active_live_streams 1\n"));
+        assertTrue(text.contains("# TYPE jstreamserver_transcoding_exits_total counter\n"
+                + "jstreamserver_transcoding_exits_total{code=\"1\"} 2\n"));
+        assertTrue(text.contains("jstreamserver_stream_viewers{stream=\"3\",rendition=\"480p \\\"low\\\" \\\\ 1\"} 4\n"));
+
+        //Samples of the family follow its type line
+        assertEquals(1, count(text, "# TYPE jstreamserver_stream_segment_latency_seconds histogram\n"));
+        assertTrue(text.contains("# TYPE jstreamserver_stream_segment_latency_seconds histogram\n"
+                + "jstreamserver_stream_segment_latency_seconds_bucket{stream=\"3\",rendition=\"480p \\\"low\\\" \\\\ 1\",le=\"1.0\"} 1\n"
+                + "jstreamserver_stream_segment_latency_seconds_bucket{stream=\"3\",rendition=\"480p \\\"low\\\" \\\\ 1\",le=\"+Inf\"} 2\n"
+                + "jstreamserver_stream_segment_latency_seconds_sum{stream=\"3\",rendition=\"480p \\\"low\\\" \\\\ 1\"} 3.5\n"
+                + "jstreamserver_stream_segment_latency_seconds_count{stream=\"3\",rendition=\"480p \\\"low\\\" \\\\ 1\"} 2\n"));
+
+        Matcher matcher = TYPE_PATTERN.matcher(text);
+        int families = 0;
+        while (matcher.find()) {
+            families++;
+            assertEquals(matcher.group(1), 1, count(text, "# TYPE " + matcher.group(1) + " "));
+            assertEquals(matcher.group(1), "counter".equals(matcher.group(2)), matcher.group(1).endsWith("_total"));
+        }
+
+        assertEquals(count(text, "# TYPE "), families);
+        assertTrue(families > 10);
+    }
+
+    @Test
+    public void testEscapeLabelValue() throws Exception {
+        assertEquals("a\\\\b\\\"c\\nd", StatsController.escapeLabelValue("a\\b\"c\nd"));
+        assertEquals("480p", StatsController.escapeLabelValue("480p"));
+    }
+
+    private static ServerStats createStats() {
+        ServerStats stats = new ServerStats();
+        stats.setActiveLiveStreams(1);
+        stats.getExitCodes().put("1", 2L);
+
+        Histogram latency = new Histogram(1.0);
+        latency.record(0.5);
+        latency.record(3.0);
+
+        LiveStreamStats stream = new LiveStreamStats();
+        stream.setId(3);
+        stream.setRendition("480p \"low\" \\ 1");
+        stream.setViewers(4);
+        stream.setTranscodeSpeed(1.5);
+        stream.setTimeToFirstSegment(2000);
+        stream.setLastExitCode(0);
+        stream.setSegmentLatencyBuckets(latency.getBuckets());
+        stream.setSegmentLatencySum(latency.getSum());
+        stream.setSegmentLatencyCount(latency.getCount());
+        stats.setStreams(Arrays.asList(stream));
+
+        return stats;
+    }
+
+    private static int count(String text, String substring) {
+        int count = 0;
+        for (int index = text.indexOf(substring); index >= 0; index = text.indexOf(substring, index + 1)) {
+            count++;
+        }
+
+        return count;
+    }
+}